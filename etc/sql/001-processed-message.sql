@@ -0,0 +1,6 @@
+-- Ids of consumed messages, used to drop redelivered messages (see MessageDeduplicator)
+CREATE TABLE ProcessedMessage (
+    messageId varchar(255) NOT NULL,
+    processedAt timestamp,
+    PRIMARY KEY (messageId)
+);
@@ -0,0 +1,15 @@
+-- Commands written by MessageSenderWorkItemHandler in the engine transaction, published by OutboxRelay
+CREATE SEQUENCE OUTBOX_MESSAGE_SEQ;
+
+CREATE TABLE OutboxMessage (
+    id bigint NOT NULL,
+    destination varchar(255),
+    messageKey varchar(255),
+    messageType varchar(255),
+    payload bytea,
+    createdAt timestamp,
+    sentAt timestamp,
+    PRIMARY KEY (id)
+);
+
+CREATE INDEX idx_outboxmessage_unsent ON OutboxMessage (createdAt, id) WHERE sentAt IS NULL;
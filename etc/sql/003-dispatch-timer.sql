@@ -0,0 +1,11 @@
+-- Process timers of the timing wheel scheduler, one row per pending timer, written in batches by TimingWheelSchedulerService
+CREATE TABLE DispatchTimer (
+    name varchar(255) NOT NULL,
+    deploymentId varchar(255),
+    partitionNo integer NOT NULL,
+    fireTime timestamp,
+    timerJobInstance bytea,
+    PRIMARY KEY (name)
+);
+
+CREATE INDEX idx_dispatchtimer_partition ON DispatchTimer (deploymentId, partitionNo);
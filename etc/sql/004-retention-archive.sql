@@ -0,0 +1,11 @@
+-- Archive tables of the completed process instances and their rides, filled by RetentionJob in ARCHIVE mode
+CREATE TABLE ProcessInstanceLogArchive (LIKE ProcessInstanceLog INCLUDING DEFAULTS);
+CREATE TABLE NodeInstanceLogArchive (LIKE NodeInstanceLog INCLUDING DEFAULTS);
+CREATE TABLE VariableInstanceLogArchive (LIKE VariableInstanceLog INCLUDING DEFAULTS);
+CREATE TABLE RideArchive (LIKE Ride INCLUDING DEFAULTS);
+
+CREATE INDEX idx_processinstancelogarchive_pinstid ON ProcessInstanceLogArchive (processInstanceId);
+CREATE INDEX idx_processinstancelogarchive_correlation ON ProcessInstanceLogArchive (correlationKey);
+CREATE INDEX idx_nodeinstancelogarchive_pinstid ON NodeInstanceLogArchive (processInstanceId);
+CREATE INDEX idx_variableinstancelogarchive_pinstid ON VariableInstanceLogArchive (processInstanceId);
+CREATE INDEX idx_ridearchive_rideid ON RideArchive (rideId);
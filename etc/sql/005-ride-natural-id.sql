@@ -0,0 +1,6 @@
+-- rideId is the natural id of Ride (see RideDao.findByRideId). The index is built without locking the table, then
+-- backs the unique constraint.
+CREATE UNIQUE INDEX CONCURRENTLY uk_ride_rideid ON Ride (rideId);
+
+ALTER TABLE Ride ADD CONSTRAINT uk_ride_rideid UNIQUE USING INDEX uk_ride_rideid;
+ALTER TABLE Ride ALTER COLUMN rideId SET NOT NULL;
@@ -0,0 +1,12 @@
+-- Each value of RIDE_SEQ is the first id of a block reserved by the pooled-lo optimizer of RideIdGenerator. The
+-- increment must be the same as dispatch.ride.id.increment-size.
+--
+-- The legacy seqhilo generator (max_lo 49) handed out the ids value*50 to value*50+49 for each value of RIDE_SEQ, so
+-- the existing ids are far above the current value of the sequence. The sequence is first moved past the highest id of
+-- the rides and of the archived rides, otherwise the new blocks would overlap ids already in use.
+--
+-- Old and new pods must not run together: a pod still on seqhilo multiplies the new sequence values by 50 and hands
+-- out ids of the blocks reserved by the new pods. Stop all the pods of the previous version, run this migration, then
+-- start the new version; there is no rolling upgrade across this change.
+SELECT setval('RIDE_SEQ', coalesce(greatest((SELECT max(id) FROM Ride), (SELECT max(id) FROM RideArchive)), 0) + 1);
+ALTER SEQUENCE RIDE_SEQ INCREMENT BY 50;
@@ -0,0 +1,10 @@
+-- Creation time of the rides, for the time range of RideQuery. Rides created before this change have none and are
+-- left out of time range queries. The archive table keeps the same columns as Ride (see RetentionDao).
+ALTER TABLE Ride ADD COLUMN createdAt timestamp;
+ALTER TABLE RideArchive ADD COLUMN createdAt timestamp;
+
+-- RideDao walks the rides in id order; these indexes serve the selective filters of RideQuery. There is no index on
+-- status, which changes with every event and would rule out heap-only updates of the ride.
+CREATE INDEX CONCURRENTLY idx_ride_passengerid ON Ride (passengerId, id);
+CREATE INDEX CONCURRENTLY idx_ride_driverid ON Ride (driverId, id);
+CREATE INDEX CONCURRENTLY idx_ride_createdat ON Ride (createdAt, id);
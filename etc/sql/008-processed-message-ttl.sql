@@ -0,0 +1,2 @@
+-- RetentionJob purges the ids of the messages processed more than dispatch.retention.processed-message-ttl-days ago
+CREATE INDEX CONCURRENTLY idx_processedmessage_processedat ON ProcessedMessage (processedAt);
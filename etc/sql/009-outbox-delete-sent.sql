@@ -0,0 +1,3 @@
+-- OutboxRelay deletes the messages it has sent; the rows marked as sent before this change are removed here. The
+-- sentAt column is no longer set.
+DELETE FROM OutboxMessage WHERE sentAt IS NOT NULL;
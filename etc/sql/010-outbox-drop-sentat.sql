@@ -0,0 +1,5 @@
+-- OutboxRelay deletes the messages it has sent (see 009), so every row is unsent and sentAt is always null. Apply once
+-- no instance of the service reads the column anymore.
+CREATE INDEX CONCURRENTLY idx_outboxmessage_createdat ON OutboxMessage (createdAt, id);
+DROP INDEX CONCURRENTLY idx_outboxmessage_unsent;
+ALTER TABLE OutboxMessage DROP COLUMN sentAt;
@@ -1,8 +1,14 @@
 package com.acme.ride.dispatch;
 
+import java.util.Arrays;
+
+import com.acme.ride.dispatch.message.model.Message;
+import com.acme.ride.dispatch.timer.TimerPartitions;
+import org.apache.kafka.clients.consumer.Consumer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.SpringBootConfiguration;
@@ -12,6 +18,7 @@ import org.springframework.context.ConfigurableApplicationContext;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.core.ConsumerFactory;
 
 @SpringBootConfiguration
 @ComponentScan
@@ -37,8 +44,28 @@ public class DispatchServiceApplication {
             @Autowired
             private KafkaListenerEndpointRegistry kafkaListenerEndpointRegistry;
 
+            @Autowired
+            private ConsumerFactory<String, Message<?>> consumerFactory;
+
+            @Value("${dispatch.timer.enabled}")
+            private boolean timersEnabled;
+
+            @Value("${listener.destination.ride-event}")
+            private String rideEventTopic;
+
+            @Value("${listener.destination.driver-assigned-event}")
+            private String driverAssignedEventTopic;
+
+            @Value("${listener.destination.passenger-canceled-event}")
+            private String passengerCanceledEventTopic;
+
             @Override
             public void run(String... strings) throws Exception {
+                if (timersEnabled) {
+                    try (Consumer<String, Message<?>> consumer = consumerFactory.createConsumer()) {
+                        TimerPartitions.checkCoPartitioned(consumer, Arrays.asList(rideEventTopic, driverAssignedEventTopic, passengerCanceledEventTopic));
+                    }
+                }
                 kafkaListenerEndpointRegistry.start();
             }
         };
@@ -1,8 +1,15 @@
 package com.acme.ride.dispatch;
 
+import java.util.function.Supplier;
 import javax.persistence.EntityManagerFactory;
 
+import com.acme.ride.dispatch.audit.AuditLogWriter;
+import com.acme.ride.dispatch.dao.DispatchTimerDao;
+import com.acme.ride.dispatch.spring.PooledRuntimeManagerFactory;
 import com.acme.ride.dispatch.spring.SpringKModuleDeploymentService;
+import com.acme.ride.dispatch.timer.TimerPartitions;
+import com.acme.ride.dispatch.timer.TimingWheelSchedulerService;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.jbpm.kie.services.impl.FormManagerService;
 import org.jbpm.kie.services.impl.bpmn2.BPMN2DataServiceImpl;
 import org.jbpm.runtime.manager.impl.jpa.EntityManagerFactoryManager;
@@ -10,6 +17,7 @@ import org.jbpm.services.api.DefinitionService;
 import org.jbpm.services.api.DeploymentService;
 import org.kie.api.runtime.manager.RuntimeManagerFactory;
 import org.kie.internal.identity.IdentityProvider;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -21,12 +29,35 @@ public class JbpmConfiguration {
 
     private ApplicationContext applicationContext;
 
+    @Value("${dispatch.runtime.session-pool.size}")
+    private int sessionPoolSize;
+
+    @Value("${dispatch.timer.enabled}")
+    private boolean timingWheelEnabled;
+
+    @Value("${dispatch.timer.tick}")
+    private long timerTick;
+
+    @Value("${dispatch.timer.wheel-size}")
+    private int timerWheelSize;
+
+    @Value("${dispatch.timer.pool-size}")
+    private int timerPoolSize;
+
+    @Value("${dispatch.timer.flush-interval}")
+    private long timerFlushInterval;
+
+    @Value("${dispatch.timer.batch-size}")
+    private int timerBatchSize;
+
     public JbpmConfiguration(ApplicationContext applicationContext) {
         this.applicationContext = applicationContext;
     }
 
     @Bean(destroyMethod="shutdown")
-    public DeploymentService deploymentService(DefinitionService definitionService, RuntimeManagerFactory runtimeManagerFactory, FormManagerService formService, EntityManagerFactory entityManagerFactory, IdentityProvider identityProvider            ) {
+    public DeploymentService deploymentService(DefinitionService definitionService, RuntimeManagerFactory runtimeManagerFactory, FormManagerService formService, EntityManagerFactory entityManagerFactory, IdentityProvider identityProvider, MeterRegistry meterRegistry,
+                                               DispatchTimerDao timerDao, TimerPartitions timerPartitions,
+                                               AuditLogWriter auditLogWriter) {
 
         EntityManagerFactoryManager.get().addEntityManagerFactory(PERSISTENCE_UNIT_NAME, entityManagerFactory);
 
@@ -34,9 +65,12 @@ public class JbpmConfiguration {
         ((SpringKModuleDeploymentService) deploymentService).setBpmn2Service(definitionService);
         ((SpringKModuleDeploymentService) deploymentService).setEmf(entityManagerFactory);
         ((SpringKModuleDeploymentService) deploymentService).setIdentityProvider(identityProvider);
-        ((SpringKModuleDeploymentService) deploymentService).setManagerFactory(runtimeManagerFactory);
+        Supplier<TimingWheelSchedulerService> schedulerServices = timingWheelEnabled ? () -> new TimingWheelSchedulerService(timerDao, timerPartitions,
+                timerTick, timerWheelSize, timerPoolSize, timerFlushInterval, timerBatchSize, meterRegistry) : null;
+        ((SpringKModuleDeploymentService) deploymentService).setManagerFactory(new PooledRuntimeManagerFactory(runtimeManagerFactory, sessionPoolSize, meterRegistry, schedulerServices));
         ((SpringKModuleDeploymentService) deploymentService).setFormManagerService(formService);
         ((SpringKModuleDeploymentService) deploymentService).setContext(applicationContext);
+        ((SpringKModuleDeploymentService) deploymentService).setAuditLogWriter(auditLogWriter);
 
         ((SpringKModuleDeploymentService) deploymentService).addListener(((BPMN2DataServiceImpl) definitionService));
 
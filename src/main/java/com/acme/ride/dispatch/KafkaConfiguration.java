@@ -1,26 +1,67 @@
 package com.acme.ride.dispatch;
 
+import java.lang.reflect.Method;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.LongSupplier;
+import javax.sql.DataSource;
 
+import com.acme.ride.dispatch.dao.OutboxMessageDao;
+import com.acme.ride.dispatch.message.consumer.BackpressureController;
+import com.acme.ride.dispatch.message.consumer.CompositeRebalanceListener;
+import com.acme.ride.dispatch.message.consumer.DispatchKafkaListenerContainerFactory;
+import com.acme.ride.dispatch.message.consumer.KeyOrderedExecutor;
+import com.acme.ride.dispatch.message.consumer.KeyOrderedMessageListener;
+import com.acme.ride.dispatch.message.consumer.ListenerMode;
+import com.acme.ride.dispatch.message.consumer.OffsetCommitMonitor;
+import com.acme.ride.dispatch.message.consumer.OffsetTrackingMessageListener;
+import com.acme.ride.dispatch.message.consumer.RetryDelayMessageListener;
+import com.acme.ride.dispatch.message.consumer.RetryDelays;
+import com.acme.ride.dispatch.message.consumer.RetryTopicErrorHandler;
+import com.acme.ride.dispatch.message.consumer.RetryTopicRecoverer;
+import com.acme.ride.dispatch.message.consumer.RetryTopics;
+import com.acme.ride.dispatch.message.consumer.TimedMessageListener;
+import com.acme.ride.dispatch.message.consumer.TransactionalBatchMessageListener;
+import com.acme.ride.dispatch.message.listeners.MessageDispatcher;
 import com.acme.ride.dispatch.message.model.Message;
+import com.acme.ride.dispatch.message.producer.OutboxRelay;
+import com.acme.ride.dispatch.message.serialization.MessageDecoder;
+import com.acme.ride.dispatch.message.serialization.MessageDeserializer;
+import com.acme.ride.dispatch.message.serialization.MessageSerializer;
+import com.acme.ride.dispatch.timer.TimerPartitions;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.commons.dbcp2.BasicDataSource;
+import org.apache.commons.pool2.impl.GenericObjectPool;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
 import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
 import org.apache.kafka.common.serialization.StringDeserializer;
 import org.apache.kafka.common.serialization.StringSerializer;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.context.event.EventListener;
 import org.springframework.kafka.annotation.EnableKafka;
-import org.springframework.kafka.config.ConcurrentKafkaListenerContainerFactory;
 import org.springframework.kafka.config.KafkaListenerContainerFactory;
 import org.springframework.kafka.core.ConsumerFactory;
 import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
 import org.springframework.kafka.core.DefaultKafkaProducerFactory;
 import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.kafka.core.ProducerFactory;
+import org.springframework.kafka.event.ListenerContainerIdleEvent;
 import org.springframework.kafka.listener.ConcurrentMessageListenerContainer;
-import org.springframework.kafka.support.serializer.JsonSerializer;
+import org.springframework.kafka.listener.ContainerProperties;
+import org.springframework.kafka.listener.SeekToCurrentBatchErrorHandler;
+import org.springframework.kafka.listener.MessageListener;
+import org.springframework.kafka.transaction.KafkaTransactionManager;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.ReflectionUtils;
 
 @Configuration
 @EnableKafka
@@ -35,37 +76,386 @@ public class KafkaConfiguration {
     @Value(value = "${kafka.concurrency}")
     private Integer concurrency;
 
+    @Value(value = "${kafka.listener.mode}")
+    private ListenerMode listenerMode;
+
+    @Value(value = "${kafka.listener.ack-mode}")
+    private ContainerProperties.AckMode ackMode;
+
+    @Value(value = "${kafka.listener.ack-count}")
+    private Integer ackCount;
+
+    @Value(value = "${kafka.listener.ack-time}")
+    private Long ackTime;
+
+    @Value(value = "${kafka.listener.batch.transaction-size}")
+    private Integer batchTransactionSize;
+
+    @Value(value = "${kafka.listener.parallel.threads}")
+    private Integer parallelThreads;
+
+    @Value(value = "${kafka.listener.parallel.queue-capacity}")
+    private Integer parallelQueueCapacity;
+
+    @Value(value = "${kafka.listener.parallel.drain-timeout}")
+    private Long parallelDrainTimeout;
+
+    @Value(value = "${kafka.listener.parallel.max-in-flight}")
+    private Integer parallelMaxInFlight;
+
+    @Value(value = "${kafka.listener.parallel.recovery-backoff}")
+    private Long parallelRecoveryBackoff;
+
+    @Value(value = "${kafka.retry.topic}")
+    private String retryTopic;
+
+    @Value(value = "${kafka.retry.delays}")
+    private long[] retryDelays;
+
+    @Value(value = "${kafka.retry.dead-letter-topic}")
+    private String deadLetterTopic;
+
+    @Value(value = "${kafka.retry.idle-interval}")
+    private Long retryIdleInterval;
+
+    @Value(value = "${kafka.retry.send-timeout}")
+    private Long retrySendTimeout;
+
+    @Value(value = "${kafka.backpressure.enabled}")
+    private boolean backpressureEnabled;
+
+    @Value(value = "${kafka.backpressure.latency-target}")
+    private Long backpressureLatencyTarget;
+
+    @Value(value = "${kafka.backpressure.resume-latency}")
+    private Long backpressureResumeLatency;
+
+    @Value(value = "${kafka.backpressure.pool-wait-target}")
+    private Long backpressurePoolWaitTarget;
+
+    @Value(value = "${kafka.backpressure.min-in-flight}")
+    private Integer backpressureMinInFlight;
+
+    @Value(value = "${kafka.backpressure.max-in-flight}")
+    private Integer backpressureMaxInFlight;
+
+    @Value(value = "${kafka.backpressure.interval}")
+    private Long backpressureInterval;
+
+    @Value(value = "${kafka.backpressure.max-backoff}")
+    private Long backpressureMaxBackoff;
+
+    @Value(value = "${listener.destination.ride-event}")
+    private String rideEventTopic;
+
+    @Value(value = "${listener.destination.driver-assigned-event}")
+    private String driverAssignedEventTopic;
+
+    @Value(value = "${listener.destination.passenger-canceled-event}")
+    private String passengerCanceledEventTopic;
+
+    @Value(value = "${kafka.producer.compression-type}")
+    private String compressionType;
+
+    @Value(value = "${kafka.producer.linger-ms}")
+    private Integer lingerMs;
+
+    @Value(value = "${kafka.producer.batch-size}")
+    private Integer producerBatchSize;
+
+    @Value(value = "${kafka.exactly-once.enabled}")
+    private boolean exactlyOnceEnabled;
+
+    @Value(value = "${kafka.exactly-once.transaction-id-prefix}")
+    private String transactionIdPrefix;
+
+    @Value(value = "${dispatch.outbox.enabled}")
+    private boolean outboxEnabled;
+
+    @Value(value = "${dispatch.outbox.relay.batch-size}")
+    private Integer outboxBatchSize;
+
+    @Value(value = "${dispatch.outbox.relay.interval}")
+    private Long outboxInterval;
+
+    @Value(value = "${dispatch.outbox.relay.send-timeout}")
+    private Long outboxSendTimeout;
+
+    @Autowired
+    private MessageDecoder messageDecoder;
+
+    @Autowired
+    private OutboxMessageDao outboxMessageDao;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Autowired
+    private TimerPartitions timerPartitions;
+
+    private final List<KeyOrderedMessageListener<?, ?>> keyOrderedListeners = new CopyOnWriteArrayList<>();
+
     @Bean
+    @Primary
     public ProducerFactory<String, Message<?>> producerFactory() {
-        Map<String, Object> configProps = new HashMap<>();
-        configProps.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapAddress);
-        configProps.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
-        configProps.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, JsonSerializer.class);
-        return new DefaultKafkaProducerFactory<>(configProps);
+        DefaultKafkaProducerFactory<String, Message<?>> producerFactory =
+                new DefaultKafkaProducerFactory<>(producerConfigs(), new StringSerializer(), new MessageSerializer());
+        if (exactlyOnceEnabled) {
+            producerFactory.setTransactionIdPrefix(transactionIdPrefix);
+        }
+        return producerFactory;
     }
 
     @Bean
+    @Primary
     public KafkaTemplate<String, Message<?>> kafkaTemplate() {
         return new KafkaTemplate<>(producerFactory());
     }
 
+    /**
+     * Producer for the retry and dead letter topics. It is never transactional: failed records are recovered after
+     * the Kafka transaction of the listener container has been rolled back.
+     */
+    @Bean
+    public ProducerFactory<String, Message<?>> retryProducerFactory() {
+        return new DefaultKafkaProducerFactory<>(producerConfigs(), new StringSerializer(), new MessageSerializer());
+    }
+
+    @Bean
+    public KafkaTemplate<String, Message<?>> retryKafkaTemplate() {
+        return new KafkaTemplate<>(retryProducerFactory());
+    }
+
+    @Bean
+    public ProducerFactory<String, byte[]> outboxProducerFactory() {
+        Map<String, Object> configProps = producerConfigs();
+        configProps.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class);
+        configProps.put(ProducerConfig.ENABLE_IDEMPOTENCE_CONFIG, true);
+        configProps.put(ProducerConfig.ACKS_CONFIG, "all");
+        return new DefaultKafkaProducerFactory<>(configProps);
+    }
+
+    @Bean
+    public KafkaTemplate<String, byte[]> outboxKafkaTemplate() {
+        return new KafkaTemplate<>(outboxProducerFactory());
+    }
+
+    @Bean(destroyMethod = "shutdown")
+    public OutboxRelay outboxRelay() {
+        OutboxRelay relay = new OutboxRelay(outboxMessageDao, outboxKafkaTemplate(), new TransactionTemplate(transactionManager),
+                outboxBatchSize, outboxInterval, outboxSendTimeout, meterRegistry);
+        if (outboxEnabled) {
+            relay.start();
+        }
+        return relay;
+    }
+
+    private Map<String, Object> producerConfigs() {
+        Map<String, Object> configProps = new HashMap<>();
+        configProps.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapAddress);
+        configProps.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
+        configProps.put(ProducerConfig.COMPRESSION_TYPE_CONFIG, compressionType);
+        configProps.put(ProducerConfig.LINGER_MS_CONFIG, lingerMs);
+        configProps.put(ProducerConfig.BATCH_SIZE_CONFIG, producerBatchSize);
+        return configProps;
+    }
+
     @Bean
-    public ConsumerFactory<String, String> consumerFactory() {
+    public ConsumerFactory<String, Message<?>> consumerFactory() {
         Map<String, Object> configProps = new HashMap<>();
         configProps.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapAddress);
-        configProps.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class);
-        configProps.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class);
         configProps.put(ConsumerConfig.GROUP_ID_CONFIG, groupId);
-        configProps.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, Boolean.TRUE);
-        return new DefaultKafkaConsumerFactory<>(configProps);
+        configProps.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, false);
+        if (exactlyOnceEnabled) {
+            configProps.put(ConsumerConfig.ISOLATION_LEVEL_CONFIG, "read_committed");
+        }
+        return new DefaultKafkaConsumerFactory<>(configProps, new StringDeserializer(), new MessageDeserializer(messageDecoder));
     }
 
     @Bean
-    public KafkaListenerContainerFactory<ConcurrentMessageListenerContainer<String, String>> kafkaListenerContainerFactory() {
-        ConcurrentKafkaListenerContainerFactory<String, String> factory = new ConcurrentKafkaListenerContainerFactory<>();
+    public KafkaListenerContainerFactory<ConcurrentMessageListenerContainer<String, Message<?>>> kafkaListenerContainerFactory() {
+        DispatchKafkaListenerContainerFactory<String, Message<?>> factory = new DispatchKafkaListenerContainerFactory<>();
         factory.setConsumerFactory(consumerFactory());
         factory.setConcurrency(concurrency);
         factory.setAutoStartup(false);
+        ContainerProperties containerProperties = factory.getContainerProperties();
+        containerProperties.setAckMode(ackMode);
+        containerProperties.setAckCount(ackCount);
+        containerProperties.setAckTime(ackTime);
+        containerProperties.setSyncCommits(false);
+        // a failed record is committed once it has been moved to a retry topic, not when the listener fails
+        containerProperties.setAckOnError(false);
+        containerProperties.setCommitCallback(offsetCommitMonitor());
+        // timers of the rides follow the partitions of the main topic
+        containerProperties.setConsumerRebalanceListener(new CompositeRebalanceListener(offsetCommitMonitor(), timerPartitions));
+        boolean exactlyOnce = checkExactlyOnce();
+        if (exactlyOnce) {
+            // The container begins a Kafka transaction before invoking the listener. The commands sent while the record
+            // is processed join it, and the offsets of the record are added to it once the listener has returned, that is
+            // after the JTA transaction of the dispatcher has committed. A JTA rollback propagates and aborts it, and the
+            // record is then recovered by the after rollback processor rather than by an error handler, which would
+            // commit the transaction.
+            containerProperties.setTransactionManager(new KafkaTransactionManager<>(producerFactory()));
+            factory.setAfterRollbackProcessor(new RetryTopicErrorHandler<>(retryTopicRecoverer()));
+        }
+        if (listenerMode == ListenerMode.BATCH) {
+            TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+            factory.setListenerDecorator(listener -> {
+                TransactionalBatchMessageListener<String, Message<?>> batchListener =
+                        new TransactionalBatchMessageListener<>(instrument(listener), transactionTemplate, batchTransactionSize);
+                batchListener.setRecoverer(retryTopicRecoverer());
+                return batchListener;
+            });
+            // a record which could not be moved to a retry topic fails the batch, which is then redelivered; the
+            // chunks which were committed are dropped as duplicates
+            factory.setBatchErrorHandler(new SeekToCurrentBatchErrorHandler());
+        } else if (listenerMode == ListenerMode.PARALLEL) {
+            containerProperties.setAckMode(ContainerProperties.AckMode.MANUAL);
+            // paused partitions are resumed on idle events when no other partition delivers records
+            containerProperties.setIdleEventInterval(backpressureEnabled ? Math.min(parallelRecoveryBackoff, backpressureInterval)
+                    : parallelRecoveryBackoff);
+            factory.setListenerDecorator(listener -> {
+                KeyOrderedMessageListener<String, Message<?>> keyOrderedListener = new KeyOrderedMessageListener<>(instrument(listener),
+                        keyOrderedExecutor(), parallelDrainTimeout, parallelMaxInFlight, parallelRecoveryBackoff);
+                keyOrderedListener.setRecoverer(retryTopicRecoverer());
+                if (backpressureEnabled) {
+                    keyOrderedListener.setBackpressureController(backpressureController());
+                }
+                keyOrderedListeners.add(keyOrderedListener);
+                return keyOrderedListener;
+            });
+        } else {
+            if (!exactlyOnce) {
+                factory.setErrorHandler(new RetryTopicErrorHandler<>(retryTopicRecoverer()));
+            }
+            factory.setListenerDecorator(this::instrument);
+        }
+        if (backpressureEnabled && listenerMode != ListenerMode.PARALLEL) {
+            // partitions paused by the backpressure controller are resumed on idle events when all are paused
+            containerProperties.setIdleEventInterval(backpressureInterval);
+        }
+        return factory;
+    }
+
+    @Bean
+    public KafkaListenerContainerFactory<ConcurrentMessageListenerContainer<String, Message<?>>> retryKafkaListenerContainerFactory() {
+        DispatchKafkaListenerContainerFactory<String, Message<?>> factory = new DispatchKafkaListenerContainerFactory<>();
+        factory.setConsumerFactory(consumerFactory());
+        factory.setConcurrency(1);
+        factory.setAutoStartup(false);
+        ContainerProperties containerProperties = factory.getContainerProperties();
+        containerProperties.setAckMode(ContainerProperties.AckMode.MANUAL);
+        containerProperties.setSyncCommits(false);
+        containerProperties.setAckOnError(false);
+        containerProperties.setCommitCallback(offsetCommitMonitor());
+        containerProperties.setConsumerRebalanceListener(offsetCommitMonitor());
+        containerProperties.setIdleEventInterval(retryIdleInterval);
+        // the failed record is acknowledged once it is in the next retry topic, not when the listener fails
+        factory.setErrorHandler(new RetryTopicErrorHandler<>((record, exception) -> {
+            retryTopicRecoverer().accept(record, exception);
+            RetryDelayMessageListener.acknowledgeRecovered();
+        }));
+        factory.setListenerDecorator(listener -> new RetryDelayMessageListener<>(instrument(listener), retryDelays()));
         return factory;
     }
+
+    @Bean
+    public RetryTopics retryTopics() {
+        return new RetryTopics(retryTopic, retryDelays, deadLetterTopic);
+    }
+
+    @Bean
+    public RetryTopicRecoverer retryTopicRecoverer() {
+        return new RetryTopicRecoverer(retryKafkaTemplate(), retryTopics(), retrySendTimeout, meterRegistry);
+    }
+
+    @EventListener
+    public void onContainerIdle(ListenerContainerIdleEvent event) {
+        if (backpressureEnabled) {
+            backpressureController().apply(event.getConsumer());
+        }
+        keyOrderedListeners.forEach(listener -> listener.onIdle(event.getConsumer()));
+    }
+
+    @Bean
+    public RetryDelays retryDelays() {
+        return new RetryDelays(MessageDispatcher.RETRY_LISTENER_ID);
+    }
+
+    /**
+     * Exactly-once processing needs one Kafka transaction per record, on the listener container thread: batches recover
+     * failed records inside the transaction and the parallel mode hands records over to the worker pool. It replaces
+     * the outbox, which sends the commands outside of that transaction.
+     */
+    boolean checkExactlyOnce() {
+        if (!exactlyOnceEnabled) {
+            return false;
+        }
+        if (listenerMode != ListenerMode.RECORD) {
+            throw new IllegalStateException("Exactly-once processing is not supported with listener mode " + listenerMode);
+        }
+        if (outboxEnabled) {
+            throw new IllegalStateException("Exactly-once processing and the outbox cannot be enabled together");
+        }
+        return true;
+    }
+
+    private MessageListener<String, Message<?>> instrument(MessageListener<String, Message<?>> listener) {
+        MessageListener<String, Message<?>> tracked = new OffsetTrackingMessageListener<>(listener, offsetCommitMonitor());
+        return backpressureEnabled ? new TimedMessageListener<>(tracked, backpressureController()) : tracked;
+    }
+
+    @Bean
+    public OffsetCommitMonitor offsetCommitMonitor() {
+        return new OffsetCommitMonitor(meterRegistry);
+    }
+
+    @Bean(destroyMethod = "shutdown")
+    public KeyOrderedExecutor keyOrderedExecutor() {
+        return new KeyOrderedExecutor(parallelThreads, parallelQueueCapacity, parallelDrainTimeout);
+    }
+
+    @Bean(destroyMethod = "shutdown")
+    public BackpressureController backpressureController() {
+        LongSupplier poolWaitTime = () -> 0;
+        BasicDataSource pool = connectionPool();
+        if (pool != null) {
+            // dbcp2 only exposes the wait times of its pool through JMX; the pool is created with the first connection
+            Method getConnectionPool = ReflectionUtils.findMethod(BasicDataSource.class, "getConnectionPool");
+            ReflectionUtils.makeAccessible(getConnectionPool);
+            poolWaitTime = () -> {
+                GenericObjectPool<?> connections = (GenericObjectPool<?>) ReflectionUtils.invokeMethod(getConnectionPool, pool);
+                return connections != null ? connections.getMeanBorrowWaitTimeMillis() : 0;
+            };
+        }
+        BackpressureController controller = new BackpressureController(
+                Arrays.asList(rideEventTopic, driverAssignedEventTopic, passengerCanceledEventTopic), poolWaitTime,
+                backpressurePoolWaitTarget, keyOrderedExecutor()::pending, backpressureLatencyTarget, backpressureResumeLatency,
+                backpressureMinInFlight, backpressureMaxInFlight, backpressureInterval, backpressureMaxBackoff);
+        if (backpressureEnabled) {
+            controller.start();
+        }
+        return controller;
+    }
+
+    /**
+     * The wait for connections of the pool is one of the signals of the backpressure controller, which would silently go
+     * without it when the data source is not a dbcp2 pool.
+     */
+    BasicDataSource connectionPool() {
+        if (dataSource instanceof BasicDataSource) {
+            return (BasicDataSource) dataSource;
+        }
+        if (backpressureEnabled) {
+            throw new IllegalStateException("Backpressure needs a dbcp2 connection pool, the data source is a "
+                    + (dataSource == null ? null : dataSource.getClass().getName()));
+        }
+        return null;
+    }
 }
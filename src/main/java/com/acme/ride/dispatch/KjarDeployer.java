@@ -31,12 +31,15 @@ public class KjarDeployer implements InitializingBean {
     @Value("${dispatch.deployment.id}")
     private String deploymentId;
 
+    @Value("${dispatch.runtime.strategy}")
+    private RuntimeStrategy runtimeStrategy;
 
     @Override
     public void afterPropertiesSet() throws Exception {
         CustomIdKModuleDeploymentUnit unit = new CustomIdKModuleDeploymentUnit(deploymentId, "com.acme.ride.dispatch", "dispatch-service", "1.0.0");
 
-        unit.setStrategy(RuntimeStrategy.PER_REQUEST);
+        unit.setStrategy(checkStrategy());
+        log.info("Runtime strategy : " + runtimeStrategy);
 
         KieContainer kieContainer = KieServices.Factory.get().newKieClasspathContainer();
         unit.setKieContainer(kieContainer);
@@ -47,4 +50,17 @@ public class KjarDeployer implements InitializingBean {
         Collection<ProcessDefinition> processes = runtimeDataService.getProcesses(new QueryContext());
         processes.forEach(p -> log.info("Process deployed : " +p.getName()));
     }
+
+    /**
+     * The singleton strategy shares one KieSession between all threads, and concurrent transactions on that session
+     * fail on its optimistic lock. The engine is never driven by a single thread here: the retry topic listener and
+     * the timer service (jBPM's own thread pool when neither Quartz nor the dispatch timers are enabled) run next to
+     * the listener threads, so only the per request and per process instance strategies are accepted.
+     */
+    RuntimeStrategy checkStrategy() {
+        if (runtimeStrategy != RuntimeStrategy.PER_REQUEST && runtimeStrategy != RuntimeStrategy.PER_PROCESS_INSTANCE) {
+            throw new IllegalStateException("Unsupported runtime strategy " + runtimeStrategy);
+        }
+        return runtimeStrategy;
+    }
 }
@@ -0,0 +1,106 @@
+package com.acme.ride.dispatch.audit;
+
+import java.util.Map;
+
+import org.jbpm.process.audit.AbstractAuditLogger;
+import org.jbpm.process.audit.JPAWorkingMemoryDbLogger;
+import org.jbpm.process.audit.event.AuditEventBuilder;
+import org.jbpm.process.audit.variable.ProcessIndexerManager;
+import org.jbpm.workflow.instance.impl.NodeInstanceImpl;
+import org.kie.api.event.process.ProcessCompletedEvent;
+import org.kie.api.event.process.ProcessNodeLeftEvent;
+import org.kie.api.event.process.ProcessNodeTriggeredEvent;
+import org.kie.api.event.process.ProcessStartedEvent;
+import org.kie.api.event.process.ProcessVariableChangedEvent;
+import org.kie.api.runtime.manager.audit.VariableInstanceLog;
+
+/**
+ * Audit logger handing the node and variable log entries built by the {@link AuditEventBuilder} to the
+ * {@link AuditLogWriter}, for the event types it records. It replaces jBPM's JPA audit logger, which persists them in
+ * the engine transaction.
+ *
+ * The start and completion of a process instance are still written by the JPA audit logger in the engine transaction:
+ * process instances are looked up by correlation key in ProcessInstanceLog, which must not lag behind the engine.
+ *
+ * Entries are not changed once handed to the writer: the log of an entered node is handed over after the node is
+ * triggered. SLA violations are not recorded.
+ */
+public class AsyncAuditLogger extends AbstractAuditLogger {
+
+    private static final String NODE_INSTANCE_LOG = "NodeInstanceLog";
+
+    private final AuditLogWriter writer;
+
+    private final JPAWorkingMemoryDbLogger processLogger;
+
+    public AsyncAuditLogger(AuditLogWriter writer, JPAWorkingMemoryDbLogger processLogger) {
+        this.writer = writer;
+        this.processLogger = processLogger;
+        setBuilder(processLogger.getBuilder());
+    }
+
+    @Override
+    public void beforeProcessStarted(ProcessStartedEvent event) {
+        processLogger.beforeProcessStarted(event);
+    }
+
+    @Override
+    public void afterProcessStarted(ProcessStartedEvent event) {
+        processLogger.afterProcessStarted(event);
+    }
+
+    @Override
+    public void beforeProcessCompleted(ProcessCompletedEvent event) {
+        processLogger.beforeProcessCompleted(event);
+    }
+
+    @Override
+    public void afterProcessCompleted(ProcessCompletedEvent event) {
+        processLogger.afterProcessCompleted(event);
+    }
+
+    @Override
+    public void beforeNodeTriggered(ProcessNodeTriggeredEvent event) {
+        if (writer.isRecorded(AuditEventType.NODE)) {
+            metaData(event).put(NODE_INSTANCE_LOG, builder.buildEvent(event));
+        }
+    }
+
+    @Override
+    public void afterNodeTriggered(ProcessNodeTriggeredEvent event) {
+        if (writer.isRecorded(AuditEventType.NODE)) {
+            Object log = metaData(event).remove(NODE_INSTANCE_LOG);
+            if (log != null) {
+                writer.write(builder.buildEvent(event, log));
+            }
+        }
+    }
+
+    @Override
+    public void beforeNodeLeft(ProcessNodeLeftEvent event) {
+        if (writer.isRecorded(AuditEventType.NODE)) {
+            writer.write(builder.buildEvent(event, null));
+        }
+    }
+
+    @Override
+    public void afterVariableChanged(ProcessVariableChangedEvent event) {
+        if (writer.isRecorded(AuditEventType.VARIABLE)) {
+            for (VariableInstanceLog log : ProcessIndexerManager.get().index(builder, event)) {
+                writer.write(log);
+            }
+        }
+    }
+
+    @Override
+    public void afterNodeLeft(ProcessNodeLeftEvent event) {
+    }
+
+    @Override
+    public void beforeVariableChanged(ProcessVariableChangedEvent event) {
+    }
+
+    private Map<String, Object> metaData(ProcessNodeTriggeredEvent event) {
+        return ((NodeInstanceImpl) event.getNodeInstance()).getMetaData();
+    }
+}
@@ -0,0 +1,18 @@
+package com.acme.ride.dispatch.audit;
+
+/**
+ * Kinds of jBPM audit events, to select those recorded by the {@link AsyncAuditLogger}. Process instances are always
+ * logged, by the JPA audit logger.
+ */
+public enum AuditEventType {
+
+    /**
+     * Node instance entered and left, in NodeInstanceLog.
+     */
+    NODE,
+
+    /**
+     * Process variable changed, in VariableInstanceLog.
+     */
+    VARIABLE
+}
@@ -0,0 +1,308 @@
+package com.acme.ride.dispatch.audit;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.hibernate.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Writes the jBPM audit log outside of the engine transactions. Audit entries are put on a bounded queue when the
+ * transaction which produced them commits, and a background thread persists them in batches of inserts, one entity
+ * type after the other. When the queue is full, the entry is handled according to the {@link AuditOverflowPolicy}.
+ *
+ * A batch which fails is tried again. After the last attempt it is spilled to disk with the SPILL policy, and dropped
+ * otherwise.
+ */
+@Component
+public class AuditLogWriter {
+
+    private static final int MAX_ATTEMPTS = 3;
+
+    private final static Logger log = LoggerFactory.getLogger(AuditLogWriter.class);
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${dispatch.audit.async.enabled}")
+    private boolean enabled;
+
+    @Value("${dispatch.audit.async.queue-capacity}")
+    private int queueCapacity;
+
+    @Value("${dispatch.audit.async.batch-size}")
+    private int batchSize;
+
+    @Value("${dispatch.audit.async.flush-interval}")
+    private long flushInterval;
+
+    @Value("${dispatch.audit.async.overflow}")
+    private AuditOverflowPolicy overflowPolicy;
+
+    @Value("${dispatch.audit.async.spill-directory}")
+    private String spillDirectory;
+
+    @Value("${dispatch.audit.async.events}")
+    private Set<AuditEventType> events;
+
+    private BlockingQueue<Object> queue;
+
+    private AuditSpill spill;
+
+    private TransactionTemplate transactionTemplate;
+
+    private ExecutorService executor;
+
+    private volatile boolean running;
+
+    private Counter written;
+
+    private Counter dropped;
+
+    private Counter spilled;
+
+    @PostConstruct
+    public void init() {
+        transactionTemplate = new TransactionTemplate(transactionManager);
+        written = Counter.builder("dispatch.audit.written").register(meterRegistry);
+        dropped = Counter.builder("dispatch.audit.dropped").register(meterRegistry);
+        spilled = Counter.builder("dispatch.audit.spilled").register(meterRegistry);
+        queue = new ArrayBlockingQueue<>(queueCapacity);
+        Gauge.builder("dispatch.audit.queued", queue, BlockingQueue::size).register(meterRegistry);
+        if (overflowPolicy == AuditOverflowPolicy.SPILL) {
+            spill = new AuditSpill(new File(spillDirectory));
+        }
+        if (enabled) {
+            running = true;
+            executor = Executors.newSingleThreadExecutor(new CustomizableThreadFactory("dispatch-audit-"));
+            executor.execute(this::run);
+        }
+    }
+
+    /**
+     * Stops the writer once the queue is written. What is left in the queue after the timeout is spilled with the SPILL
+     * policy, and lost otherwise. Spilled entries are written after the next start.
+     */
+    @PreDestroy
+    public void shutdown() {
+        if (executor != null) {
+            running = false;
+            executor.shutdown();
+            try {
+                if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+                    executor.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                executor.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
+        List<Object> remaining = new ArrayList<>();
+        queue.drainTo(remaining);
+        if (spill != null) {
+            remaining.forEach(this::spill);
+            try {
+                spill.close();
+            } catch (IOException e) {
+                log.error("Error closing audit spill", e);
+            }
+        } else if (!remaining.isEmpty()) {
+            log.warn(remaining.size() + " audit entries not written");
+            dropped.increment(remaining.size());
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public boolean isRecorded(AuditEventType type) {
+        return events.contains(type);
+    }
+
+    /**
+     * Queues the audit entry after the current transaction commits, or immediately when there is no transaction.
+     * Entries of a transaction which rolls back are never written.
+     */
+    public void write(Object entry) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    enqueue(entry);
+                }
+            });
+        } else {
+            enqueue(entry);
+        }
+    }
+
+    void enqueue(Object entry) {
+        switch (overflowPolicy) {
+            case BLOCK:
+                try {
+                    queue.put(entry);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    dropped.increment();
+                }
+                break;
+            case DROP:
+                if (!queue.offer(entry)) {
+                    dropped.increment();
+                }
+                break;
+            default:
+                // once spilling, entries keep going to disk until the spill is written, to keep them in order
+                if (!spill.isEmpty() || !queue.offer(entry)) {
+                    spill(entry);
+                }
+        }
+    }
+
+    private void run() {
+        try {
+            while (running) {
+                writeNext(flushInterval, true);
+            }
+            while (writeNext(0, false)) {
+                // writes what is left in the queue
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            log.error("Audit writer stopped", e);
+        }
+    }
+
+    /**
+     * Writes the next batch of the queue or, when the queue is empty, the oldest spill segment. Returns false when there
+     * was nothing to write within the timeout.
+     */
+    boolean writeNext(long timeout, boolean includeSpill) throws InterruptedException {
+        List<Object> batch = new ArrayList<>(batchSize);
+        if (queue.drainTo(batch, batchSize) == 0) {
+            if (includeSpill && spill != null && !spill.isEmpty()) {
+                writeSpilled();
+                return true;
+            }
+            Object entry = queue.poll(timeout, TimeUnit.MILLISECONDS);
+            if (entry == null) {
+                return false;
+            }
+            batch.add(entry);
+            queue.drainTo(batch, batchSize - 1);
+        }
+        writeWithRetries(batch, false);
+        return true;
+    }
+
+    private void writeSpilled() throws InterruptedException {
+        File segment;
+        try {
+            segment = spill.next();
+        } catch (IOException e) {
+            log.error("Error closing audit spill segment", e);
+            return;
+        }
+        if (segment == null) {
+            return;
+        }
+        List<Object> entries = AuditSpill.read(segment);
+        for (int i = 0; i < entries.size(); i += batchSize) {
+            writeWithRetries(entries.subList(i, Math.min(i + batchSize, entries.size())), true);
+        }
+        spill.delete(segment);
+        log.info(entries.size() + " spilled audit entries written from " + segment);
+    }
+
+    private void writeWithRetries(List<Object> batch, boolean fromSpill) throws InterruptedException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                // entities of a failed attempt may have been given an id by the rolled back transaction
+                write(batch, fromSpill || attempt > 1);
+                written.increment(batch.size());
+                return;
+            } catch (RuntimeException e) {
+                if (attempt == MAX_ATTEMPTS) {
+                    if (spill != null && !fromSpill) {
+                        log.error("Error writing " + batch.size() + " audit entries. They are spilled and will be written again", e);
+                        batch.forEach(this::spill);
+                    } else {
+                        log.error("Error writing " + batch.size() + " audit entries. They are dropped", e);
+                        dropped.increment(batch.size());
+                    }
+                    return;
+                }
+                log.warn("Error writing " + batch.size() + " audit entries, attempt " + attempt + " of " + MAX_ATTEMPTS, e);
+                Thread.sleep(flushInterval * attempt);
+            }
+        }
+    }
+
+    void write(List<Object> batch, boolean merge) {
+        Map<Class<?>, List<Object>> inserts = new LinkedHashMap<>();
+        for (Object entry : batch) {
+            inserts.computeIfAbsent(entry.getClass(), type -> new ArrayList<>()).add(entry);
+        }
+        transactionTemplate.execute(s -> {
+            entityManager.unwrap(Session.class).setJdbcBatchSize(batchSize);
+            for (List<Object> entities : inserts.values()) {
+                for (Object entity : entities) {
+                    if (merge) {
+                        entityManager.merge(entity);
+                    } else {
+                        entityManager.persist(entity);
+                    }
+                }
+            }
+            return null;
+        });
+    }
+
+    private void spill(Object entry) {
+        try {
+            spill.write(entry);
+            spilled.increment();
+        } catch (IOException e) {
+            log.error("Error spilling audit entry " + entry, e);
+            dropped.increment();
+        }
+    }
+
+    int getQueuedCount() {
+        return queue.size();
+    }
+}
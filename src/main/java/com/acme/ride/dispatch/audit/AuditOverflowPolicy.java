@@ -0,0 +1,22 @@
+package com.acme.ride.dispatch.audit;
+
+/**
+ * What the {@link AuditLogWriter} does with an audit entry when its queue is full.
+ */
+public enum AuditOverflowPolicy {
+
+    /**
+     * The committing thread waits for room in the queue. No entry is lost.
+     */
+    BLOCK,
+
+    /**
+     * The entry is dropped and counted.
+     */
+    DROP,
+
+    /**
+     * The entry, and all the entries after it until the spill is drained, are appended to files on local disk.
+     */
+    SPILL
+}
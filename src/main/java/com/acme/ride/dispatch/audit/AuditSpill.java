@@ -0,0 +1,115 @@
+package com.acme.ride.dispatch.audit;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Audit entries which did not fit in the queue of the {@link AuditLogWriter}, as Java serialized objects in segment
+ * files of a directory. Entries are appended to the open segment, and read back one segment at a time in the order
+ * they were written. Segments left by a previous run are read first.
+ */
+class AuditSpill {
+
+    private final static Logger log = LoggerFactory.getLogger(AuditSpill.class);
+
+    private static final String SUFFIX = ".spill";
+
+    private final File directory;
+
+    private final Deque<File> segments = new ArrayDeque<>();
+
+    private File current;
+
+    private ObjectOutputStream out;
+
+    private long sequence;
+
+    AuditSpill(File directory) {
+        this.directory = directory;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IllegalStateException("Unable to create audit spill directory " + directory);
+        }
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(SUFFIX));
+        if (files != null) {
+            Arrays.sort(files);
+            segments.addAll(Arrays.asList(files));
+            if (!segments.isEmpty()) {
+                log.info(segments.size() + " audit spill segments found in " + directory);
+            }
+        }
+    }
+
+    synchronized boolean isEmpty() {
+        return segments.isEmpty() && out == null;
+    }
+
+    synchronized void write(Object entry) throws IOException {
+        if (out == null) {
+            current = new File(directory, String.format("audit-%d-%06d%s", System.currentTimeMillis(), sequence++, SUFFIX));
+            out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(current)));
+        }
+        out.writeObject(entry);
+        // entries are independent, back references would keep all of them in memory
+        out.reset();
+    }
+
+    /**
+     * Returns the oldest segment, closing the open segment when it is the only one left, or null when there is none.
+     * The segment is deleted with {@link #delete(File)} once its entries are written.
+     */
+    synchronized File next() throws IOException {
+        if (segments.isEmpty() && out != null) {
+            out.close();
+            out = null;
+            segments.add(current);
+        }
+        return segments.peekFirst();
+    }
+
+    synchronized void delete(File segment) {
+        segments.remove(segment);
+        if (!segment.delete()) {
+            log.warn("Unable to delete audit spill segment " + segment);
+        }
+    }
+
+    synchronized void close() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+            segments.add(current);
+        }
+    }
+
+    /**
+     * Reads the entries of a segment. A segment truncated by a crash is read up to its last complete entry.
+     */
+    static List<Object> read(File segment) {
+        List<Object> entries = new ArrayList<>();
+        try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(segment)))) {
+            while (true) {
+                entries.add(in.readObject());
+            }
+        } catch (EOFException e) {
+            return entries;
+        } catch (ClassNotFoundException | IOException e) {
+            log.error("Audit spill segment " + segment + " is corrupted after " + entries.size() + " entries", e);
+            return entries;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.acme.ride.dispatch.dao;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import javax.annotation.PostConstruct;
+import javax.sql.DataSource;
+
+import com.acme.ride.dispatch.entity.DispatchTimer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Durable state of the timers, written with JDBC batches outside of the engine transactions.
+ */
+@Component
+public class DispatchTimerDao {
+
+    private static final String DELETE = "DELETE FROM DispatchTimer WHERE name = ?";
+
+    private static final String INSERT = "INSERT INTO DispatchTimer (name, deploymentId, partitionNo, fireTime, timerJobInstance) VALUES (?, ?, ?, ?, ?)";
+
+    private static final String SELECT_BY_PARTITION = "SELECT name, deploymentId, partitionNo, fireTime, timerJobInstance FROM DispatchTimer "
+            + "WHERE deploymentId = ? AND partitionNo = ?";
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private JdbcTemplate jdbcTemplate;
+
+    private TransactionTemplate transactionTemplate;
+
+    @PostConstruct
+    public void init() {
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * Writes the timers and deletes the timers with the given names, in one transaction. A written timer replaces the
+     * row with the same name.
+     */
+    public void write(List<DispatchTimer> timers, Collection<String> deletedNames, int batchSize) {
+        List<String> names = new ArrayList<>(deletedNames);
+        timers.forEach(timer -> names.add(timer.getName()));
+        transactionTemplate.execute(s -> {
+            jdbcTemplate.batchUpdate(DELETE, names, batchSize, (ps, name) -> ps.setString(1, name));
+            jdbcTemplate.batchUpdate(INSERT, timers, batchSize, (ps, timer) -> {
+                ps.setString(1, timer.getName());
+                ps.setString(2, timer.getDeploymentId());
+                ps.setInt(3, timer.getPartitionNo());
+                ps.setTimestamp(4, new Timestamp(timer.getFireTime().getTime()));
+                ps.setBytes(5, timer.getTimerJobInstance());
+            });
+            return null;
+        });
+    }
+
+    public List<DispatchTimer> findByPartition(String deploymentId, int partition) {
+        return jdbcTemplate.query(SELECT_BY_PARTITION, (rs, row) -> new DispatchTimer(rs.getString(1), rs.getString(2), rs.getInt(3),
+                rs.getTimestamp(4), rs.getBytes(5)), deploymentId, partition);
+    }
+}
@@ -0,0 +1,41 @@
+package com.acme.ride.dispatch.dao;
+
+import java.util.List;
+import javax.persistence.EntityManager;
+import javax.persistence.LockModeType;
+import javax.persistence.PersistenceContext;
+
+import com.acme.ride.dispatch.entity.OutboxMessage;
+import org.springframework.stereotype.Component;
+
+@Component
+public class OutboxMessageDao {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    public void create(OutboxMessage outboxMessage) {
+        entityManager.persist(outboxMessage);
+    }
+
+    /**
+     * Returns the oldest messages, in insertion order, locked until the end of the transaction. Sent messages are
+     * deleted, so all the messages in the outbox are unsent. A concurrent relay blocks on the lock rather than skipping
+     * the rows, so messages with the same key are never sent out of order.
+     */
+    public List<OutboxMessage> lockUnsent(int maxResults) {
+        return entityManager.createQuery("SELECT o FROM OutboxMessage o ORDER BY o.createdAt, o.id", OutboxMessage.class)
+                .setLockMode(LockModeType.PESSIMISTIC_WRITE)
+                .setMaxResults(maxResults)
+                .getResultList();
+    }
+
+    /**
+     * Deletes the messages once they have been sent: the outbox only holds the messages waiting to be published.
+     */
+    public int deleteSent(List<Long> ids) {
+        return entityManager.createQuery("DELETE FROM OutboxMessage o WHERE o.id IN (:ids)")
+                .setParameter("ids", ids)
+                .executeUpdate();
+    }
+}
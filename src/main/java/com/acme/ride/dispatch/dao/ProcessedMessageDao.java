@@ -0,0 +1,22 @@
+package com.acme.ride.dispatch.dao;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+import com.acme.ride.dispatch.entity.ProcessedMessage;
+import org.springframework.stereotype.Component;
+
+@Component
+public class ProcessedMessageDao {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    public void create(ProcessedMessage processedMessage) {
+        entityManager.persist(processedMessage);
+    }
+
+    public boolean exists(String messageId) {
+        return entityManager.find(ProcessedMessage.class, messageId) != null;
+    }
+}
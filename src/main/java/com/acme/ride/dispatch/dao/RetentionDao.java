@@ -0,0 +1,137 @@
+package com.acme.ride.dispatch.dao;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
+import javax.annotation.PostConstruct;
+import javax.sql.DataSource;
+
+import com.acme.ride.dispatch.entity.Ride;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Removes the data of completed process instances: the node and variable audit logs, the ride when it is in a
+ * terminal status, and the process instance log itself. The process instances are selected by the id of their
+ * process instance log, and their ride by the correlation key, which is the ride id.
+ * Also purges the ids of the messages processed before a given date, which are not archived.
+ *
+ * The job runs on every replica of the service. Each chunk takes a transaction-scoped advisory lock, so that two
+ * replicas never copy the same rows to the archive tables: the replica which does not get the lock skips the chunk,
+ * and a chunk selected before another replica removed it finds no rows left.
+ */
+@Component
+public class RetentionDao {
+
+    private static final String COMPLETED = "status IN (2, 3) AND end_date < :before";
+
+    private static final String COUNT_COMPLETED = "SELECT count(*) FROM ProcessInstanceLog WHERE " + COMPLETED;
+
+    private static final String SELECT_COMPLETED = "SELECT id FROM ProcessInstanceLog WHERE id > :afterId AND " + COMPLETED
+            + " ORDER BY id LIMIT :limit";
+
+    private static final String PROCESS_INSTANCE_IDS = "SELECT processInstanceId FROM ProcessInstanceLog WHERE id IN (:ids)";
+
+    private static final String RIDE_IDS = "SELECT correlationKey FROM ProcessInstanceLog WHERE id IN (:ids)";
+
+    // "dispatch" in ASCII
+    private static final long LOCK_KEY = 0x6469737061746368L;
+
+    private static final String TRY_LOCK = "SELECT pg_try_advisory_xact_lock(:key)";
+
+    private static final String PURGE_PROCESSED = "DELETE FROM ProcessedMessage WHERE messageId IN "
+            + "(SELECT messageId FROM ProcessedMessage WHERE processedAt < :before LIMIT :limit)";
+
+    private static final String[] TABLES = {"NodeInstanceLog", "VariableInstanceLog", "Ride", "ProcessInstanceLog"};
+
+    private static final String[] WHERE = {
+            "processInstanceId IN (" + PROCESS_INSTANCE_IDS + ")",
+            "processInstanceId IN (" + PROCESS_INSTANCE_IDS + ")",
+            "rideId IN (" + RIDE_IDS + ") AND status IN (:terminal)",
+            "id IN (:ids)"};
+
+    private static final List<Integer> TERMINAL = Arrays.stream(Ride.Status.values()).filter(Ride.Status::isTerminal)
+            .map(Ride.Status::statusCode).collect(Collectors.toList());
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    private TransactionTemplate transactionTemplate;
+
+    @PostConstruct
+    public void init() {
+        jdbcTemplate = new NamedParameterJdbcTemplate(dataSource);
+        transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * Counts the process instances completed or aborted before the given date.
+     */
+    public long countCompleted(Date before) {
+        return jdbcTemplate.queryForObject(COUNT_COMPLETED, new MapSqlParameterSource("before", before), Long.class);
+    }
+
+    /**
+     * Returns the ids of the process instance logs of the process instances completed or aborted before the given
+     * date, in id order, starting after the given id.
+     */
+    public List<Long> findCompleted(long afterId, Date before, int limit) {
+        MapSqlParameterSource parameters = new MapSqlParameterSource("afterId", afterId)
+                .addValue("before", before)
+                .addValue("limit", limit);
+        return jdbcTemplate.queryForList(SELECT_COMPLETED, parameters, Long.class);
+    }
+
+    /**
+     * Copies the data of the process instances to the archive tables and deletes it, in one transaction. Returns the
+     * number of rows moved, or -1 when another replica holds the retention lock.
+     */
+    public int archive(List<Long> ids) {
+        return remove(ids, true);
+    }
+
+    /**
+     * Deletes the data of the process instances, in one transaction. Returns the number of rows deleted, or -1 when
+     * another replica holds the retention lock.
+     */
+    public int delete(List<Long> ids) {
+        return remove(ids, false);
+    }
+
+    /**
+     * Deletes at most <code>limit</code> ids of messages processed before the given date. Returns the number of ids
+     * deleted.
+     */
+    public int purgeProcessed(Date before, int limit) {
+        MapSqlParameterSource parameters = new MapSqlParameterSource("before", before).addValue("limit", limit);
+        return transactionTemplate.execute(s -> jdbcTemplate.update(PURGE_PROCESSED, parameters));
+    }
+
+    private int remove(List<Long> ids, boolean archive) {
+        MapSqlParameterSource parameters = new MapSqlParameterSource("ids", ids).addValue("terminal", TERMINAL);
+        return transactionTemplate.execute(s -> {
+            if (!jdbcTemplate.queryForObject(TRY_LOCK, new MapSqlParameterSource("key", LOCK_KEY), Boolean.class)) {
+                return -1;
+            }
+            int rows = 0;
+            // the process instance log goes last, the other tables are selected through it
+            for (int i = 0; i < TABLES.length; i++) {
+                if (archive) {
+                    jdbcTemplate.update("INSERT INTO " + TABLES[i] + "Archive SELECT * FROM " + TABLES[i] + " WHERE " + WHERE[i], parameters);
+                }
+                rows += jdbcTemplate.update("DELETE FROM " + TABLES[i] + " WHERE " + WHERE[i], parameters);
+            }
+            return rows;
+        });
+    }
+}
@@ -1,28 +1,101 @@
 package com.acme.ride.dispatch.dao;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 import javax.persistence.EntityManager;
 import javax.persistence.EntityNotFoundException;
 import javax.persistence.PersistenceContext;
 
 import com.acme.ride.dispatch.entity.Ride;
+import org.hibernate.CacheMode;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+import org.hibernate.query.Query;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+/**
+ * Rides created or found by ride id are kept in a map bound to the current transaction, so the listeners and the work
+ * item handlers of one unit of work share the managed instance instead of each running a query, which would also
+ * flush the pending changes of the ride.
+ *
+ * Other rides are loaded by natural id, resolved to their id through the natural id cache and the unique index on
+ * rideId.
+ *
+ * Jobs going through many rides use {@link #findPage} or {@link #forEach}, which walk the rides matching a
+ * {@link RideQuery} in id order, so that a walk can be resumed after the last id it saw.
+ */
 @Component
 public class RideDao {
 
     @PersistenceContext
     private EntityManager entityManager;
 
+    @Value("${dispatch.ride.query.fetch-size}")
+    private int fetchSize;
+
     public void create(Ride ride) {
         entityManager.persist(ride);
+        Map<String, Ride> rides = transactionRides();
+        if (rides != null && ride.getRideId() != null) {
+            rides.put(ride.getRideId(), ride);
+        }
     }
 
+    /**
+     * @deprecated loads the whole table, use {@link #forEach} or {@link #findPage}
+     */
+    @Deprecated
     public List<Ride> findAll(){
         return entityManager.createQuery( "from " + Ride.class.getName() )
                 .getResultList();
     }
 
+    /**
+     * Returns at most <code>limit</code> rides matching the query with an id greater than <code>afterId</code>, in id
+     * order. The next page starts after the id of the last ride returned.
+     */
+    public List<Ride> findPage(RideQuery query, long afterId, int limit) {
+        return createQuery(query, afterId).setMaxResults(limit).getResultList();
+    }
+
+    /**
+     * Passes the rides matching the query with an id greater than <code>afterId</code> to the action, in id order, and
+     * returns their number. The rides are read through a forward-only cursor, dispatch.ride.query.fetch-size rows at a
+     * time, as read-only entities which bypass the second-level cache, and are detached from the persistence context
+     * after each fetch, so the memory used does not grow with the number of rides. Changes made by the action are not
+     * saved. Must be called in a transaction, which keeps the cursor open.
+     */
+    public long forEach(RideQuery query, long afterId, Consumer<Ride> action) {
+        Session session = entityManager.unwrap(Session.class);
+        Map<String, Ride> rides = transactionRides();
+        List<Ride> fetched = new ArrayList<>(fetchSize);
+        long count = 0;
+        try (ScrollableResults results = createQuery(query, afterId)
+                .setReadOnly(true)
+                .setFetchSize(fetchSize)
+                .setCacheMode(CacheMode.IGNORE)
+                .scroll(ScrollMode.FORWARD_ONLY)) {
+            while (results.next()) {
+                Ride ride = (Ride) results.get(0);
+                action.accept(ride);
+                fetched.add(ride);
+                count++;
+                if (fetched.size() == fetchSize) {
+                    detach(session, fetched, rides);
+                }
+            }
+        }
+        detach(session, fetched, rides);
+        return count;
+    }
+
     public Ride find(long id) {
         Ride order =  entityManager.find(Ride.class, id);
         if (order == null) {
@@ -32,19 +105,92 @@ public class RideDao {
     }
 
     public Ride findByRideId(String rideId) {
-        List<Ride> rideList = entityManager.createQuery("SELECT o FROM Ride o WHERE o.rideId = :rideId")
-                .setParameter("rideId", rideId)
-                .getResultList();
-        if (rideList.isEmpty()) {
-            return null;
+        Map<String, Ride> rides = transactionRides();
+        if (rides != null) {
+            Ride ride = rides.get(rideId);
+            if (ride != null && entityManager.contains(ride)) {
+                return ride;
+            }
         }
-        return rideList.get(0);
+        Ride ride = entityManager.unwrap(Session.class).bySimpleNaturalId(Ride.class).load(rideId);
+        if (ride != null && rides != null) {
+            rides.put(rideId, ride);
+        }
+        return ride;
     }
 
     public void delete(Ride ride){
         entityManager.remove(ride);
+        Map<String, Ride> rides = transactionRides();
+        if (rides != null) {
+            rides.remove(ride.getRideId());
+        }
     }
 
+    private Query<Ride> createQuery(RideQuery query, long afterId) {
+        StringBuilder hql = new StringBuilder("from Ride r where r.id > :afterId");
+        if (!query.getStatusCodes().isEmpty()) {
+            hql.append(" and r.status in (:statusCodes)");
+        }
+        if (query.getCreatedFrom() != null) {
+            hql.append(" and r.createdAt >= :createdFrom");
+        }
+        if (query.getCreatedTo() != null) {
+            hql.append(" and r.createdAt < :createdTo");
+        }
+        if (query.getPassengerId() != null) {
+            hql.append(" and r.passengerId = :passengerId");
+        }
+        if (query.getDriverId() != null) {
+            hql.append(" and r.driverId = :driverId");
+        }
+        hql.append(" order by r.id");
+        Query<Ride> rideQuery = entityManager.unwrap(Session.class).createQuery(hql.toString(), Ride.class);
+        rideQuery.setParameter("afterId", afterId);
+        if (!query.getStatusCodes().isEmpty()) {
+            rideQuery.setParameterList("statusCodes", query.getStatusCodes());
+        }
+        if (query.getCreatedFrom() != null) {
+            rideQuery.setParameter("createdFrom", query.getCreatedFrom());
+        }
+        if (query.getCreatedTo() != null) {
+            rideQuery.setParameter("createdTo", query.getCreatedTo());
+        }
+        if (query.getPassengerId() != null) {
+            rideQuery.setParameter("passengerId", query.getPassengerId());
+        }
+        if (query.getDriverId() != null) {
+            rideQuery.setParameter("driverId", query.getDriverId());
+        }
+        return rideQuery;
+    }
 
+    private static void detach(Session session, List<Ride> fetched, Map<String, Ride> rides) {
+        for (Ride ride : fetched) {
+            // rides of the current unit of work stay managed
+            if (rides == null || rides.get(ride.getRideId()) != ride) {
+                session.detach(ride);
+            }
+        }
+        fetched.clear();
+    }
 
+    @SuppressWarnings("unchecked")
+    private Map<String, Ride> transactionRides() {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return null;
+        }
+        Map<String, Ride> rides = (Map<String, Ride>) TransactionSynchronizationManager.getResource(this);
+        if (rides == null) {
+            rides = new HashMap<>();
+            TransactionSynchronizationManager.bindResource(this, rides);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(int status) {
+                    TransactionSynchronizationManager.unbindResourceIfPossible(RideDao.this);
+                }
+            });
+        }
+        return rides;
+    }
 }
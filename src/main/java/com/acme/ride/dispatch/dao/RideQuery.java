@@ -0,0 +1,90 @@
+package com.acme.ride.dispatch.dao;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import com.acme.ride.dispatch.entity.Ride;
+
+/**
+ * Filter of the rides walked by {@link RideDao#findPage} and {@link RideDao#forEach}. Criteria which are not set do not
+ * filter; the creation time range includes its start and excludes its end.
+ */
+public class RideQuery {
+
+    private List<Integer> statusCodes = Collections.emptyList();
+
+    private Date createdFrom;
+
+    private Date createdTo;
+
+    private String passengerId;
+
+    private String driverId;
+
+    public List<Integer> getStatusCodes() {
+        return statusCodes;
+    }
+
+    public Date getCreatedFrom() {
+        return createdFrom;
+    }
+
+    public Date getCreatedTo() {
+        return createdTo;
+    }
+
+    public String getPassengerId() {
+        return passengerId;
+    }
+
+    public String getDriverId() {
+        return driverId;
+    }
+
+    public static class Builder {
+
+        private List<Integer> statusCodes = Collections.emptyList();
+        private Date createdFrom;
+        private Date createdTo;
+        private String passengerId;
+        private String driverId;
+
+        public Builder status(Ride.Status... statuses) {
+            this.statusCodes = Arrays.stream(statuses).map(Ride.Status::statusCode).collect(Collectors.toList());
+            return this;
+        }
+
+        public Builder createdFrom(Date createdFrom) {
+            this.createdFrom = createdFrom;
+            return this;
+        }
+
+        public Builder createdTo(Date createdTo) {
+            this.createdTo = createdTo;
+            return this;
+        }
+
+        public Builder passengerId(String passengerId) {
+            this.passengerId = passengerId;
+            return this;
+        }
+
+        public Builder driverId(String driverId) {
+            this.driverId = driverId;
+            return this;
+        }
+
+        public RideQuery build() {
+            RideQuery query = new RideQuery();
+            query.statusCodes = this.statusCodes;
+            query.createdFrom = this.createdFrom;
+            query.createdTo = this.createdTo;
+            query.passengerId = this.passengerId;
+            query.driverId = this.driverId;
+            return query;
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.acme.ride.dispatch.dao;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.sql.DataSource;
+
+import com.acme.ride.dispatch.entity.Ride;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Write-behind buffer for ride status transitions. A transition is buffered when the transaction which made it
+ * commits, and only the last status of a ride is kept until the next flush. The buffer is written with one JDBC batch
+ * of <code>UPDATE ... WHERE rideId = ?</code> statements at the latest every flush interval, as soon as it holds a
+ * batch, and on shutdown. Statuses which could not be written stay in the buffer and are written on the next flush.
+ * Rides are not held in the second-level cache, so the rows written past Hibernate need no eviction.
+ */
+@Component
+public class RideStatusWriter {
+
+    private static final String UPDATE_STATUS = "UPDATE Ride SET status = ? WHERE rideId = ?";
+
+    private final static Logger log = LoggerFactory.getLogger(RideStatusWriter.class);
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${dispatch.ride.status.write-behind.enabled}")
+    private boolean enabled;
+
+    @Value("${dispatch.ride.status.write-behind.flush-interval}")
+    private long flushInterval;
+
+    @Value("${dispatch.ride.status.write-behind.batch-size}")
+    private int batchSize;
+
+    private final Map<String, Integer> pending = new ConcurrentHashMap<>();
+
+    private JdbcTemplate jdbcTemplate;
+
+    private TransactionTemplate transactionTemplate;
+
+    private ScheduledExecutorService scheduler;
+
+    private Counter written;
+
+    @PostConstruct
+    public void init() {
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        transactionTemplate = new TransactionTemplate(transactionManager);
+        written = Counter.builder("dispatch.ride.status.written").register(meterRegistry);
+        Gauge.builder("dispatch.ride.status.pending", pending, Map::size).register(meterRegistry);
+        if (enabled) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("dispatch-ride-status-"));
+            scheduler.scheduleWithFixedDelay(this::flush, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdown();
+            try {
+                scheduler.awaitTermination(flushInterval, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            flush();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Buffers the status of the ride after the current transaction commits, or immediately when there is no
+     * transaction.
+     */
+    public void updateStatus(String rideId, Ride.Status status) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    buffer(rideId, status);
+                }
+            });
+        } else {
+            buffer(rideId, status);
+        }
+    }
+
+    private void buffer(String rideId, Ride.Status status) {
+        pending.put(rideId, status.statusCode());
+        if (pending.size() >= batchSize && scheduler != null) {
+            scheduler.execute(this::flush);
+        }
+    }
+
+    synchronized void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<Map.Entry<String, Integer>> statuses = new ArrayList<>(pending.size());
+        for (Map.Entry<String, Integer> entry : pending.entrySet()) {
+            statuses.add(new SimpleImmutableEntry<>(entry.getKey(), entry.getValue()));
+        }
+        try {
+            int[][] counts = transactionTemplate.execute(s -> jdbcTemplate.batchUpdate(UPDATE_STATUS, statuses, batchSize, (ps, entry) -> {
+                ps.setInt(1, entry.getValue());
+                ps.setString(2, entry.getKey());
+            }));
+            for (int i = 0; i < statuses.size(); i++) {
+                Map.Entry<String, Integer> entry = statuses.get(i);
+                // a newer status buffered meanwhile is kept for the next flush
+                pending.remove(entry.getKey(), entry.getValue());
+                if (counts[i / batchSize][i % batchSize] == 0) {
+                    log.warn("Ride with rideId " + entry.getKey() + " not found. Status " + Ride.Status.get(entry.getValue()) + " not written");
+                }
+            }
+            written.increment(statuses.size());
+        } catch (Exception e) {
+            log.error("Error writing ride statuses. " + pending.size() + " statuses will be written on the next flush", e);
+        }
+    }
+
+    int getPendingCount() {
+        return pending.size();
+    }
+}
@@ -0,0 +1,59 @@
+package com.acme.ride.dispatch.entity;
+
+import java.util.Date;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+
+@Entity
+@Table(name = "DispatchTimer", indexes = @Index(name = "idx_dispatchtimer_partition", columnList = "deploymentId, partitionNo"))
+public class DispatchTimer {
+
+    @Id
+    private String name;
+
+    private String deploymentId;
+
+    private int partitionNo;
+
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date fireTime;
+
+    @Column(length = 65536)
+    private byte[] timerJobInstance;
+
+    public DispatchTimer() {
+    }
+
+    public DispatchTimer(String name, String deploymentId, int partitionNo, Date fireTime, byte[] timerJobInstance) {
+        this.name = name;
+        this.deploymentId = deploymentId;
+        this.partitionNo = partitionNo;
+        this.fireTime = fireTime;
+        this.timerJobInstance = timerJobInstance;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getDeploymentId() {
+        return deploymentId;
+    }
+
+    public int getPartitionNo() {
+        return partitionNo;
+    }
+
+    public Date getFireTime() {
+        return fireTime;
+    }
+
+    public byte[] getTimerJobInstance() {
+        return timerJobInstance;
+    }
+}
@@ -0,0 +1,69 @@
+package com.acme.ride.dispatch.entity;
+
+import java.util.Date;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.SequenceGenerator;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+
+@Entity
+@SequenceGenerator(name="OutboxMessageSeq", sequenceName="OUTBOX_MESSAGE_SEQ")
+@Table(name = "OutboxMessage")
+public class OutboxMessage {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.AUTO, generator="OutboxMessageSeq")
+    private long id;
+
+    private String destination;
+
+    private String messageKey;
+
+    private String messageType;
+
+    @Column(length = 65536)
+    private byte[] payload;
+
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date createdAt;
+
+    public OutboxMessage() {
+    }
+
+    public OutboxMessage(String destination, String messageKey, String messageType, byte[] payload) {
+        this.destination = destination;
+        this.messageKey = messageKey;
+        this.messageType = messageType;
+        this.payload = payload;
+        this.createdAt = new Date();
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getDestination() {
+        return destination;
+    }
+
+    public String getMessageKey() {
+        return messageKey;
+    }
+
+    public String getMessageType() {
+        return messageType;
+    }
+
+    public byte[] getPayload() {
+        return payload;
+    }
+
+    public Date getCreatedAt() {
+        return createdAt;
+    }
+}
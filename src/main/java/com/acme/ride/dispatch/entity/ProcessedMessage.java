@@ -0,0 +1,35 @@
+package com.acme.ride.dispatch.entity;
+
+import java.util.Date;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+
+@Entity
+@Table(name = "ProcessedMessage")
+public class ProcessedMessage {
+
+    @Id
+    private String messageId;
+
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date processedAt;
+
+    public ProcessedMessage() {
+    }
+
+    public ProcessedMessage(String messageId) {
+        this.messageId = messageId;
+        this.processedAt = new Date();
+    }
+
+    public String getMessageId() {
+        return messageId;
+    }
+
+    public Date getProcessedAt() {
+        return processedAt;
+    }
+}
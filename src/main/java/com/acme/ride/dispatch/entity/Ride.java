@@ -2,27 +2,41 @@ package com.acme.ride.dispatch.entity;
 
 import java.math.BigDecimal;
 import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
+import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
-import javax.persistence.GenerationType;
 import javax.persistence.Id;
-import javax.persistence.SequenceGenerator;
 import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+import javax.persistence.UniqueConstraint;
 
 import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import org.hibernate.annotations.DynamicUpdate;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.NaturalId;
+import org.hibernate.annotations.NaturalIdCache;
+import org.hibernate.annotations.Parameter;
+import org.hibernate.id.enhanced.SequenceStyleGenerator;
 
 @Entity
-@SequenceGenerator(name="RideSeq", sequenceName="RIDE_SEQ")
-@Table(name = "Ride")
+@GenericGenerator(name = "RideSeq", strategy = "com.acme.ride.dispatch.entity.RideIdGenerator",
+        parameters = @Parameter(name = SequenceStyleGenerator.SEQUENCE_PARAM, value = "RIDE_SEQ"))
+@Table(name = "Ride", uniqueConstraints = @UniqueConstraint(name = "uk_ride_rideid", columnNames = "rideId"))
+@DynamicUpdate
+@NaturalIdCache(region = "ride-natural-id")
 @JsonAutoDetect(fieldVisibility = JsonAutoDetect.Visibility.ANY, getterVisibility = JsonAutoDetect.Visibility.NONE, setterVisibility = JsonAutoDetect.Visibility.NONE)
 public class Ride {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.AUTO, generator="RideSeq")
+    @GeneratedValue(generator = "RideSeq")
     private long id;
 
+    @NaturalId
+    @Column(nullable = false, updatable = false)
     private String rideId;
 
     private String pickup;
@@ -37,6 +51,10 @@ public class Ride {
 
     private String driverId;
 
+    @Temporal(TemporalType.TIMESTAMP)
+    @Column(updatable = false)
+    private Date createdAt = new Date();
+
     public long getId() {
         return id;
     }
@@ -97,6 +115,10 @@ public class Ride {
         this.driverId = driverId;
     }
 
+    public Date getCreatedAt() {
+        return createdAt;
+    }
+
     public enum Status {
         REQUESTED(1,"requested"),
         DRIVER_ASSIGNED(2, "driver_assigned"),
@@ -138,6 +160,10 @@ public class Ride {
             return name;
         }
 
+        public boolean isTerminal() {
+            return this == DRIVER_CANCELED || this == PASSENGER_CANCELED || this == ENDED || this == EXPIRED;
+        }
+
         public static Status get(String name) {
             if (name == null) {
                 return null;
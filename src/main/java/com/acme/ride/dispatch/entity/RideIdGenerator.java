@@ -0,0 +1,42 @@
+package com.acme.ride.dispatch.entity;
+
+import java.util.Map;
+import java.util.Properties;
+
+import org.hibernate.MappingException;
+import org.hibernate.engine.config.spi.ConfigurationService;
+import org.hibernate.id.enhanced.SequenceStyleGenerator;
+import org.hibernate.service.ServiceRegistry;
+import org.hibernate.type.Type;
+
+/**
+ * Sequence generator of the ride ids, which takes its increment size and optimizer from the Hibernate settings
+ * <code>dispatch.ride.id.increment-size</code> and <code>dispatch.ride.id.optimizer</code>. With the pooled-lo
+ * optimizer each call to the sequence reserves a block of increment size ids, so the increment of the database
+ * sequence must be the same.
+ *
+ * Ride is mapped with its own generator because the jBPM entities need <code>hibernate.id.new_generator_mappings=false</code>.
+ */
+public class RideIdGenerator extends SequenceStyleGenerator {
+
+    static final String INCREMENT_SIZE = "dispatch.ride.id.increment-size";
+
+    static final String OPTIMIZER = "dispatch.ride.id.optimizer";
+
+    @Override
+    public void configure(Type type, Properties params, ServiceRegistry serviceRegistry) throws MappingException {
+        applySettings(params, serviceRegistry.getService(ConfigurationService.class).getSettings());
+        super.configure(type, params, serviceRegistry);
+    }
+
+    static void applySettings(Properties params, Map<?, ?> settings) {
+        Object incrementSize = settings.get(INCREMENT_SIZE);
+        if (incrementSize != null) {
+            params.setProperty(INCREMENT_PARAM, incrementSize.toString());
+        }
+        Object optimizer = settings.get(OPTIMIZER);
+        if (optimizer != null) {
+            params.setProperty(OPT_PARAM, optimizer.toString());
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package com.acme.ride.dispatch.message.consumer;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.common.TopicPartition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * Pauses the partitions of the listener topics which saturate the service, and resumes them once they have recovered.
+ * A partition is saturated when the average processing time of its records over the last interval exceeds the latency
+ * target, or when it processed records while the mean wait for a database connection exceeded the pool wait target.
+ *
+ * A saturated partition is held back for one interval, then resumed for a probe. It is released once a probe interval
+ * averages under the resume latency, which is below the latency target so that a partition hovering around the target
+ * does not flap. A probe which saturates again holds the partition back for twice as long, up to the maximum backoff.
+ * The number of records allowed in flight in the worker pool is halved on saturation and grows linearly otherwise;
+ * all the partitions are held back while that limit is reached.
+ *
+ * Pauses are applied on the consumer threads with {@link #apply}, which only resumes the partitions it paused itself.
+ */
+public class BackpressureController implements MeterBinder {
+
+    private final static Logger log = LoggerFactory.getLogger(BackpressureController.class);
+
+    private final Set<String> topics;
+
+    private final LongSupplier poolWaitTime;
+
+    private final long poolWaitTarget;
+
+    private final IntSupplier inFlight;
+
+    private final long latencyTarget;
+
+    private final long resumeLatency;
+
+    private final int minInFlight;
+
+    private final int maxInFlight;
+
+    private final long interval;
+
+    private final long maxBackoff;
+
+    private final Map<TopicPartition, Sample> samples = new ConcurrentHashMap<>();
+
+    private final Map<TopicPartition, Hold> holds = new ConcurrentHashMap<>();
+
+    private final Set<TopicPartition> paused = ConcurrentHashMap.newKeySet();
+
+    private volatile int inFlightLimit;
+
+    private volatile boolean inFlightReached;
+
+    private ScheduledExecutorService scheduler;
+
+    public BackpressureController(Collection<String> topics, LongSupplier poolWaitTime, long poolWaitTarget, IntSupplier inFlight,
+                                  long latencyTarget, long resumeLatency, int minInFlight, int maxInFlight, long interval, long maxBackoff) {
+        this.topics = new HashSet<>(topics);
+        this.poolWaitTime = poolWaitTime;
+        this.poolWaitTarget = poolWaitTarget;
+        this.inFlight = inFlight;
+        this.latencyTarget = TimeUnit.MILLISECONDS.toNanos(latencyTarget);
+        this.resumeLatency = TimeUnit.MILLISECONDS.toNanos(resumeLatency);
+        this.minInFlight = minInFlight;
+        this.maxInFlight = maxInFlight;
+        this.interval = interval;
+        this.maxBackoff = maxBackoff;
+        this.inFlightLimit = maxInFlight;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry meterRegistry) {
+        Gauge.builder("dispatch.kafka.backpressure.in-flight.limit", this, c -> c.inFlightLimit).register(meterRegistry);
+        Gauge.builder("dispatch.kafka.backpressure.paused", paused, Set::size).register(meterRegistry);
+    }
+
+    public void start() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("dispatch-backpressure-"));
+        scheduler.scheduleWithFixedDelay(this::adjust, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    public void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    public void processed(TopicPartition partition, long nanos) {
+        if (topics.contains(partition.topic())) {
+            samples.computeIfAbsent(partition, p -> new Sample()).add(nanos);
+        }
+    }
+
+    /**
+     * Whether the records of the partition are held back.
+     */
+    public boolean isPaused(TopicPartition partition) {
+        if (!topics.contains(partition.topic())) {
+            return false;
+        }
+        Hold hold = holds.get(partition);
+        return inFlightReached || (hold != null && !hold.probing);
+    }
+
+    /**
+     * Pauses the held back partitions assigned to the consumer, and resumes those it paused which are released. Must be
+     * called on the consumer thread.
+     */
+    public void apply(Consumer<?, ?> consumer) {
+        if (holds.isEmpty() && paused.isEmpty() && !inFlightReached) {
+            return;
+        }
+        Set<TopicPartition> consumerPaused = consumer.paused();
+        Set<TopicPartition> pause = new HashSet<>();
+        Set<TopicPartition> resume = new HashSet<>();
+        for (TopicPartition partition : consumer.assignment()) {
+            if (isPaused(partition)) {
+                if (paused.add(partition) && !consumerPaused.contains(partition)) {
+                    pause.add(partition);
+                }
+            } else if (paused.remove(partition) && consumerPaused.contains(partition)) {
+                resume.add(partition);
+            }
+        }
+        if (!pause.isEmpty()) {
+            consumer.pause(pause);
+        }
+        if (!resume.isEmpty()) {
+            consumer.resume(resume);
+        }
+    }
+
+    void adjust() {
+        try {
+            long poolWait = poolWaitTarget > 0 ? poolWaitTime.getAsLong() : 0;
+            boolean poolSaturated = poolWaitTarget > 0 && poolWait > poolWaitTarget;
+            long now = System.currentTimeMillis();
+            boolean saturated = false;
+            Set<TopicPartition> sampled = new HashSet<>();
+            Set<TopicPartition> saturatedPartitions = new HashSet<>();
+            Iterator<Map.Entry<TopicPartition, Sample>> entries = samples.entrySet().iterator();
+            while (entries.hasNext()) {
+                Map.Entry<TopicPartition, Sample> entry = entries.next();
+                TopicPartition partition = entry.getKey();
+                long count = entry.getValue().count.sumThenReset();
+                long time = entry.getValue().time.sumThenReset();
+                Hold hold = holds.get(partition);
+                if (count == 0) {
+                    entries.remove();
+                    continue;
+                }
+                sampled.add(partition);
+                long average = time / count;
+                if (average > latencyTarget || poolSaturated) {
+                    saturated = true;
+                    saturatedPartitions.add(partition);
+                    if (hold == null) {
+                        hold = new Hold(interval);
+                        holds.put(partition, hold);
+                        log.info("Pausing partition " + partition + ". Average processing time: "
+                                + TimeUnit.NANOSECONDS.toMillis(average) + " ms, mean pool wait: " + poolWait + " ms");
+                    } else if (hold.probing) {
+                        hold.backoff = Math.min(maxBackoff, hold.backoff * 2);
+                        log.info("Pausing partition " + partition + " again for " + hold.backoff + " ms. Average processing time: "
+                                + TimeUnit.NANOSECONDS.toMillis(average) + " ms, mean pool wait: " + poolWait + " ms");
+                    }
+                    hold.probing = false;
+                    hold.until = now + hold.backoff;
+                } else if (hold != null && hold.probing && average <= resumeLatency) {
+                    holds.remove(partition);
+                    log.info("Partition " + partition + " recovered. Average processing time: "
+                            + TimeUnit.NANOSECONDS.toMillis(average) + " ms");
+                }
+            }
+            Iterator<Map.Entry<TopicPartition, Hold>> held = holds.entrySet().iterator();
+            while (held.hasNext()) {
+                Map.Entry<TopicPartition, Hold> entry = held.next();
+                Hold hold = entry.getValue();
+                if (hold.probing && !sampled.contains(entry.getKey())) {
+                    // nothing to probe with, the partition no longer loads the service
+                    held.remove();
+                } else if (!hold.probing && hold.until <= now && !saturatedPartitions.contains(entry.getKey())) {
+                    hold.probing = true;
+                }
+            }
+            if (saturated) {
+                inFlightLimit = Math.max(minInFlight, inFlightLimit / 2);
+            } else {
+                inFlightLimit = Math.min(maxInFlight, inFlightLimit + minInFlight);
+            }
+            inFlightReached = inFlight.getAsInt() >= inFlightLimit;
+        } catch (Exception e) {
+            log.error("Error adjusting listener backpressure", e);
+        }
+    }
+
+    int getInFlightLimit() {
+        return inFlightLimit;
+    }
+
+    private static class Sample {
+
+        private final LongAdder time = new LongAdder();
+
+        private final LongAdder count = new LongAdder();
+
+        private void add(long nanos) {
+            time.add(nanos);
+            count.increment();
+        }
+    }
+
+    private static class Hold {
+
+        private volatile long backoff;
+
+        private volatile long until;
+
+        private volatile boolean probing;
+
+        private Hold(long backoff) {
+            this.backoff = backoff;
+        }
+    }
+}
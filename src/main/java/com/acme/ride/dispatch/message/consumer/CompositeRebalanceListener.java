@@ -0,0 +1,33 @@
+package com.acme.ride.dispatch.message.consumer;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.kafka.listener.ConsumerAwareRebalanceListener;
+
+public class CompositeRebalanceListener implements ConsumerAwareRebalanceListener {
+
+    private final List<ConsumerAwareRebalanceListener> delegates;
+
+    public CompositeRebalanceListener(ConsumerAwareRebalanceListener... delegates) {
+        this.delegates = Arrays.asList(delegates);
+    }
+
+    @Override
+    public void onPartitionsRevokedBeforeCommit(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+        delegates.forEach(delegate -> delegate.onPartitionsRevokedBeforeCommit(consumer, partitions));
+    }
+
+    @Override
+    public void onPartitionsRevokedAfterCommit(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+        delegates.forEach(delegate -> delegate.onPartitionsRevokedAfterCommit(consumer, partitions));
+    }
+
+    @Override
+    public void onPartitionsAssigned(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+        delegates.forEach(delegate -> delegate.onPartitionsAssigned(consumer, partitions));
+    }
+}
@@ -0,0 +1,46 @@
+package com.acme.ride.dispatch.message.consumer;
+
+import java.util.function.Function;
+
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
+import org.springframework.kafka.config.ConcurrentKafkaListenerContainerFactory;
+import org.springframework.kafka.config.KafkaListenerEndpoint;
+import org.springframework.kafka.listener.ConcurrentMessageListenerContainer;
+import org.springframework.kafka.listener.ConsumerAwareRebalanceListener;
+import org.springframework.kafka.listener.ContainerProperties;
+import org.springframework.kafka.listener.GenericMessageListener;
+import org.springframework.kafka.listener.MessageListener;
+
+/**
+ * Container factory that lets the record listener created for a <code>@KafkaListener</code> endpoint be decorated,
+ * so that batching and other processing stages apply to every listener without changing its signature.
+ */
+public class DispatchKafkaListenerContainerFactory<K, V> extends ConcurrentKafkaListenerContainerFactory<K, V> {
+
+    private Function<MessageListener<K, V>, GenericMessageListener<?>> listenerDecorator;
+
+    public void setListenerDecorator(Function<MessageListener<K, V>, GenericMessageListener<?>> listenerDecorator) {
+        this.listenerDecorator = listenerDecorator;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    protected void initializeContainer(ConcurrentMessageListenerContainer<K, V> instance, KafkaListenerEndpoint endpoint) {
+        super.initializeContainer(instance, endpoint);
+        if (listenerDecorator != null) {
+            ContainerProperties containerProperties = instance.getContainerProperties();
+            MessageListener<K, V> listener = (MessageListener<K, V>) containerProperties.getMessageListener();
+            GenericMessageListener<?> decorated = listenerDecorator.apply(listener);
+            containerProperties.setMessageListener(decorated);
+            if (decorated instanceof ConsumerAwareRebalanceListener) {
+                ConsumerRebalanceListener rebalanceListener = containerProperties.getConsumerRebalanceListener();
+                if (rebalanceListener instanceof ConsumerAwareRebalanceListener) {
+                    containerProperties.setConsumerRebalanceListener(new CompositeRebalanceListener(
+                            (ConsumerAwareRebalanceListener) decorated, (ConsumerAwareRebalanceListener) rebalanceListener));
+                } else {
+                    containerProperties.setConsumerRebalanceListener((ConsumerAwareRebalanceListener) decorated);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.acme.ride.dispatch.message.consumer;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * Bounded worker pool that runs tasks with the same key in submission order, on a single-threaded lane selected by
+ * the hash of the key. Tasks with different keys may run concurrently. Submitting to a full lane blocks the caller.
+ */
+public class KeyOrderedExecutor {
+
+    private final static Logger log = LoggerFactory.getLogger(KeyOrderedExecutor.class);
+
+    private final ThreadPoolExecutor[] lanes;
+
+    private final long shutdownTimeout;
+
+    public KeyOrderedExecutor(int concurrency, int queueCapacity, long shutdownTimeout) {
+        this.lanes = new ThreadPoolExecutor[concurrency];
+        this.shutdownTimeout = shutdownTimeout;
+        for (int i = 0; i < concurrency; i++) {
+            lanes[i] = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueCapacity),
+                    new CustomizableThreadFactory("dispatch-worker-" + i + "-"), KeyOrderedExecutor::enqueue);
+        }
+    }
+
+    public void execute(Object key, Runnable task) {
+        lanes[lane(key)].execute(task);
+    }
+
+    public int pending() {
+        int pending = 0;
+        for (ThreadPoolExecutor lane : lanes) {
+            pending += lane.getQueue().size() + lane.getActiveCount();
+        }
+        return pending;
+    }
+
+    int lane(Object key) {
+        return (key.hashCode() & Integer.MAX_VALUE) % lanes.length;
+    }
+
+    public void shutdown() {
+        for (ThreadPoolExecutor lane : lanes) {
+            lane.shutdown();
+        }
+        try {
+            for (ThreadPoolExecutor lane : lanes) {
+                if (!lane.awaitTermination(shutdownTimeout, TimeUnit.MILLISECONDS)) {
+                    log.warn("Worker lane did not terminate within " + shutdownTimeout + " ms. " + lane.getQueue().size() + " tasks were not processed.");
+                    lane.shutdownNow();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void enqueue(Runnable task, ThreadPoolExecutor lane) {
+        if (lane.isShutdown()) {
+            throw new RejectedExecutionException("Worker lane has been shut down");
+        }
+        try {
+            lane.getQueue().put(task);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException(e);
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package com.acme.ride.dispatch.message.consumer;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.kafka.listener.AcknowledgingConsumerAwareMessageListener;
+import org.springframework.kafka.listener.ConsumerAwareRebalanceListener;
+import org.springframework.kafka.listener.MessageListener;
+import org.springframework.kafka.support.Acknowledgment;
+
+/**
+ * Hands records from the poll loop to a {@link KeyOrderedExecutor}, using the record key (the ride id) as ordering key.
+ * Requires manual acknowledgment: a record is acknowledged when it and all earlier records of its partition have been
+ * processed. In-flight records of revoked partitions are waited for before the container commits on rebalance.
+ *
+ * A partition is paused once <code>maxInFlight</code> of its records are in flight, and resumed when they drop below.
+ * A record which fails and cannot be moved to a retry topic rewinds its partition: the partition is sought back to the
+ * record and paused for <code>recoveryBackoff</code> milliseconds, and the later records already handed over are no
+ * longer acknowledged. Pauses and seeks are applied on the consumer thread, with the next record of the consumer or on
+ * {@link #onIdle}, together with those of the {@link BackpressureController}. A partition held back by either stays
+ * paused.
+ */
+public class KeyOrderedMessageListener<K, V> implements AcknowledgingConsumerAwareMessageListener<K, V>, ConsumerAwareRebalanceListener {
+
+    private final static Logger log = LoggerFactory.getLogger(KeyOrderedMessageListener.class);
+
+    private final MessageListener<K, V> delegate;
+
+    private final KeyOrderedExecutor executor;
+
+    private final long drainTimeout;
+
+    private final int maxInFlight;
+
+    private final long recoveryBackoff;
+
+    private final Map<TopicPartition, PartitionOffsetTracker> trackers = new ConcurrentHashMap<>();
+
+    // offsets of the records which could not be recovered, reported by the workers
+    private final Map<TopicPartition, Long> rewinds = new ConcurrentHashMap<>();
+
+    // paused partitions, with the offset expected next: records fetched before the seek are skipped
+    private final Map<TopicPartition, Long> nextOffsets = new ConcurrentHashMap<>();
+
+    private final Map<TopicPartition, Long> pausedUntil = new ConcurrentHashMap<>();
+
+    private BiConsumer<ConsumerRecord<?, ?>, Exception> recoverer;
+
+    private BackpressureController backpressureController;
+
+    public KeyOrderedMessageListener(MessageListener<K, V> delegate, KeyOrderedExecutor executor, long drainTimeout, int maxInFlight,
+                                     long recoveryBackoff) {
+        this.delegate = delegate;
+        this.executor = executor;
+        this.drainTimeout = drainTimeout;
+        this.maxInFlight = maxInFlight;
+        this.recoveryBackoff = recoveryBackoff;
+    }
+
+    public void setRecoverer(BiConsumer<ConsumerRecord<?, ?>, Exception> recoverer) {
+        this.recoverer = recoverer;
+    }
+
+    public void setBackpressureController(BackpressureController backpressureController) {
+        this.backpressureController = backpressureController;
+    }
+
+    @Override
+    public void onMessage(ConsumerRecord<K, V> record, Acknowledgment acknowledgment, Consumer<?, ?> consumer) {
+        if (backpressureController != null) {
+            backpressureController.apply(consumer);
+        }
+        onIdle(consumer);
+        TopicPartition topicPartition = new TopicPartition(record.topic(), record.partition());
+        Long next = nextOffsets.get(topicPartition);
+        if (next != null) {
+            if (record.offset() != next) {
+                // fetched before the partition was sought back
+                return;
+            }
+            nextOffsets.remove(topicPartition);
+        }
+        PartitionOffsetTracker tracker = trackers.computeIfAbsent(topicPartition, tp -> new PartitionOffsetTracker());
+        tracker.add(record.offset(), acknowledgment);
+        Object key = record.key() != null ? record.key() : topicPartition;
+        executor.execute(key, () -> process(record, tracker));
+        if (tracker.size() >= maxInFlight) {
+            pause(consumer, topicPartition, record.offset() + 1, 0);
+        }
+    }
+
+    /**
+     * Rewinds the partitions of the consumer with a record which could not be recovered, and resumes the partitions
+     * whose pause is over. Must be called on the consumer thread.
+     */
+    public void onIdle(Consumer<?, ?> consumer) {
+        if (rewinds.isEmpty() && pausedUntil.isEmpty()) {
+            return;
+        }
+        Set<TopicPartition> assignment = consumer.assignment();
+        for (TopicPartition partition : assignment) {
+            Long offset = rewinds.remove(partition);
+            if (offset != null) {
+                PartitionOffsetTracker tracker = trackers.get(partition);
+                if (tracker != null) {
+                    tracker.truncate(offset);
+                }
+                log.warn("Partition " + partition + " sought back to unrecovered offset " + offset + " and paused for "
+                        + recoveryBackoff + " ms");
+                pause(consumer, partition, offset, recoveryBackoff);
+            }
+        }
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<TopicPartition, Long>> entries = pausedUntil.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<TopicPartition, Long> entry = entries.next();
+            PartitionOffsetTracker tracker = trackers.get(entry.getKey());
+            if (!assignment.contains(entry.getKey())) {
+                continue;
+            }
+            boolean held = backpressureController != null && backpressureController.isPaused(entry.getKey());
+            if (entry.getValue() <= now && (tracker == null || tracker.size() < maxInFlight) && !held) {
+                consumer.resume(Collections.singleton(entry.getKey()));
+                entries.remove();
+            } else if (backpressureController != null) {
+                // the backpressure controller may have resumed it
+                consumer.pause(Collections.singleton(entry.getKey()));
+            }
+        }
+    }
+
+    private void pause(Consumer<?, ?> consumer, TopicPartition partition, long offset, long backoff) {
+        consumer.pause(Collections.singleton(partition));
+        consumer.seek(partition, offset);
+        nextOffsets.put(partition, offset);
+        pausedUntil.put(partition, System.currentTimeMillis() + backoff);
+    }
+
+    private void process(ConsumerRecord<K, V> record, PartitionOffsetTracker tracker) {
+        boolean completed = true;
+        try {
+            delegate.onMessage(record, null, null);
+        } catch (Exception e) {
+            if (recoverer != null) {
+                completed = recover(record, e);
+            } else {
+                log.error("Error processing record for ride " + record.key() + " from topic:partition:offset " + record.topic()
+                        + ":" + record.partition() + ":" + record.offset(), e);
+            }
+        } finally {
+            if (completed) {
+                tracker.complete(record.offset());
+            }
+        }
+    }
+
+    /**
+     * A record which cannot be recovered is left in flight, so that the offsets of its partition are no longer
+     * acknowledged, and its partition is rewound to it on the consumer thread.
+     */
+    private boolean recover(ConsumerRecord<K, V> record, Exception exception) {
+        try {
+            recoverer.accept(record, exception);
+            return true;
+        } catch (RuntimeException e) {
+            log.error("Unable to recover record for ride " + record.key() + " from topic:partition:offset " + record.topic()
+                    + ":" + record.partition() + ":" + record.offset() + ". The record will be redelivered.", e);
+            rewinds.merge(new TopicPartition(record.topic(), record.partition()), record.offset(), Math::min);
+            return false;
+        }
+    }
+
+    @Override
+    public void onPartitionsRevokedBeforeCommit(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+        for (TopicPartition partition : partitions) {
+            rewinds.remove(partition);
+            nextOffsets.remove(partition);
+            pausedUntil.remove(partition);
+            PartitionOffsetTracker tracker = trackers.remove(partition);
+            if (tracker == null) {
+                continue;
+            }
+            try {
+                if (!tracker.awaitCompletion(drainTimeout)) {
+                    log.warn("Partition " + partition + " revoked with " + tracker.size() + " records in flight. These records will be redelivered.");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            tracker.revoke();
+        }
+    }
+}
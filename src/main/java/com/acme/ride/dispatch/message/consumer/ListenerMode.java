@@ -0,0 +1,20 @@
+package com.acme.ride.dispatch.message.consumer;
+
+public enum ListenerMode {
+
+    /**
+     * Each record is handled by the listener in its own transaction.
+     */
+    RECORD,
+
+    /**
+     * The records of a poll are handled by the listener in one or a few transactions.
+     */
+    BATCH,
+
+    /**
+     * Records are handed to a bounded worker pool. Records with the same key are processed in order, records with
+     * different keys may be processed concurrently.
+     */
+    PARALLEL
+}
@@ -0,0 +1,135 @@
+package com.acme.ride.dispatch.message.consumer;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.consumer.OffsetCommitCallback;
+import org.apache.kafka.common.TopicPartition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.kafka.listener.ConsumerAwareRebalanceListener;
+
+/**
+ * Keeps track of processed and committed offsets per partition, for containers committing asynchronously.
+ * Exposes the time between processing a record and the commit of its offset, and the number of processed records
+ * whose offsets are not yet committed. On rebalance, waits for the in-flight commits of the revoked partitions.
+ */
+public class OffsetCommitMonitor implements OffsetCommitCallback, ConsumerAwareRebalanceListener {
+
+    private final static Logger log = LoggerFactory.getLogger(OffsetCommitMonitor.class);
+
+    private final Map<TopicPartition, PartitionOffsets> partitions = new ConcurrentHashMap<>();
+
+    private final Timer commitLatency;
+
+    private final Counter commits;
+
+    private final Counter failedCommits;
+
+    public OffsetCommitMonitor(MeterRegistry meterRegistry) {
+        commitLatency = Timer.builder("dispatch.kafka.commit.latency")
+                .description("Time between processing a record and the commit of its offset")
+                .register(meterRegistry);
+        commits = Counter.builder("dispatch.kafka.commits").tag("result", "success").register(meterRegistry);
+        failedCommits = Counter.builder("dispatch.kafka.commits").tag("result", "failure").register(meterRegistry);
+        Gauge.builder("dispatch.kafka.commit.lag", this, OffsetCommitMonitor::lag)
+                .description("Processed records whose offsets are not committed yet")
+                .register(meterRegistry);
+    }
+
+    public void processed(ConsumerRecord<?, ?> record) {
+        TopicPartition topicPartition = new TopicPartition(record.topic(), record.partition());
+        partitions.computeIfAbsent(topicPartition, tp -> new PartitionOffsets()).processed(record.offset() + 1, System.nanoTime());
+    }
+
+    @Override
+    public void onComplete(Map<TopicPartition, OffsetAndMetadata> offsets, Exception exception) {
+        if (exception != null) {
+            failedCommits.increment();
+            log.warn("Failed to commit offsets " + offsets + ". Offsets will be committed with the next commit.", exception);
+            return;
+        }
+        commits.increment();
+        long now = System.nanoTime();
+        offsets.forEach((topicPartition, offset) -> {
+            PartitionOffsets partitionOffsets = partitions.get(topicPartition);
+            if (partitionOffsets != null) {
+                long pendingSince = partitionOffsets.committed(offset.offset(), now);
+                if (pendingSince > 0) {
+                    commitLatency.record(now - pendingSince, TimeUnit.NANOSECONDS);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void onPartitionsRevokedAfterCommit(Consumer<?, ?> consumer, Collection<TopicPartition> revoked) {
+        for (TopicPartition topicPartition : revoked) {
+            PartitionOffsets partitionOffsets = partitions.remove(topicPartition);
+            if (partitionOffsets == null || partitionOffsets.lag() == 0) {
+                continue;
+            }
+            // the offset fetch is answered after the asynchronous commit sent by the container
+            OffsetAndMetadata committed = consumer.committed(topicPartition);
+            long processed = partitionOffsets.processed;
+            if (committed == null || committed.offset() < processed) {
+                log.warn("Partition " + topicPartition + " revoked with committed offset " + (committed == null ? "none" : committed.offset())
+                        + " behind processed offset " + processed + ". These records will be redelivered.");
+            }
+        }
+    }
+
+    double lag() {
+        long lag = 0;
+        for (PartitionOffsets partitionOffsets : partitions.values()) {
+            lag += partitionOffsets.lag();
+        }
+        return lag;
+    }
+
+    private static class PartitionOffsets {
+
+        private long first = -1;
+
+        private long processed = -1;
+
+        private long committed = -1;
+
+        private long pendingSince;
+
+        synchronized void processed(long offset, long now) {
+            if (offset > processed) {
+                if (first < 0) {
+                    first = offset - 1;
+                }
+                processed = offset;
+                if (pendingSince == 0) {
+                    pendingSince = now;
+                }
+            }
+        }
+
+        synchronized long committed(long offset, long now) {
+            if (offset <= committed) {
+                return 0;
+            }
+            committed = offset;
+            long since = pendingSince;
+            pendingSince = committed >= processed ? 0 : now;
+            return since;
+        }
+
+        synchronized long lag() {
+            return processed < 0 ? 0 : Math.max(processed - Math.max(committed, first), 0);
+        }
+    }
+}
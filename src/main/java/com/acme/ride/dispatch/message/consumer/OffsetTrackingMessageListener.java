@@ -0,0 +1,40 @@
+package com.acme.ride.dispatch.message.consumer;
+
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.springframework.kafka.listener.AcknowledgingConsumerAwareMessageListener;
+import org.springframework.kafka.listener.MessageListener;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Reports records to the {@link OffsetCommitMonitor} once they are processed. When the record is processed inside
+ * a surrounding transaction, it only counts as processed after that transaction commits.
+ */
+public class OffsetTrackingMessageListener<K, V> implements AcknowledgingConsumerAwareMessageListener<K, V> {
+
+    private final MessageListener<K, V> delegate;
+
+    private final OffsetCommitMonitor offsetCommitMonitor;
+
+    public OffsetTrackingMessageListener(MessageListener<K, V> delegate, OffsetCommitMonitor offsetCommitMonitor) {
+        this.delegate = delegate;
+        this.offsetCommitMonitor = offsetCommitMonitor;
+    }
+
+    @Override
+    public void onMessage(ConsumerRecord<K, V> record, Acknowledgment acknowledgment, Consumer<?, ?> consumer) {
+        delegate.onMessage(record, acknowledgment, consumer);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    offsetCommitMonitor.processed(record);
+                }
+            });
+        } else {
+            offsetCommitMonitor.processed(record);
+        }
+    }
+}
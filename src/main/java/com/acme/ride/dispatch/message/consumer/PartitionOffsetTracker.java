@@ -0,0 +1,91 @@
+package com.acme.ride.dispatch.message.consumer;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.springframework.kafka.support.Acknowledgment;
+
+/**
+ * Tracks the in-flight records of a partition. Records may complete in any order, but a record is only acknowledged
+ * once it and all records before it in the partition have completed.
+ */
+class PartitionOffsetTracker {
+
+    private final Deque<InFlightRecord> inFlight = new ArrayDeque<>();
+
+    private final Map<Long, InFlightRecord> inFlightByOffset = new HashMap<>();
+
+    private boolean revoked = false;
+
+    synchronized void add(long offset, Acknowledgment acknowledgment) {
+        InFlightRecord record = new InFlightRecord(offset, acknowledgment);
+        inFlight.addLast(record);
+        inFlightByOffset.put(offset, record);
+    }
+
+    synchronized void complete(long offset) {
+        InFlightRecord record = inFlightByOffset.remove(offset);
+        if (record == null) {
+            return;
+        }
+        record.completed = true;
+        Acknowledgment acknowledgment = null;
+        while (!inFlight.isEmpty() && inFlight.peekFirst().completed) {
+            acknowledgment = inFlight.pollFirst().acknowledgment;
+        }
+        if (acknowledgment != null && !revoked) {
+            acknowledgment.acknowledge();
+        }
+        if (inFlight.isEmpty()) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * Forgets the records from the offset on, which are redelivered after a seek. Their completion is ignored.
+     */
+    synchronized void truncate(long offset) {
+        while (!inFlight.isEmpty() && inFlight.peekLast().offset >= offset) {
+            inFlightByOffset.remove(inFlight.pollLast().offset);
+        }
+        if (inFlight.isEmpty()) {
+            notifyAll();
+        }
+    }
+
+    synchronized int size() {
+        return inFlight.size();
+    }
+
+    synchronized boolean awaitCompletion(long timeout) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeout;
+        while (!inFlight.isEmpty()) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return false;
+            }
+            wait(remaining);
+        }
+        return true;
+    }
+
+    synchronized void revoke() {
+        revoked = true;
+    }
+
+    private static class InFlightRecord {
+
+        private final long offset;
+
+        private final Acknowledgment acknowledgment;
+
+        private boolean completed = false;
+
+        InFlightRecord(long offset, Acknowledgment acknowledgment) {
+            this.offset = offset;
+            this.acknowledgment = acknowledgment;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.acme.ride.dispatch.message.consumer;
+
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.springframework.kafka.listener.AcknowledgingConsumerAwareMessageListener;
+import org.springframework.kafka.listener.MessageListener;
+import org.springframework.kafka.support.Acknowledgment;
+
+/**
+ * Listener for the retry topics: records are only processed once due. Requires manual acknowledgment, so that the
+ * offsets of records held back are not committed. A record which fails is only acknowledged once the error handler
+ * moved it to the next retry topic, with {@link #acknowledgeRecovered()}.
+ */
+public class RetryDelayMessageListener<K, V> implements AcknowledgingConsumerAwareMessageListener<K, V> {
+
+    // acknowledgment of the record which failed on the consumer thread, until the error handler recovers it
+    private static final ThreadLocal<Acknowledgment> failed = new ThreadLocal<>();
+
+    private final MessageListener<K, V> delegate;
+
+    private final RetryDelays retryDelays;
+
+    public RetryDelayMessageListener(MessageListener<K, V> delegate, RetryDelays retryDelays) {
+        this.delegate = delegate;
+        this.retryDelays = retryDelays;
+    }
+
+    @Override
+    public void onMessage(ConsumerRecord<K, V> record, Acknowledgment acknowledgment, Consumer<?, ?> consumer) {
+        retryDelays.resumeDue(consumer);
+        if (retryDelays.hold(record, consumer)) {
+            return;
+        }
+        failed.remove();
+        try {
+            delegate.onMessage(record, null, consumer);
+        } catch (RuntimeException e) {
+            failed.set(acknowledgment);
+            throw e;
+        }
+        acknowledgment.acknowledge();
+    }
+
+    /**
+     * Acknowledges the record which failed last on the current thread. Called by the error handler once the record
+     * has been sent to the next retry topic.
+     */
+    public static void acknowledgeRecovered() {
+        Acknowledgment acknowledgment = failed.get();
+        failed.remove();
+        if (acknowledgment != null) {
+            acknowledgment.acknowledge();
+        }
+    }
+}
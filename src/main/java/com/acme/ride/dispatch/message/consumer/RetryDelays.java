@@ -0,0 +1,71 @@
+package com.acme.ride.dispatch.message.consumer;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.context.ApplicationListener;
+import org.springframework.kafka.event.ListenerContainerIdleEvent;
+
+/**
+ * Holds back records of the retry topics until they are due. The partition of a record which is not due yet is
+ * paused and rewound to that record, and resumed once the record is due, either on the next record of the consumer
+ * or on the next idle event of its container. Must only be used from the consumer thread.
+ */
+public class RetryDelays implements ApplicationListener<ListenerContainerIdleEvent> {
+
+    private final String listenerId;
+
+    private final Map<TopicPartition, Long> pausedUntil = new ConcurrentHashMap<>();
+
+    public RetryDelays(String listenerId) {
+        this.listenerId = listenerId;
+    }
+
+    public boolean hold(ConsumerRecord<?, ?> record, Consumer<?, ?> consumer) {
+        TopicPartition topicPartition = new TopicPartition(record.topic(), record.partition());
+        if (pausedUntil.containsKey(topicPartition) && consumer.paused().contains(topicPartition)) {
+            // remaining records of a partition paused earlier in the same poll
+            return true;
+        }
+        long due = RetryTopicRecoverer.longHeader(record.headers(), RetryTopicRecoverer.RETRY_DUE);
+        if (due <= System.currentTimeMillis()) {
+            pausedUntil.remove(topicPartition);
+            return false;
+        }
+        consumer.pause(Collections.singleton(topicPartition));
+        consumer.seek(topicPartition, record.offset());
+        pausedUntil.put(topicPartition, due);
+        return true;
+    }
+
+    public void resumeDue(Consumer<?, ?> consumer) {
+        if (pausedUntil.isEmpty()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        Set<TopicPartition> paused = consumer.paused();
+        Iterator<Map.Entry<TopicPartition, Long>> entries = pausedUntil.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<TopicPartition, Long> entry = entries.next();
+            if (entry.getValue() <= now) {
+                if (paused.contains(entry.getKey())) {
+                    consumer.resume(Collections.singleton(entry.getKey()));
+                }
+                entries.remove();
+            }
+        }
+    }
+
+    @Override
+    public void onApplicationEvent(ListenerContainerIdleEvent event) {
+        if (event.getListenerId() != null && event.getListenerId().startsWith(listenerId)) {
+            resumeDue(event.getConsumer());
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.acme.ride.dispatch.message.consumer;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.kafka.listener.AfterRollbackProcessor;
+import org.springframework.kafka.listener.ContainerAwareErrorHandler;
+import org.springframework.kafka.listener.MessageListenerContainer;
+
+/**
+ * Hands the failed record of a record listener to the recoverer, and seeks the partitions to the records of the poll
+ * which have not been processed yet, so that the next poll returns them. When the recoverer fails, the failed record is
+ * sought too and is redelivered.
+ * The container must not acknowledge failed records (<code>ackOnError</code>): the offset of a recovered record is
+ * committed with the next record of its partition, the offset of a record which could not be recovered is not.
+ */
+public class RetryTopicErrorHandler<K, V> implements ContainerAwareErrorHandler, AfterRollbackProcessor<K, V> {
+
+    private final static Logger log = LoggerFactory.getLogger(RetryTopicErrorHandler.class);
+
+    private final BiConsumer<ConsumerRecord<?, ?>, Exception> recoverer;
+
+    public RetryTopicErrorHandler(BiConsumer<ConsumerRecord<?, ?>, Exception> recoverer) {
+        this.recoverer = recoverer;
+    }
+
+    @Override
+    public void handle(Exception thrownException, List<ConsumerRecord<?, ?>> records, Consumer<?, ?> consumer,
+                       MessageListenerContainer container) {
+        recover(records, consumer, thrownException);
+    }
+
+    @Override
+    public void process(List<ConsumerRecord<K, V>> records, Consumer<K, V> consumer, Exception exception, boolean recoverable) {
+        recover(records, consumer, exception);
+    }
+
+    @Override
+    public void clearThreadState() {
+        // no state is kept between failures
+    }
+
+    private void recover(List<? extends ConsumerRecord<?, ?>> records, Consumer<?, ?> consumer, Exception exception) {
+        if (records.isEmpty()) {
+            return;
+        }
+        ConsumerRecord<?, ?> failed = records.get(0);
+        int first = 1;
+        try {
+            recoverer.accept(failed, exception);
+        } catch (RuntimeException e) {
+            log.error("Unable to recover record for ride " + failed.key() + " from topic:partition:offset " + failed.topic() + ":"
+                    + failed.partition() + ":" + failed.offset() + ". The record will be redelivered.", e);
+            first = 0;
+        }
+        Map<TopicPartition, Long> offsets = new LinkedHashMap<>();
+        for (ConsumerRecord<?, ?> record : records.subList(first, records.size())) {
+            offsets.putIfAbsent(new TopicPartition(record.topic(), record.partition()), record.offset());
+        }
+        offsets.forEach(consumer::seek);
+    }
+}
@@ -0,0 +1,149 @@
+package com.acme.ride.dispatch.message.consumer;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+
+import com.acme.ride.dispatch.message.model.Message;
+import com.acme.ride.dispatch.message.serialization.DecodeFailure;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.KafkaHeaders;
+
+/**
+ * Moves a failed record to the next retry topic, or to the dead letter topic when all retry tiers are exhausted.
+ * The original headers are kept. Headers with the origin of the record are added on the first failure, and headers
+ * with the cause of the last failure, the attempt number and the time the record is due for retry on every failure.
+ *
+ * Records which could not be decoded are not retried, they are moved to the dead letter topic as they were received.
+ *
+ * The send is waited for: when the record cannot be moved, an exception is thrown and the caller must not commit the
+ * offset of the record, so that it is redelivered.
+ */
+public class RetryTopicRecoverer implements BiConsumer<ConsumerRecord<?, ?>, Exception> {
+
+    public static final String RETRY_ATTEMPT = "dispatch_retry_attempt";
+
+    public static final String RETRY_DUE = "dispatch_retry_due";
+
+    private final static Logger log = LoggerFactory.getLogger(RetryTopicRecoverer.class);
+
+    private final KafkaTemplate<String, Message<?>> kafkaTemplate;
+
+    private final RetryTopics retryTopics;
+
+    private final Counter[] retries;
+
+    private final Counter deadLetters;
+
+    private final long sendTimeout;
+
+    public RetryTopicRecoverer(KafkaTemplate<String, Message<?>> kafkaTemplate, RetryTopics retryTopics, long sendTimeout,
+                               MeterRegistry meterRegistry) {
+        this.kafkaTemplate = kafkaTemplate;
+        this.retryTopics = retryTopics;
+        this.sendTimeout = sendTimeout;
+        this.retries = new Counter[retryTopics.getTiers()];
+        for (int i = 0; i < retries.length; i++) {
+            retries[i] = Counter.builder("dispatch.kafka.retries").tag("topic", retryTopics.getTopic(i)).register(meterRegistry);
+        }
+        this.deadLetters = Counter.builder("dispatch.kafka.dead-letters").tag("topic", retryTopics.getDeadLetterTopic()).register(meterRegistry);
+    }
+
+    @Override
+    public void accept(ConsumerRecord<?, ?> record, Exception exception) {
+        if (!(record.value() instanceof Message)) {
+            log.error("Record for ride " + record.key() + " from topic:partition:offset " + record.topic() + ":" + record.partition()
+                    + ":" + record.offset() + " has no message and cannot be retried", exception);
+            return;
+        }
+        int attempt = intHeader(record.headers(), RETRY_ATTEMPT);
+        Headers headers = new RecordHeaders();
+        for (Header header : record.headers()) {
+            if (!isFailureHeader(header.key())) {
+                headers.add(header);
+            }
+        }
+        if (record.headers().lastHeader(KafkaHeaders.DLT_ORIGINAL_TOPIC) == null) {
+            headers.add(KafkaHeaders.DLT_ORIGINAL_TOPIC, record.topic().getBytes(StandardCharsets.UTF_8));
+            headers.add(KafkaHeaders.DLT_ORIGINAL_PARTITION, ByteBuffer.allocate(Integer.BYTES).putInt(record.partition()).array());
+            headers.add(KafkaHeaders.DLT_ORIGINAL_OFFSET, ByteBuffer.allocate(Long.BYTES).putLong(record.offset()).array());
+            headers.add(KafkaHeaders.DLT_ORIGINAL_TIMESTAMP, ByteBuffer.allocate(Long.BYTES).putLong(record.timestamp()).array());
+        }
+        Throwable cause = rootCause(exception);
+        headers.add(KafkaHeaders.DLT_EXCEPTION_FQCN, cause.getClass().getName().getBytes(StandardCharsets.UTF_8));
+        if (cause.getMessage() != null) {
+            headers.add(KafkaHeaders.DLT_EXCEPTION_MESSAGE, cause.getMessage().getBytes(StandardCharsets.UTF_8));
+        }
+        headers.add(KafkaHeaders.DLT_EXCEPTION_STACKTRACE, stackTrace(cause).getBytes(StandardCharsets.UTF_8));
+        headers.add(RETRY_ATTEMPT, ByteBuffer.allocate(Integer.BYTES).putInt(attempt + 1).array());
+
+        Message<?> message = (Message<?>) record.value();
+        String topic;
+        Counter counter;
+        if (attempt < retryTopics.getTiers() && !(message.getPayload() instanceof DecodeFailure)) {
+            topic = retryTopics.getTopic(attempt);
+            long due = System.currentTimeMillis() + retryTopics.getDelay(attempt);
+            headers.add(RETRY_DUE, ByteBuffer.allocate(Long.BYTES).putLong(due).array());
+            counter = retries[attempt];
+        } else {
+            topic = retryTopics.getDeadLetterTopic();
+            counter = deadLetters;
+        }
+        String key = record.key() == null ? null : record.key().toString();
+        log.warn("Error processing msg " + message.getId() + " for ride " + key + " (attempt " + (attempt + 1) + "): "
+                + cause + ". Sending to " + topic);
+        try {
+            kafkaTemplate.send(new ProducerRecord<>(topic, null, key, message, headers)).get(sendTimeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while sending msg " + message.getId() + " to " + topic, e);
+        } catch (ExecutionException | TimeoutException e) {
+            throw new IllegalStateException("Error sending msg " + message.getId() + " to " + topic, e);
+        }
+        counter.increment();
+        log.debug("Sent msg " + message.getId() + " to " + topic);
+    }
+
+    static int intHeader(Headers headers, String key) {
+        Header header = headers.lastHeader(key);
+        return header == null ? 0 : ByteBuffer.wrap(header.value()).getInt();
+    }
+
+    static long longHeader(Headers headers, String key) {
+        Header header = headers.lastHeader(key);
+        return header == null ? 0 : ByteBuffer.wrap(header.value()).getLong();
+    }
+
+    private boolean isFailureHeader(String key) {
+        return RETRY_ATTEMPT.equals(key) || RETRY_DUE.equals(key) || KafkaHeaders.DLT_EXCEPTION_FQCN.equals(key)
+                || KafkaHeaders.DLT_EXCEPTION_MESSAGE.equals(key) || KafkaHeaders.DLT_EXCEPTION_STACKTRACE.equals(key);
+    }
+
+    private Throwable rootCause(Throwable exception) {
+        Throwable cause = exception;
+        while (cause.getCause() != null && cause.getCause() != cause) {
+            cause = cause.getCause();
+        }
+        return cause;
+    }
+
+    private String stackTrace(Throwable cause) {
+        StringWriter writer = new StringWriter();
+        cause.printStackTrace(new PrintWriter(writer));
+        return writer.toString();
+    }
+}
@@ -0,0 +1,43 @@
+package com.acme.ride.dispatch.message.consumer;
+
+/**
+ * Retry tiers for failed records. A record failing for the n-th time is sent to the n-th retry topic, and processed
+ * again once the delay of that tier has elapsed. A record failing after the last tier goes to the dead letter topic.
+ */
+public class RetryTopics {
+
+    private final String[] topics;
+
+    private final long[] delays;
+
+    private final String deadLetterTopic;
+
+    public RetryTopics(String topicPrefix, long[] delays, String deadLetterTopic) {
+        this.topics = new String[delays.length];
+        for (int i = 0; i < delays.length; i++) {
+            topics[i] = topicPrefix + "-" + (i + 1);
+        }
+        this.delays = delays;
+        this.deadLetterTopic = deadLetterTopic;
+    }
+
+    public String[] getTopics() {
+        return topics;
+    }
+
+    public int getTiers() {
+        return topics.length;
+    }
+
+    public String getTopic(int tier) {
+        return topics[tier];
+    }
+
+    public long getDelay(int tier) {
+        return delays[tier];
+    }
+
+    public String getDeadLetterTopic() {
+        return deadLetterTopic;
+    }
+}
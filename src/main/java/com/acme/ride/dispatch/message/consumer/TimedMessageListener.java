@@ -0,0 +1,37 @@
+package com.acme.ride.dispatch.message.consumer;
+
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.kafka.listener.AcknowledgingConsumerAwareMessageListener;
+import org.springframework.kafka.listener.MessageListener;
+import org.springframework.kafka.support.Acknowledgment;
+
+/**
+ * Reports the processing time of every record, including the time spent waiting for database connections,
+ * to the {@link BackpressureController}. On the consumer thread, the pauses of the controller are applied first.
+ */
+public class TimedMessageListener<K, V> implements AcknowledgingConsumerAwareMessageListener<K, V> {
+
+    private final MessageListener<K, V> delegate;
+
+    private final BackpressureController backpressureController;
+
+    public TimedMessageListener(MessageListener<K, V> delegate, BackpressureController backpressureController) {
+        this.delegate = delegate;
+        this.backpressureController = backpressureController;
+    }
+
+    @Override
+    public void onMessage(ConsumerRecord<K, V> record, Acknowledgment acknowledgment, Consumer<?, ?> consumer) {
+        if (consumer != null) {
+            backpressureController.apply(consumer);
+        }
+        long start = System.nanoTime();
+        try {
+            delegate.onMessage(record, acknowledgment, consumer);
+        } finally {
+            backpressureController.processed(new TopicPartition(record.topic(), record.partition()), System.nanoTime() - start);
+        }
+    }
+}
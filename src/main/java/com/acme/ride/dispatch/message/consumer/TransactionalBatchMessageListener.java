@@ -0,0 +1,75 @@
+package com.acme.ride.dispatch.message.consumer;
+
+import java.util.List;
+import java.util.function.BiConsumer;
+
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.kafka.listener.BatchAcknowledgingConsumerAwareMessageListener;
+import org.springframework.kafka.listener.MessageListener;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Hands the records of a poll to a record listener inside a transaction per chunk of records. The listener's own
+ * transactions join the chunk transaction.
+ * When a chunk fails, it is split in two and each half is processed in its own transaction, until the failing record
+ * is isolated. Only that record is then reported as failed, the other records of the chunk are committed.
+ * When the failed record cannot be recovered, the exception of the recoverer is thrown and the batch fails.
+ */
+public class TransactionalBatchMessageListener<K, V> implements BatchAcknowledgingConsumerAwareMessageListener<K, V> {
+
+    private final static Logger log = LoggerFactory.getLogger(TransactionalBatchMessageListener.class);
+
+    private final MessageListener<K, V> delegate;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final int transactionSize;
+
+    private BiConsumer<ConsumerRecord<?, ?>, Exception> recoverer;
+
+    public TransactionalBatchMessageListener(MessageListener<K, V> delegate, TransactionTemplate transactionTemplate, int transactionSize) {
+        this.delegate = delegate;
+        this.transactionTemplate = transactionTemplate;
+        this.transactionSize = transactionSize;
+    }
+
+    public void setRecoverer(BiConsumer<ConsumerRecord<?, ?>, Exception> recoverer) {
+        this.recoverer = recoverer;
+    }
+
+    @Override
+    public void onMessage(List<ConsumerRecord<K, V>> records, Acknowledgment acknowledgment, Consumer<?, ?> consumer) {
+        for (int from = 0; from < records.size(); from += transactionSize) {
+            process(records.subList(from, Math.min(from + transactionSize, records.size())), consumer);
+        }
+    }
+
+    private void process(List<ConsumerRecord<K, V>> records, Consumer<?, ?> consumer) {
+        try {
+            transactionTemplate.execute((TransactionStatus s) -> {
+                records.forEach(record -> delegate.onMessage(record, null, consumer));
+                return null;
+            });
+        } catch (RuntimeException e) {
+            if (records.size() == 1) {
+                ConsumerRecord<K, V> record = records.get(0);
+                if (recoverer != null) {
+                    recoverer.accept(record, e);
+                } else {
+                    log.error("Error processing record for ride " + record.key() + " from topic:partition:offset " + record.topic()
+                            + ":" + record.partition() + ":" + record.offset(), e);
+                }
+                return;
+            }
+            log.debug("Error processing batch of " + records.size() + " records. Splitting batch.");
+            int middle = records.size() / 2;
+            process(records.subList(0, middle), consumer);
+            process(records.subList(middle, records.size()), consumer);
+        }
+    }
+}
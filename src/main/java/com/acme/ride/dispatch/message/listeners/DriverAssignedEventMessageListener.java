@@ -1,29 +1,19 @@
 package com.acme.ride.dispatch.message.listeners;
 
+import javax.annotation.PostConstruct;
+
 import com.acme.ride.dispatch.dao.RideDao;
 import com.acme.ride.dispatch.entity.Ride;
 import com.acme.ride.dispatch.message.model.DriverAssignedEvent;
 import com.acme.ride.dispatch.message.model.Message;
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.jayway.jsonpath.JsonPath;
+import com.acme.ride.dispatch.query.RideProjection;
+import com.acme.ride.dispatch.registry.ActiveRideRegistry;
 
 import org.jbpm.services.api.ProcessService;
-import org.kie.api.runtime.process.ProcessInstance;
-import org.kie.internal.KieInternalServices;
-import org.kie.internal.process.CorrelationKey;
-import org.kie.internal.process.CorrelationKeyFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.kafka.annotation.KafkaListener;
-import org.springframework.kafka.support.KafkaHeaders;
-import org.springframework.messaging.handler.annotation.Header;
-import org.springframework.messaging.handler.annotation.Payload;
 import org.springframework.stereotype.Component;
-import org.springframework.transaction.PlatformTransactionManager;
-import org.springframework.transaction.TransactionStatus;
-import org.springframework.transaction.support.TransactionTemplate;
 
 @Component
 public class DriverAssignedEventMessageListener {
@@ -34,59 +24,35 @@ public class DriverAssignedEventMessageListener {
     private ProcessService processService;
 
     @Autowired
-    private PlatformTransactionManager transactionManager;
+    private MessageDispatcher messageDispatcher;
 
     @Autowired
     private RideDao rideDao;
 
-    private CorrelationKeyFactory correlationKeyFactory = KieInternalServices.Factory.get().newCorrelationKeyFactory();
-
-    @KafkaListener(topics = "${listener.destination.driver-assigned-event}")
-    public void processMessage(@Payload String messageAsJson, @Header(KafkaHeaders.RECEIVED_MESSAGE_KEY) String key,
-                               @Header(KafkaHeaders.RECEIVED_TOPIC) String topic,
-                               @Header(KafkaHeaders.RECEIVED_PARTITION_ID) int partition) {
-
-        if (!accept(messageAsJson)) {
-            return;
-        }
+    @Autowired
+    private ProcessInstanceIdCache processInstanceIdCache;
 
-        Message<DriverAssignedEvent> message;
-        try {
+    @Autowired
+    private ActiveRideRegistry activeRideRegistry;
 
-            message = new ObjectMapper().readValue(messageAsJson, new TypeReference<Message<DriverAssignedEvent>>() {});
+    @Autowired
+    private RideProjection rideProjection;
 
-            String rideId = message.getPayload().getRideId();
+    @PostConstruct
+    public void init() {
+        messageDispatcher.addHandler("DriverAssignedEvent", this::processMessage);
+    }
 
-            log.debug("Processing 'DriverAssignedEvent' message for ride " + key + " from topic:partition " + topic + ":" + partition);
+    private void processMessage(Message<DriverAssignedEvent> message, String key, String topic, int partition) {
 
-            CorrelationKey correlationKey = correlationKeyFactory.newCorrelationKey(rideId);
+        String rideId = message.getPayload().getRideId();
 
-            TransactionTemplate template = new TransactionTemplate(transactionManager);
-            template.execute((TransactionStatus s) -> {
-                Ride ride = rideDao.findByRideId(rideId);
-                ride.setDriverId(message.getPayload().getDriverId());
-                ProcessInstance instance = processService.getProcessInstance(correlationKey);
-                processService.signalProcessInstance(instance.getId(), "DriverAssigned", null);
-                return null;
-            });
-        } catch (Exception e) {
-            log.error("Error processing msg " + messageAsJson, e);
-            throw new IllegalStateException(e.getMessage(), e);
-        }
-    }
+        log.debug("Processing 'DriverAssignedEvent' message for ride " + key + " from topic:partition " + topic + ":" + partition);
 
-    private boolean accept(String messageAsJson) {
-        try {
-            String messageType = JsonPath.read(messageAsJson, "$.messageType");
-            if (!"DriverAssignedEvent".equalsIgnoreCase(messageType) ) {
-                log.debug("Message with type '" + messageType + "' is ignored");
-                return false;
-            }
-            return true;
-        } catch (Exception e) {
-            log.warn("Unexpected message without 'messageType' field.");
-            return false;
-        }
+        Ride ride = rideDao.findByRideId(rideId);
+        ride.setDriverId(message.getPayload().getDriverId());
+        activeRideRegistry.updateDriver(rideId, message.getPayload().getDriverId());
+        rideProjection.updateDriver(rideId, message.getPayload().getDriverId());
+        processService.signalProcessInstance(processInstanceIdCache.getProcessInstanceId(rideId), "DriverAssigned", null);
     }
-
 }
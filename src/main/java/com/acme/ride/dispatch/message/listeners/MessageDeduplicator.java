@@ -0,0 +1,73 @@
+package com.acme.ride.dispatch.message.listeners;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.annotation.PostConstruct;
+
+import com.acme.ride.dispatch.dao.ProcessedMessageDao;
+import com.acme.ride.dispatch.entity.ProcessedMessage;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Detects redelivered messages by message id. Ids of processed messages are stored in the same transaction as the
+ * processing of the message, and the most recent ids are kept in a bounded in-memory cache in front of the table.
+ */
+@Component
+public class MessageDeduplicator {
+
+    @Autowired
+    private ProcessedMessageDao processedMessageDao;
+
+    @Value("${dispatch.dedup.cache-size}")
+    private int cacheSize;
+
+    private Map<String, Boolean> processedIds;
+
+    @PostConstruct
+    public void init() {
+        processedIds = Collections.synchronizedMap(new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > cacheSize;
+            }
+        });
+    }
+
+    public boolean isDuplicate(String messageId) {
+        if (messageId == null) {
+            return false;
+        }
+        if (processedIds.containsKey(messageId)) {
+            return true;
+        }
+        if (processedMessageDao.exists(messageId)) {
+            processedIds.put(messageId, Boolean.TRUE);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Records the message as processed. Must be called inside the transaction processing the message: a concurrent
+     * duplicate fails on the primary key and rolls back.
+     */
+    public void processed(String messageId) {
+        if (messageId == null) {
+            return;
+        }
+        processedMessageDao.create(new ProcessedMessage(messageId));
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    processedIds.put(messageId, Boolean.TRUE);
+                }
+            });
+        }
+    }
+}
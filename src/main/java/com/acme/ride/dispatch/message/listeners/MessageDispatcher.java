@@ -0,0 +1,150 @@
+package com.acme.ride.dispatch.message.listeners;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import javax.annotation.PostConstruct;
+
+import com.acme.ride.dispatch.message.model.Message;
+import com.acme.ride.dispatch.message.serialization.DecodeFailure;
+import com.acme.ride.dispatch.timer.RidePartition;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.messaging.handler.annotation.Header;
+import org.springframework.messaging.handler.annotation.Payload;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Single listener for all the topics consumed by the service, and for the retry topics of messages which failed.
+ * Messages are routed by message type to the handler registered for that type, in a transaction which also records
+ * the message as processed. The partition of the ride is set for the timers scheduled by the handler: it is the
+ * partition of the message, or the original partition of a message consumed from a retry topic.
+ */
+@Component
+public class MessageDispatcher {
+
+    public static final String RETRY_LISTENER_ID = "dispatch-retry";
+
+    private final static Logger log = LoggerFactory.getLogger(MessageDispatcher.class);
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private MessageDeduplicator messageDeduplicator;
+
+    @Autowired
+    private KafkaTemplate<String, Message<?>> kafkaTemplate;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private TransactionTemplate transactionTemplate;
+
+    private Map<String, MessageHandler<?>> handlers = new HashMap<>();
+
+    private Map<String, MessageHandler<?>> redeliveryHandlers = new HashMap<>();
+
+    @PostConstruct
+    public void init() {
+        transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    @SuppressWarnings("unchecked")
+    @KafkaListener(topics = {"${listener.destination.ride-event}", "${listener.destination.driver-assigned-event}",
+            "${listener.destination.passenger-canceled-event}"})
+    @KafkaListener(id = RETRY_LISTENER_ID, idIsGroup = false, topics = "#{@retryTopics.topics}", containerFactory = "retryKafkaListenerContainerFactory")
+    public void processMessage(@Payload Message<?> message, @Header(KafkaHeaders.RECEIVED_MESSAGE_KEY) String key,
+                               @Header(KafkaHeaders.RECEIVED_TOPIC) String topic,
+                               @Header(KafkaHeaders.RECEIVED_PARTITION_ID) int partition,
+                               @Header(name = KafkaHeaders.DLT_ORIGINAL_PARTITION, required = false) byte[] originalPartition) {
+        int ridePartition = originalPartition == null ? partition : ByteBuffer.wrap(originalPartition).getInt();
+
+        if (message.getPayload() instanceof DecodeFailure) {
+            // handed to the recoverer, which moves the raw record to the dead letter topic
+            throw new IllegalStateException("Unable to decode message: " + ((DecodeFailure) message.getPayload()).getReason());
+        }
+        MessageHandler<Object> handler = (MessageHandler<Object>) handlers.get(message.getMessageType());
+        if (handler == null) {
+            log.debug("Message with type '" + message.getMessageType() + "' is ignored");
+            return;
+        }
+        // In exactly-once mode the record is consumed in a Kafka transaction, which commits the commands and the offset
+        // of the record once the JTA transaction below has committed. The two commits are not atomic: when the Kafka
+        // commit fails after the JTA commit, the record is redelivered with its id already stored as processed, and the
+        // commands of the first delivery were aborted. Such a duplicate is handed to the redelivery handler of its type,
+        // which sends the pending commands again. Commands may therefore still be sent twice: consumers must keep
+        // deduplicating.
+        if (messageDeduplicator.isDuplicate(message.getId())) {
+            if (kafkaTemplate.inTransaction()) {
+                redelivered((Message<Object>) message, key, topic, partition);
+            } else {
+                log.debug("Message " + message.getId() + " is a duplicate and is ignored");
+            }
+            return;
+        }
+        try {
+            transactionTemplate.execute((TransactionStatus s) -> {
+                messageDeduplicator.processed(message.getId());
+                RidePartition.set(ridePartition);
+                try {
+                    handler.handle((Message<Object>) message, key, topic, partition);
+                } finally {
+                    RidePartition.clear();
+                }
+                return null;
+            });
+        } catch (Exception e) {
+            log.error("Error processing msg " + message.getId(), e);
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+
+    public void processMessage(Message<?> message, String key, String topic, int partition) {
+        processMessage(message, key, topic, partition, null);
+    }
+
+    <T> void addHandler(String messageType, MessageHandler<T> handler) {
+        handlers.put(messageType, handler);
+    }
+
+    /**
+     * Registers the handler of the messages of the type which are redelivered in a Kafka transaction after they were
+     * processed. It must send again the commands which are still pending, and is called in a transaction.
+     */
+    <T> void addRedeliveryHandler(String messageType, MessageHandler<T> handler) {
+        redeliveryHandlers.put(messageType, handler);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void redelivered(Message<Object> message, String key, String topic, int partition) {
+        MessageHandler<Object> handler = (MessageHandler<Object>) redeliveryHandlers.get(message.getMessageType());
+        Counter.builder("dispatch.messages.redelivered").tag("type", message.getMessageType())
+                .tag("handled", String.valueOf(handler != null)).register(meterRegistry).increment();
+        if (handler == null) {
+            log.error("Message " + message.getId() + " of type '" + message.getMessageType() + "' for ride " + key
+                    + " redelivered after its transaction committed. The commands it sent may be lost");
+            return;
+        }
+        log.warn("Message " + message.getId() + " of type '" + message.getMessageType() + "' for ride " + key
+                + " redelivered after its transaction committed. Pending commands are sent again");
+        try {
+            transactionTemplate.execute((TransactionStatus s) -> {
+                handler.handle(message, key, topic, partition);
+                return null;
+            });
+        } catch (Exception e) {
+            log.error("Error processing redelivered msg " + message.getId(), e);
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package com.acme.ride.dispatch.message.listeners;
+
+import com.acme.ride.dispatch.message.model.Message;
+
+@FunctionalInterface
+public interface MessageHandler<T> {
+
+    void handle(Message<T> message, String key, String topic, int partition);
+}
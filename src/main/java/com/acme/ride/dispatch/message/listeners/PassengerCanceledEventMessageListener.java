@@ -1,27 +1,15 @@
 package com.acme.ride.dispatch.message.listeners;
 
+import javax.annotation.PostConstruct;
+
 import com.acme.ride.dispatch.dao.RideDao;
 import com.acme.ride.dispatch.message.model.Message;
 import com.acme.ride.dispatch.message.model.PassengerCanceledEvent;
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.jayway.jsonpath.JsonPath;
 import org.jbpm.services.api.ProcessService;
-import org.kie.api.runtime.process.ProcessInstance;
-import org.kie.internal.KieInternalServices;
-import org.kie.internal.process.CorrelationKey;
-import org.kie.internal.process.CorrelationKeyFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.kafka.annotation.KafkaListener;
-import org.springframework.kafka.support.KafkaHeaders;
-import org.springframework.messaging.handler.annotation.Header;
-import org.springframework.messaging.handler.annotation.Payload;
 import org.springframework.stereotype.Component;
-import org.springframework.transaction.PlatformTransactionManager;
-import org.springframework.transaction.TransactionStatus;
-import org.springframework.transaction.support.TransactionTemplate;
 
 @Component
 public class PassengerCanceledEventMessageListener {
@@ -32,56 +20,25 @@ public class PassengerCanceledEventMessageListener {
     private ProcessService processService;
 
     @Autowired
-    private PlatformTransactionManager transactionManager;
+    private MessageDispatcher messageDispatcher;
 
     @Autowired
     private RideDao rideDao;
 
-    private CorrelationKeyFactory correlationKeyFactory = KieInternalServices.Factory.get().newCorrelationKeyFactory();
-
-    @KafkaListener(topics = "${listener.destination.passenger-canceled-event}")
-    public void processMessage(@Payload String messageAsJson, @Header(KafkaHeaders.RECEIVED_MESSAGE_KEY) String key,
-                               @Header(KafkaHeaders.RECEIVED_TOPIC) String topic,
-                               @Header(KafkaHeaders.RECEIVED_PARTITION_ID) int partition) {
-
-        if (!accept(messageAsJson)) {
-            return;
-        }
-
-        Message<PassengerCanceledEvent> message;
-        try {
-
-            message = new ObjectMapper().readValue(messageAsJson, new TypeReference<Message<PassengerCanceledEvent>>() {});
+    @Autowired
+    private ProcessInstanceIdCache processInstanceIdCache;
 
-            String rideId = message.getPayload().getRideId();
+    @PostConstruct
+    public void init() {
+        messageDispatcher.addHandler("PassengerCanceledEvent", this::processMessage);
+    }
 
-            log.debug("Processing 'PassengerCanceled' message for ride " + key + " from topic:partition " + topic + ":" + partition);
+    private void processMessage(Message<PassengerCanceledEvent> message, String key, String topic, int partition) {
 
-            CorrelationKey correlationKey = correlationKeyFactory.newCorrelationKey(rideId);
+        String rideId = message.getPayload().getRideId();
 
-            TransactionTemplate template = new TransactionTemplate(transactionManager);
-            template.execute((TransactionStatus s) -> {
-                ProcessInstance instance = processService.getProcessInstance(correlationKey);
-                processService.signalProcessInstance(instance.getId(), "PassengerCanceled", null);
-                return null;
-            });
-        } catch (Exception e) {
-            log.error("Error processing msg " + messageAsJson, e);
-            throw new IllegalStateException(e.getMessage(), e);
-        }
-    }
+        log.debug("Processing 'PassengerCanceled' message for ride " + key + " from topic:partition " + topic + ":" + partition);
 
-    private boolean accept(String messageAsJson) {
-        try {
-            String messageType = JsonPath.read(messageAsJson, "$.messageType");
-            if (!"PassengerCanceledEvent".equalsIgnoreCase(messageType) ) {
-                log.debug("Message with type '" + messageType + "' is ignored");
-                return false;
-            }
-            return true;
-        } catch (Exception e) {
-            log.warn("Unexpected message without 'messageType' field.");
-            return false;
-        }
+        processService.signalProcessInstance(processInstanceIdCache.getProcessInstanceId(rideId), "PassengerCanceled", null);
     }
 }
@@ -0,0 +1,106 @@
+package com.acme.ride.dispatch.message.listeners;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.annotation.PostConstruct;
+
+import com.acme.ride.dispatch.registry.ActiveRideRegistry;
+import org.jbpm.services.api.ProcessService;
+import org.kie.api.event.process.DefaultProcessEventListener;
+import org.kie.api.event.process.ProcessCompletedEvent;
+import org.kie.api.runtime.process.ProcessInstance;
+import org.kie.api.runtime.process.WorkflowProcessInstance;
+import org.kie.internal.KieInternalServices;
+import org.kie.internal.process.CorrelationKeyFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Bounded cache of ride id to process instance id, so that signalling a ride's process does not need to look up the
+ * process instance by correlation key. Entries are added when the process is started and removed when it completes;
+ * on a miss the process instance is looked up in the engine. When the active ride registry is enabled, the ids are
+ * kept there instead.
+ *
+ * Registered in the runtime engines as process event listener.
+ */
+@Component
+public class ProcessInstanceIdCache extends DefaultProcessEventListener {
+
+    @Autowired
+    private ProcessService processService;
+
+    @Autowired
+    private ActiveRideRegistry activeRideRegistry;
+
+    @Value("${dispatch.process-instance.cache-size}")
+    private int cacheSize;
+
+    private Map<String, Long> processInstanceIds;
+
+    private CorrelationKeyFactory correlationKeyFactory = KieInternalServices.Factory.get().newCorrelationKeyFactory();
+
+    @PostConstruct
+    public void init() {
+        processInstanceIds = Collections.synchronizedMap(new LinkedHashMap<String, Long>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                return size() > cacheSize;
+            }
+        });
+    }
+
+    public Long getProcessInstanceId(String rideId) {
+        Long processInstanceId = activeRideRegistry.isEnabled() ? activeRideRegistry.getProcessInstanceId(rideId) : null;
+        if (processInstanceId == null) {
+            processInstanceId = processInstanceIds.get(rideId);
+        }
+        if (processInstanceId != null) {
+            return processInstanceId;
+        }
+        ProcessInstance instance = processService.getProcessInstance(correlationKeyFactory.newCorrelationKey(rideId));
+        if (instance == null) {
+            throw new IllegalStateException("No active process instance for ride " + rideId);
+        }
+        cache(rideId, instance.getId());
+        return instance.getId();
+    }
+
+    /**
+     * Caches the id of a newly started process instance once the transaction that started it commits.
+     */
+    public void started(String rideId, Long processInstanceId) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    cache(rideId, processInstanceId);
+                }
+            });
+        } else {
+            cache(rideId, processInstanceId);
+        }
+    }
+
+    private void cache(String rideId, long processInstanceId) {
+        // rides which do not fit in the registry go to the map
+        if (!activeRideRegistry.putProcessInstanceId(rideId, processInstanceId)) {
+            processInstanceIds.put(rideId, processInstanceId);
+        }
+    }
+
+    @Override
+    public void afterProcessCompleted(ProcessCompletedEvent event) {
+        ProcessInstance instance = event.getProcessInstance();
+        if (instance instanceof WorkflowProcessInstance) {
+            Object rideId = ((WorkflowProcessInstance) instance).getVariable("rideId");
+            if (rideId != null) {
+                processInstanceIds.remove(rideId.toString(), instance.getId());
+                activeRideRegistry.remove(rideId.toString());
+            }
+        }
+    }
+}
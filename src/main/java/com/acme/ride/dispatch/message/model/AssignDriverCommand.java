@@ -29,4 +29,24 @@ public class AssignDriverCommand {
 
         return command;
     }
+
+    public String getRideId() {
+        return rideId;
+    }
+
+    public String getPickup() {
+        return pickup;
+    }
+
+    public String getDestination() {
+        return destination;
+    }
+
+    public BigDecimal getPrice() {
+        return price;
+    }
+
+    public String getPassengerId() {
+        return passengerId;
+    }
 }
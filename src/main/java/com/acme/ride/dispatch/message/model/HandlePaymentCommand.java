@@ -24,4 +24,16 @@ public class HandlePaymentCommand {
 
         return command;
     }
+
+    public String getRideId() {
+        return rideId;
+    }
+
+    public String getPassengerId() {
+        return passengerId;
+    }
+
+    public BigDecimal getPrice() {
+        return price;
+    }
 }
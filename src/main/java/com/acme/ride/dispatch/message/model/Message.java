@@ -37,6 +37,21 @@ public class Message<T> {
         return payload;
     }
 
+    /**
+     * Creates a message with the fields as given, for messages which are read rather than sent: unlike the builder,
+     * no id or timestamp is generated when they are missing.
+     */
+    public static <T> Message<T> of(String messageType, String id, String traceId, String sender, Date timestamp, T payload) {
+        Message<T> msg = new Message<T>();
+        msg.messageType = messageType;
+        msg.id = id;
+        msg.traceId = traceId;
+        msg.sender = sender;
+        msg.timestamp = timestamp;
+        msg.payload = payload;
+        return msg;
+    }
+
     public static class Builder<T> {
 
         private final String messageType;
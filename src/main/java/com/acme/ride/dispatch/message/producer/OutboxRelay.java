@@ -0,0 +1,124 @@
+package com.acme.ride.dispatch.message.producer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.acme.ride.dispatch.dao.OutboxMessageDao;
+import com.acme.ride.dispatch.entity.OutboxMessage;
+import com.acme.ride.dispatch.message.model.Message;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.SendResult;
+import org.springframework.kafka.support.converter.AbstractJavaTypeMapper;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.concurrent.ListenableFuture;
+
+/**
+ * Publishes the messages written to the outbox table. Each run sends the oldest unsent messages in batches, in the
+ * order they were written, waits for all of them to be acknowledged and deletes them in the same transaction.
+ * When a send fails the transaction rolls back and the whole batch is sent again on the next run, so messages are
+ * delivered at least once.
+ */
+public class OutboxRelay {
+
+    private final static Logger log = LoggerFactory.getLogger(OutboxRelay.class);
+
+    private static final byte[] MESSAGE_TYPE_ID = Message.class.getName().getBytes(StandardCharsets.UTF_8);
+
+    private final OutboxMessageDao outboxMessageDao;
+
+    private final KafkaTemplate<String, byte[]> kafkaTemplate;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final int batchSize;
+
+    private final long interval;
+
+    private final long sendTimeout;
+
+    private final Counter sent;
+
+    private final Counter failures;
+
+    private ScheduledExecutorService scheduler;
+
+    public OutboxRelay(OutboxMessageDao outboxMessageDao, KafkaTemplate<String, byte[]> kafkaTemplate, TransactionTemplate transactionTemplate,
+                       int batchSize, long interval, long sendTimeout, MeterRegistry meterRegistry) {
+        this.outboxMessageDao = outboxMessageDao;
+        this.kafkaTemplate = kafkaTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.batchSize = batchSize;
+        this.interval = interval;
+        this.sendTimeout = sendTimeout;
+        this.sent = Counter.builder("dispatch.outbox.sent").register(meterRegistry);
+        this.failures = Counter.builder("dispatch.outbox.failures").register(meterRegistry);
+    }
+
+    public void start() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("dispatch-outbox-"));
+        scheduler.scheduleWithFixedDelay(this::relay, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    public void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    void relay() {
+        try {
+            int count;
+            do {
+                count = transactionTemplate.execute(status -> relayBatch());
+            } while (count == batchSize && !Thread.currentThread().isInterrupted());
+        } catch (Exception e) {
+            failures.increment();
+            log.error("Error relaying outbox messages. The messages will be sent again.", e);
+        }
+    }
+
+    private int relayBatch() {
+        List<OutboxMessage> messages = outboxMessageDao.lockUnsent(batchSize);
+        if (messages.isEmpty()) {
+            return 0;
+        }
+        List<ListenableFuture<SendResult<String, byte[]>>> futures = new ArrayList<>(messages.size());
+        List<Long> ids = new ArrayList<>(messages.size());
+        for (OutboxMessage message : messages) {
+            RecordHeaders headers = new RecordHeaders();
+            headers.add(AbstractJavaTypeMapper.DEFAULT_CLASSID_FIELD_NAME, MESSAGE_TYPE_ID);
+            futures.add(kafkaTemplate.send(new ProducerRecord<>(message.getDestination(), null, message.getMessageKey(), message.getPayload(), headers)));
+            ids.add(message.getId());
+        }
+        kafkaTemplate.flush();
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                futures.get(i).get(sendTimeout, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while sending outbox messages", e);
+            } catch (ExecutionException | TimeoutException e) {
+                OutboxMessage message = messages.get(i);
+                throw new IllegalStateException("Error sending '" + message.getMessageType() + "' message for ride "
+                        + message.getMessageKey() + " to " + message.getDestination(), e);
+            }
+        }
+        outboxMessageDao.deleteSent(ids);
+        sent.increment(messages.size());
+        log.debug("Relayed " + messages.size() + " outbox messages");
+        return messages.size();
+    }
+}
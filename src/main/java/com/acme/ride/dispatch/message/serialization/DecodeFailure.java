@@ -0,0 +1,21 @@
+package com.acme.ride.dispatch.message.serialization;
+
+public class DecodeFailure {
+
+    private final byte[] data;
+
+    private final String reason;
+
+    public DecodeFailure(byte[] data, String reason) {
+        this.data = data;
+        this.reason = reason;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    public String getReason() {
+        return reason;
+    }
+}
@@ -0,0 +1,130 @@
+package com.acme.ride.dispatch.message.serialization;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.acme.ride.dispatch.message.model.DriverAssignedEvent;
+import com.acme.ride.dispatch.message.model.Message;
+import com.acme.ride.dispatch.message.model.PassengerCanceledEvent;
+import com.acme.ride.dispatch.message.model.RideEndedEvent;
+import com.acme.ride.dispatch.message.model.RideRequestedEvent;
+import com.acme.ride.dispatch.message.model.RideStartedEvent;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import org.springframework.stereotype.Component;
+
+@Component
+public class MessageDecoder {
+
+    private static final String FIELD_MESSAGE_TYPE = "messageType";
+    private static final String FIELD_ID = "id";
+    private static final String FIELD_TRACE_ID = "traceId";
+    private static final String FIELD_SENDER = "sender";
+    private static final String FIELD_TIMESTAMP = "timestamp";
+    private static final String FIELD_PAYLOAD = "payload";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final ObjectReader timestampReader = objectMapper.readerFor(Date.class);
+
+    private final Map<String, ObjectReader> payloadReaders = new HashMap<>();
+
+    // message types are matched ignoring case, as the listeners did, and normalized to the registered name
+    private final Map<String, String> messageTypes = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+
+    public MessageDecoder() {
+        addPayloadType("RideRequestedEvent", RideRequestedEvent.class);
+        addPayloadType("RideStartedEvent", RideStartedEvent.class);
+        addPayloadType("RideEndedEvent", RideEndedEvent.class);
+        addPayloadType("DriverAssignedEvent", DriverAssignedEvent.class);
+        addPayloadType("PassengerCanceledEvent", PassengerCanceledEvent.class);
+    }
+
+    /**
+     * Decodes a message envelope and its payload in a single pass over the input.
+     * Returns <code>null</code> when the input has no 'messageType' field. For message types without a registered
+     * payload reader, parsing stops as soon as the type is known and the returned message has no payload.
+     */
+    public Message<?> decode(byte[] data) throws IOException {
+        try (JsonParser parser = objectMapper.getFactory().createParser(data)) {
+            return decode(parser);
+        }
+    }
+
+    private Message<?> decode(JsonParser parser) throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            return null;
+        }
+        String messageType = null;
+        ObjectReader payloadReader = null;
+        String id = null;
+        String traceId = null;
+        String sender = null;
+        Date timestamp = null;
+        Object payload = null;
+        TokenBuffer bufferedPayload = null;
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            parser.nextToken();
+            switch (field) {
+                case FIELD_MESSAGE_TYPE:
+                    messageType = parser.getValueAsString();
+                    if (messageType == null) {
+                        return null;
+                    }
+                    String registeredType = messageTypes.get(messageType);
+                    if (registeredType == null) {
+                        return Message.of(messageType, id, traceId, sender, timestamp, null);
+                    }
+                    messageType = registeredType;
+                    payloadReader = payloadReaders.get(messageType);
+                    if (bufferedPayload != null) {
+                        // payload preceded the message type in the envelope
+                        try (JsonParser bufferedParser = bufferedPayload.asParser()) {
+                            payload = payloadReader.readValue(bufferedParser);
+                        }
+                        bufferedPayload = null;
+                    }
+                    break;
+                case FIELD_ID:
+                    id = parser.getValueAsString();
+                    break;
+                case FIELD_TRACE_ID:
+                    traceId = parser.getValueAsString();
+                    break;
+                case FIELD_SENDER:
+                    sender = parser.getValueAsString();
+                    break;
+                case FIELD_TIMESTAMP:
+                    timestamp = timestampReader.readValue(parser);
+                    break;
+                case FIELD_PAYLOAD:
+                    if (payloadReader != null) {
+                        payload = payloadReader.readValue(parser);
+                    } else {
+                        bufferedPayload = new TokenBuffer(parser);
+                        bufferedPayload.copyCurrentStructure(parser);
+                    }
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+        if (messageType == null) {
+            return null;
+        }
+        return Message.of(messageType, id, traceId, sender, timestamp, payload);
+    }
+
+    void addPayloadType(String messageType, Class<?> payloadClass) {
+        messageTypes.put(messageType, messageType);
+        payloadReaders.put(messageType, objectMapper.readerFor(payloadClass));
+    }
+}
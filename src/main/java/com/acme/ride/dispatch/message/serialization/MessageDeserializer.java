@@ -0,0 +1,49 @@
+package com.acme.ride.dispatch.message.serialization;
+
+import java.util.Map;
+
+import com.acme.ride.dispatch.message.model.Message;
+import org.apache.kafka.common.serialization.Deserializer;
+
+/**
+ * Decodes record values on the consumer poll thread. Records that cannot be decoded are returned as a message with a
+ * {@link DecodeFailure} payload rather than failing the poll.
+ */
+public class MessageDeserializer implements Deserializer<Message<?>> {
+
+    private final MessageDecoder messageDecoder;
+
+    public MessageDeserializer(MessageDecoder messageDecoder) {
+        this.messageDecoder = messageDecoder;
+    }
+
+    @Override
+    public void configure(Map<String, ?> configs, boolean isKey) {
+
+    }
+
+    @Override
+    public Message<?> deserialize(String topic, byte[] data) {
+        if (data == null) {
+            return null;
+        }
+        try {
+            Message<?> message = messageDecoder.decode(data);
+            if (message == null) {
+                return failure(data, "Unexpected message without 'messageType' field.");
+            }
+            return message;
+        } catch (Exception e) {
+            return failure(data, e.getMessage());
+        }
+    }
+
+    private Message<DecodeFailure> failure(byte[] data, String reason) {
+        return new Message.Builder<>(null, null, new DecodeFailure(data, reason)).id(null).timestamp(null).build();
+    }
+
+    @Override
+    public void close() {
+
+    }
+}
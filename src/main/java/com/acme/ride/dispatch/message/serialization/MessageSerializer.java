@@ -0,0 +1,200 @@
+package com.acme.ride.dispatch.message.serialization;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.acme.ride.dispatch.message.model.AssignDriverCommand;
+import com.acme.ride.dispatch.message.model.HandlePaymentCommand;
+import com.acme.ride.dispatch.message.model.Message;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.serialization.ExtendedSerializer;
+import org.springframework.kafka.support.converter.DefaultJackson2JavaTypeMapper;
+import org.springframework.kafka.support.converter.Jackson2JavaTypeMapper;
+
+/**
+ * Encodes outgoing message envelopes. The envelope and the payload of the commands sent by the service are written
+ * field by field, with pre-encoded field names, by a generator and into a buffer which are kept per thread: the
+ * serializer runs on the thread calling <code>send</code>, and the only allocation left is the returned array. Messages
+ * with any other payload are written by Jackson. The output and the type header are the same as those of Spring's
+ * <code>JsonSerializer</code>.
+ */
+public class MessageSerializer implements ExtendedSerializer<Message<?>> {
+
+    private static final int INITIAL_BUFFER_SIZE = 1024;
+
+    private static final SerializableString FIELD_MESSAGE_TYPE = new SerializedString("messageType");
+    private static final SerializableString FIELD_ID = new SerializedString("id");
+    private static final SerializableString FIELD_TRACE_ID = new SerializedString("traceId");
+    private static final SerializableString FIELD_SENDER = new SerializedString("sender");
+    private static final SerializableString FIELD_TIMESTAMP = new SerializedString("timestamp");
+    private static final SerializableString FIELD_PAYLOAD = new SerializedString("payload");
+    private static final SerializableString FIELD_RIDE_ID = new SerializedString("rideId");
+    private static final SerializableString FIELD_PICKUP = new SerializedString("pickup");
+    private static final SerializableString FIELD_DESTINATION = new SerializedString("destination");
+    private static final SerializableString FIELD_PRICE = new SerializedString("price");
+    private static final SerializableString FIELD_PASSENGER_ID = new SerializedString("passengerId");
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final JsonFactory jsonFactory = objectMapper.getFactory();
+
+    private final Jackson2JavaTypeMapper typeMapper = new DefaultJackson2JavaTypeMapper();
+
+    private final ThreadLocal<Encoder> encoders = ThreadLocal.withInitial(Encoder::new);
+
+    private final Map<Class<?>, PayloadWriter<?>> payloadWriters = new HashMap<>();
+
+    public MessageSerializer() {
+        addPayloadWriter(AssignDriverCommand.class, MessageSerializer::writeAssignDriverCommand);
+        addPayloadWriter(HandlePaymentCommand.class, MessageSerializer::writeHandlePaymentCommand);
+    }
+
+    @Override
+    public void configure(Map<String, ?> configs, boolean isKey) {
+
+    }
+
+    @Override
+    public byte[] serialize(String topic, Headers headers, Message<?> data) {
+        if (data == null) {
+            return null;
+        }
+        if (data.getPayload() instanceof DecodeFailure) {
+            // the record is forwarded as it was received, with its own headers
+            return ((DecodeFailure) data.getPayload()).getData();
+        }
+        typeMapper.fromJavaType(objectMapper.constructType(data.getClass()), headers);
+        return serialize(topic, data);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public byte[] serialize(String topic, Message<?> data) {
+        if (data == null) {
+            return null;
+        }
+        if (data.getPayload() instanceof DecodeFailure) {
+            return ((DecodeFailure) data.getPayload()).getData();
+        }
+        try {
+            Object payload = data.getPayload();
+            PayloadWriter<Object> payloadWriter = payload == null ? null : (PayloadWriter<Object>) payloadWriters.get(payload.getClass());
+            if (payloadWriter == null) {
+                return objectMapper.writeValueAsBytes(data);
+            }
+            Encoder encoder = encoders.get();
+            try {
+                JsonGenerator generator = encoder.generator;
+                generator.writeStartObject();
+                writeString(generator, FIELD_MESSAGE_TYPE, data.getMessageType());
+                writeString(generator, FIELD_ID, data.getId());
+                writeString(generator, FIELD_TRACE_ID, data.getTraceId());
+                writeString(generator, FIELD_SENDER, data.getSender());
+                writeDate(generator, FIELD_TIMESTAMP, data.getTimestamp());
+                generator.writeFieldName(FIELD_PAYLOAD);
+                payloadWriter.write(generator, payload);
+                generator.writeEndObject();
+                generator.flush();
+                return encoder.buffer.toByteArray();
+            } catch (IOException | RuntimeException e) {
+                // the generator may be left in the middle of an object
+                encoders.remove();
+                throw e;
+            } finally {
+                encoder.buffer.reset();
+            }
+        } catch (IOException e) {
+            throw new SerializationException("Can't serialize data [" + data + "] for topic [" + topic + "]", e);
+        }
+    }
+
+    @Override
+    public void close() {
+
+    }
+
+    <T> void addPayloadWriter(Class<T> payloadType, PayloadWriter<T> payloadWriter) {
+        payloadWriters.put(payloadType, payloadWriter);
+    }
+
+    private static void writeAssignDriverCommand(JsonGenerator generator, AssignDriverCommand command) throws IOException {
+        generator.writeStartObject();
+        writeString(generator, FIELD_RIDE_ID, command.getRideId());
+        writeString(generator, FIELD_PICKUP, command.getPickup());
+        writeString(generator, FIELD_DESTINATION, command.getDestination());
+        writeNumber(generator, FIELD_PRICE, command.getPrice());
+        writeString(generator, FIELD_PASSENGER_ID, command.getPassengerId());
+        generator.writeEndObject();
+    }
+
+    private static void writeHandlePaymentCommand(JsonGenerator generator, HandlePaymentCommand command) throws IOException {
+        generator.writeStartObject();
+        writeString(generator, FIELD_RIDE_ID, command.getRideId());
+        writeString(generator, FIELD_PASSENGER_ID, command.getPassengerId());
+        writeNumber(generator, FIELD_PRICE, command.getPrice());
+        generator.writeEndObject();
+    }
+
+    private static void writeString(JsonGenerator generator, SerializableString field, String value) throws IOException {
+        generator.writeFieldName(field);
+        if (value == null) {
+            generator.writeNull();
+        } else {
+            generator.writeString(value);
+        }
+    }
+
+    private static void writeNumber(JsonGenerator generator, SerializableString field, BigDecimal value) throws IOException {
+        generator.writeFieldName(field);
+        if (value == null) {
+            generator.writeNull();
+        } else {
+            generator.writeNumber(value);
+        }
+    }
+
+    private static void writeDate(JsonGenerator generator, SerializableString field, Date value) throws IOException {
+        generator.writeFieldName(field);
+        if (value == null) {
+            generator.writeNull();
+        } else {
+            generator.writeNumber(value.getTime());
+        }
+    }
+
+    /**
+     * Buffer and generator of a sending thread. The generator is never closed: every message is written as a new
+     * root value, without separator, and flushed into the buffer.
+     */
+    private class Encoder {
+
+        private final ByteArrayBuilder buffer = new ByteArrayBuilder(INITIAL_BUFFER_SIZE);
+
+        private final JsonGenerator generator;
+
+        private Encoder() {
+            try {
+                generator = jsonFactory.createGenerator(buffer);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            generator.setRootValueSeparator(null);
+        }
+    }
+
+    @FunctionalInterface
+    interface PayloadWriter<T> {
+
+        void write(JsonGenerator generator, T payload) throws IOException;
+    }
+}
@@ -0,0 +1,179 @@
+package com.acme.ride.dispatch.query;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.function.UnaryOperator;
+import javax.annotation.PostConstruct;
+
+import com.acme.ride.dispatch.dao.RideDao;
+import com.acme.ride.dispatch.dao.RideQuery;
+import com.acme.ride.dispatch.entity.Ride;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Read model of the rides served by {@link RideQueryController}, kept apart from the write path. The projection is fed
+ * with the committed changes of the rides: creation by the ride requested listener, driver by the driver assigned
+ * listener and status by the update ride work item handler. It holds the most recently used
+ * <code>dispatch.projection.capacity</code> rides.
+ *
+ * A ride which is not in the projection is read from the Ride table, and is not added: a change committed while it is
+ * read would be missed. Changes of rides which are not in the projection are ignored for the same reason.
+ *
+ * The projection of an instance only sees the changes made by that instance. Once the partition of a ride moves to
+ * another instance its view goes stale, so a view expires <code>dispatch.projection.ttl</code> milliseconds after its
+ * last change, and the ride is then read from the Ride table again.
+ *
+ * The projection is only a cache of single rides: a search by status is served by the Ride table, whatever the
+ * instance serving the request.
+ */
+@Component
+public class RideProjection {
+
+    @Autowired
+    private RideDao rideDao;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${dispatch.projection.capacity}")
+    private int capacity;
+
+    @Value("${dispatch.projection.ttl}")
+    private long ttl;
+
+    private Map<String, Entry> views;
+
+    private TransactionTemplate transactionTemplate;
+
+    private Counter hits;
+
+    private Counter misses;
+
+    @PostConstruct
+    public void init() {
+        views = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > capacity;
+            }
+        };
+        transactionTemplate = new TransactionTemplate(transactionManager);
+        transactionTemplate.setReadOnly(true);
+        hits = Counter.builder("dispatch.projection.lookups").tag("result", "hit").register(meterRegistry);
+        misses = Counter.builder("dispatch.projection.lookups").tag("result", "miss").register(meterRegistry);
+        Gauge.builder("dispatch.projection.size", this, RideProjection::size).register(meterRegistry);
+    }
+
+    public void created(Ride ride) {
+        RideView view = RideView.of(ride);
+        afterCommit(() -> {
+            synchronized (views) {
+                views.put(view.getRideId(), entry(view));
+            }
+        });
+    }
+
+    public void updateStatus(String rideId, Ride.Status status) {
+        afterCommit(() -> update(rideId, view -> view.withStatus(status)));
+    }
+
+    public void updateDriver(String rideId, String driverId) {
+        afterCommit(() -> update(rideId, view -> view.withDriverId(driverId)));
+    }
+
+    /**
+     * Returns the view of the ride, or null when the ride does not exist.
+     */
+    public RideView get(String rideId) {
+        RideView view = null;
+        synchronized (views) {
+            Entry entry = views.get(rideId);
+            if (entry != null) {
+                if (entry.isExpired(System.currentTimeMillis())) {
+                    views.remove(rideId);
+                } else {
+                    view = entry.view;
+                }
+            }
+        }
+        if (view != null) {
+            hits.increment();
+            return view;
+        }
+        misses.increment();
+        return transactionTemplate.execute(status -> {
+            Ride ride = rideDao.findByRideId(rideId);
+            return ride == null ? null : RideView.of(ride);
+        });
+    }
+
+    /**
+     * Returns at most <code>limit</code> rides with the given status and an id greater than <code>afterId</code>, in id
+     * order, read from the Ride table. The next page starts after the id of the last ride returned.
+     */
+    public List<RideView> findByStatus(Ride.Status status, long afterId, int limit) {
+        RideQuery query = new RideQuery.Builder().status(status).build();
+        return transactionTemplate.execute(s -> rideDao.findPage(query, afterId, limit).stream()
+                .map(RideView::of)
+                .collect(Collectors.toList()));
+    }
+
+    public int size() {
+        synchronized (views) {
+            return views.size();
+        }
+    }
+
+    private void update(String rideId, UnaryOperator<RideView> change) {
+        synchronized (views) {
+            views.computeIfPresent(rideId, (key, entry) -> entry(change.apply(entry.view)));
+        }
+    }
+
+    private Entry entry(RideView view) {
+        return new Entry(view, System.currentTimeMillis() + ttl);
+    }
+
+    private static void afterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+
+    private static final class Entry {
+
+        private final RideView view;
+
+        private final long expiresAt;
+
+        Entry(RideView view, long expiresAt) {
+            this.view = view;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isExpired(long now) {
+            return now >= expiresAt;
+        }
+    }
+}
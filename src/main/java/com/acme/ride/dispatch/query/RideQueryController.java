@@ -0,0 +1,62 @@
+package com.acme.ride.dispatch.query;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import com.acme.ride.dispatch.entity.Ride;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.ResponseEntity;
+import org.springframework.util.DigestUtils;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * Read-only API of the ride status, served by the {@link RideProjection}. Responses carry an ETag; requests with a
+ * matching If-None-Match get a 304 without body. A search by status returns pages of rides in id order, read from the
+ * Ride table; a full page carries the X-Next-After header, the value of the <code>after</code> parameter of the next
+ * page.
+ */
+@RestController
+@RequestMapping("/rides")
+public class RideQueryController {
+
+    static final String NEXT_AFTER = "X-Next-After";
+
+    @Autowired
+    private RideProjection rideProjection;
+
+    @Value("${dispatch.projection.max-results}")
+    private int maxResults;
+
+    @GetMapping("/{rideId}")
+    public ResponseEntity<RideView> getRide(@PathVariable String rideId) {
+        RideView view = rideProjection.get(rideId);
+        if (view == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok().eTag(view.etag()).body(view);
+    }
+
+    @GetMapping(params = "status")
+    public ResponseEntity<List<RideView>> findRides(@RequestParam String status, @RequestParam(required = false) Long after,
+                                                    @RequestParam(required = false) Integer limit) {
+        Ride.Status rideStatus = Ride.Status.get(status);
+        if (rideStatus == null || (limit != null && limit < 1)) {
+            return ResponseEntity.badRequest().build();
+        }
+        int pageSize = limit == null ? maxResults : Math.min(limit, maxResults);
+        List<RideView> views = rideProjection.findByStatus(rideStatus, after == null ? 0 : after, pageSize);
+        String etag = DigestUtils.md5DigestAsHex(views.stream().map(RideView::etag).collect(Collectors.joining(","))
+                .getBytes(StandardCharsets.UTF_8));
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok().eTag(etag);
+        if (views.size() == pageSize) {
+            response.header(NEXT_AFTER, String.valueOf(views.get(views.size() - 1).id()));
+        }
+        return response.body(views);
+    }
+}
@@ -0,0 +1,75 @@
+package com.acme.ride.dispatch.query;
+
+import java.nio.charset.StandardCharsets;
+
+import com.acme.ride.dispatch.entity.Ride;
+import org.springframework.util.DigestUtils;
+
+/**
+ * Status of a ride as served by the ride query API. Views are immutable, a change of the ride replaces its view.
+ */
+public class RideView {
+
+    private final long id;
+
+    private final String rideId;
+
+    private final Ride.Status status;
+
+    private final String passengerId;
+
+    private final String driverId;
+
+    private final String etag;
+
+    RideView(long id, String rideId, Ride.Status status, String passengerId, String driverId) {
+        this.id = id;
+        this.rideId = rideId;
+        this.status = status;
+        this.passengerId = passengerId;
+        this.driverId = driverId;
+        // derived from the content, so that views of the same ride from the projection and from the database match
+        this.etag = DigestUtils.md5DigestAsHex((rideId + '|' + (status == null ? "" : status.statusName()) + '|' + passengerId + '|' + driverId)
+                .getBytes(StandardCharsets.UTF_8));
+    }
+
+    static RideView of(Ride ride) {
+        return new RideView(ride.getId(), ride.getRideId(), ride.getStatus(), ride.getPassengerId(), ride.getDriverId());
+    }
+
+    RideView withStatus(Ride.Status status) {
+        return new RideView(id, rideId, status, passengerId, driverId);
+    }
+
+    RideView withDriverId(String driverId) {
+        return new RideView(id, rideId, status, passengerId, driverId);
+    }
+
+    public String getRideId() {
+        return rideId;
+    }
+
+    public String getStatus() {
+        return status == null ? null : status.statusName();
+    }
+
+    public String getPassengerId() {
+        return passengerId;
+    }
+
+    public String getDriverId() {
+        return driverId;
+    }
+
+    long id() {
+        return id;
+    }
+
+    Ride.Status status() {
+        return status;
+    }
+
+    String etag() {
+        return etag;
+    }
+}
@@ -0,0 +1,47 @@
+package com.acme.ride.dispatch.registry;
+
+import com.acme.ride.dispatch.entity.Ride;
+
+/**
+ * Copy of a ride entry of the {@link ActiveRideRegistry}. Fields which were not registered yet are null.
+ */
+public class ActiveRide {
+
+    private final String rideId;
+
+    private final Ride.Status status;
+
+    private final String driverId;
+
+    private final Long processInstanceId;
+
+    private final long lastUpdate;
+
+    ActiveRide(String rideId, Ride.Status status, String driverId, Long processInstanceId, long lastUpdate) {
+        this.rideId = rideId;
+        this.status = status;
+        this.driverId = driverId;
+        this.processInstanceId = processInstanceId;
+        this.lastUpdate = lastUpdate;
+    }
+
+    public String getRideId() {
+        return rideId;
+    }
+
+    public Ride.Status getStatus() {
+        return status;
+    }
+
+    public String getDriverId() {
+        return driverId;
+    }
+
+    public Long getProcessInstanceId() {
+        return processInstanceId;
+    }
+
+    public long getLastUpdate() {
+        return lastUpdate;
+    }
+}
@@ -0,0 +1,395 @@
+package com.acme.ride.dispatch.registry;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import javax.annotation.PostConstruct;
+
+import com.acme.ride.dispatch.entity.Ride;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Registry of the rides in flight, held off-heap so that millions of entries do not weigh on the garbage collector.
+ * Each ride is a fixed-width record of {@value #RECORD_SIZE} bytes in a direct buffer, indexed by open addressing with
+ * linear probing on the hash of the ride id. The table is split in segments, each with its own lock.
+ *
+ * A ride enters the registry with its first update and leaves it when it reaches a terminal status, or once it has
+ * not been updated for <code>dispatch.registry.max-age</code> milliseconds: the terminal status of a ride whose
+ * partition moved to another instance is never seen here. Expired rides are missed on lookup, and removed when their
+ * segment is full. Rides or driver ids longer than {@value #ID_WIDTH} bytes, and rides arriving when the registry is
+ * full of live rides, are not registered, so a miss means the ride has to be looked up elsewhere.
+ *
+ * Only the process instance ids are read, by the {@link com.acme.ride.dispatch.message.listeners.ProcessInstanceIdCache};
+ * status and driver are kept for operational lookups. The buffers of all the segments, {@value #RECORD_SIZE} bytes per
+ * slot and up to 8/3 slots per ride of <code>dispatch.registry.capacity</code>, are allocated when the registry is
+ * enabled, so the capacity should stay close to the number of rides in flight on one instance.
+ */
+@Component
+public class ActiveRideRegistry {
+
+    static final int ID_WIDTH = 36;
+
+    private static final int HASH = 0;
+
+    private static final int USED = 4;
+
+    private static final int STATUS = 5;
+
+    private static final int RIDE_ID_LENGTH = 6;
+
+    private static final int DRIVER_ID_LENGTH = 7;
+
+    private static final int PROCESS_INSTANCE_ID = 8;
+
+    private static final int LAST_UPDATE = 16;
+
+    private static final int RIDE_ID = 24;
+
+    private static final int DRIVER_ID = RIDE_ID + ID_WIDTH;
+
+    static final int RECORD_SIZE = DRIVER_ID + ID_WIDTH;
+
+    private static final int SEGMENTS = 16;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${dispatch.registry.enabled}")
+    private boolean enabled;
+
+    @Value("${dispatch.registry.capacity}")
+    private int capacity;
+
+    @Value("${dispatch.registry.max-age}")
+    private long maxAge;
+
+    private Segment[] segments;
+
+    private Counter hits;
+
+    private Counter misses;
+
+    private Counter rejected;
+
+    private Counter expired;
+
+    @PostConstruct
+    public void init() {
+        if (enabled) {
+            segments = new Segment[SEGMENTS];
+            for (int i = 0; i < SEGMENTS; i++) {
+                segments[i] = new Segment((capacity + SEGMENTS - 1) / SEGMENTS);
+            }
+        }
+        hits = Counter.builder("dispatch.registry.lookups").tag("result", "hit").register(meterRegistry);
+        misses = Counter.builder("dispatch.registry.lookups").tag("result", "miss").register(meterRegistry);
+        rejected = Counter.builder("dispatch.registry.rejected").register(meterRegistry);
+        expired = Counter.builder("dispatch.registry.expired").register(meterRegistry);
+        Gauge.builder("dispatch.registry.size", this, ActiveRideRegistry::size).register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns a copy of the ride entry, or null when the ride is not registered.
+     */
+    public ActiveRide get(String rideId) {
+        byte[] key = encode(rideId);
+        if (segments == null || key == null) {
+            return null;
+        }
+        int hash = hash(rideId);
+        Segment segment = segment(hash);
+        ActiveRide ride;
+        synchronized (segment) {
+            int slot = segment.find(hash, key);
+            ride = slot < 0 || segment.isExpired(slot, System.currentTimeMillis() - maxAge) ? null : segment.read(slot, rideId);
+        }
+        if (ride == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return ride;
+    }
+
+    public Long getProcessInstanceId(String rideId) {
+        ActiveRide ride = get(rideId);
+        return ride == null ? null : ride.getProcessInstanceId();
+    }
+
+    /**
+     * Sets the process instance of the ride. Returns false when the ride could not be registered.
+     */
+    public boolean putProcessInstanceId(String rideId, long processInstanceId) {
+        return update(rideId, (segment, base) -> segment.records.putLong(base + PROCESS_INSTANCE_ID, processInstanceId));
+    }
+
+    /**
+     * Sets the status of the ride once the current transaction commits, or immediately when there is no transaction.
+     * A terminal status removes the ride.
+     */
+    public void updateStatus(String rideId, Ride.Status status) {
+        afterCommit(() -> {
+            if (status.isTerminal()) {
+                remove(rideId);
+            } else {
+                update(rideId, (segment, base) -> segment.records.put(base + STATUS, (byte) status.statusCode()));
+            }
+        });
+    }
+
+    /**
+     * Sets the driver of the ride once the current transaction commits, or immediately when there is no transaction.
+     */
+    public void updateDriver(String rideId, String driverId) {
+        afterCommit(() -> {
+            byte[] driverKey = encode(driverId);
+            if (driverKey == null) {
+                // an entry with an unknown driver would be wrong, the ride is looked up elsewhere
+                remove(rideId);
+                rejected.increment();
+            } else {
+                update(rideId, (segment, base) -> segment.putId(base + DRIVER_ID_LENGTH, base + DRIVER_ID, driverKey));
+            }
+        });
+    }
+
+    public void remove(String rideId) {
+        byte[] key = encode(rideId);
+        if (segments == null || key == null) {
+            return;
+        }
+        int hash = hash(rideId);
+        Segment segment = segment(hash);
+        synchronized (segment) {
+            int slot = segment.find(hash, key);
+            if (slot >= 0) {
+                segment.delete(slot);
+            }
+        }
+    }
+
+    public int size() {
+        if (segments == null) {
+            return 0;
+        }
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size;
+            }
+        }
+        return size;
+    }
+
+    private boolean update(String rideId, RecordUpdate update) {
+        byte[] key = encode(rideId);
+        if (segments == null) {
+            return false;
+        }
+        if (key == null) {
+            rejected.increment();
+            return false;
+        }
+        int hash = hash(rideId);
+        Segment segment = segment(hash);
+        synchronized (segment) {
+            int slot = segment.find(hash, key);
+            if (slot < 0) {
+                if (segment.size == segment.maxSize) {
+                    int removed = segment.deleteExpired(System.currentTimeMillis() - maxAge);
+                    expired.increment(removed);
+                    if (removed == 0) {
+                        rejected.increment();
+                        return false;
+                    }
+                    slot = segment.find(hash, key);
+                }
+                slot = segment.insert(-slot - 1, hash, key);
+            }
+            int base = slot * RECORD_SIZE;
+            update.apply(segment, base);
+            segment.records.putLong(base + LAST_UPDATE, System.currentTimeMillis());
+        }
+        return true;
+    }
+
+    private Segment segment(int hash) {
+        return segments[hash >>> 28];
+    }
+
+    private static int hash(String rideId) {
+        return rideId.hashCode() * 0x9E3779B9;
+    }
+
+    private static byte[] encode(String id) {
+        if (id == null) {
+            return null;
+        }
+        byte[] bytes = id.getBytes(StandardCharsets.UTF_8);
+        return bytes.length > ID_WIDTH ? null : bytes;
+    }
+
+    private static void afterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+
+    private interface RecordUpdate {
+
+        void apply(Segment segment, int base);
+    }
+
+    private static final class Segment {
+
+        private final ByteBuffer records;
+
+        private final int mask;
+
+        private final int maxSize;
+
+        private int size;
+
+        Segment(int maxSize) {
+            // at most three quarters of the slots are used, so probe sequences stay short and always end
+            int slots = Integer.highestOneBit(Math.max(maxSize * 4 / 3, 1)) << 1;
+            this.records = ByteBuffer.allocateDirect(slots * RECORD_SIZE);
+            this.mask = slots - 1;
+            this.maxSize = maxSize;
+        }
+
+        /**
+         * Returns the slot of the ride, or <code>-(slot + 1)</code> with the free slot where it would be inserted.
+         */
+        int find(int hash, byte[] key) {
+            int slot = hash & mask;
+            while (true) {
+                int base = slot * RECORD_SIZE;
+                if (records.get(base + USED) == 0) {
+                    return -slot - 1;
+                }
+                if (records.getInt(base + HASH) == hash && idEquals(base, key)) {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+        }
+
+        int insert(int slot, int hash, byte[] key) {
+            int base = slot * RECORD_SIZE;
+            for (int i = 0; i < RECORD_SIZE; i++) {
+                records.put(base + i, (byte) 0);
+            }
+            records.putInt(base + HASH, hash);
+            records.put(base + USED, (byte) 1);
+            records.put(base + DRIVER_ID_LENGTH, (byte) -1);
+            putId(base + RIDE_ID_LENGTH, base + RIDE_ID, key);
+            size++;
+            return slot;
+        }
+
+        /**
+         * Empties the slot and moves back the following records of the probe sequence whose home slot is not between
+         * the emptied slot and their own, so that lookups never stop early at the hole.
+         */
+        void delete(int slot) {
+            int hole = slot;
+            int next = (hole + 1) & mask;
+            while (records.get(next * RECORD_SIZE + USED) != 0) {
+                int home = records.getInt(next * RECORD_SIZE + HASH) & mask;
+                boolean movable = hole <= next ? home <= hole || home > next : home <= hole && home > next;
+                if (movable) {
+                    copy(next, hole);
+                    hole = next;
+                }
+                next = (next + 1) & mask;
+            }
+            records.put(hole * RECORD_SIZE + USED, (byte) 0);
+            size--;
+        }
+
+        boolean isExpired(int slot, long updatedBefore) {
+            return records.getLong(slot * RECORD_SIZE + LAST_UPDATE) < updatedBefore;
+        }
+
+        /**
+         * Deletes the rides last updated before the given time, and returns their number. A slot is checked again once
+         * emptied, since the delete may have moved another ride into it.
+         */
+        int deleteExpired(long updatedBefore) {
+            int removed = 0;
+            int slot = 0;
+            while (slot <= mask) {
+                if (records.get(slot * RECORD_SIZE + USED) != 0 && isExpired(slot, updatedBefore)) {
+                    delete(slot);
+                    removed++;
+                } else {
+                    slot++;
+                }
+            }
+            return removed;
+        }
+
+        ActiveRide read(int slot, String rideId) {
+            int base = slot * RECORD_SIZE;
+            int statusCode = records.get(base + STATUS);
+            long processInstanceId = records.getLong(base + PROCESS_INSTANCE_ID);
+            return new ActiveRide(rideId, statusCode == 0 ? null : Ride.Status.get(statusCode), getId(base + DRIVER_ID_LENGTH, base + DRIVER_ID),
+                    processInstanceId == 0 ? null : processInstanceId, records.getLong(base + LAST_UPDATE));
+        }
+
+        void putId(int lengthOffset, int offset, byte[] id) {
+            records.put(lengthOffset, (byte) id.length);
+            for (int i = 0; i < id.length; i++) {
+                records.put(offset + i, id[i]);
+            }
+        }
+
+        private String getId(int lengthOffset, int offset) {
+            int length = records.get(lengthOffset);
+            if (length < 0) {
+                return null;
+            }
+            byte[] id = new byte[length];
+            for (int i = 0; i < length; i++) {
+                id[i] = records.get(offset + i);
+            }
+            return new String(id, StandardCharsets.UTF_8);
+        }
+
+        private boolean idEquals(int base, byte[] key) {
+            if (records.get(base + RIDE_ID_LENGTH) != key.length) {
+                return false;
+            }
+            for (int i = 0; i < key.length; i++) {
+                if (records.get(base + RIDE_ID + i) != key[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void copy(int from, int to) {
+            for (int i = 0; i < RECORD_SIZE; i++) {
+                records.put(to * RECORD_SIZE + i, records.get(from * RECORD_SIZE + i));
+            }
+        }
+    }
+}
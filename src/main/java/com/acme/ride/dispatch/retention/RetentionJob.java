@@ -0,0 +1,187 @@
+package com.acme.ride.dispatch.retention;
+
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import com.acme.ride.dispatch.dao.RetentionDao;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * Archives or deletes the data of the process instances completed more than the maximum age ago, together with their
+ * terminal rides. Each run walks the completed process instances in id order, in chunks of one transaction each, and
+ * pauses between chunks so that no more than the maximum number of rows per second is moved. A run stops when another
+ * instance of the service is moving a chunk (see {@link RetentionDao}).
+ *
+ * The rate of the current run and the estimated time left until the backlog of the run is moved are published as
+ * gauges.
+ *
+ * Each run then purges, at the same rate, the ids of the messages processed more than the processed message TTL ago.
+ * A message redelivered after its id was purged is processed again, so the TTL must exceed the time a message can be
+ * redelivered after, which is bounded by the retention of the consumed topics.
+ *
+ * The job is disabled by default. Before enabling it, apply etc/sql/004-retention-archive.sql, which creates the archive
+ * tables, and etc/sql/008-processed-message-ttl.sql, which indexes the processed messages by date.
+ */
+@Component
+public class RetentionJob {
+
+    private final static Logger log = LoggerFactory.getLogger(RetentionJob.class);
+
+    @Autowired
+    private RetentionDao retentionDao;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${dispatch.retention.enabled}")
+    private boolean enabled;
+
+    @Value("${dispatch.retention.mode}")
+    private RetentionMode mode;
+
+    @Value("${dispatch.retention.max-age-days}")
+    private int maxAgeDays;
+
+    @Value("${dispatch.retention.interval}")
+    private long interval;
+
+    @Value("${dispatch.retention.chunk-size}")
+    private int chunkSize;
+
+    @Value("${dispatch.retention.max-rows-per-second}")
+    private int maxRowsPerSecond;
+
+    @Value("${dispatch.retention.processed-message-ttl-days}")
+    private int processedMessageTtlDays;
+
+    private ScheduledExecutorService scheduler;
+
+    private Counter moved;
+
+    private Counter purged;
+
+    private volatile long backlog;
+
+    private volatile double rowsPerSecond;
+
+    private volatile double instancesPerSecond;
+
+    @PostConstruct
+    public void init() {
+        moved = Counter.builder("dispatch.retention.moved").tag("mode", mode.name()).register(meterRegistry);
+        purged = Counter.builder("dispatch.retention.purged").tag("table", "ProcessedMessage").register(meterRegistry);
+        Gauge.builder("dispatch.retention.backlog", this, j -> j.backlog).register(meterRegistry);
+        Gauge.builder("dispatch.retention.rate", this, j -> j.rowsPerSecond).baseUnit("rows/s").register(meterRegistry);
+        Gauge.builder("dispatch.retention.time-left", this, RetentionJob::timeLeft).baseUnit("seconds").register(meterRegistry);
+        if (enabled) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("dispatch-retention-"));
+            scheduler.scheduleWithFixedDelay(this::run, interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    void run() {
+        try {
+            moveCompleted(new Date(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(maxAgeDays)));
+            purgeProcessed(new Date(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(processedMessageTtlDays)));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            log.error("Error in retention run. It is resumed on the next run", e);
+        }
+    }
+
+    private void moveCompleted(Date before) throws InterruptedException {
+        backlog = retentionDao.countCompleted(before);
+        long start = System.nanoTime();
+        long rows = 0;
+        long instances = 0;
+        long afterId = 0;
+        while (backlog > 0 && !Thread.currentThread().isInterrupted()) {
+            List<Long> ids = retentionDao.findCompleted(afterId, before, chunkSize);
+            if (ids.isEmpty()) {
+                break;
+            }
+            int chunkRows = mode == RetentionMode.ARCHIVE ? retentionDao.archive(ids) : retentionDao.delete(ids);
+            if (chunkRows < 0) {
+                log.info("Retention " + mode + " is running on another instance. This run stops");
+                break;
+            }
+            moved.increment(chunkRows);
+            rows += chunkRows;
+            instances += ids.size();
+            afterId = ids.get(ids.size() - 1);
+            backlog = Math.max(0, backlog - ids.size());
+            Thread.sleep(pause(rows, System.nanoTime() - start));
+            updateRates(rows, instances, System.nanoTime() - start);
+            if (ids.size() < chunkSize) {
+                break;
+            }
+        }
+        if (instances > 0) {
+            log.info("Retention " + mode + " of " + instances + " process instances completed before " + before + ": " + rows
+                    + " rows at " + Math.round(rowsPerSecond) + " rows/s, " + backlog + " process instances left");
+        }
+    }
+
+    private void purgeProcessed(Date before) throws InterruptedException {
+        long start = System.nanoTime();
+        long rows = 0;
+        int chunkRows = chunkSize;
+        while (chunkRows == chunkSize && !Thread.currentThread().isInterrupted()) {
+            chunkRows = retentionDao.purgeProcessed(before, chunkSize);
+            purged.increment(chunkRows);
+            rows += chunkRows;
+            Thread.sleep(pause(rows, System.nanoTime() - start));
+        }
+        if (rows > 0) {
+            log.info("Retention purged " + rows + " ids of messages processed before " + before);
+        }
+    }
+
+    /**
+     * Returns the time to wait, in milliseconds, for the rows moved since the start of the run not to exceed the
+     * maximum rate.
+     */
+    long pause(long rows, long elapsedNanos) {
+        long target = rows * 1000 / maxRowsPerSecond;
+        return Math.max(0, target - TimeUnit.NANOSECONDS.toMillis(elapsedNanos));
+    }
+
+    private void updateRates(long rows, long instances, long elapsedNanos) {
+        double seconds = Math.max(elapsedNanos, 1) / 1e9;
+        rowsPerSecond = rows / seconds;
+        instancesPerSecond = instances / seconds;
+    }
+
+    double timeLeft() {
+        return instancesPerSecond > 0 ? backlog / instancesPerSecond : 0;
+    }
+
+    long getBacklog() {
+        return backlog;
+    }
+
+    double getRowsPerSecond() {
+        return rowsPerSecond;
+    }
+}
@@ -0,0 +1,14 @@
+package com.acme.ride.dispatch.retention;
+
+public enum RetentionMode {
+
+    /**
+     * The data is copied to the archive tables before it is deleted.
+     */
+    ARCHIVE,
+
+    /**
+     * The data is deleted.
+     */
+    DELETE
+}
@@ -0,0 +1,217 @@
+package com.acme.ride.dispatch.spring;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.drools.core.time.TimerService;
+import org.drools.persistence.api.OrderedTransactionSynchronization;
+import org.jbpm.process.core.timer.TimerServiceRegistry;
+import org.jbpm.process.core.timer.impl.GlobalTimerService;
+import org.jbpm.runtime.manager.impl.PerRequestRuntimeManager;
+import org.jbpm.runtime.manager.impl.RuntimeEngineImpl;
+import org.jbpm.runtime.manager.impl.tx.DestroySessionTransactionSynchronization;
+import org.kie.api.runtime.KieSession;
+import org.kie.api.runtime.manager.Context;
+import org.kie.api.runtime.manager.RuntimeEngine;
+import org.kie.api.runtime.manager.RuntimeEnvironment;
+import org.kie.internal.runtime.manager.SessionFactory;
+import org.kie.internal.runtime.manager.TaskServiceFactory;
+import org.kie.internal.task.api.InternalTaskService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Per request runtime manager which leases runtime engines from a bounded pool of pre-initialized engines instead of
+ * creating, registering and destroying a new KieSession for every request. A leased engine is bound to the current
+ * thread until the transaction completes and is then reset and returned to the pool. When all pooled engines are
+ * leased, a request falls back to a new session which is destroyed at the end of the transaction, as with
+ * {@link PerRequestRuntimeManager}.
+ *
+ * The sessions are persistent: a pooled session is used by one transaction at a time, the same way the singleton
+ * strategy uses its single session.
+ */
+public class PooledPerRequestRuntimeManager extends PerRequestRuntimeManager {
+
+    private static final Logger log = LoggerFactory.getLogger(PooledPerRequestRuntimeManager.class);
+
+    private final int poolSize;
+
+    private final MeterRegistry meterRegistry;
+
+    private final BlockingQueue<RuntimeEngineImpl> idle;
+
+    private final Set<RuntimeEngineImpl> pooled = ConcurrentHashMap.newKeySet();
+
+    private final ThreadLocal<RuntimeEngineImpl> current = new ThreadLocal<>();
+
+    private final List<Meter> meters = new ArrayList<>();
+
+    private Counter hits;
+
+    private Counter misses;
+
+    public PooledPerRequestRuntimeManager(RuntimeEnvironment environment, SessionFactory factory, TaskServiceFactory taskServiceFactory,
+                                          String identifier, int poolSize, MeterRegistry meterRegistry) {
+        super(environment, factory, taskServiceFactory, identifier);
+        this.poolSize = poolSize;
+        this.meterRegistry = meterRegistry;
+        this.idle = new ArrayBlockingQueue<>(poolSize);
+    }
+
+    @Override
+    public void init() {
+        super.init();
+        hits = Counter.builder("dispatch.jbpm.session.pool.requests").tag("deployment", identifier).tag("result", "hit")
+                .description("Runtime engine requests served from the session pool").register(meterRegistry);
+        misses = Counter.builder("dispatch.jbpm.session.pool.requests").tag("deployment", identifier).tag("result", "miss")
+                .description("Runtime engine requests which needed a new session").register(meterRegistry);
+        meters.add(hits);
+        meters.add(misses);
+        meters.add(Gauge.builder("dispatch.jbpm.session.pool.size", pooled, Set::size).tag("deployment", identifier)
+                .description("Number of pooled sessions").register(meterRegistry));
+        meters.add(Gauge.builder("dispatch.jbpm.session.pool.idle", idle, BlockingQueue::size).tag("deployment", identifier)
+                .description("Number of pooled sessions not leased").register(meterRegistry));
+        for (int i = 0; i < poolSize; i++) {
+            RuntimeEngineImpl engine = newRuntimeEngine();
+            pooled.add(engine);
+            idle.add(engine);
+        }
+        log.info("Initialized " + poolSize + " pooled sessions for runtime manager " + identifier);
+    }
+
+    @Override
+    public RuntimeEngine getRuntimeEngine(Context<?> context) {
+        if (isClosed()) {
+            throw new IllegalStateException("Runtime manager " + identifier + " is already closed");
+        }
+        checkPermission();
+        RuntimeEngineImpl engine = current.get();
+        if (engine != null) {
+            return engine;
+        }
+        engine = idle.poll();
+        if (engine != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+            engine = newRuntimeEngine();
+            registerDisposeCallback(engine, new DestroySessionTransactionSynchronization(engine.getKieSession()), engine.getKieSession().getEnvironment());
+        }
+        current.set(engine);
+        registerDisposeCallback(engine, new ReleaseSessionTransactionSynchronization(engine), engine.getKieSession().getEnvironment());
+        return engine;
+    }
+
+    @Override
+    public void disposeRuntimeEngine(RuntimeEngine runtime) {
+        if (isClosed()) {
+            throw new IllegalStateException("Runtime manager " + identifier + " is already closed");
+        }
+        RuntimeEngineImpl engine = (RuntimeEngineImpl) runtime;
+        if (!canDispose(engine)) {
+            return;
+        }
+        if (current.get() == engine) {
+            current.remove();
+        }
+        KieSession ksession = engine.getKieSession();
+        long sessionId = ksession.getIdentifier();
+        getFactory().onDispose(sessionId);
+        TimerService timerService = TimerServiceRegistry.getInstance().get(identifier + TimerServiceRegistry.TIMER_SERVICE_SUFFIX);
+        if (timerService instanceof GlobalTimerService) {
+            ((GlobalTimerService) timerService).clearTimerJobInstances(sessionId);
+        }
+        if (pooled.contains(engine)) {
+            engine.setAfterCompletion(false);
+            if (!idle.contains(engine)) {
+                idle.offer(engine);
+            }
+        } else {
+            if (canDestroy(engine)) {
+                ksession.destroy();
+            }
+            engine.dispose();
+        }
+    }
+
+    @Override
+    public void softDispose(RuntimeEngine runtime) {
+        if (current.get() == runtime) {
+            current.remove();
+        }
+    }
+
+    @Override
+    public void close() {
+        destroyPool();
+        super.close();
+    }
+
+    @Override
+    public void close(boolean removeJobs) {
+        destroyPool();
+        super.close(removeJobs);
+    }
+
+    int getIdleCount() {
+        return idle.size();
+    }
+
+    private RuntimeEngineImpl newRuntimeEngine() {
+        InternalTaskService taskService = newTaskService(getTaskServiceFactory());
+        RuntimeEngineImpl engine = new RuntimeEngineImpl(getFactory().newKieSession(), taskService);
+        engine.setManager(this);
+        configureRuntimeOnTaskService(taskService, engine);
+        registerItems(engine);
+        attachManager(engine);
+        return engine;
+    }
+
+    private void destroyPool() {
+        RuntimeEngineImpl engine;
+        while ((engine = idle.poll()) != null) {
+            pooled.remove(engine);
+            try {
+                engine.getKieSession().destroy();
+            } catch (Exception e) {
+                log.warn("Error destroying pooled session of runtime manager " + identifier, e);
+            }
+            engine.dispose();
+        }
+        meters.forEach(meterRegistry::remove);
+        meters.clear();
+    }
+
+    private class ReleaseSessionTransactionSynchronization extends OrderedTransactionSynchronization {
+
+        private final RuntimeEngineImpl engine;
+
+        ReleaseSessionTransactionSynchronization(RuntimeEngineImpl engine) {
+            super(10, "ReleaseSessionTransactionSynchronization" + engine.toString());
+            this.engine = engine;
+        }
+
+        @Override
+        public void beforeCompletion() {
+            softDispose(engine);
+        }
+
+        @Override
+        public void afterCompletion(int status) {
+            engine.setAfterCompletion(true);
+            try {
+                disposeRuntimeEngine(engine);
+            } catch (Throwable e) {
+                log.debug("Could not release runtime engine", e);
+            }
+        }
+    }
+}
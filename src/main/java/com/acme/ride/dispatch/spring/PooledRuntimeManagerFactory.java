@@ -0,0 +1,122 @@
+package com.acme.ride.dispatch.spring;
+
+import java.util.function.Supplier;
+
+import com.acme.ride.dispatch.timer.TimingWheelSchedulerService;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.jbpm.runtime.manager.impl.PerRequestRuntimeManager;
+import org.jbpm.runtime.manager.impl.RuntimeManagerFactoryImpl;
+import org.jbpm.runtime.manager.impl.SimpleRuntimeEnvironment;
+import org.kie.api.runtime.manager.RuntimeEnvironment;
+import org.kie.api.runtime.manager.RuntimeManager;
+import org.kie.api.runtime.manager.RuntimeManagerFactory;
+import org.kie.internal.runtime.manager.RuntimeManagerRegistry;
+
+/**
+ * Creates {@link PooledPerRequestRuntimeManager}s for the per request strategy, and delegates all other strategies.
+ *
+ * The per request manager is first created by the delegate, which prepares the environment, session factory and
+ * task service factory. The pooled manager then replaces it in the registry and takes over its timer service.
+ *
+ * When a supplier of {@link TimingWheelSchedulerService}s is given, every manager schedules its timers with its own
+ * timing wheel instead of the scheduler service discovered by the environment.
+ */
+public class PooledRuntimeManagerFactory extends RuntimeManagerFactoryImpl {
+
+    private final RuntimeManagerFactory delegate;
+
+    private final int poolSize;
+
+    private final MeterRegistry meterRegistry;
+
+    private final Supplier<TimingWheelSchedulerService> schedulerServices;
+
+    public PooledRuntimeManagerFactory(RuntimeManagerFactory delegate, int poolSize, MeterRegistry meterRegistry) {
+        this(delegate, poolSize, meterRegistry, null);
+    }
+
+    public PooledRuntimeManagerFactory(RuntimeManagerFactory delegate, int poolSize, MeterRegistry meterRegistry,
+                                       Supplier<TimingWheelSchedulerService> schedulerServices) {
+        this.delegate = delegate;
+        this.poolSize = poolSize;
+        this.meterRegistry = meterRegistry;
+        this.schedulerServices = schedulerServices;
+    }
+
+    @Override
+    public RuntimeManager newPerRequestRuntimeManager(RuntimeEnvironment environment, String identifier) {
+        TimingWheelSchedulerService schedulerService = useTimingWheel(environment);
+        RuntimeManager manager = delegate.newPerRequestRuntimeManager(environment, identifier);
+        if (poolSize <= 0 || !(manager instanceof PerRequestRuntimeManager)) {
+            return start(manager, schedulerService);
+        }
+        PerRequestRuntimeManager perRequestManager = (PerRequestRuntimeManager) manager;
+        RuntimeManagerRegistry.get().remove(perRequestManager);
+        PooledPerRequestRuntimeManager pooledManager = new PooledPerRequestRuntimeManager(environment, perRequestManager.getFactory(),
+                perRequestManager.getTaskServiceFactory(), identifier, poolSize, meterRegistry);
+        initTimerService(environment, pooledManager);
+        pooledManager.init();
+        return start(pooledManager, schedulerService);
+    }
+
+    @Override
+    public RuntimeManager newPerRequestRuntimeManager(RuntimeEnvironment environment) {
+        TimingWheelSchedulerService schedulerService = useTimingWheel(environment);
+        return start(delegate.newPerRequestRuntimeManager(environment), schedulerService);
+    }
+
+    @Override
+    public RuntimeManager newSingletonRuntimeManager(RuntimeEnvironment environment) {
+        TimingWheelSchedulerService schedulerService = useTimingWheel(environment);
+        return start(delegate.newSingletonRuntimeManager(environment), schedulerService);
+    }
+
+    @Override
+    public RuntimeManager newSingletonRuntimeManager(RuntimeEnvironment environment, String identifier) {
+        TimingWheelSchedulerService schedulerService = useTimingWheel(environment);
+        return start(delegate.newSingletonRuntimeManager(environment, identifier), schedulerService);
+    }
+
+    @Override
+    public RuntimeManager newPerProcessInstanceRuntimeManager(RuntimeEnvironment environment) {
+        TimingWheelSchedulerService schedulerService = useTimingWheel(environment);
+        return start(delegate.newPerProcessInstanceRuntimeManager(environment), schedulerService);
+    }
+
+    @Override
+    public RuntimeManager newPerProcessInstanceRuntimeManager(RuntimeEnvironment environment, String identifier) {
+        TimingWheelSchedulerService schedulerService = useTimingWheel(environment);
+        return start(delegate.newPerProcessInstanceRuntimeManager(environment, identifier), schedulerService);
+    }
+
+    @Override
+    public RuntimeManager newPerCaseRuntimeManager(RuntimeEnvironment environment) {
+        TimingWheelSchedulerService schedulerService = useTimingWheel(environment);
+        return start(delegate.newPerCaseRuntimeManager(environment), schedulerService);
+    }
+
+    @Override
+    public RuntimeManager newPerCaseRuntimeManager(RuntimeEnvironment environment, String identifier) {
+        TimingWheelSchedulerService schedulerService = useTimingWheel(environment);
+        return start(delegate.newPerCaseRuntimeManager(environment, identifier), schedulerService);
+    }
+
+    private TimingWheelSchedulerService useTimingWheel(RuntimeEnvironment environment) {
+        if (schedulerServices == null || !(environment instanceof SimpleRuntimeEnvironment)) {
+            return null;
+        }
+        TimingWheelSchedulerService schedulerService = schedulerServices.get();
+        ((SimpleRuntimeEnvironment) environment).setSchedulerService(schedulerService);
+        return schedulerService;
+    }
+
+    /**
+     * Timers are loaded once the manager is registered, as they look up their timer service by the manager identifier.
+     */
+    private RuntimeManager start(RuntimeManager manager, TimingWheelSchedulerService schedulerService) {
+        if (schedulerService != null) {
+            schedulerService.start();
+        }
+        return manager;
+    }
+}
@@ -2,6 +2,7 @@ package com.acme.ride.dispatch.spring;
 
 import java.util.Map;
 
+import com.acme.ride.dispatch.audit.AuditLogWriter;
 import org.drools.core.event.AbstractEventSupport;
 import org.jbpm.casemgmt.api.event.CaseEventListener;
 import org.jbpm.kie.services.impl.KModuleDeploymentService;
@@ -25,11 +26,14 @@ public class SpringKModuleDeploymentService extends KModuleDeploymentService {
 
     private ApplicationContext context;
 
+    private AuditLogWriter auditLogWriter;
+
     @Override
     protected RegisterableItemsFactory getRegisterableItemsFactory(AuditEventBuilder auditLoggerBuilder, KieContainer kieContainer, KModuleDeploymentUnit unit) {
         SpringRegisterableItemsFactory factory = new SpringRegisterableItemsFactory(context, kieContainer,
                 unit.getKsessionName());
         factory.setAuditBuilder(auditLoggerBuilder);
+        factory.setAuditLogWriter(auditLogWriter);
         return factory;
     }
 
@@ -38,6 +42,10 @@ public class SpringKModuleDeploymentService extends KModuleDeploymentService {
         this.context = context;
     }
 
+    public void setAuditLogWriter(AuditLogWriter auditLogWriter) {
+        this.auditLogWriter = auditLogWriter;
+    }
+
     @SuppressWarnings({"rawtypes", "unchecked"})
     @Override
     public void notifyOnDeploy(DeploymentUnit unit, DeployedUnit deployedUnit) {
@@ -1,16 +1,43 @@
 package com.acme.ride.dispatch.spring;
 
+import java.util.List;
+
+import com.acme.ride.dispatch.audit.AsyncAuditLogger;
+import com.acme.ride.dispatch.audit.AuditLogWriter;
+import org.jbpm.process.audit.JPAWorkingMemoryDbLogger;
+import org.kie.api.event.process.ProcessEventListener;
 import org.kie.api.runtime.KieContainer;
+import org.kie.api.runtime.manager.RuntimeEngine;
 import org.springframework.context.ApplicationContext;
 
 public class SpringRegisterableItemsFactory extends org.jbpm.springboot.services.SpringRegisterableItemsFactory {
 
     private volatile Boolean initialized = null;
 
+    private AuditLogWriter auditLogWriter;
+
     public SpringRegisterableItemsFactory(ApplicationContext context, KieContainer kieContainer, String ksessionName) {
         super(context, kieContainer, ksessionName);
     }
 
+    public void setAuditLogWriter(AuditLogWriter auditLogWriter) {
+        this.auditLogWriter = auditLogWriter;
+    }
+
+    /**
+     * Replaces the JPA audit logger with an {@link AsyncAuditLogger} wrapping it, when the audit log is written
+     * asynchronously.
+     */
+    @Override
+    public List<ProcessEventListener> getProcessEventListeners(RuntimeEngine runtime) {
+        List<ProcessEventListener> listeners = super.getProcessEventListeners(runtime);
+        if (auditLogWriter != null && auditLogWriter.isEnabled()) {
+            listeners.replaceAll(listener -> listener instanceof JPAWorkingMemoryDbLogger
+                    ? new AsyncAuditLogger(auditLogWriter, (JPAWorkingMemoryDbLogger) listener) : listener);
+        }
+        return listeners;
+    }
+
     @Override
     protected void processHandlers() {
         Boolean result = initialized;
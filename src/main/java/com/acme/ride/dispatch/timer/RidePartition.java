@@ -0,0 +1,29 @@
+package com.acme.ride.dispatch.timer;
+
+/**
+ * Partition of the ride processed by the current thread. Rides are keyed by ride id on all the consumed topics, and the
+ * topics are co-partitioned (see {@link TimerPartitions}), so a ride is in the partition with the same number on every
+ * topic. Timers scheduled while a ride is processed belong to that partition.
+ */
+public final class RidePartition {
+
+    public static final int NONE = -1;
+
+    private static final ThreadLocal<Integer> current = new ThreadLocal<>();
+
+    private RidePartition() {
+    }
+
+    public static void set(int partition) {
+        current.set(partition);
+    }
+
+    public static void clear() {
+        current.remove();
+    }
+
+    public static int current() {
+        Integer partition = current.get();
+        return partition == null ? NONE : partition;
+    }
+}
@@ -0,0 +1,103 @@
+package com.acme.ride.dispatch.timer;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.kafka.listener.ConsumerAwareRebalanceListener;
+import org.springframework.stereotype.Component;
+
+/**
+ * Partitions owned by this instance, for the timers of the rides in these partitions. A partition number is owned as
+ * long as the partition with that number of one of the consumed topics is assigned to a consumer of this instance.
+ * Listeners are told about the partition numbers gained and lost on every rebalance.
+ *
+ * Ownership by partition number assumes that the consumed topics are co-partitioned: with the same number of partitions
+ * and the default partitioner, a ride is in the partition with the same number on every topic. This is checked by
+ * {@link #checkCoPartitioned} before the listeners are started.
+ */
+@Component
+public class TimerPartitions implements ConsumerAwareRebalanceListener {
+
+    private final static Logger log = LoggerFactory.getLogger(TimerPartitions.class);
+
+    private final Set<TopicPartition> assigned = new HashSet<>();
+
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    public void addListener(Listener listener) {
+        Set<Integer> owned;
+        synchronized (this) {
+            listeners.add(listener);
+            owned = owned();
+        }
+        if (!owned.isEmpty()) {
+            listener.partitionsAssigned(owned);
+        }
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    @Override
+    public synchronized void onPartitionsRevokedBeforeCommit(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+        Set<Integer> before = owned();
+        assigned.removeAll(partitions);
+        before.removeAll(owned());
+        if (!before.isEmpty()) {
+            log.info("Timers of partitions " + before + " released");
+            listeners.forEach(listener -> listener.partitionsRevoked(before));
+        }
+    }
+
+    @Override
+    public synchronized void onPartitionsAssigned(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+        Set<Integer> after = new TreeSet<>();
+        partitions.forEach(partition -> after.add(partition.partition()));
+        after.removeAll(owned());
+        assigned.addAll(partitions);
+        if (!after.isEmpty()) {
+            log.info("Timers of partitions " + after + " acquired");
+            listeners.forEach(listener -> listener.partitionsAssigned(after));
+        }
+    }
+
+    /**
+     * Throws an IllegalStateException when the topics do not all have the same number of partitions.
+     */
+    public static void checkCoPartitioned(Consumer<?, ?> consumer, Collection<String> topics) {
+        Map<String, Integer> counts = new TreeMap<>();
+        for (String topic : topics) {
+            List<PartitionInfo> partitions = consumer.partitionsFor(topic);
+            counts.put(topic, partitions == null ? 0 : partitions.size());
+        }
+        if (new HashSet<>(counts.values()).size() > 1) {
+            throw new IllegalStateException("Timers are owned by partition number, the consumed topics must have the same number of partitions: "
+                    + counts);
+        }
+    }
+
+    public synchronized Set<Integer> owned() {
+        Set<Integer> owned = new TreeSet<>();
+        assigned.forEach(partition -> owned.add(partition.partition()));
+        return owned;
+    }
+
+    public interface Listener {
+
+        void partitionsAssigned(Set<Integer> partitions);
+
+        void partitionsRevoked(Set<Integer> partitions);
+    }
+}
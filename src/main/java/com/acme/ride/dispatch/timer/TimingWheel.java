@@ -0,0 +1,204 @@
+package com.acme.ride.dispatch.timer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Hierarchical timing wheel. The first level has <code>wheelSize</code> buckets of one tick; each next level has
+ * buckets as wide as the whole level below it, and is only created when a deadline is beyond the levels so far.
+ * A bucket is a doubly linked list, so scheduling and cancelling a timeout are O(1) whatever the number of timeouts.
+ *
+ * The wheel is driven by {@link #advance(long)}. When the clock enters a bucket of a higher level, the timeouts of that
+ * bucket are added again and move down to a finer level, until they are due and returned. Deadlines are in
+ * milliseconds, and timeouts expire at the latest one tick after their deadline.
+ */
+public class TimingWheel<T> {
+
+    private final long tickMs;
+
+    private final int wheelSize;
+
+    private final List<Bucket<T>[]> levels = new ArrayList<>();
+
+    private final Bucket<T> due = new Bucket<>();
+
+    private long currentTime;
+
+    private int size;
+
+    public TimingWheel(long tickMs, int wheelSize, long startMs) {
+        if (tickMs <= 0 || wheelSize <= 1) {
+            throw new IllegalArgumentException("Invalid timing wheel with tick " + tickMs + " and size " + wheelSize);
+        }
+        this.tickMs = tickMs;
+        this.wheelSize = wheelSize;
+        this.currentTime = startMs - startMs % tickMs;
+    }
+
+    public synchronized Timeout<T> schedule(T task, long deadline) {
+        Timeout<T> timeout = new Timeout<>(task, deadline);
+        add(timeout);
+        size++;
+        return timeout;
+    }
+
+    /**
+     * Returns false when the timeout is null, has already expired or was cancelled.
+     */
+    public synchronized boolean cancel(Timeout<T> timeout) {
+        if (timeout == null || timeout.bucket == null) {
+            return false;
+        }
+        timeout.bucket.remove(timeout);
+        size--;
+        return true;
+    }
+
+    /**
+     * Moves the clock to <code>now</code> and returns the tasks of the timeouts which are due, in no particular order.
+     */
+    public synchronized List<T> advance(long now) {
+        if (size == 0) {
+            currentTime = Math.max(currentTime, now - now % tickMs);
+            return Collections.emptyList();
+        }
+        while (currentTime + tickMs <= now) {
+            currentTime += tickMs;
+            // from the widest level whose bucket starts now down to the first level, so that the timeouts moving
+            // down are flushed in the same tick when they land in a bucket which starts now
+            for (int level = levels.size() - 1; level >= 0; level--) {
+                long tick = tick(level);
+                if (currentTime % tick == 0) {
+                    Bucket<T> bucket = levels.get(level)[(int) ((currentTime / tick) % wheelSize)];
+                    for (Timeout<T> timeout = bucket.clear(); timeout != null; ) {
+                        Timeout<T> next = timeout.next;
+                        timeout.next = null;
+                        add(timeout);
+                        timeout = next;
+                    }
+                }
+            }
+        }
+        List<T> expired = new ArrayList<>();
+        for (Timeout<T> timeout = due.clear(); timeout != null; timeout = timeout.next) {
+            expired.add(timeout.task);
+        }
+        size -= expired.size();
+        return expired;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    int levels() {
+        return levels.size();
+    }
+
+    private void add(Timeout<T> timeout) {
+        if (timeout.deadline < currentTime + tickMs) {
+            due.add(timeout);
+            return;
+        }
+        long levelTick = tickMs;
+        for (int level = 0; ; level++) {
+            long levelStart = currentTime - currentTime % levelTick;
+            boolean widest = levelTick > Long.MAX_VALUE / wheelSize;
+            if (widest || timeout.deadline < levelStart + levelTick * wheelSize) {
+                bucket(level, (int) ((timeout.deadline / levelTick) % wheelSize)).add(timeout);
+                return;
+            }
+            levelTick *= wheelSize;
+        }
+    }
+
+    private long tick(int level) {
+        long tick = tickMs;
+        for (int i = 0; i < level; i++) {
+            tick *= wheelSize;
+        }
+        return tick;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Bucket<T> bucket(int level, int index) {
+        while (levels.size() <= level) {
+            Bucket<T>[] buckets = new Bucket[wheelSize];
+            for (int i = 0; i < wheelSize; i++) {
+                buckets[i] = new Bucket<>();
+            }
+            levels.add(buckets);
+        }
+        return levels.get(level)[index];
+    }
+
+    public static final class Timeout<T> {
+
+        private final T task;
+
+        private final long deadline;
+
+        private Bucket<T> bucket;
+
+        private Timeout<T> prev;
+
+        private Timeout<T> next;
+
+        private Timeout(T task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        public T getTask() {
+            return task;
+        }
+
+        public long getDeadline() {
+            return deadline;
+        }
+    }
+
+    private static final class Bucket<T> {
+
+        private Timeout<T> head;
+
+        void add(Timeout<T> timeout) {
+            timeout.bucket = this;
+            timeout.prev = null;
+            timeout.next = head;
+            if (head != null) {
+                head.prev = timeout;
+            }
+            head = timeout;
+        }
+
+        void remove(Timeout<T> timeout) {
+            if (timeout.prev != null) {
+                timeout.prev.next = timeout.next;
+            } else {
+                head = timeout.next;
+            }
+            if (timeout.next != null) {
+                timeout.next.prev = timeout.prev;
+            }
+            timeout.bucket = null;
+            timeout.prev = null;
+            timeout.next = null;
+        }
+
+        /**
+         * Detaches all the timeouts of the bucket and returns the first one. They stay linked through
+         * <code>next</code>.
+         */
+        Timeout<T> clear() {
+            Timeout<T> first = head;
+            for (Timeout<T> timeout = first; timeout != null; timeout = timeout.next) {
+                timeout.bucket = null;
+                timeout.prev = null;
+            }
+            head = null;
+            return first;
+        }
+    }
+}
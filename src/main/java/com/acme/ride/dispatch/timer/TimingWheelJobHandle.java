@@ -0,0 +1,39 @@
+package com.acme.ride.dispatch.timer;
+
+import java.io.Serializable;
+
+import org.jbpm.process.core.timer.impl.GlobalTimerService;
+
+/**
+ * Handle of a timer of the {@link TimingWheelSchedulerService}. The job name and the partition are kept in the handle,
+ * so that a copy of the handle restored with the process instance still identifies the timer.
+ */
+public class TimingWheelJobHandle extends GlobalTimerService.GlobalJobHandle implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String jobName;
+
+    private final int partition;
+
+    private final boolean durable;
+
+    public TimingWheelJobHandle(long id, String jobName, int partition, boolean durable) {
+        super(id);
+        this.jobName = jobName;
+        this.partition = partition;
+        this.durable = durable;
+    }
+
+    public String getJobName() {
+        return jobName;
+    }
+
+    public int getPartition() {
+        return partition;
+    }
+
+    public boolean isDurable() {
+        return durable;
+    }
+}
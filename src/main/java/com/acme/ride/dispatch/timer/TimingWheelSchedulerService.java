@@ -0,0 +1,517 @@
+package com.acme.ride.dispatch.timer;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.acme.ride.dispatch.dao.DispatchTimerDao;
+import com.acme.ride.dispatch.entity.DispatchTimer;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.drools.core.time.Job;
+import org.drools.core.time.JobContext;
+import org.drools.core.time.JobHandle;
+import org.drools.core.time.SelfRemovalJobContext;
+import org.drools.core.time.TimerService;
+import org.drools.core.time.Trigger;
+import org.drools.core.time.impl.TimerJobInstance;
+import org.jbpm.process.core.timer.GlobalSchedulerService;
+import org.jbpm.process.core.timer.NamedJobContext;
+import org.jbpm.process.core.timer.SchedulerServiceInterceptor;
+import org.jbpm.process.core.timer.impl.DelegateSchedulerServiceInterceptor;
+import org.jbpm.process.core.timer.impl.GlobalTimerService;
+import org.jbpm.process.instance.timer.TimerManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.ConfigurableObjectInputStream;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.util.SerializationUtils;
+
+/**
+ * Scheduler service of the jBPM global timer service, keeping the timers of a runtime manager in a {@link TimingWheel}
+ * instead of Quartz. A timer is added to the wheel when the transaction which created it commits, and is removed from
+ * it when it is cancelled, both in O(1) and without database access.
+ *
+ * The durable state of a timer is one row of the DispatchTimer table. Rows are written and deleted by a background
+ * thread, with all the changes buffered since the previous flush, so a timer which is cancelled before the next flush
+ * costs no statement at all. A timer belongs to the partition of the ride being processed when it was created. It is
+ * fired by the instance owning that partition: the timers of a revoked partition are dropped from the wheel once
+ * their rows are written, and the timers of an assigned partition are loaded from the table.
+ *
+ * Changes are durable up to the flush interval only: when the instance crashes, a timer created since the last flush
+ * is lost, and a timer cancelled since the last flush fires once more on the next owner of its partition.
+ *
+ * Quartz remains the default scheduler (<code>dispatch.timer.enabled=false</code>). Timers already scheduled in the
+ * QRTZ_ tables are not moved to DispatchTimer, so the wheel must only be enabled once no QRTZ_ trigger of the
+ * deployment is left, with all instances stopped and <code>jbpm.quartz.enabled</code> set to false.
+ */
+public class TimingWheelSchedulerService implements GlobalSchedulerService, TimerPartitions.Listener {
+
+    private final static Logger log = LoggerFactory.getLogger(TimingWheelSchedulerService.class);
+
+    private static final int RETRIES = Integer.parseInt(System.getProperty("org.jbpm.timer.thread.retries", "5"));
+
+    private static final long RETRY_DELAY = Long.parseLong(System.getProperty("org.jbpm.timer.thread.delay", "1000"));
+
+    // marks a pending write which deletes the timer
+    private static final TimerEntry DELETED = new TimerEntry(null, null, 0, true);
+
+    private final DispatchTimerDao timerDao;
+
+    private final TimerPartitions timerPartitions;
+
+    private final long tickMs;
+
+    private final int wheelSize;
+
+    private final int poolSize;
+
+    private final long flushInterval;
+
+    private final int batchSize;
+
+    private final AtomicLong idCounter = new AtomicLong();
+
+    private final Map<String, TimerEntry> activeTimers = new ConcurrentHashMap<>();
+
+    private final Object pendingLock = new Object();
+
+    private Map<String, TimerEntry> pendingWrites = new HashMap<>();
+
+    private final Counter fired;
+
+    private final Counter written;
+
+    private SchedulerServiceInterceptor interceptor = new DelegateSchedulerServiceInterceptor(this);
+
+    private volatile GlobalTimerService globalTimerService;
+
+    private TimingWheel<TimerEntry> wheel;
+
+    private ScheduledExecutorService scheduler;
+
+    private ExecutorService workers;
+
+    public TimingWheelSchedulerService(DispatchTimerDao timerDao, TimerPartitions timerPartitions, long tickMs, int wheelSize,
+                                       int poolSize, long flushInterval, int batchSize, MeterRegistry meterRegistry) {
+        this.timerDao = timerDao;
+        this.timerPartitions = timerPartitions;
+        this.tickMs = tickMs;
+        this.wheelSize = wheelSize;
+        this.poolSize = poolSize;
+        this.flushInterval = flushInterval;
+        this.batchSize = batchSize;
+        fired = Counter.builder("dispatch.timer.fired").register(meterRegistry);
+        written = Counter.builder("dispatch.timer.written").register(meterRegistry);
+        Gauge.builder("dispatch.timer.active", activeTimers, Map::size).register(meterRegistry);
+    }
+
+    /**
+     * Called for every manager taking over the timer service. The wheel and the threads are created once.
+     */
+    @Override
+    public synchronized void initScheduler(TimerService timerService) {
+        globalTimerService = (GlobalTimerService) timerService;
+        if (scheduler == null) {
+            wheel = new TimingWheel<>(tickMs, wheelSize, System.currentTimeMillis());
+            workers = Executors.newFixedThreadPool(poolSize, new CustomizableThreadFactory("dispatch-timer-"));
+            scheduler = Executors.newScheduledThreadPool(2, new CustomizableThreadFactory("dispatch-timer-wheel-"));
+            scheduler.scheduleAtFixedRate(this::tick, tickMs, tickMs, TimeUnit.MILLISECONDS);
+            scheduler.scheduleWithFixedDelay(this::flush, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Starts following the partitions owned by this instance, once the runtime manager and its timer service are
+     * registered.
+     */
+    public void start() {
+        timerPartitions.addListener(this);
+    }
+
+    @Override
+    public void shutdown() {
+        timerPartitions.removeListener(this);
+        if (scheduler != null) {
+            scheduler.shutdown();
+            workers.shutdown();
+            try {
+                if (!workers.awaitTermination(10, TimeUnit.SECONDS)) {
+                    workers.shutdownNow();
+                }
+                scheduler.awaitTermination(flushInterval, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                workers.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
+        flush();
+        activeTimers.clear();
+    }
+
+    @Override
+    public JobHandle scheduleJob(Job job, JobContext ctx, Trigger trigger) {
+        if (trigger.hasNextFireTime() == null) {
+            return null;
+        }
+        String jobName = jobName(ctx);
+        if (jobName != null) {
+            TimerEntry active = activeTimers.get(jobName);
+            if (active != null) {
+                return active.handle;
+            }
+        }
+        long id = idCounter.getAndIncrement();
+        TimingWheelJobHandle handle = jobName == null ? new TimingWheelJobHandle(id, "job-" + id, RidePartition.current(), false)
+                : new TimingWheelJobHandle(id, jobName, RidePartition.current(), true);
+        TimerJobInstance instance = globalTimerService.getTimerJobFactoryManager().createTimerJobInstance(job, ctx, trigger, handle, globalTimerService);
+        handle.setTimerJobInstance(instance);
+        // the interceptor set by the runtime manager defers this until the transaction commits
+        interceptor.internalSchedule(instance);
+        return handle;
+    }
+
+    @Override
+    public boolean removeJob(JobHandle jobHandle) {
+        if (!(jobHandle instanceof TimingWheelJobHandle)) {
+            return false;
+        }
+        TimingWheelJobHandle handle = (TimingWheelJobHandle) jobHandle;
+        handle.setCancel(true);
+        String jobName = handle.getJobName();
+        TimerEntry entry = activeTimers.remove(jobName);
+        if (entry != null) {
+            wheel.cancel(entry.timeout);
+            globalTimerService.getTimerJobFactoryManager().removeTimerJobInstance(entry.instance);
+        }
+        if (handle.isDurable()) {
+            if (TransactionSynchronizationManager.isSynchronizationActive()) {
+                TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                    @Override
+                    public void afterCommit() {
+                        delete(jobName);
+                    }
+                });
+            } else {
+                delete(jobName);
+            }
+        }
+        return entry != null;
+    }
+
+    @Override
+    public void internalSchedule(TimerJobInstance timerJobInstance) {
+        if (scheduler == null || scheduler.isShutdown()) {
+            return;
+        }
+        Date date = timerJobInstance.getTrigger().hasNextFireTime();
+        if (date == null) {
+            return;
+        }
+        TimingWheelJobHandle handle = (TimingWheelJobHandle) timerJobInstance.getJobHandle();
+        // a timer which is already active is rescheduled, and may have been written
+        boolean mayExist = activeTimers.containsKey(handle.getJobName());
+        schedule(new TimerEntry(handle, timerJobInstance, date.getTime(), mayExist), true);
+        globalTimerService.getTimerJobFactoryManager().addTimerJobInstance(timerJobInstance);
+    }
+
+    @Override
+    public JobHandle buildJobHandleForContext(NamedJobContext ctx) {
+        return new TimingWheelJobHandle(-1, ctx.getJobName(), RidePartition.NONE, true);
+    }
+
+    @Override
+    public boolean isTransactional() {
+        return false;
+    }
+
+    @Override
+    public boolean retryEnabled() {
+        return false;
+    }
+
+    @Override
+    public void setInterceptor(SchedulerServiceInterceptor interceptor) {
+        this.interceptor = interceptor;
+    }
+
+    @Override
+    public boolean isValid(GlobalTimerService.GlobalJobHandle jobHandle) {
+        return true;
+    }
+
+    /**
+     * Loads the timers of the assigned partitions. Timers created outside of the processing of a ride belong to the
+     * owner of partition 0.
+     */
+    @Override
+    public void partitionsAssigned(Set<Integer> partitions) {
+        Set<Integer> loaded = new TreeSet<>(partitions);
+        if (partitions.contains(0)) {
+            loaded.add(RidePartition.NONE);
+        }
+        int count = 0;
+        try {
+            for (int partition : loaded) {
+                for (DispatchTimer timer : timerDao.findByPartition(deploymentId(), partition)) {
+                    if (activeTimers.containsKey(timer.getName())) {
+                        continue;
+                    }
+                    try {
+                        restore(timer);
+                        count++;
+                    } catch (RuntimeException e) {
+                        log.error("Timer " + timer.getName() + " can't be restored", e);
+                    }
+                }
+            }
+        } catch (RuntimeException e) {
+            log.error("Error loading the timers of partitions " + partitions + ". " + count + " timers loaded", e);
+            return;
+        }
+        log.info(count + " timers of partitions " + partitions + " loaded");
+    }
+
+    /**
+     * Drops the timers of the revoked partitions from the wheel, and writes the pending changes so that the next owner
+     * of these partitions loads them.
+     */
+    @Override
+    public void partitionsRevoked(Set<Integer> partitions) {
+        int count = 0;
+        for (TimerEntry entry : activeTimers.values()) {
+            int partition = entry.handle.getPartition();
+            boolean revoked = partitions.contains(partition) || (partition == RidePartition.NONE && partitions.contains(0));
+            if (revoked && entry.handle.isDurable() && activeTimers.remove(entry.handle.getJobName(), entry)) {
+                wheel.cancel(entry.timeout);
+                globalTimerService.getTimerJobFactoryManager().removeTimerJobInstance(entry.instance);
+                count++;
+            }
+        }
+        flush();
+        log.info(count + " timers of partitions " + partitions + " released");
+    }
+
+    void tick() {
+        try {
+            for (TimerEntry entry : wheel.advance(System.currentTimeMillis())) {
+                workers.execute(() -> fire(entry));
+            }
+        } catch (RuntimeException e) {
+            log.error("Error advancing the timer wheel", e);
+        }
+    }
+
+    void fire(TimerEntry entry) {
+        String jobName = entry.handle.getJobName();
+        if (activeTimers.get(jobName) != entry) {
+            return;
+        }
+        // timers created by this one belong to the same ride
+        RidePartition.set(entry.handle.getPartition());
+        try {
+            ((Callable<?>) entry.instance).call();
+            fired.increment();
+            if (entry.instance.getTrigger().hasNextFireTime() == null) {
+                remove(entry);
+            }
+        } catch (Exception e) {
+            if (++entry.attempts <= RETRIES) {
+                log.warn("Timer " + jobName + " failed. Retry " + entry.attempts + " in " + RETRY_DELAY + " ms", e);
+                if (activeTimers.get(jobName) == entry) {
+                    entry.timeout = wheel.schedule(entry, System.currentTimeMillis() + RETRY_DELAY);
+                }
+            } else {
+                log.error("Timer " + jobName + " failed " + RETRIES + " times in a row and is unscheduled", e);
+                remove(entry);
+            }
+        } finally {
+            RidePartition.clear();
+        }
+    }
+
+    /**
+     * Writes the pending changes. A batch which fails is written again with the next flush, unless the timer changed
+     * in the meantime.
+     */
+    synchronized void flush() {
+        Map<String, TimerEntry> batch;
+        synchronized (pendingLock) {
+            if (pendingWrites.isEmpty()) {
+                return;
+            }
+            batch = pendingWrites;
+            pendingWrites = new HashMap<>();
+        }
+        List<DispatchTimer> timers = new ArrayList<>();
+        List<String> deleted = new ArrayList<>();
+        String deploymentId = deploymentId();
+        for (Map.Entry<String, TimerEntry> write : batch.entrySet()) {
+            if (write.getValue() == DELETED) {
+                deleted.add(write.getKey());
+                continue;
+            }
+            try {
+                timers.add(write.getValue().toDispatchTimer(deploymentId));
+            } catch (RuntimeException e) {
+                log.error("Timer " + write.getKey() + " can't be serialized and is not durable", e);
+            }
+        }
+        try {
+            timerDao.write(timers, deleted, batchSize);
+            written.increment(timers.size() + deleted.size());
+        } catch (Exception e) {
+            log.error("Error writing timers. " + batch.size() + " changes will be written on the next flush", e);
+            synchronized (pendingLock) {
+                batch.forEach((name, entry) -> {
+                    if (!pendingWrites.containsKey(name)) {
+                        pendingWrites.put(name, entry);
+                    }
+                });
+            }
+        }
+    }
+
+    int getActiveCount() {
+        return activeTimers.size();
+    }
+
+    int getPendingCount() {
+        synchronized (pendingLock) {
+            return pendingWrites.size();
+        }
+    }
+
+    private void schedule(TimerEntry entry, boolean write) {
+        String jobName = entry.handle.getJobName();
+        TimerEntry previous = activeTimers.put(jobName, entry);
+        if (previous != null && previous != entry) {
+            wheel.cancel(previous.timeout);
+        }
+        entry.timeout = wheel.schedule(entry, entry.fireTime);
+        if (write && entry.handle.isDurable()) {
+            int pending;
+            synchronized (pendingLock) {
+                pendingWrites.put(jobName, entry);
+                pending = pendingWrites.size();
+            }
+            if (pending >= batchSize) {
+                scheduler.execute(this::flush);
+            }
+        }
+    }
+
+    private void remove(TimerEntry entry) {
+        String jobName = entry.handle.getJobName();
+        if (activeTimers.remove(jobName, entry)) {
+            wheel.cancel(entry.timeout);
+            globalTimerService.getTimerJobFactoryManager().removeTimerJobInstance(entry.instance);
+            if (entry.handle.isDurable()) {
+                delete(jobName);
+            }
+        }
+    }
+
+    private void delete(String jobName) {
+        synchronized (pendingLock) {
+            TimerEntry pending = pendingWrites.get(jobName);
+            if (pending != null && pending != DELETED && !pending.mayExist) {
+                // never handed to a flush, so there is no row to delete
+                pendingWrites.remove(jobName);
+            } else {
+                pendingWrites.put(jobName, DELETED);
+            }
+        }
+    }
+
+    private void restore(DispatchTimer timer) {
+        TimerJobInstance stored = (TimerJobInstance) deserialize(timer.getTimerJobInstance());
+        TimingWheelJobHandle handle = stored.getJobHandle() instanceof TimingWheelJobHandle ? (TimingWheelJobHandle) stored.getJobHandle()
+                : new TimingWheelJobHandle(idCounter.getAndIncrement(), timer.getName(), timer.getPartitionNo(), true);
+        TimerJobInstance instance = globalTimerService.getTimerJobFactoryManager().createTimerJobInstance(stored.getJob(),
+                stored.getJobContext(), stored.getTrigger(), handle, globalTimerService);
+        handle.setTimerJobInstance(instance);
+        Date date = instance.getTrigger().hasNextFireTime();
+        schedule(new TimerEntry(handle, instance, date == null ? timer.getFireTime().getTime() : date.getTime(), true), false);
+        globalTimerService.getTimerJobFactoryManager().addTimerJobInstance(instance);
+    }
+
+    private String deploymentId() {
+        return globalTimerService.getRuntimeManager().getIdentifier();
+    }
+
+    private static Object deserialize(byte[] bytes) {
+        try (ObjectInputStream in = new ConfigurableObjectInputStream(new ByteArrayInputStream(bytes),
+                Thread.currentThread().getContextClassLoader())) {
+            return in.readObject();
+        } catch (IOException | ClassNotFoundException e) {
+            throw new IllegalStateException("Failed to deserialize timer job instance", e);
+        }
+    }
+
+    /**
+     * Same job names as jBPM's thread pool scheduler service, unique per timer of a process instance.
+     */
+    static String jobName(JobContext ctx) {
+        if (ctx instanceof SelfRemovalJobContext) {
+            ctx = ((SelfRemovalJobContext) ctx).getJobContext();
+        }
+        if (ctx instanceof TimerManager.StartProcessJobContext) {
+            TimerManager.StartProcessJobContext processCtx = (TimerManager.StartProcessJobContext) ctx;
+            return "StartProcess-" + processCtx.getProcessId() + "-" + processCtx.getTimer().getId();
+        }
+        if (ctx instanceof TimerManager.ProcessJobContext) {
+            TimerManager.ProcessJobContext processCtx = (TimerManager.ProcessJobContext) ctx;
+            return processCtx.getSessionId() + "-" + processCtx.getProcessInstanceId() + "-" + processCtx.getTimer().getId();
+        }
+        if (ctx instanceof NamedJobContext) {
+            return ((NamedJobContext) ctx).getJobName();
+        }
+        return null;
+    }
+
+    static final class TimerEntry {
+
+        private final TimingWheelJobHandle handle;
+
+        private final TimerJobInstance instance;
+
+        private final long fireTime;
+
+        // false for a new timer, whose row is only written by the flush which takes its first pending write
+        private final boolean mayExist;
+
+        private volatile TimingWheel.Timeout<TimerEntry> timeout;
+
+        private int attempts;
+
+        TimerEntry(TimingWheelJobHandle handle, TimerJobInstance instance, long fireTime, boolean mayExist) {
+            this.handle = handle;
+            this.instance = instance;
+            this.fireTime = fireTime;
+            this.mayExist = mayExist;
+        }
+
+        DispatchTimer toDispatchTimer(String deploymentId) {
+            return new DispatchTimer(handle.getJobName(), deploymentId, handle.getPartition(), new Date(fireTime),
+                    SerializationUtils.serialize(instance));
+        }
+    }
+}
@@ -5,17 +5,21 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.function.Function;
 
+import com.acme.ride.dispatch.dao.OutboxMessageDao;
 import com.acme.ride.dispatch.dao.RideDao;
+import com.acme.ride.dispatch.entity.OutboxMessage;
 import com.acme.ride.dispatch.entity.Ride;
 import com.acme.ride.dispatch.message.model.AssignDriverCommand;
 import com.acme.ride.dispatch.message.model.HandlePaymentCommand;
 import com.acme.ride.dispatch.message.model.Message;
+import com.acme.ride.dispatch.message.serialization.MessageSerializer;
 import org.kie.api.runtime.process.WorkItem;
 import org.kie.api.runtime.process.WorkItemHandler;
 import org.kie.api.runtime.process.WorkItemManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.ApplicationContext;
 import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.kafka.support.SendResult;
@@ -36,6 +40,14 @@ public class MessageSenderWorkItemHandler implements WorkItemHandler {
     @Autowired
     private RideDao rideDao;
 
+    @Autowired
+    private OutboxMessageDao outboxMessageDao;
+
+    @Value("${dispatch.outbox.enabled}")
+    private boolean outboxEnabled;
+
+    private final MessageSerializer serializer = new MessageSerializer();
+
     private Map<String, Function<Ride, ?>> payloadBuilders = new HashMap<>();
 
     public MessageSenderWorkItemHandler() {
@@ -51,14 +63,6 @@ public class MessageSenderWorkItemHandler implements WorkItemHandler {
         if (!(messageType instanceof String) || !(destinationParam instanceof String)) {
             throw new IllegalStateException("Parameters 'messageType', 'destination' cannot be null and must be of type String");
         }
-        String destination = applicationContext.getEnvironment().getProperty((String)destinationParam);
-        if (destination == null || destination.isEmpty()) {
-            throw new IllegalStateException("Destination cannot be null or empty. '" + destinationParam + "' environment property not set" );
-        }
-        Function<Ride, ?> builder = payloadBuilders.get(messageType);
-        if (builder == null) {
-            throw new IllegalStateException("No builder found for payload'" + messageType + "'");
-        }
         Object traceId = parameters.get("traceId");
         if (!(traceId instanceof String)) {
             log.warn("Parameter traceId not found or not a String. Ignoring");
@@ -68,13 +72,33 @@ public class MessageSenderWorkItemHandler implements WorkItemHandler {
         if (!(rideId instanceof String)) {
             throw new IllegalStateException("\"Parameters 'rideId' cannot be null and must be of type String\"");
         }
-        Ride ride = rideDao.findByRideId((String)rideId);
-        Message<Object> message  = new Message.Builder<Object>((String)messageType, "DispatchService", builder.apply(ride))
-                .traceId(traceId.toString()).build();
-        send((String) rideId, message, destination);
+        send((String) messageType, (String) destinationParam, (String) rideId, traceId.toString());
         manager.completeWorkItem(workItem.getId(), Collections.emptyMap());
     }
 
+    /**
+     * Sends the command of the given type for the ride, or writes it to the outbox. The destination is the name of the
+     * property holding the topic.
+     */
+    public void send(String messageType, String destinationParam, String rideId, String traceId) {
+        String destination = applicationContext.getEnvironment().getProperty(destinationParam);
+        if (destination == null || destination.isEmpty()) {
+            throw new IllegalStateException("Destination cannot be null or empty. '" + destinationParam + "' environment property not set" );
+        }
+        Function<Ride, ?> builder = payloadBuilders.get(messageType);
+        if (builder == null) {
+            throw new IllegalStateException("No builder found for payload'" + messageType + "'");
+        }
+        Ride ride = rideDao.findByRideId(rideId);
+        Message<Object> message  = new Message.Builder<Object>(messageType, "DispatchService", builder.apply(ride))
+                .traceId(traceId).build();
+        if (outboxEnabled) {
+            store(rideId, message, destination);
+        } else {
+            send(rideId, message, destination);
+        }
+    }
+
     private void send(String rideId, Message<?> msg, String destination) {
         ListenableFuture<SendResult<String, Message<?>>> future = kafkaTemplate.send(destination, rideId, msg);
         future.addCallback(
@@ -82,6 +106,13 @@ public class MessageSenderWorkItemHandler implements WorkItemHandler {
                 ex -> log.error("Error sending '" + msg.getMessageType() + "' message for ride " + rideId, ex));
     }
 
+    /**
+     * Writes the message to the outbox in the engine transaction. It is published by the outbox relay after commit.
+     */
+    private void store(String rideId, Message<?> msg, String destination) {
+        outboxMessageDao.create(new OutboxMessage(destination, rideId, msg.getMessageType(), serializer.serialize(destination, msg)));
+    }
+
     @Override
     public void abortWorkItem(WorkItem workItem, WorkItemManager manager) {
 
@@ -3,7 +3,10 @@ package com.acme.ride.dispatch.wih;
 import java.util.Collections;
 
 import com.acme.ride.dispatch.dao.RideDao;
+import com.acme.ride.dispatch.dao.RideStatusWriter;
 import com.acme.ride.dispatch.entity.Ride;
+import com.acme.ride.dispatch.query.RideProjection;
+import com.acme.ride.dispatch.registry.ActiveRideRegistry;
 import org.kie.api.runtime.process.WorkItem;
 import org.kie.api.runtime.process.WorkItemHandler;
 import org.kie.api.runtime.process.WorkItemManager;
@@ -16,6 +19,15 @@ public class UpdateRideWorkItemhandler implements WorkItemHandler {
     @Autowired
     private RideDao rideDao;
 
+    @Autowired
+    private RideStatusWriter rideStatusWriter;
+
+    @Autowired
+    private ActiveRideRegistry activeRideRegistry;
+
+    @Autowired
+    private RideProjection rideProjection;
+
     @Override
     public void executeWorkItem(WorkItem workItem, WorkItemManager manager) {
         Object rideId = workItem.getParameters().get("rideId");
@@ -26,11 +38,23 @@ public class UpdateRideWorkItemhandler implements WorkItemHandler {
         if (!(status instanceof String)) {
             throw new IllegalStateException("Parameter 'status' cannot be null and must be of type String");
         }
-        Ride ride = rideDao.findByRideId((String) rideId);
-        if (ride == null) {
-            throw new IllegalStateException("Ride with rideId " + rideId + " not found");
+        Ride.Status rideStatus = Ride.Status.get((String) status);
+        if (rideStatusWriter.isEnabled()) {
+            if (rideStatus == null) {
+                throw new IllegalStateException("Unknown ride status '" + status + "'");
+            }
+            rideStatusWriter.updateStatus((String) rideId, rideStatus);
+        } else {
+            Ride ride = rideDao.findByRideId((String) rideId);
+            if (ride == null) {
+                throw new IllegalStateException("Ride with rideId " + rideId + " not found");
+            }
+            ride.setStatus(rideStatus);
+        }
+        if (rideStatus != null) {
+            activeRideRegistry.updateStatus((String) rideId, rideStatus);
+            rideProjection.updateStatus((String) rideId, rideStatus);
         }
-        ride.setStatus(Ride.Status.get((String) status));
         manager.completeWorkItem(workItem.getId(), Collections.emptyMap());
     }
 
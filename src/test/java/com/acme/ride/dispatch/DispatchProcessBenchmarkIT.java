@@ -0,0 +1,198 @@
+package com.acme.ride.dispatch;
+
+import static org.junit.Assume.assumeTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.when;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import com.acme.ride.dispatch.audit.AuditLogWriter;
+import com.acme.ride.dispatch.dao.DispatchTimerDao;
+import com.acme.ride.dispatch.dao.OutboxMessageDao;
+import com.acme.ride.dispatch.dao.ProcessedMessageDao;
+import com.acme.ride.dispatch.dao.RideDao;
+import com.acme.ride.dispatch.dao.RideStatusWriter;
+import com.acme.ride.dispatch.message.listeners.DriverAssignedEventMessageListener;
+import com.acme.ride.dispatch.message.listeners.MessageDeduplicator;
+import com.acme.ride.dispatch.message.listeners.MessageDispatcher;
+import com.acme.ride.dispatch.message.listeners.PassengerCanceledEventMessageListener;
+import com.acme.ride.dispatch.message.listeners.ProcessInstanceIdCache;
+import com.acme.ride.dispatch.message.listeners.RideEventsMessageListener;
+import com.acme.ride.dispatch.message.model.DriverAssignedEvent;
+import com.acme.ride.dispatch.message.model.Message;
+import com.acme.ride.dispatch.message.model.RideEndedEvent;
+import com.acme.ride.dispatch.message.model.RideRequestedEvent;
+import com.acme.ride.dispatch.message.model.RideStartedEvent;
+import com.acme.ride.dispatch.query.RideProjection;
+import com.acme.ride.dispatch.registry.ActiveRideRegistry;
+import com.acme.ride.dispatch.timer.TimerPartitions;
+import com.acme.ride.dispatch.wih.MessageSenderWorkItemHandler;
+import com.acme.ride.dispatch.wih.UpdateRideWorkItemhandler;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import me.snowdrop.boot.narayana.autoconfigure.NarayanaConfiguration;
+import org.jbpm.kie.services.impl.CustomIdKModuleDeploymentUnit;
+import org.jbpm.services.api.DeploymentService;
+import org.jbpm.springboot.autoconfigure.JBPMAutoConfiguration;
+import org.jbpm.springboot.datasources.JBPMDataSourceAutoConfiguration;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.kie.api.KieServices;
+import org.kie.internal.runtime.conf.RuntimeStrategy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.autoconfigure.orm.jpa.JpaProperties;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.util.concurrent.SettableListenableFuture;
+
+/**
+ * Drives rides through the dispatch process (RideRequested, DriverAssigned, RideStarted, RideEnded) with each
+ * runtime strategy, through the same dispatcher and transactions as the Kafka listeners, and reports rides/sec and
+ * the p99 latency of the processed events.
+ *
+ * Only runs when enabled: {@code mvn verify -Dit.test=DispatchProcessBenchmarkIT -Ddispatch.benchmark=true}.
+ * The number of rides and threads are set with {@code -Ddispatch.benchmark.rides} and
+ * {@code -Ddispatch.benchmark.threads}. The per request strategy uses the session pool configured with
+ * {@code dispatch.runtime.session-pool.size}; set it to 0 to measure without pooling.
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = {
+        "send.destination.assign_driver_command=topic-driver-command",
+        "send.destination.handle_payment_command=topic-passenger-command",
+        "dispatch.assign.driver.expire.duration=5M"})
+@ActiveProfiles("test")
+@ContextConfiguration(classes = {JBPMAutoConfiguration.class, JBPMDataSourceAutoConfiguration.class, JpaProperties.class,
+        NarayanaConfiguration.class, DataSourceProperties.class, JbpmConfiguration.class, RideDao.class, RideStatusWriter.class, ProcessedMessageDao.class, OutboxMessageDao.class,
+        DispatchTimerDao.class, TimerPartitions.class, AuditLogWriter.class,
+        MessageDispatcher.class, MessageDeduplicator.class, ProcessInstanceIdCache.class, RideEventsMessageListener.class,
+        DriverAssignedEventMessageListener.class, PassengerCanceledEventMessageListener.class,
+        MessageSenderWorkItemHandler.class, UpdateRideWorkItemhandler.class, ActiveRideRegistry.class, RideProjection.class, SimpleMeterRegistry.class})
+public class DispatchProcessBenchmarkIT {
+
+    private static final Logger log = LoggerFactory.getLogger(DispatchProcessBenchmarkIT.class);
+
+    @Autowired
+    private DeploymentService deploymentService;
+
+    @Autowired
+    private MessageDispatcher messageDispatcher;
+
+    @MockBean
+    private KafkaTemplate<String, Message<?>> kafkaTemplate;
+
+    @Value("${dispatch.deployment.id}")
+    private String deploymentId;
+
+    private int rides = Integer.getInteger("dispatch.benchmark.rides", 1000);
+
+    private int threads = Integer.getInteger("dispatch.benchmark.threads", 4);
+
+    @Before
+    public void init() {
+        when(kafkaTemplate.send(anyString(), anyString(), any())).thenReturn(new SettableListenableFuture<>());
+    }
+
+    @Test
+    public void benchmarkRuntimeStrategies() throws Exception {
+        assumeTrue(Boolean.getBoolean("dispatch.benchmark"));
+
+        List<String> results = new ArrayList<>();
+        for (RuntimeStrategy strategy : Arrays.asList(RuntimeStrategy.PER_REQUEST, RuntimeStrategy.PER_PROCESS_INSTANCE)) {
+            CustomIdKModuleDeploymentUnit unit = deploy(strategy);
+            try {
+                run(Math.max(rides / 10, 1), threads);
+                long[] latencies = new long[rides * 4];
+                long start = System.nanoTime();
+                run(rides, threads, latencies);
+                long elapsed = System.nanoTime() - start;
+                Arrays.sort(latencies);
+                results.add(String.format("%-20s threads=%d rides=%d rides/sec=%.1f p99=%.2fms", strategy, threads, rides,
+                        rides / (elapsed / 1e9), latencies[(int) Math.ceil(latencies.length * 0.99) - 1] / 1e6));
+            } finally {
+                deploymentService.undeploy(unit);
+            }
+        }
+        results.forEach(log::info);
+    }
+
+    private CustomIdKModuleDeploymentUnit deploy(RuntimeStrategy strategy) {
+        CustomIdKModuleDeploymentUnit unit = new CustomIdKModuleDeploymentUnit(deploymentId, "com.acme.ride.dispatch", "dispatch-service", "1.0.0");
+        unit.setStrategy(strategy);
+        unit.setKieContainer(KieServices.Factory.get().newKieClasspathContainer());
+        deploymentService.deploy(unit);
+        return unit;
+    }
+
+    private void run(int rides, int threads) throws Exception {
+        run(rides, threads, new long[rides * 4]);
+    }
+
+    private void run(int rides, int threads, long[] latencies) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < rides; i++) {
+                int offset = i * 4;
+                futures.add(executor.submit(() -> ride(latencies, offset)));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        }
+    }
+
+    private void ride(long[] latencies, int offset) {
+        String rideId = UUID.randomUUID().toString();
+
+        RideRequestedEvent rideRequested = new RideRequestedEvent();
+        rideRequested.setRideId(rideId);
+        rideRequested.setPassengerId("passenger");
+        rideRequested.setPickup("pickup");
+        rideRequested.setDestination("destination");
+        rideRequested.setPrice(new BigDecimal("25.00"));
+        latencies[offset] = process("RideRequestedEvent", rideId, rideRequested);
+
+        DriverAssignedEvent driverAssigned = new DriverAssignedEvent();
+        driverAssigned.setRideId(rideId);
+        driverAssigned.setDriverId("driver");
+        latencies[offset + 1] = process("DriverAssignedEvent", rideId, driverAssigned);
+
+        RideStartedEvent rideStarted = new RideStartedEvent();
+        rideStarted.setRideId(rideId);
+        rideStarted.setTimestamp(new Date());
+        latencies[offset + 2] = process("RideStartedEvent", rideId, rideStarted);
+
+        RideEndedEvent rideEnded = new RideEndedEvent();
+        rideEnded.setRideId(rideId);
+        rideEnded.setTimestamp(new Date());
+        latencies[offset + 3] = process("RideEndedEvent", rideId, rideEnded);
+    }
+
+    private long process(String messageType, String rideId, Object payload) {
+        Message<Object> message = new Message.Builder<>(messageType, "benchmark", payload).traceId(rideId).build();
+        long start = System.nanoTime();
+        messageDispatcher.processMessage(message, rideId, "benchmark", 0);
+        return System.nanoTime() - start;
+    }
+}
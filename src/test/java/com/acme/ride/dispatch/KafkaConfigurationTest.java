@@ -0,0 +1,88 @@
+package com.acme.ride.dispatch;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.springframework.test.util.ReflectionTestUtils.setField;
+
+import javax.sql.DataSource;
+
+import com.acme.ride.dispatch.message.consumer.ListenerMode;
+import org.apache.commons.dbcp2.BasicDataSource;
+import org.junit.Before;
+import org.junit.Test;
+
+public class KafkaConfigurationTest {
+
+    private KafkaConfiguration kafkaConfiguration;
+
+    @Before
+    public void init() {
+        kafkaConfiguration = new KafkaConfiguration();
+        setField(kafkaConfiguration, "listenerMode", ListenerMode.RECORD, ListenerMode.class);
+        setField(kafkaConfiguration, "exactlyOnceEnabled", true, boolean.class);
+        setField(kafkaConfiguration, "outboxEnabled", false, boolean.class);
+    }
+
+    @Test
+    public void testExactlyOnceDisabled() {
+        setField(kafkaConfiguration, "exactlyOnceEnabled", false, boolean.class);
+        setField(kafkaConfiguration, "listenerMode", ListenerMode.PARALLEL, ListenerMode.class);
+        setField(kafkaConfiguration, "outboxEnabled", true, boolean.class);
+
+        assertThat(kafkaConfiguration.checkExactlyOnce(), equalTo(false));
+    }
+
+    @Test
+    public void testExactlyOnceWithRecordListener() {
+        assertThat(kafkaConfiguration.checkExactlyOnce(), equalTo(true));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testExactlyOnceWithParallelListener() {
+        setField(kafkaConfiguration, "listenerMode", ListenerMode.PARALLEL, ListenerMode.class);
+
+        kafkaConfiguration.checkExactlyOnce();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testExactlyOnceWithBatchListener() {
+        setField(kafkaConfiguration, "listenerMode", ListenerMode.BATCH, ListenerMode.class);
+
+        kafkaConfiguration.checkExactlyOnce();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testExactlyOnceWithOutbox() {
+        setField(kafkaConfiguration, "outboxEnabled", true, boolean.class);
+
+        kafkaConfiguration.checkExactlyOnce();
+    }
+
+    @Test
+    public void testConnectionPool() {
+        BasicDataSource dataSource = new BasicDataSource();
+        setField(kafkaConfiguration, "dataSource", dataSource, DataSource.class);
+        setField(kafkaConfiguration, "backpressureEnabled", true, boolean.class);
+
+        assertThat(kafkaConfiguration.connectionPool(), sameInstance(dataSource));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testBackpressureWithoutConnectionPool() {
+        setField(kafkaConfiguration, "dataSource", mock(DataSource.class), DataSource.class);
+        setField(kafkaConfiguration, "backpressureEnabled", true, boolean.class);
+
+        kafkaConfiguration.connectionPool();
+    }
+
+    @Test
+    public void testNoConnectionPoolWithoutBackpressure() {
+        setField(kafkaConfiguration, "dataSource", mock(DataSource.class), DataSource.class);
+        setField(kafkaConfiguration, "backpressureEnabled", false, boolean.class);
+
+        assertThat(kafkaConfiguration.connectionPool(), nullValue());
+    }
+}
@@ -0,0 +1,47 @@
+package com.acme.ride.dispatch;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.springframework.test.util.ReflectionTestUtils.setField;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.kie.internal.runtime.conf.RuntimeStrategy;
+
+public class KjarDeployerTest {
+
+    private KjarDeployer kjarDeployer;
+
+    @Before
+    public void init() {
+        kjarDeployer = new KjarDeployer();
+    }
+
+    @Test
+    public void testPerRequestStrategy() {
+        setField(kjarDeployer, "runtimeStrategy", RuntimeStrategy.PER_REQUEST, RuntimeStrategy.class);
+
+        assertThat(kjarDeployer.checkStrategy(), equalTo(RuntimeStrategy.PER_REQUEST));
+    }
+
+    @Test
+    public void testPerProcessInstanceStrategy() {
+        setField(kjarDeployer, "runtimeStrategy", RuntimeStrategy.PER_PROCESS_INSTANCE, RuntimeStrategy.class);
+
+        assertThat(kjarDeployer.checkStrategy(), equalTo(RuntimeStrategy.PER_PROCESS_INSTANCE));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testSingletonStrategy() {
+        setField(kjarDeployer, "runtimeStrategy", RuntimeStrategy.SINGLETON, RuntimeStrategy.class);
+
+        kjarDeployer.checkStrategy();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testPerCaseStrategy() {
+        setField(kjarDeployer, "runtimeStrategy", RuntimeStrategy.PER_CASE, RuntimeStrategy.class);
+
+        kjarDeployer.checkStrategy();
+    }
+}
@@ -0,0 +1,200 @@
+package com.acme.ride.dispatch;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.when;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.regex.Pattern;
+
+import com.acme.ride.dispatch.audit.AuditLogWriter;
+import com.acme.ride.dispatch.dao.DispatchTimerDao;
+import com.acme.ride.dispatch.dao.OutboxMessageDao;
+import com.acme.ride.dispatch.dao.ProcessedMessageDao;
+import com.acme.ride.dispatch.dao.RideDao;
+import com.acme.ride.dispatch.dao.RideStatusWriter;
+import com.acme.ride.dispatch.message.listeners.DriverAssignedEventMessageListener;
+import com.acme.ride.dispatch.message.listeners.MessageDeduplicator;
+import com.acme.ride.dispatch.message.listeners.MessageDispatcher;
+import com.acme.ride.dispatch.message.listeners.PassengerCanceledEventMessageListener;
+import com.acme.ride.dispatch.message.listeners.ProcessInstanceIdCache;
+import com.acme.ride.dispatch.message.listeners.RideEventsMessageListener;
+import com.acme.ride.dispatch.message.model.DriverAssignedEvent;
+import com.acme.ride.dispatch.message.model.Message;
+import com.acme.ride.dispatch.message.model.RideEndedEvent;
+import com.acme.ride.dispatch.message.model.RideRequestedEvent;
+import com.acme.ride.dispatch.message.model.RideStartedEvent;
+import com.acme.ride.dispatch.query.RideProjection;
+import com.acme.ride.dispatch.registry.ActiveRideRegistry;
+import com.acme.ride.dispatch.timer.TimerPartitions;
+import com.acme.ride.dispatch.wih.MessageSenderWorkItemHandler;
+import com.acme.ride.dispatch.wih.UpdateRideWorkItemhandler;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import me.snowdrop.boot.narayana.autoconfigure.NarayanaConfiguration;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.jbpm.kie.services.impl.CustomIdKModuleDeploymentUnit;
+import org.jbpm.services.api.DeploymentService;
+import org.jbpm.springboot.autoconfigure.JBPMAutoConfiguration;
+import org.jbpm.springboot.datasources.JBPMDataSourceAutoConfiguration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.kie.api.KieServices;
+import org.kie.internal.runtime.conf.RuntimeStrategy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.autoconfigure.orm.jpa.JpaProperties;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.util.concurrent.SettableListenableFuture;
+
+/**
+ * Counts the SQL statements on the Ride table for a full ride lifecycle (RideRequested, DriverAssigned, RideStarted,
+ * RideEnded), processed through the same dispatcher and transactions as the Kafka listeners. The ride is inserted with
+ * the RideRequested event, and every later event may read it once and update it once: the listeners and the work item
+ * handlers of an event share the ride loaded in its transaction. Fails when a change adds statements.
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = {
+        "send.destination.assign_driver_command=topic-driver-command",
+        "send.destination.handle_payment_command=topic-passenger-command",
+        "dispatch.assign.driver.expire.duration=5M",
+        "spring.jpa.properties.hibernate.session_factory.statement_inspector=com.acme.ride.dispatch.RideLifecycleStatementCountIT$StatementCounter"})
+@ActiveProfiles("test")
+@ContextConfiguration(classes = {JBPMAutoConfiguration.class, JBPMDataSourceAutoConfiguration.class, JpaProperties.class,
+        NarayanaConfiguration.class, DataSourceProperties.class, JbpmConfiguration.class, RideDao.class, RideStatusWriter.class, ProcessedMessageDao.class, OutboxMessageDao.class,
+        DispatchTimerDao.class, TimerPartitions.class, AuditLogWriter.class,
+        MessageDispatcher.class, MessageDeduplicator.class, ProcessInstanceIdCache.class, RideEventsMessageListener.class,
+        DriverAssignedEventMessageListener.class, PassengerCanceledEventMessageListener.class,
+        MessageSenderWorkItemHandler.class, UpdateRideWorkItemhandler.class, ActiveRideRegistry.class, RideProjection.class, SimpleMeterRegistry.class})
+public class RideLifecycleStatementCountIT {
+
+    private static final Logger log = LoggerFactory.getLogger(RideLifecycleStatementCountIT.class);
+
+    private static final Pattern RIDE_TABLE = Pattern.compile("\\b(from|into|update)\\s+ride\\b", Pattern.CASE_INSENSITIVE);
+
+    private static final int MAX_RIDE_SELECTS = 3;
+
+    private static final int MAX_RIDE_UPDATES = 3;
+
+    private static final int MAX_RIDE_STATEMENTS = 1 + MAX_RIDE_SELECTS + MAX_RIDE_UPDATES;
+
+    @Autowired
+    private DeploymentService deploymentService;
+
+    @Autowired
+    private MessageDispatcher messageDispatcher;
+
+    @MockBean
+    private KafkaTemplate<String, Message<?>> kafkaTemplate;
+
+    @Value("${dispatch.deployment.id}")
+    private String deploymentId;
+
+    private CustomIdKModuleDeploymentUnit unit;
+
+    @Before
+    public void init() {
+        when(kafkaTemplate.send(anyString(), anyString(), any())).thenReturn(new SettableListenableFuture<>());
+        unit = new CustomIdKModuleDeploymentUnit(deploymentId, "com.acme.ride.dispatch", "dispatch-service", "1.0.0");
+        unit.setStrategy(RuntimeStrategy.PER_REQUEST);
+        unit.setKieContainer(KieServices.Factory.get().newKieClasspathContainer());
+        deploymentService.deploy(unit);
+    }
+
+    @After
+    public void cleanup() {
+        deploymentService.undeploy(unit);
+    }
+
+    @Test
+    public void testRideLifecycleStatements() {
+        // warm up, so that lazy initialisation of the engine is not counted
+        ride(UUID.randomUUID().toString());
+
+        StatementCounter.statements.clear();
+        ride(UUID.randomUUID().toString());
+        List<String> statements = new ArrayList<>(StatementCounter.statements);
+
+        List<String> rideStatements = new ArrayList<>();
+        int inserts = 0, selects = 0, updates = 0;
+        for (String sql : statements) {
+            if (!RIDE_TABLE.matcher(sql).find()) {
+                continue;
+            }
+            rideStatements.add(sql);
+            String statement = sql.trim().toLowerCase();
+            if (statement.startsWith("insert")) {
+                inserts++;
+            } else if (statement.startsWith("select")) {
+                selects++;
+            } else if (statement.startsWith("update")) {
+                updates++;
+            }
+        }
+        log.info("SQL statements for one ride: " + statements.size() + " in total, " + rideStatements.size()
+                + " on the Ride table (" + inserts + " inserts, " + selects + " selects, " + updates + " updates)");
+        assertThat(inserts, equalTo(1));
+        assertThat(selects, lessThanOrEqualTo(MAX_RIDE_SELECTS));
+        assertThat(updates, lessThanOrEqualTo(MAX_RIDE_UPDATES));
+        assertThat(rideStatements.size(), lessThanOrEqualTo(MAX_RIDE_STATEMENTS));
+    }
+
+    private void ride(String rideId) {
+        RideRequestedEvent rideRequested = new RideRequestedEvent();
+        rideRequested.setRideId(rideId);
+        rideRequested.setPassengerId("passenger");
+        rideRequested.setPickup("pickup");
+        rideRequested.setDestination("destination");
+        rideRequested.setPrice(new BigDecimal("25.00"));
+        process("RideRequestedEvent", rideId, rideRequested);
+
+        DriverAssignedEvent driverAssigned = new DriverAssignedEvent();
+        driverAssigned.setRideId(rideId);
+        driverAssigned.setDriverId("driver");
+        process("DriverAssignedEvent", rideId, driverAssigned);
+
+        RideStartedEvent rideStarted = new RideStartedEvent();
+        rideStarted.setRideId(rideId);
+        rideStarted.setTimestamp(new Date());
+        process("RideStartedEvent", rideId, rideStarted);
+
+        RideEndedEvent rideEnded = new RideEndedEvent();
+        rideEnded.setRideId(rideId);
+        rideEnded.setTimestamp(new Date());
+        process("RideEndedEvent", rideId, rideEnded);
+    }
+
+    private void process(String messageType, String rideId, Object payload) {
+        Message<Object> message = new Message.Builder<>(messageType, "test", payload).traceId(rideId).build();
+        messageDispatcher.processMessage(message, rideId, "test", 0);
+    }
+
+    public static class StatementCounter implements StatementInspector {
+
+        static final Queue<String> statements = new ConcurrentLinkedQueue<>();
+
+        @Override
+        public String inspect(String sql) {
+            statements.add(sql);
+            return sql;
+        }
+    }
+}
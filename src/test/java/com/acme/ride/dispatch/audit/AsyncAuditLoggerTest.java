@@ -0,0 +1,123 @@
+package com.acme.ride.dispatch.audit;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.jbpm.process.audit.JPAWorkingMemoryDbLogger;
+import org.jbpm.process.audit.NodeInstanceLog;
+import org.jbpm.process.audit.event.AuditEventBuilder;
+import org.jbpm.workflow.instance.impl.NodeInstanceImpl;
+import org.junit.Before;
+import org.junit.Test;
+import org.kie.api.event.process.ProcessCompletedEvent;
+import org.kie.api.event.process.ProcessNodeLeftEvent;
+import org.kie.api.event.process.ProcessNodeTriggeredEvent;
+import org.kie.api.event.process.ProcessStartedEvent;
+import org.kie.api.event.process.ProcessVariableChangedEvent;
+import org.mockito.Mock;
+
+public class AsyncAuditLoggerTest {
+
+    @Mock
+    private AuditLogWriter writer;
+
+    @Mock
+    private AuditEventBuilder builder;
+
+    @Mock
+    private JPAWorkingMemoryDbLogger processLogger;
+
+    @Mock
+    private NodeInstanceImpl nodeInstance;
+
+    private Set<AuditEventType> recorded = EnumSet.allOf(AuditEventType.class);
+
+    private Map<String, Object> nodeMetaData = new HashMap<>();
+
+    private AsyncAuditLogger logger;
+
+    @Before
+    public void init() {
+        initMocks(this);
+        when(writer.isRecorded(any())).thenAnswer(invocation -> recorded.contains(invocation.<AuditEventType>getArgument(0)));
+        when(nodeInstance.getMetaData()).thenReturn(nodeMetaData);
+        when(processLogger.getBuilder()).thenReturn(builder);
+        logger = new AsyncAuditLogger(writer, processLogger);
+    }
+
+    @Test
+    public void testProcessStartedIsLoggedInTransaction() {
+        ProcessStartedEvent event = mock(ProcessStartedEvent.class);
+
+        logger.beforeProcessStarted(event);
+
+        verify(processLogger).beforeProcessStarted(event);
+        verify(writer, never()).write(any());
+    }
+
+    @Test
+    public void testProcessCompletedIsLoggedInTransaction() {
+        ProcessCompletedEvent event = mock(ProcessCompletedEvent.class);
+
+        logger.afterProcessCompleted(event);
+
+        verify(processLogger).afterProcessCompleted(event);
+        verify(writer, never()).write(any());
+    }
+
+    @Test
+    public void testNodeLogIsWrittenOnceTriggered() {
+        ProcessNodeTriggeredEvent event = mock(ProcessNodeTriggeredEvent.class);
+        when(event.getNodeInstance()).thenReturn(nodeInstance);
+        NodeInstanceLog log = new NodeInstanceLog();
+        when(builder.buildEvent(event)).thenReturn(log);
+        when(builder.buildEvent(event, log)).thenReturn(log);
+
+        logger.beforeNodeTriggered(event);
+
+        verify(writer, never()).write(any());
+
+        logger.afterNodeTriggered(event);
+
+        verify(writer).write(log);
+        assertThat(nodeMetaData.isEmpty(), equalTo(true));
+    }
+
+    @Test
+    public void testNodeLeft() {
+        ProcessNodeLeftEvent event = mock(ProcessNodeLeftEvent.class);
+        NodeInstanceLog log = new NodeInstanceLog();
+        when(builder.buildEvent(event, null)).thenReturn(log);
+
+        logger.beforeNodeLeft(event);
+
+        verify(writer).write(log);
+    }
+
+    @Test
+    public void testEventTypeFilter() {
+        recorded.remove(AuditEventType.NODE);
+        recorded.remove(AuditEventType.VARIABLE);
+        ProcessNodeTriggeredEvent triggered = mock(ProcessNodeTriggeredEvent.class);
+        when(triggered.getNodeInstance()).thenReturn(nodeInstance);
+
+        logger.beforeNodeTriggered(triggered);
+        logger.afterNodeTriggered(triggered);
+        logger.beforeNodeLeft(mock(ProcessNodeLeftEvent.class));
+        logger.afterVariableChanged(mock(ProcessVariableChangedEvent.class));
+
+        verify(writer, never()).write(any());
+        verify(builder, never()).buildEvent(any(ProcessNodeTriggeredEvent.class));
+    }
+}
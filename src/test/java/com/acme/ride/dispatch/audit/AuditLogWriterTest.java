@@ -0,0 +1,196 @@
+package com.acme.ride.dispatch.audit;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+import static org.springframework.test.util.ReflectionTestUtils.setField;
+
+import java.util.EnumSet;
+import javax.persistence.EntityManager;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.hibernate.Session;
+import org.jbpm.process.audit.NodeInstanceLog;
+import org.jbpm.process.audit.ProcessInstanceLog;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+public class AuditLogWriterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Mock
+    private EntityManager entityManager;
+
+    @Mock
+    private Session session;
+
+    @Mock
+    private PlatformTransactionManager ptm;
+
+    @Mock
+    private TransactionStatus transactionStatus;
+
+    private SimpleMeterRegistry meterRegistry;
+
+    private AuditLogWriter writer;
+
+    @Before
+    public void init() {
+        initMocks(this);
+        when(ptm.getTransaction(any())).thenReturn(transactionStatus);
+        when(entityManager.unwrap(Session.class)).thenReturn(session);
+        meterRegistry = new SimpleMeterRegistry();
+    }
+
+    @After
+    public void cleanup() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    public void testEntryIsQueuedAfterCommit() {
+        createWriter(AuditOverflowPolicy.BLOCK, 10);
+        TransactionSynchronizationManager.initSynchronization();
+
+        writer.write(processInstanceLog(1));
+
+        assertThat(writer.getQueuedCount(), equalTo(0));
+        TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+        assertThat(writer.getQueuedCount(), equalTo(1));
+    }
+
+    @Test
+    public void testBatchIsPersistedByEntityType() throws InterruptedException {
+        createWriter(AuditOverflowPolicy.BLOCK, 10);
+        NodeInstanceLog node1 = new NodeInstanceLog(NodeInstanceLog.TYPE_ENTER, 1, "acme-ride.dispatch-process", "1", "_1", "Start");
+        ProcessInstanceLog process = processInstanceLog(1);
+        NodeInstanceLog node2 = new NodeInstanceLog(NodeInstanceLog.TYPE_ENTER, 1, "acme-ride.dispatch-process", "2", "_2", "Assign Driver");
+        writer.enqueue(node1);
+        writer.enqueue(process);
+        writer.enqueue(node2);
+
+        assertThat(writer.writeNext(0, true), equalTo(true));
+
+        InOrder inOrder = inOrder(session, entityManager);
+        inOrder.verify(session).setJdbcBatchSize(10);
+        inOrder.verify(entityManager).persist(node1);
+        inOrder.verify(entityManager).persist(node2);
+        inOrder.verify(entityManager).persist(process);
+        verify(ptm).commit(transactionStatus);
+        assertThat(meterRegistry.counter("dispatch.audit.written").count(), equalTo(3.0));
+        assertThat(writer.writeNext(0, true), equalTo(false));
+    }
+
+    @Test
+    public void testDropPolicy() {
+        createWriter(AuditOverflowPolicy.DROP, 2);
+
+        writer.enqueue(processInstanceLog(1));
+        writer.enqueue(processInstanceLog(2));
+        writer.enqueue(processInstanceLog(3));
+
+        assertThat(writer.getQueuedCount(), equalTo(2));
+        assertThat(meterRegistry.counter("dispatch.audit.dropped").count(), equalTo(1.0));
+    }
+
+    @Test
+    public void testSpillPolicyKeepsOrder() throws InterruptedException {
+        createWriter(AuditOverflowPolicy.SPILL, 2);
+
+        for (int i = 1; i <= 4; i++) {
+            writer.enqueue(processInstanceLog(i));
+        }
+
+        assertThat(writer.getQueuedCount(), equalTo(2));
+        assertThat(meterRegistry.counter("dispatch.audit.spilled").count(), equalTo(2.0));
+
+        writer.writeNext(0, true);
+        // spilling goes on until the spill is written
+        writer.enqueue(processInstanceLog(5));
+        assertThat(writer.getQueuedCount(), equalTo(0));
+
+        writer.writeNext(0, true);
+
+        ArgumentCaptor<ProcessInstanceLog> merged = ArgumentCaptor.forClass(ProcessInstanceLog.class);
+        verify(entityManager, times(2)).persist(any());
+        verify(entityManager, times(3)).merge(merged.capture());
+        assertThat(merged.getAllValues().get(0).getProcessInstanceId(), equalTo(3L));
+        assertThat(merged.getAllValues().get(2).getProcessInstanceId(), equalTo(5L));
+        assertThat(folder.getRoot().list().length, equalTo(0));
+    }
+
+    @Test
+    public void testFailedBatchIsSpilledAndWrittenAfterRestart() throws InterruptedException {
+        createWriter(AuditOverflowPolicy.SPILL, 10);
+        doThrow(new IllegalStateException("db down")).when(entityManager).persist(any());
+        when(entityManager.merge(any())).thenThrow(new IllegalStateException("db down")).thenThrow(new IllegalStateException("db down"))
+                .thenReturn(null);
+        writer.enqueue(processInstanceLog(1));
+
+        writer.writeNext(0, true);
+        writer.shutdown();
+
+        verify(entityManager, times(1)).persist(any());
+        verify(entityManager, times(2)).merge(any());
+        assertThat(folder.getRoot().list().length, equalTo(1));
+
+        createWriter(AuditOverflowPolicy.SPILL, 10);
+        writer.writeNext(0, true);
+
+        verify(entityManager, times(3)).merge(any());
+        assertThat(folder.getRoot().list().length, equalTo(0));
+    }
+
+    @Test
+    public void testWriteNextWithoutSpill() throws InterruptedException {
+        createWriter(AuditOverflowPolicy.SPILL, 1);
+        writer.enqueue(processInstanceLog(1));
+        writer.enqueue(processInstanceLog(2));
+
+        writer.writeNext(0, true);
+
+        assertThat(writer.writeNext(0, false), equalTo(false));
+        verify(entityManager, never()).merge(any());
+    }
+
+    private void createWriter(AuditOverflowPolicy policy, int capacity) {
+        writer = new AuditLogWriter();
+        setField(writer, "entityManager", entityManager);
+        setField(writer, "transactionManager", ptm);
+        setField(writer, "meterRegistry", meterRegistry);
+        setField(writer, "enabled", false);
+        setField(writer, "queueCapacity", capacity);
+        setField(writer, "batchSize", 10);
+        setField(writer, "flushInterval", 1L);
+        setField(writer, "overflowPolicy", policy);
+        setField(writer, "spillDirectory", folder.getRoot().getPath());
+        setField(writer, "events", EnumSet.allOf(AuditEventType.class));
+        writer.init();
+    }
+
+    private ProcessInstanceLog processInstanceLog(long processInstanceId) {
+        return new ProcessInstanceLog(processInstanceId, "acme-ride.dispatch-process");
+    }
+}
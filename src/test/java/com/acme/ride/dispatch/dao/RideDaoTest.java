@@ -4,9 +4,13 @@ import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.CoreMatchers.not;
 import static org.hamcrest.CoreMatchers.notNullValue;
 import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
 import static org.hamcrest.MatcherAssert.assertThat;
 
 import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
 import java.util.UUID;
 
 import com.acme.ride.dispatch.entity.Ride;
@@ -105,5 +109,82 @@ public class RideDaoTest {
         assertThat(found, nullValue());
     }
 
+    @Test
+    @Transactional
+    public void testFindByRideIdAfterDelete() {
+        Ride ride = new Ride();
+        ride.setRideId(UUID.randomUUID().toString());
+        ride.setPassengerId("passengerId");
+        ride.setPrice(new BigDecimal("50.00"));
+        rideDao.create(ride);
+
+        assertThat(rideDao.findByRideId(ride.getRideId()), sameInstance(ride));
+
+        rideDao.delete(ride);
+        assertThat(rideDao.findByRideId(ride.getRideId()), nullValue());
+    }
+
+    @Test
+    @Transactional
+    public void testFindPage() {
+        String passengerId = UUID.randomUUID().toString();
+        Ride ride1 = createRide(passengerId, "driverId", Ride.Status.REQUESTED);
+        Ride ride2 = createRide(passengerId, "driverId", Ride.Status.ENDED);
+        Ride ride3 = createRide(passengerId, "driverId", Ride.Status.STARTED);
+        createRide(UUID.randomUUID().toString(), "driverId", Ride.Status.REQUESTED);
+        RideQuery query = new RideQuery.Builder().passengerId(passengerId).build();
+
+        List<Ride> page = rideDao.findPage(query, 0, 2);
+        assertThat(page.size(), equalTo(2));
+        assertThat(page.get(0).getId(), equalTo(ride1.getId()));
+        assertThat(page.get(1).getId(), equalTo(ride2.getId()));
+
+        page = rideDao.findPage(query, ride2.getId(), 2);
+        assertThat(page.size(), equalTo(1));
+        assertThat(page.get(0).getId(), equalTo(ride3.getId()));
+    }
+
+    @Test
+    @Transactional
+    public void testForEach() {
+        String driverId = UUID.randomUUID().toString();
+        createRide("passengerId", driverId, Ride.Status.REQUESTED);
+        Ride ride1 = createRide("passengerId", driverId, Ride.Status.ENDED);
+        Ride ride2 = createRide("passengerId", driverId, Ride.Status.EXPIRED);
+        RideQuery query = new RideQuery.Builder().driverId(driverId).status(Ride.Status.ENDED, Ride.Status.EXPIRED).build();
+
+        List<String> rideIds = new ArrayList<>();
+        long count = rideDao.forEach(query, 0, ride -> rideIds.add(ride.getRideId()));
+
+        assertThat(count, equalTo(2L));
+        assertThat(rideIds.get(0), equalTo(ride1.getRideId()));
+        assertThat(rideIds.get(1), equalTo(ride2.getRideId()));
+        assertThat(rideDao.findByRideId(ride1.getRideId()), sameInstance(ride1));
+    }
+
+    @Test
+    @Transactional
+    public void testForEachCreatedRange() {
+        String passengerId = UUID.randomUUID().toString();
+        createRide(passengerId, "driverId", Ride.Status.REQUESTED);
+        Date now = new Date();
+
+        long before = rideDao.forEach(new RideQuery.Builder().passengerId(passengerId).createdTo(new Date(now.getTime() + 60000)).build(), 0, ride -> {});
+        long after = rideDao.forEach(new RideQuery.Builder().passengerId(passengerId).createdFrom(new Date(now.getTime() + 60000)).build(), 0, ride -> {});
+
+        assertThat(before, equalTo(1L));
+        assertThat(after, equalTo(0L));
+    }
+
+    private Ride createRide(String passengerId, String driverId, Ride.Status status) {
+        Ride ride = new Ride();
+        ride.setRideId(UUID.randomUUID().toString());
+        ride.setPassengerId(passengerId);
+        ride.setDriverId(driverId);
+        ride.setPrice(new BigDecimal("50.00"));
+        ride.setStatus(status);
+        rideDao.create(ride);
+        return ride;
+    }
 
 }
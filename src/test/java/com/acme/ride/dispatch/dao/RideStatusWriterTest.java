@@ -0,0 +1,151 @@
+package com.acme.ride.dispatch.dao;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+import static org.springframework.test.util.ReflectionTestUtils.setField;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import javax.sql.DataSource;
+
+import com.acme.ride.dispatch.entity.Ride;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ParameterizedPreparedStatementSetter;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+public class RideStatusWriterTest {
+
+    @Mock
+    private DataSource dataSource;
+
+    @Mock
+    private PlatformTransactionManager ptm;
+
+    @Mock
+    private TransactionStatus transactionStatus;
+
+    @Mock
+    private JdbcTemplate jdbcTemplate;
+
+    @Captor
+    private ArgumentCaptor<Collection<Map.Entry<String, Integer>>> statusesCaptor;
+
+    private RideStatusWriter writer;
+
+    @Before
+    public void init() {
+        initMocks(this);
+        when(ptm.getTransaction(any())).thenReturn(transactionStatus);
+        writer = new RideStatusWriter();
+        setField(writer, null, dataSource, DataSource.class);
+        setField(writer, null, ptm, PlatformTransactionManager.class);
+        setField(writer, "meterRegistry", new SimpleMeterRegistry());
+        setField(writer, "flushInterval", 100L);
+        setField(writer, "batchSize", 2);
+        writer.init();
+        setField(writer, null, jdbcTemplate, JdbcTemplate.class);
+        when(jdbcTemplate.batchUpdate(anyString(), anyList(), anyInt(), any(ParameterizedPreparedStatementSetter.class)))
+                .thenAnswer(invocation -> {
+                    int size = ((Collection<?>) invocation.getArgument(1)).size();
+                    return new int[][]{ones(Math.min(size, 2)), ones(Math.max(size - 2, 0))};
+                });
+    }
+
+    @After
+    public void cleanup() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    public void testLastStatusWins() {
+        writer.updateStatus("ride-1", Ride.Status.DRIVER_ASSIGNED);
+        writer.updateStatus("ride-2", Ride.Status.DRIVER_ASSIGNED);
+        writer.updateStatus("ride-1", Ride.Status.STARTED);
+        writer.updateStatus("ride-3", Ride.Status.EXPIRED);
+
+        writer.flush();
+
+        verify(jdbcTemplate).batchUpdate(eq("UPDATE Ride SET status = ? WHERE rideId = ?"), statusesCaptor.capture(), eq(2),
+                any(ParameterizedPreparedStatementSetter.class));
+        Map<String, Integer> written = new HashMap<>();
+        statusesCaptor.getValue().forEach(entry -> written.put(entry.getKey(), entry.getValue()));
+        assertThat(statusesCaptor.getValue().size(), equalTo(3));
+        assertThat(written.get("ride-1"), equalTo(Ride.Status.STARTED.statusCode()));
+        assertThat(written.get("ride-2"), equalTo(Ride.Status.DRIVER_ASSIGNED.statusCode()));
+        assertThat(written.get("ride-3"), equalTo(Ride.Status.EXPIRED.statusCode()));
+        verify(ptm).commit(transactionStatus);
+        assertThat(writer.getPendingCount(), equalTo(0));
+    }
+
+    @Test
+    public void testStatusBufferedAfterCommit() {
+        TransactionSynchronizationManager.initSynchronization();
+        writer.updateStatus("ride-1", Ride.Status.STARTED);
+
+        assertThat(writer.getPendingCount(), equalTo(0));
+        for (TransactionSynchronization synchronization : new ArrayList<>(TransactionSynchronizationManager.getSynchronizations())) {
+            synchronization.afterCommit();
+        }
+        assertThat(writer.getPendingCount(), equalTo(1));
+    }
+
+    @Test
+    public void testStatusDroppedOnRollback() {
+        TransactionSynchronizationManager.initSynchronization();
+        writer.updateStatus("ride-1", Ride.Status.STARTED);
+
+        for (TransactionSynchronization synchronization : new ArrayList<>(TransactionSynchronizationManager.getSynchronizations())) {
+            synchronization.afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK);
+        }
+        assertThat(writer.getPendingCount(), equalTo(0));
+    }
+
+    @Test
+    public void testFailedFlushKeepsStatuses() {
+        when(jdbcTemplate.batchUpdate(anyString(), anyList(), anyInt(), any(ParameterizedPreparedStatementSetter.class)))
+                .thenThrow(new IllegalStateException("database down"));
+        writer.updateStatus("ride-1", Ride.Status.STARTED);
+
+        writer.flush();
+
+        assertThat(writer.getPendingCount(), equalTo(1));
+        verify(ptm).rollback(transactionStatus);
+    }
+
+    @Test
+    public void testNothingToFlush() {
+        writer.flush();
+
+        verify(ptm, never()).getTransaction(any());
+    }
+
+    private static int[] ones(int size) {
+        int[] counts = new int[size];
+        Arrays.fill(counts, 1);
+        return counts;
+    }
+}
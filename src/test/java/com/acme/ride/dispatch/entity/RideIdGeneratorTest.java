@@ -0,0 +1,97 @@
+package com.acme.ride.dispatch.entity;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import org.hibernate.id.IdentifierGeneratorHelper;
+import org.hibernate.id.IntegralDataTypeHolder;
+import org.hibernate.id.enhanced.AccessCallback;
+import org.hibernate.id.enhanced.Optimizer;
+import org.hibernate.id.enhanced.OptimizerFactory;
+import org.hibernate.id.enhanced.SequenceStyleGenerator;
+import org.hibernate.id.enhanced.StandardOptimizerDescriptor;
+import org.junit.Test;
+
+public class RideIdGeneratorTest {
+
+    @Test
+    public void testSettingsAreApplied() {
+        Map<String, Object> settings = new HashMap<>();
+        settings.put(RideIdGenerator.INCREMENT_SIZE, "50");
+        settings.put(RideIdGenerator.OPTIMIZER, "pooled-lo");
+        Properties params = new Properties();
+        params.setProperty(SequenceStyleGenerator.SEQUENCE_PARAM, "RIDE_SEQ");
+
+        RideIdGenerator.applySettings(params, settings);
+
+        assertThat(params.getProperty(SequenceStyleGenerator.INCREMENT_PARAM), equalTo("50"));
+        assertThat(params.getProperty(SequenceStyleGenerator.OPT_PARAM), equalTo("pooled-lo"));
+        assertThat(params.getProperty(SequenceStyleGenerator.SEQUENCE_PARAM), equalTo("RIDE_SEQ"));
+    }
+
+    @Test
+    public void testNoSettings() {
+        Properties params = new Properties();
+
+        RideIdGenerator.applySettings(params, Collections.emptyMap());
+
+        assertThat(params.getProperty(SequenceStyleGenerator.INCREMENT_PARAM), nullValue());
+        assertThat(params.getProperty(SequenceStyleGenerator.OPT_PARAM), nullValue());
+    }
+
+    @Test
+    public void testPooledLoIdsFollowLegacyHiLoIds() {
+        Sequence sequence = new Sequence();
+        Optimizer legacyHiLo = OptimizerFactory.buildOptimizer(StandardOptimizerDescriptor.LEGACY_HILO.getExternalName(), Long.class, 49);
+        Set<Long> ids = new HashSet<>();
+        long maxId = 0;
+        for (int i = 0; i < 1000; i++) {
+            long id = (Long) legacyHiLo.generate(sequence);
+            ids.add(id);
+            maxId = Math.max(maxId, id);
+        }
+
+        // etc/sql/006-ride-seq-pooled.sql
+        sequence.setval(maxId + 1);
+        sequence.increment = 50;
+        Optimizer pooledLo = OptimizerFactory.buildOptimizer(StandardOptimizerDescriptor.POOLED_LO.getExternalName(), Long.class, 50);
+        for (int i = 0; i < 1000; i++) {
+            long id = (Long) pooledLo.generate(sequence);
+            assertThat(id > maxId, equalTo(true));
+            assertThat(ids.add(id), equalTo(true));
+        }
+    }
+
+    /**
+     * A database sequence starting at 1.
+     */
+    private static class Sequence implements AccessCallback {
+
+        private long value = 0;
+
+        private long increment = 1;
+
+        @Override
+        public IntegralDataTypeHolder getNextValue() {
+            value += increment;
+            return IdentifierGeneratorHelper.getIntegralDataTypeHolder(Long.class).initialize(value);
+        }
+
+        @Override
+        public String getTenantIdentifier() {
+            return null;
+        }
+
+        void setval(long value) {
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.acme.ride.dispatch.message.consumer;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+
+public class BackpressureControllerTest {
+
+    private static final TopicPartition SLOW = new TopicPartition("mytopic", 0);
+
+    private static final TopicPartition FAST = new TopicPartition("mytopic", 1);
+
+    private static final TopicPartition RETRY = new TopicPartition("retry", 0);
+
+    @Mock
+    private Consumer<?, ?> consumer;
+
+    private AtomicLong poolWaitTime = new AtomicLong();
+
+    private AtomicInteger inFlight = new AtomicInteger();
+
+    private BackpressureController controller;
+
+    @Before
+    public void init() {
+        initMocks(this);
+        when(consumer.assignment()).thenReturn(new HashSet<>(Arrays.asList(SLOW, FAST, RETRY)));
+        when(consumer.paused()).thenReturn(Collections.emptySet());
+        controller = new BackpressureController(Collections.singleton("mytopic"), poolWaitTime::get, 50, inFlight::get,
+                100, 50, 10, 80, 0, 0);
+    }
+
+    @Test
+    public void testPauseSlowPartition() {
+        controller.processed(SLOW, TimeUnit.MILLISECONDS.toNanos(50));
+        controller.processed(SLOW, TimeUnit.MILLISECONDS.toNanos(250));
+        controller.processed(FAST, TimeUnit.MILLISECONDS.toNanos(20));
+        controller.processed(RETRY, TimeUnit.MILLISECONDS.toNanos(500));
+
+        controller.adjust();
+        controller.apply(consumer);
+
+        verify(consumer).pause(Collections.singleton(SLOW));
+        assertThat(controller.isPaused(FAST), equalTo(false));
+        assertThat(controller.isPaused(RETRY), equalTo(false));
+        assertThat(controller.getInFlightLimit(), equalTo(40));
+    }
+
+    @Test
+    public void testPausePartitionsWhenPoolWaitIsHigh() {
+        poolWaitTime.set(80);
+        controller.processed(SLOW, TimeUnit.MILLISECONDS.toNanos(20));
+        controller.processed(FAST, TimeUnit.MILLISECONDS.toNanos(20));
+
+        controller.adjust();
+        controller.apply(consumer);
+
+        verify(consumer).pause(new HashSet<>(Arrays.asList(SLOW, FAST)));
+    }
+
+    @Test
+    public void testStayPausedUntilProbeRecovers() {
+        controller.processed(SLOW, TimeUnit.MILLISECONDS.toNanos(250));
+        controller.adjust();
+        controller.apply(consumer);
+        when(consumer.paused()).thenReturn(Collections.singleton(SLOW));
+        assertThat(controller.isPaused(SLOW), equalTo(true));
+
+        // the hold is over, the partition is resumed for a probe
+        controller.adjust();
+        controller.apply(consumer);
+        verify(consumer).resume(Collections.singleton(SLOW));
+        when(consumer.paused()).thenReturn(Collections.emptySet());
+
+        // between the resume latency and the latency target: probing goes on
+        controller.processed(SLOW, TimeUnit.MILLISECONDS.toNanos(80));
+        controller.adjust();
+        assertThat(controller.isPaused(SLOW), equalTo(false));
+
+        // the probe saturates again, the partition is paused again
+        controller.processed(SLOW, TimeUnit.MILLISECONDS.toNanos(250));
+        controller.adjust();
+        assertThat(controller.isPaused(SLOW), equalTo(true));
+    }
+
+    @Test
+    public void testReleaseAfterRecovery() {
+        controller.processed(SLOW, TimeUnit.MILLISECONDS.toNanos(250));
+        controller.adjust();
+        controller.adjust();
+        controller.processed(SLOW, TimeUnit.MILLISECONDS.toNanos(20));
+
+        controller.adjust();
+
+        assertThat(controller.isPaused(SLOW), equalTo(false));
+        assertThat(controller.getInFlightLimit(), equalTo(60));
+    }
+
+    @Test
+    public void testPartitionsPausedElsewhereAreNotResumed() {
+        when(consumer.paused()).thenReturn(Collections.singleton(FAST));
+        controller.processed(SLOW, TimeUnit.MILLISECONDS.toNanos(250));
+        controller.adjust();
+        controller.apply(consumer);
+        when(consumer.paused()).thenReturn(new HashSet<>(Arrays.asList(SLOW, FAST)));
+
+        controller.adjust();
+        controller.apply(consumer);
+
+        verify(consumer).resume(Collections.singleton(SLOW));
+        verify(consumer, never()).resume(Collections.singleton(FAST));
+    }
+
+    @Test
+    public void testPauseWhenInFlightLimitIsReached() {
+        controller.processed(SLOW, TimeUnit.MILLISECONDS.toNanos(500));
+        controller.adjust();
+        controller.processed(SLOW, TimeUnit.MILLISECONDS.toNanos(500));
+        controller.adjust();
+        inFlight.set(30);
+
+        controller.processed(SLOW, TimeUnit.MILLISECONDS.toNanos(500));
+        controller.adjust();
+
+        assertThat(controller.getInFlightLimit(), equalTo(10));
+        assertThat(controller.isPaused(FAST), equalTo(true));
+
+        inFlight.set(5);
+        controller.adjust();
+
+        assertThat(controller.isPaused(FAST), equalTo(false));
+    }
+
+    @Test
+    public void testNothingToApply() {
+        controller.apply(consumer);
+
+        verify(consumer, never()).pause(any());
+        verify(consumer, never()).assignment();
+    }
+}
@@ -0,0 +1,263 @@
+package com.acme.ride.dispatch.message.consumer;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.springframework.kafka.listener.MessageListener;
+import org.springframework.kafka.support.Acknowledgment;
+
+public class KeyOrderedMessageListenerTest {
+
+    private static final TopicPartition PARTITION = new TopicPartition("mytopic", 1);
+
+    @Mock
+    private MessageListener<String, String> delegate;
+
+    @Mock
+    private Consumer<?, ?> consumer;
+
+    private KeyOrderedExecutor executor;
+
+    private KeyOrderedMessageListener<String, String> listener;
+
+    @Before
+    public void init() {
+        initMocks(this);
+        executor = new KeyOrderedExecutor(4, 10, 5000);
+        listener = new KeyOrderedMessageListener<>(delegate, executor, 5000, 3, 0);
+        when(consumer.assignment()).thenReturn(Collections.singleton(PARTITION));
+    }
+
+    @After
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    @Test
+    public void testRecordsWithSameKeyAreProcessedInOrder() throws Exception {
+        List<Long> processed = Collections.synchronizedList(new ArrayList<>());
+        doAnswer(invocation -> {
+            ConsumerRecord<?, ?> record = invocation.getArgument(0);
+            processed.add(record.offset());
+            return null;
+        }).when(delegate).onMessage(any(), isNull(), isNull());
+
+        Acknowledgment last = mock(Acknowledgment.class);
+        for (long offset = 0; offset < 20; offset++) {
+            listener.onMessage(record(offset, "ride-1"), offset == 19 ? last : mock(Acknowledgment.class), consumer);
+        }
+
+        verify(last, timeout(5000)).acknowledge();
+        List<Long> expected = new ArrayList<>();
+        for (long offset = 0; offset < 20; offset++) {
+            expected.add(offset);
+        }
+        assertThat(processed, equalTo(expected));
+    }
+
+    @Test
+    public void testAcknowledgeUpToLowestCompletedRecord() throws Exception {
+        String slowKey = "ride-1";
+        String fastKey = keyOnOtherLane(slowKey);
+        CountDownLatch latch = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            ConsumerRecord<?, ?> record = invocation.getArgument(0);
+            if (slowKey.equals(record.key())) {
+                latch.await(5, TimeUnit.SECONDS);
+            }
+            return null;
+        }).when(delegate).onMessage(any(), isNull(), isNull());
+
+        Acknowledgment slowAck = mock(Acknowledgment.class);
+        Acknowledgment fastAck = mock(Acknowledgment.class);
+        listener.onMessage(record(0, slowKey), slowAck, consumer);
+        listener.onMessage(record(1, fastKey), fastAck, consumer);
+
+        verify(delegate, timeout(5000).times(2)).onMessage(any(), isNull(), isNull());
+        Thread.sleep(100);
+        verify(slowAck, never()).acknowledge();
+        verify(fastAck, never()).acknowledge();
+
+        latch.countDown();
+
+        verify(fastAck, timeout(5000)).acknowledge();
+        verify(slowAck, never()).acknowledge();
+    }
+
+    @Test
+    public void testFailedRecordIsAcknowledged() {
+        doAnswer(invocation -> {
+            throw new IllegalStateException("failure");
+        }).when(delegate).onMessage(any(), isNull(), isNull());
+
+        Acknowledgment acknowledgment = mock(Acknowledgment.class);
+        listener.onMessage(record(0, "ride-1"), acknowledgment, consumer);
+
+        verify(acknowledgment, timeout(5000)).acknowledge();
+    }
+
+    @Test
+    public void testRecordWhichCannotBeRecoveredRewindsItsPartition() throws Exception {
+        listener.setRecoverer((record, exception) -> {
+            throw new IllegalStateException("send failure");
+        });
+        doAnswer(invocation -> {
+            throw new IllegalStateException("failure");
+        }).when(delegate).onMessage(any(), isNull(), isNull());
+
+        Acknowledgment acknowledgment = mock(Acknowledgment.class);
+        listener.onMessage(record(0, "ride-1"), acknowledgment, consumer);
+
+        verify(delegate, timeout(5000)).onMessage(any(), isNull(), isNull());
+        Thread.sleep(100);
+        verify(acknowledgment, never()).acknowledge();
+
+        listener.onIdle(consumer);
+
+        verify(consumer).pause(Collections.singleton(PARTITION));
+        verify(consumer).seek(PARTITION, 0);
+        verify(consumer).resume(Collections.singleton(PARTITION));
+    }
+
+    @Test
+    public void testRecordsFetchedBeforeRewindAreSkipped() throws Exception {
+        listener.setRecoverer((record, exception) -> {
+            throw new IllegalStateException("send failure");
+        });
+        doAnswer(invocation -> {
+            throw new IllegalStateException("failure");
+        }).when(delegate).onMessage(any(), isNull(), isNull());
+        listener.onMessage(record(0, "ride-1"), mock(Acknowledgment.class), consumer);
+        verify(delegate, timeout(5000)).onMessage(any(), isNull(), isNull());
+        Thread.sleep(100);
+        doAnswer(invocation -> null).when(delegate).onMessage(any(), isNull(), isNull());
+
+        Acknowledgment skipped = mock(Acknowledgment.class);
+        listener.onMessage(record(1, "ride-1"), skipped, consumer);
+        Acknowledgment redelivered = mock(Acknowledgment.class);
+        listener.onMessage(record(0, "ride-1"), redelivered, consumer);
+
+        verify(consumer).seek(PARTITION, 0);
+        verify(redelivered, timeout(5000)).acknowledge();
+        verify(skipped, never()).acknowledge();
+        verify(delegate, times(2)).onMessage(any(), isNull(), isNull());
+    }
+
+    @Test
+    public void testPartitionIsPausedWithTooManyRecordsInFlight() throws Exception {
+        CountDownLatch latch = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            latch.await(5, TimeUnit.SECONDS);
+            return null;
+        }).when(delegate).onMessage(any(), isNull(), isNull());
+
+        for (long offset = 0; offset < 3; offset++) {
+            listener.onMessage(record(offset, "ride-1"), mock(Acknowledgment.class), consumer);
+        }
+
+        verify(consumer).pause(Collections.singleton(PARTITION));
+        verify(consumer).seek(PARTITION, 3);
+        listener.onIdle(consumer);
+        verify(consumer, never()).resume(any());
+
+        latch.countDown();
+        verify(delegate, timeout(5000).times(3)).onMessage(any(), isNull(), isNull());
+        Thread.sleep(100);
+        listener.onIdle(consumer);
+
+        verify(consumer).resume(Collections.singleton(PARTITION));
+    }
+
+    @Test
+    public void testPartitionHeldByBackpressureIsNotResumed() throws Exception {
+        BackpressureController backpressureController = mock(BackpressureController.class);
+        when(backpressureController.isPaused(PARTITION)).thenReturn(true);
+        listener.setBackpressureController(backpressureController);
+        CountDownLatch latch = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            latch.await(5, TimeUnit.SECONDS);
+            return null;
+        }).when(delegate).onMessage(any(), isNull(), isNull());
+
+        for (long offset = 0; offset < 3; offset++) {
+            listener.onMessage(record(offset, "ride-1"), mock(Acknowledgment.class), consumer);
+        }
+        latch.countDown();
+        verify(delegate, timeout(5000).times(3)).onMessage(any(), isNull(), isNull());
+        Thread.sleep(100);
+        listener.onIdle(consumer);
+
+        verify(backpressureController, times(3)).apply(consumer);
+        verify(consumer, never()).resume(any());
+
+        when(backpressureController.isPaused(PARTITION)).thenReturn(false);
+        listener.onIdle(consumer);
+
+        verify(consumer).resume(Collections.singleton(PARTITION));
+    }
+
+    @Test
+    public void testRevokeWaitsForInFlightRecords() throws Exception {
+        CountDownLatch latch = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            latch.await(5, TimeUnit.SECONDS);
+            return null;
+        }).when(delegate).onMessage(any(), isNull(), isNull());
+
+        Acknowledgment acknowledgment = mock(Acknowledgment.class);
+        listener.onMessage(record(0, "ride-1"), acknowledgment, consumer);
+        new Thread(() -> {
+            sleep(200);
+            latch.countDown();
+        }).start();
+
+        listener.onPartitionsRevokedBeforeCommit(consumer, Collections.singletonList(PARTITION));
+
+        verify(acknowledgment).acknowledge();
+    }
+
+    private String keyOnOtherLane(String key) {
+        int lane = executor.lane(key);
+        for (int i = 2; ; i++) {
+            String other = "ride-" + i;
+            if (executor.lane(other) != lane) {
+                return other;
+            }
+        }
+    }
+
+    private ConsumerRecord<String, String> record(long offset, String key) {
+        return new ConsumerRecord<>("mytopic", 1, offset, key, "message-" + offset);
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
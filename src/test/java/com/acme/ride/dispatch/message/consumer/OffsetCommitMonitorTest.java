@@ -0,0 +1,126 @@
+package com.acme.ride.dispatch.message.consumer;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.kafka.listener.MessageListener;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+public class OffsetCommitMonitorTest {
+
+    private static final TopicPartition PARTITION = new TopicPartition("mytopic", 1);
+
+    private MeterRegistry meterRegistry;
+
+    private OffsetCommitMonitor monitor;
+
+    @Before
+    public void init() {
+        meterRegistry = new SimpleMeterRegistry();
+        monitor = new OffsetCommitMonitor(meterRegistry);
+    }
+
+    @After
+    public void cleanup() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    public void testCommitLag() {
+        monitor.processed(record(100));
+        monitor.processed(record(101));
+        monitor.processed(record(102));
+
+        assertThat(lag(), equalTo(3.0));
+
+        monitor.onComplete(Collections.singletonMap(PARTITION, new OffsetAndMetadata(102)), null);
+
+        assertThat(lag(), equalTo(1.0));
+        assertThat(meterRegistry.get("dispatch.kafka.commit.latency").timer().count(), equalTo(1L));
+
+        monitor.onComplete(Collections.singletonMap(PARTITION, new OffsetAndMetadata(103)), null);
+
+        assertThat(lag(), equalTo(0.0));
+        assertThat(meterRegistry.get("dispatch.kafka.commit.latency").timer().count(), equalTo(2L));
+        assertThat(meterRegistry.get("dispatch.kafka.commits").tag("result", "success").counter().count(), equalTo(2.0));
+    }
+
+    @Test
+    public void testFailedCommit() {
+        monitor.processed(record(100));
+
+        monitor.onComplete(Collections.singletonMap(PARTITION, new OffsetAndMetadata(101)), new RuntimeException("failure"));
+
+        assertThat(lag(), equalTo(1.0));
+        assertThat(meterRegistry.get("dispatch.kafka.commits").tag("result", "failure").counter().count(), equalTo(1.0));
+        assertThat(meterRegistry.get("dispatch.kafka.commit.latency").timer().count(), equalTo(0L));
+    }
+
+    @Test
+    public void testRevokedPartitionWaitsForCommit() {
+        Consumer<?, ?> consumer = mock(Consumer.class);
+        when(consumer.committed(PARTITION)).thenReturn(new OffsetAndMetadata(101));
+        monitor.processed(record(100));
+
+        monitor.onPartitionsRevokedAfterCommit(consumer, Collections.singletonList(PARTITION));
+
+        verify(consumer).committed(PARTITION);
+        assertThat(lag(), equalTo(0.0));
+    }
+
+    @Test
+    public void testRevokedPartitionWithoutPendingOffsets() {
+        Consumer<?, ?> consumer = mock(Consumer.class);
+        monitor.processed(record(100));
+        monitor.onComplete(Collections.singletonMap(PARTITION, new OffsetAndMetadata(101)), null);
+
+        monitor.onPartitionsRevokedAfterCommit(consumer, Collections.singletonList(PARTITION));
+
+        verify(consumer, never()).committed(any());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testRecordProcessedAfterTransactionCommit() {
+        MessageListener<String, String> delegate = mock(MessageListener.class);
+        OffsetTrackingMessageListener<String, String> listener = new OffsetTrackingMessageListener<>(delegate, monitor);
+        TransactionSynchronizationManager.initSynchronization();
+        ConsumerRecord<String, String> record = record(100);
+
+        listener.onMessage(record, null, null);
+
+        verify(delegate).onMessage(record, null, null);
+        assertThat(lag(), equalTo(0.0));
+
+        TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+
+        assertThat(lag(), equalTo(1.0));
+    }
+
+    private double lag() {
+        return meterRegistry.get("dispatch.kafka.commit.lag").gauge().value();
+    }
+
+    private ConsumerRecord<String, String> record(long offset) {
+        return new ConsumerRecord<>(PARTITION.topic(), PARTITION.partition(), offset, "ride-1", "message-" + offset);
+    }
+}
@@ -0,0 +1,80 @@
+package com.acme.ride.dispatch.message.consumer;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.springframework.kafka.listener.MessageListener;
+import org.springframework.kafka.support.Acknowledgment;
+
+public class RetryDelayMessageListenerTest {
+
+    @Mock
+    private MessageListener<String, String> delegate;
+
+    @Mock
+    private RetryDelays retryDelays;
+
+    @Mock
+    private Acknowledgment acknowledgment;
+
+    @Mock
+    private Consumer<?, ?> consumer;
+
+    private RetryDelayMessageListener<String, String> listener;
+
+    private ConsumerRecord<String, String> record = new ConsumerRecord<>("retry-1", 0, 10, "ride-1", "message");
+
+    @Before
+    public void init() {
+        initMocks(this);
+        listener = new RetryDelayMessageListener<>(delegate, retryDelays);
+    }
+
+    @After
+    public void cleanup() {
+        RetryDelayMessageListener.acknowledgeRecovered();
+    }
+
+    @Test
+    public void testProcessedRecordIsAcknowledged() {
+        listener.onMessage(record, acknowledgment, consumer);
+
+        verify(delegate).onMessage(record, null, consumer);
+        verify(acknowledgment).acknowledge();
+    }
+
+    @Test
+    public void testHeldRecordIsNotAcknowledged() {
+        when(retryDelays.hold(record, consumer)).thenReturn(true);
+
+        listener.onMessage(record, acknowledgment, consumer);
+
+        verify(delegate, never()).onMessage(any(), any(), any());
+        verify(acknowledgment, never()).acknowledge();
+    }
+
+    @Test
+    public void testFailedRecordIsAcknowledgedOnceRecovered() {
+        doThrow(new IllegalStateException("failure")).when(delegate).onMessage(record, null, consumer);
+
+        try {
+            listener.onMessage(record, acknowledgment, consumer);
+        } catch (IllegalStateException e) {
+            // handed to the error handler
+        }
+
+        verify(acknowledgment, never()).acknowledge();
+        RetryDelayMessageListener.acknowledgeRecovered();
+        verify(acknowledgment).acknowledge();
+    }
+}
@@ -0,0 +1,73 @@
+package com.acme.ride.dispatch.message.consumer;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.kafka.event.ListenerContainerIdleEvent;
+
+public class RetryDelaysTest {
+
+    private static final TopicPartition PARTITION = new TopicPartition("retry-1", 0);
+
+    private RetryDelays retryDelays;
+
+    private Consumer<?, ?> consumer;
+
+    @Before
+    public void init() {
+        retryDelays = new RetryDelays("dispatch-retry");
+        consumer = mock(Consumer.class);
+    }
+
+    @Test
+    public void testDueRecordIsNotHeld() {
+        assertThat(retryDelays.hold(record(10, System.currentTimeMillis() - 1), consumer), equalTo(false));
+
+        verify(consumer, never()).pause(any());
+    }
+
+    @Test
+    public void testRecordNotDueIsHeld() {
+        assertThat(retryDelays.hold(record(10, System.currentTimeMillis() + 60000), consumer), equalTo(true));
+
+        verify(consumer).pause(Collections.singleton(PARTITION));
+        verify(consumer).seek(PARTITION, 10);
+
+        when(consumer.paused()).thenReturn(Collections.singleton(PARTITION));
+
+        assertThat(retryDelays.hold(record(11, System.currentTimeMillis() - 1), consumer), equalTo(true));
+    }
+
+    @Test
+    public void testPartitionIsResumedWhenDue() throws Exception {
+        retryDelays.hold(record(10, System.currentTimeMillis() + 20), consumer);
+        when(consumer.paused()).thenReturn(Collections.singleton(PARTITION));
+
+        retryDelays.resumeDue(consumer);
+        verify(consumer, never()).resume(any());
+
+        Thread.sleep(30);
+        retryDelays.onApplicationEvent(new ListenerContainerIdleEvent(this, 1000, "dispatch-retry-0", Collections.singleton(PARTITION), consumer));
+
+        verify(consumer).resume(Collections.singleton(PARTITION));
+    }
+
+    private ConsumerRecord<String, String> record(long offset, long due) {
+        ConsumerRecord<String, String> record = new ConsumerRecord<>(PARTITION.topic(), PARTITION.partition(), offset, "ride-1", "message");
+        record.headers().add(RetryTopicRecoverer.RETRY_DUE, ByteBuffer.allocate(Long.BYTES).putLong(due).array());
+        return record;
+    }
+}
@@ -0,0 +1,76 @@
+package com.acme.ride.dispatch.message.consumer;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+
+public class RetryTopicErrorHandlerTest {
+
+    @Mock
+    private BiConsumer<ConsumerRecord<?, ?>, Exception> recoverer;
+
+    @Mock
+    private Consumer<?, ?> consumer;
+
+    private RetryTopicErrorHandler<String, String> errorHandler;
+
+    private Exception exception = new IllegalStateException("failure");
+
+    @Before
+    public void init() {
+        initMocks(this);
+        errorHandler = new RetryTopicErrorHandler<>(recoverer);
+    }
+
+    @Test
+    public void testRemainingRecordsAreSoughtAfterRecovery() {
+        List<ConsumerRecord<?, ?>> records = Arrays.asList(record(1, 10), record(1, 11), record(2, 5), record(1, 12));
+
+        errorHandler.handle(exception, records, consumer, null);
+
+        verify(recoverer).accept(records.get(0), exception);
+        verify(consumer).seek(new TopicPartition("mytopic", 1), 11);
+        verify(consumer).seek(new TopicPartition("mytopic", 2), 5);
+        verify(consumer, never()).seek(any(), eq(12L));
+    }
+
+    @Test
+    public void testFailedRecordIsSoughtWhenRecoveryFails() {
+        List<ConsumerRecord<?, ?>> records = Arrays.asList(record(1, 10), record(1, 11));
+        doThrow(new IllegalStateException("send failure")).when(recoverer).accept(any(), any());
+
+        errorHandler.handle(exception, records, consumer, null);
+
+        verify(consumer).seek(new TopicPartition("mytopic", 1), 10);
+        verify(consumer, never()).seek(any(), eq(11L));
+    }
+
+    @Test
+    public void testLastRecordIsNotSought() {
+        List<ConsumerRecord<?, ?>> records = Arrays.asList(record(1, 10));
+
+        errorHandler.handle(exception, records, consumer, null);
+
+        verify(recoverer).accept(records.get(0), exception);
+        verify(consumer, never()).seek(any(), anyLong());
+    }
+
+    private ConsumerRecord<String, String> record(int partition, long offset) {
+        return new ConsumerRecord<>("mytopic", partition, offset, "ride-" + offset, "message-" + offset);
+    }
+}
@@ -0,0 +1,173 @@
+package com.acme.ride.dispatch.message.consumer;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+import java.nio.charset.StandardCharsets;
+
+import com.acme.ride.dispatch.message.model.Message;
+import com.acme.ride.dispatch.message.serialization.DecodeFailure;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.errors.TimeoutException;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.kafka.support.SendResult;
+import org.springframework.util.concurrent.SettableListenableFuture;
+
+public class RetryTopicRecovererTest {
+
+    @Mock
+    private KafkaTemplate<String, Message<?>> kafkaTemplate;
+
+    @Captor
+    private ArgumentCaptor<ProducerRecord<String, Message<?>>> producerRecordCaptor;
+
+    private MeterRegistry meterRegistry;
+
+    private RetryTopicRecoverer recoverer;
+
+    private Message<Object> message = new Message.Builder<Object>("RideStartedEvent", "sender", null).id("messageId").build();
+
+    @Before
+    public void init() {
+        initMocks(this);
+        meterRegistry = new SimpleMeterRegistry();
+        RetryTopics retryTopics = new RetryTopics("retry", new long[]{1000, 10000}, "dlt");
+        recoverer = new RetryTopicRecoverer(kafkaTemplate, retryTopics, 1000, meterRegistry);
+        when(kafkaTemplate.send(any(ProducerRecord.class))).thenReturn(sent());
+    }
+
+    @Test
+    public void testFirstFailureGoesToFirstRetryTopic() {
+        ConsumerRecord<String, Object> record = new ConsumerRecord<>("mytopic", 1, 100, "ride-1234", message);
+        record.headers().add("custom", "value".getBytes(StandardCharsets.UTF_8));
+        long now = System.currentTimeMillis();
+
+        recoverer.accept(record, new IllegalStateException("wrapped", new IllegalArgumentException("failure")));
+
+        verify(kafkaTemplate).send(producerRecordCaptor.capture());
+        ProducerRecord<String, Message<?>> sent = producerRecordCaptor.getValue();
+        assertThat(sent.topic(), equalTo("retry-1"));
+        assertThat(sent.key(), equalTo("ride-1234"));
+        assertThat(sent.value(), sameInstance(message));
+        assertThat(new String(sent.headers().lastHeader("custom").value(), StandardCharsets.UTF_8), equalTo("value"));
+        assertThat(new String(sent.headers().lastHeader(KafkaHeaders.DLT_ORIGINAL_TOPIC).value(), StandardCharsets.UTF_8), equalTo("mytopic"));
+        assertThat(new String(sent.headers().lastHeader(KafkaHeaders.DLT_EXCEPTION_FQCN).value(), StandardCharsets.UTF_8),
+                equalTo(IllegalArgumentException.class.getName()));
+        assertThat(new String(sent.headers().lastHeader(KafkaHeaders.DLT_EXCEPTION_MESSAGE).value(), StandardCharsets.UTF_8), equalTo("failure"));
+        assertThat(RetryTopicRecoverer.intHeader(sent.headers(), RetryTopicRecoverer.RETRY_ATTEMPT), equalTo(1));
+        assertThat(RetryTopicRecoverer.longHeader(sent.headers(), RetryTopicRecoverer.RETRY_DUE) >= now + 1000, equalTo(true));
+        assertThat(meterRegistry.get("dispatch.kafka.retries").tag("topic", "retry-1").counter().count(), equalTo(1.0));
+    }
+
+    @Test
+    public void testSecondFailureGoesToSecondRetryTopic() {
+        ConsumerRecord<String, Object> record = retried(1);
+
+        recoverer.accept(record, new IllegalStateException("failure"));
+
+        verify(kafkaTemplate).send(producerRecordCaptor.capture());
+        ProducerRecord<String, Message<?>> sent = producerRecordCaptor.getValue();
+        assertThat(sent.topic(), equalTo("retry-2"));
+        assertThat(RetryTopicRecoverer.intHeader(sent.headers(), RetryTopicRecoverer.RETRY_ATTEMPT), equalTo(2));
+        assertThat(new String(sent.headers().lastHeader(KafkaHeaders.DLT_ORIGINAL_TOPIC).value(), StandardCharsets.UTF_8), equalTo("mytopic"));
+        assertThat(count(sent, RetryTopicRecoverer.RETRY_ATTEMPT), equalTo(1));
+        assertThat(count(sent, KafkaHeaders.DLT_ORIGINAL_TOPIC), equalTo(1));
+    }
+
+    @Test
+    public void testExhaustedRetriesGoToDeadLetterTopic() {
+        ConsumerRecord<String, Object> record = retried(2);
+
+        recoverer.accept(record, new IllegalStateException("failure"));
+
+        verify(kafkaTemplate).send(producerRecordCaptor.capture());
+        ProducerRecord<String, Message<?>> sent = producerRecordCaptor.getValue();
+        assertThat(sent.topic(), equalTo("dlt"));
+        assertThat(sent.headers().lastHeader(RetryTopicRecoverer.RETRY_DUE), equalTo(null));
+        assertThat(meterRegistry.get("dispatch.kafka.dead-letters").counter().count(), equalTo(1.0));
+    }
+
+    @Test
+    public void testDecodeFailureGoesToDeadLetterTopic() {
+        byte[] data = "{\"messageType\":".getBytes(StandardCharsets.UTF_8);
+        Message<?> failure = new Message.Builder<>(null, null, new DecodeFailure(data, "failure")).id(null).timestamp(null).build();
+        ConsumerRecord<String, Object> record = new ConsumerRecord<>("mytopic", 1, 100, "ride-1234", failure);
+
+        recoverer.accept(record, new IllegalStateException("failure"));
+
+        verify(kafkaTemplate).send(producerRecordCaptor.capture());
+        ProducerRecord<String, Message<?>> sent = producerRecordCaptor.getValue();
+        assertThat(sent.topic(), equalTo("dlt"));
+        assertThat(sent.value(), sameInstance(failure));
+        assertThat(new String(sent.headers().lastHeader(KafkaHeaders.DLT_ORIGINAL_TOPIC).value(), StandardCharsets.UTF_8), equalTo("mytopic"));
+        assertThat(meterRegistry.get("dispatch.kafka.dead-letters").counter().count(), equalTo(1.0));
+    }
+
+    @Test
+    public void testRecordWithoutMessage() {
+        ConsumerRecord<String, Object> record = new ConsumerRecord<>("mytopic", 1, 100, "ride-1234", null);
+
+        recoverer.accept(record, new IllegalStateException("failure"));
+
+        verify(kafkaTemplate, never()).send(any(ProducerRecord.class));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testFailedSendIsThrown() {
+        ConsumerRecord<String, Object> record = new ConsumerRecord<>("mytopic", 1, 100, "ride-1234", message);
+        SettableListenableFuture<SendResult<String, Message<?>>> future = new SettableListenableFuture<>();
+        future.setException(new TimeoutException("send failure"));
+        when(kafkaTemplate.send(any(ProducerRecord.class))).thenReturn(future);
+
+        recoverer.accept(record, new IllegalStateException("failure"));
+    }
+
+    private SettableListenableFuture<SendResult<String, Message<?>>> sent() {
+        SettableListenableFuture<SendResult<String, Message<?>>> future = new SettableListenableFuture<>();
+        future.set(null);
+        return future;
+    }
+
+    private ConsumerRecord<String, Object> retried(int attempts) {
+        ConsumerRecord<String, Object> record = new ConsumerRecord<>("mytopic", 1, 100, "ride-1234", message);
+        recoverer.accept(record, new IllegalStateException("failure"));
+        ProducerRecord<String, Message<?>> sent = null;
+        for (int i = 0; i < attempts; i++) {
+            verify(kafkaTemplate).send(producerRecordCaptor.capture());
+            sent = producerRecordCaptor.getValue();
+            ConsumerRecord<String, Object> retried = new ConsumerRecord<>(sent.topic(), 0, 10, sent.key(), message);
+            sent.headers().forEach(header -> retried.headers().add(header));
+            org.mockito.Mockito.reset(kafkaTemplate);
+            when(kafkaTemplate.send(any(ProducerRecord.class))).thenReturn(sent());
+            if (i < attempts - 1) {
+                recoverer.accept(retried, new IllegalStateException("failure"));
+            } else {
+                return retried;
+            }
+        }
+        return record;
+    }
+
+    private int count(ProducerRecord<?, ?> record, String header) {
+        int count = 0;
+        for (org.apache.kafka.common.header.Header ignored : record.headers().headers(header)) {
+            count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,91 @@
+package com.acme.ride.dispatch.message.consumer;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.springframework.kafka.listener.MessageListener;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionTemplate;
+
+public class TransactionalBatchMessageListenerTest {
+
+    @Mock
+    private PlatformTransactionManager ptm;
+
+    @Mock
+    private TransactionStatus transactionStatus;
+
+    @Mock
+    private MessageListener<String, String> delegate;
+
+    @Mock
+    private Consumer<?, ?> consumer;
+
+    private TransactionalBatchMessageListener<String, String> listener;
+
+    @Before
+    public void init() {
+        initMocks(this);
+        when(ptm.getTransaction(any())).thenReturn(transactionStatus);
+        listener = new TransactionalBatchMessageListener<>(delegate, new TransactionTemplate(ptm), 4);
+    }
+
+    @Test
+    public void testProcessBatch() {
+        List<ConsumerRecord<String, String>> records = records(10);
+
+        listener.onMessage(records, null, consumer);
+
+        records.forEach(record -> verify(delegate).onMessage(eq(record), isNull(), eq(consumer)));
+        verify(ptm, times(3)).getTransaction(any());
+        verify(ptm, times(3)).commit(transactionStatus);
+    }
+
+    @Test
+    public void testProcessBatchWithFailingRecord() {
+        List<ConsumerRecord<String, String>> records = records(4);
+        doThrow(new IllegalStateException("failure")).when(delegate).onMessage(argThat(record -> record.offset() == 2L), isNull(), eq(consumer));
+
+        listener.onMessage(records, null, consumer);
+
+        // batch [0-3] fails, [0-1] succeeds, [2-3] fails, [2] fails, [3] succeeds
+        verify(ptm, times(5)).getTransaction(any());
+        verify(ptm, times(2)).commit(transactionStatus);
+        verify(ptm, times(3)).rollback(transactionStatus);
+        verify(delegate, times(2)).onMessage(eq(records.get(0)), isNull(), eq(consumer));
+        verify(delegate, times(3)).onMessage(eq(records.get(2)), isNull(), eq(consumer));
+        verify(delegate, times(1)).onMessage(eq(records.get(3)), isNull(), eq(consumer));
+    }
+
+    @Test
+    public void testProcessEmptyBatch() {
+        listener.onMessage(new ArrayList<>(), null, consumer);
+
+        verify(ptm, never()).getTransaction(any());
+    }
+
+    private List<ConsumerRecord<String, String>> records(int count) {
+        List<ConsumerRecord<String, String>> records = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            records.add(new ConsumerRecord<>("mytopic", 1, i, "ride-" + i, "message-" + i));
+        }
+        return records;
+    }
+}
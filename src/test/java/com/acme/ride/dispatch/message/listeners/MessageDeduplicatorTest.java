@@ -0,0 +1,102 @@
+package com.acme.ride.dispatch.message.listeners;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+import static org.springframework.test.util.ReflectionTestUtils.setField;
+
+import com.acme.ride.dispatch.dao.ProcessedMessageDao;
+import com.acme.ride.dispatch.entity.ProcessedMessage;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+public class MessageDeduplicatorTest {
+
+    private MessageDeduplicator deduplicator;
+
+    @Mock
+    private ProcessedMessageDao processedMessageDao;
+
+    @Captor
+    private ArgumentCaptor<ProcessedMessage> processedMessageCaptor;
+
+    @Before
+    public void init() {
+        initMocks(this);
+        deduplicator = new MessageDeduplicator();
+        setField(deduplicator, null, processedMessageDao, ProcessedMessageDao.class);
+        setField(deduplicator, "cacheSize", 2, int.class);
+        deduplicator.init();
+    }
+
+    @After
+    public void cleanup() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    public void testNewMessage() {
+        assertThat(deduplicator.isDuplicate("message-1"), equalTo(false));
+        verify(processedMessageDao).exists("message-1");
+    }
+
+    @Test
+    public void testDuplicateFromDatabaseIsCached() {
+        when(processedMessageDao.exists("message-1")).thenReturn(true);
+
+        assertThat(deduplicator.isDuplicate("message-1"), equalTo(true));
+        assertThat(deduplicator.isDuplicate("message-1"), equalTo(true));
+
+        verify(processedMessageDao, times(1)).exists("message-1");
+    }
+
+    @Test
+    public void testProcessedMessageIsCachedAfterCommit() {
+        TransactionSynchronizationManager.initSynchronization();
+
+        deduplicator.processed("message-1");
+
+        verify(processedMessageDao).create(processedMessageCaptor.capture());
+        assertThat(processedMessageCaptor.getValue().getMessageId(), equalTo("message-1"));
+
+        TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+
+        assertThat(deduplicator.isDuplicate("message-1"), equalTo(true));
+        verify(processedMessageDao, never()).exists("message-1");
+    }
+
+    @Test
+    public void testCacheIsBounded() {
+        TransactionSynchronizationManager.initSynchronization();
+        deduplicator.processed("message-1");
+        deduplicator.processed("message-2");
+        deduplicator.processed("message-3");
+        TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+
+        deduplicator.isDuplicate("message-1");
+
+        verify(processedMessageDao).exists("message-1");
+    }
+
+    @Test
+    public void testMessageWithoutId() {
+        assertThat(deduplicator.isDuplicate(null), equalTo(false));
+        deduplicator.processed(null);
+
+        verify(processedMessageDao, never()).exists(any());
+        verify(processedMessageDao, never()).create(any());
+    }
+}
@@ -0,0 +1,176 @@
+package com.acme.ride.dispatch.message.listeners;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+import static org.springframework.test.util.ReflectionTestUtils.setField;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.acme.ride.dispatch.message.model.Message;
+import com.acme.ride.dispatch.message.model.RideStartedEvent;
+import com.acme.ride.dispatch.message.serialization.DecodeFailure;
+import com.acme.ride.dispatch.timer.RidePartition;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+
+public class MessageDispatcherTest {
+
+    private MessageDispatcher dispatcher;
+
+    @Mock
+    private PlatformTransactionManager ptm;
+
+    @Mock
+    private TransactionStatus transactionStatus;
+
+    @Mock
+    private KafkaTemplate<String, Message<?>> kafkaTemplate;
+
+    @Mock
+    private MessageDeduplicator messageDeduplicator;
+
+    private SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private List<Message<RideStartedEvent>> handled = new ArrayList<>();
+
+    private List<Integer> ridePartitions = new ArrayList<>();
+
+    @Before
+    public void init() {
+        initMocks(this);
+        dispatcher = new MessageDispatcher();
+        setField(dispatcher, null, ptm, PlatformTransactionManager.class);
+        setField(dispatcher, null, messageDeduplicator, MessageDeduplicator.class);
+        setField(dispatcher, null, kafkaTemplate, KafkaTemplate.class);
+        setField(dispatcher, null, meterRegistry, MeterRegistry.class);
+        dispatcher.init();
+        dispatcher.addHandler("RideStartedEvent", (MessageHandler<RideStartedEvent>) (message, key, topic, partition) -> {
+            handled.add(message);
+            ridePartitions.add(RidePartition.current());
+        });
+        dispatcher.addHandler("FailingEvent", (message, key, topic, partition) -> {
+            throw new IllegalArgumentException("failure");
+        });
+        when(ptm.getTransaction(any())).thenReturn(transactionStatus);
+    }
+
+    @Test
+    public void testRouteMessage() {
+        Message<RideStartedEvent> message = new Message.Builder<>("RideStartedEvent", "sender", new RideStartedEvent()).id("messageId").build();
+
+        dispatcher.processMessage(message, "ride-1234", "mytopic", 1);
+
+        assertThat(handled.size(), equalTo(1));
+        assertThat(handled.get(0), sameInstance(message));
+        verify(messageDeduplicator).processed("messageId");
+        verify(ptm).commit(transactionStatus);
+    }
+
+    @Test
+    public void testDuplicateInKafkaTransactionIsRedelivered() {
+        Message<RideStartedEvent> message = new Message.Builder<>("RideStartedEvent", "sender", new RideStartedEvent()).id("messageId").build();
+        List<Message<RideStartedEvent>> redelivered = new ArrayList<>();
+        dispatcher.addRedeliveryHandler("RideStartedEvent", (MessageHandler<RideStartedEvent>) (m, key, topic, partition) -> redelivered.add(m));
+        when(kafkaTemplate.inTransaction()).thenReturn(true);
+        when(messageDeduplicator.isDuplicate("messageId")).thenReturn(true);
+
+        dispatcher.processMessage(message, "ride-1234", "mytopic", 1);
+
+        assertThat(handled.isEmpty(), equalTo(true));
+        assertThat(redelivered.size(), equalTo(1));
+        verify(messageDeduplicator, never()).processed(any());
+        verify(ptm).commit(transactionStatus);
+        assertThat(meterRegistry.counter("dispatch.messages.redelivered", "type", "RideStartedEvent", "handled", "true").count(), equalTo(1.0));
+    }
+
+    @Test
+    public void testDuplicateInKafkaTransactionWithoutRedeliveryHandlerIsCounted() {
+        Message<RideStartedEvent> message = new Message.Builder<>("RideStartedEvent", "sender", new RideStartedEvent()).id("messageId").build();
+        when(kafkaTemplate.inTransaction()).thenReturn(true);
+        when(messageDeduplicator.isDuplicate("messageId")).thenReturn(true);
+
+        dispatcher.processMessage(message, "ride-1234", "mytopic", 1);
+
+        assertThat(handled.isEmpty(), equalTo(true));
+        verify(ptm, never()).getTransaction(any());
+        assertThat(meterRegistry.counter("dispatch.messages.redelivered", "type", "RideStartedEvent", "handled", "false").count(), equalTo(1.0));
+    }
+
+    @Test
+    public void testIdsAreStoredInKafkaTransaction() {
+        Message<RideStartedEvent> message = new Message.Builder<>("RideStartedEvent", "sender", new RideStartedEvent()).id("messageId").build();
+        when(kafkaTemplate.inTransaction()).thenReturn(true);
+
+        dispatcher.processMessage(message, "ride-1234", "mytopic", 1);
+
+        assertThat(handled.size(), equalTo(1));
+        verify(messageDeduplicator).processed("messageId");
+    }
+
+    @Test
+    public void testMessageWithoutHandler() {
+        Message<Object> message = new Message.Builder<Object>("WrongType", "sender", null).id("messageId").build();
+
+        dispatcher.processMessage(message, "ride-1234", "mytopic", 1);
+
+        verify(messageDeduplicator, never()).isDuplicate(any());
+        verify(ptm, never()).getTransaction(any());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testDecodeFailureIsThrown() {
+        Message<DecodeFailure> message = new Message.Builder<>(null, null, new DecodeFailure(new byte[]{'{'}, "failure"))
+                .id(null).timestamp(null).build();
+
+        try {
+            dispatcher.processMessage(message, "ride-1234", "mytopic", 1);
+        } finally {
+            verify(ptm, never()).getTransaction(any());
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testHandlerFailureRollsBack() {
+        Message<Object> message = new Message.Builder<Object>("FailingEvent", "sender", null).id("messageId").build();
+
+        try {
+            dispatcher.processMessage(message, "ride-1234", "mytopic", 1);
+        } finally {
+            verify(ptm).rollback(transactionStatus);
+            verify(ptm, never()).commit(any());
+        }
+    }
+
+    @Test
+    public void testRidePartitionIsSetWhileHandling() {
+        Message<RideStartedEvent> message = new Message.Builder<>("RideStartedEvent", "sender", new RideStartedEvent()).id("messageId").build();
+
+        dispatcher.processMessage(message, "ride-1234", "mytopic", 1);
+
+        assertThat(ridePartitions.get(0), equalTo(1));
+        assertThat(RidePartition.current(), equalTo(RidePartition.NONE));
+    }
+
+    @Test
+    public void testRidePartitionOfRetriedMessage() {
+        Message<RideStartedEvent> message = new Message.Builder<>("RideStartedEvent", "sender", new RideStartedEvent()).id("messageId").build();
+
+        dispatcher.processMessage(message, "ride-1234", "mytopic-retry-1", 0, ByteBuffer.allocate(Integer.BYTES).putInt(3).array());
+
+        assertThat(ridePartitions.get(0), equalTo(3));
+    }
+}
@@ -11,8 +11,16 @@ import static org.mockito.Mockito.when;
 import static org.mockito.MockitoAnnotations.initMocks;
 import static org.springframework.test.util.ReflectionTestUtils.setField;
 
+import java.nio.charset.StandardCharsets;
+
 import com.acme.ride.dispatch.dao.RideDao;
 import com.acme.ride.dispatch.entity.Ride;
+import com.acme.ride.dispatch.message.model.Message;
+import com.acme.ride.dispatch.message.serialization.MessageDecoder;
+import com.acme.ride.dispatch.message.serialization.MessageDeserializer;
+import com.acme.ride.dispatch.registry.ActiveRideRegistry;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.jbpm.process.instance.ProcessInstance;
 import org.jbpm.services.api.ProcessService;
 import org.junit.Before;
@@ -21,11 +29,14 @@ import org.kie.internal.process.CorrelationKey;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
 import org.mockito.Mock;
+import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.TransactionStatus;
 
 public class PassengerCanceledEventMessageListenerTest {
 
+    private MessageDispatcher dispatcher;
+
     private PassengerCanceledEventMessageListener messageListener;
 
     @Mock
@@ -34,6 +45,9 @@ public class PassengerCanceledEventMessageListenerTest {
     @Mock
     private TransactionStatus transactionStatus;
 
+    @Mock
+    private KafkaTemplate<String, Message<?>> kafkaTemplate;
+
     @Mock
     private ProcessService processService;
 
@@ -43,19 +57,42 @@ public class PassengerCanceledEventMessageListenerTest {
     @Mock
     private RideDao rideDao;
 
+    @Mock
+    private MessageDeduplicator messageDeduplicator;
+
     @Captor
     private ArgumentCaptor<String> signalCaptor;
 
     @Captor
     private ArgumentCaptor<CorrelationKey> correlationKeyCaptor;
 
+    @Mock
+    private ActiveRideRegistry activeRideRegistry;
+
+    private ProcessInstanceIdCache processInstanceIdCache;
+
+    private MessageDeserializer deserializer = new MessageDeserializer(new MessageDecoder());
+
     @Before
     public void init() {
         initMocks(this);
+        dispatcher = new MessageDispatcher();
+        setField(dispatcher, null, ptm, PlatformTransactionManager.class);
+        setField(dispatcher, null, messageDeduplicator, MessageDeduplicator.class);
+        setField(dispatcher, null, kafkaTemplate, KafkaTemplate.class);
+        setField(dispatcher, null, new SimpleMeterRegistry(), MeterRegistry.class);
+        dispatcher.init();
         messageListener = new PassengerCanceledEventMessageListener();
-        setField(messageListener, null, ptm, PlatformTransactionManager.class);
+        setField(messageListener, null, dispatcher, MessageDispatcher.class);
         setField(messageListener, null, processService, ProcessService.class);
+        processInstanceIdCache = new ProcessInstanceIdCache();
+        setField(processInstanceIdCache, null, processService, ProcessService.class);
+        setField(processInstanceIdCache, null, activeRideRegistry, ActiveRideRegistry.class);
+        setField(processInstanceIdCache, "cacheSize", 10, int.class);
+        processInstanceIdCache.init();
+        setField(messageListener, null, processInstanceIdCache, ProcessInstanceIdCache.class);
         setField(messageListener, null, rideDao, RideDao.class);
+        messageListener.init();
         when(ptm.getTransaction(any())).thenReturn(transactionStatus);
     }
 
@@ -80,7 +117,7 @@ public class PassengerCanceledEventMessageListenerTest {
         when(processService.getProcessInstance(any(CorrelationKey.class))).thenReturn(processInstance);
         when(processInstance.getId()).thenReturn(id);
 
-        messageListener.processMessage(json, "ride-1234", "mytopic", 1);
+        dispatcher.processMessage(deserialize(json), "ride-1234", "mytopic", 1);
 
         verify(processService).getProcessInstance(correlationKeyCaptor.capture());
         CorrelationKey correlationKey = correlationKeyCaptor.getValue();
@@ -101,20 +138,26 @@ public class PassengerCanceledEventMessageListenerTest {
                 "\"payload\":{\"rideId\":\"ride-1234\"," +
                 "\"reason\": \"driver did not show up\"}}";
 
-        messageListener.processMessage(json, "ride-1234", "mytopic", 1);
+        dispatcher.processMessage(deserialize(json), "ride-1234", "mytopic", 1);
 
         verify(processService, never()).signalProcessInstance(any(), any(), any());
         verify(rideDao, never()).findByRideId(any());
     }
 
-    @Test
+    @Test(expected = IllegalStateException.class)
     public void testProcessMessageWrongMessage() {
         String json = "{\"field1\":\"value1\"," +
                 "\"field2\":\"value2\"}";
 
-        messageListener.processMessage(json, "ride-1234", "mytopic", 1);
+        try {
+            dispatcher.processMessage(deserialize(json), "ride-1234", "mytopic", 1);
+        } finally {
+            verify(processService, never()).signalProcessInstance(any(), any(), any());
+            verify(rideDao, never()).findByRideId(any());
+        }
+    }
 
-        verify(processService, never()).signalProcessInstance(any(), any(), any());
-        verify(rideDao, never()).findByRideId(any());
+    private Message<?> deserialize(String json) {
+        return deserializer.deserialize("mytopic", json.getBytes(StandardCharsets.UTF_8));
     }
 }
@@ -0,0 +1,142 @@
+package com.acme.ride.dispatch.message.listeners;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+import static org.springframework.test.util.ReflectionTestUtils.setField;
+
+import java.util.List;
+
+import com.acme.ride.dispatch.registry.ActiveRideRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.jbpm.services.api.ProcessService;
+import org.jbpm.workflow.instance.WorkflowProcessInstance;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.kie.api.event.process.ProcessCompletedEvent;
+import org.kie.internal.process.CorrelationKey;
+import org.mockito.Mock;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+public class ProcessInstanceIdCacheTest {
+
+    private ProcessInstanceIdCache cache;
+
+    @Mock
+    private ProcessService processService;
+
+    @Mock
+    private WorkflowProcessInstance processInstance;
+
+    @Before
+    public void init() {
+        initMocks(this);
+        cache = new ProcessInstanceIdCache();
+        setField(cache, null, processService, ProcessService.class);
+        setField(cache, null, activeRideRegistry(false), ActiveRideRegistry.class);
+        setField(cache, "cacheSize", 2, int.class);
+        cache.init();
+        when(processInstance.getId()).thenReturn(100L);
+        when(processInstance.getVariable("rideId")).thenReturn("ride-1");
+    }
+
+    @After
+    public void cleanup() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    public void testMissLooksUpProcessInstance() {
+        when(processService.getProcessInstance(any(CorrelationKey.class))).thenReturn(processInstance);
+
+        assertThat(cache.getProcessInstanceId("ride-1"), equalTo(100L));
+        assertThat(cache.getProcessInstanceId("ride-1"), equalTo(100L));
+
+        verify(processService, times(1)).getProcessInstance(any(CorrelationKey.class));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testMissWithoutProcessInstance() {
+        cache.getProcessInstanceId("ride-1");
+    }
+
+    @Test
+    public void testStartedIsCachedAfterCommit() {
+        TransactionSynchronizationManager.initSynchronization();
+
+        cache.started("ride-1", 100L);
+        when(processService.getProcessInstance(any(CorrelationKey.class))).thenReturn(processInstance);
+        cache.getProcessInstanceId("ride-1");
+        verify(processService).getProcessInstance(any(CorrelationKey.class));
+
+        cache.started("ride-2", 200L);
+        List<TransactionSynchronization> synchronizations = TransactionSynchronizationManager.getSynchronizations();
+        synchronizations.forEach(TransactionSynchronization::afterCommit);
+
+        assertThat(cache.getProcessInstanceId("ride-2"), equalTo(200L));
+        verify(processService, times(1)).getProcessInstance(any(CorrelationKey.class));
+    }
+
+    @Test
+    public void testCompletedProcessIsEvicted() {
+        cache.started("ride-1", 100L);
+        ProcessCompletedEvent event = mock(ProcessCompletedEvent.class);
+        when(event.getProcessInstance()).thenReturn(processInstance);
+
+        cache.afterProcessCompleted(event);
+
+        when(processService.getProcessInstance(any(CorrelationKey.class))).thenReturn(processInstance);
+        cache.getProcessInstanceId("ride-1");
+        verify(processService).getProcessInstance(any(CorrelationKey.class));
+    }
+
+    @Test
+    public void testRegistryKeepsProcessInstanceIds() {
+        ActiveRideRegistry registry = activeRideRegistry(true);
+        setField(cache, null, registry, ActiveRideRegistry.class);
+        cache.started("ride-1", 100L);
+        cache.started("ride-2", 200L);
+        cache.started("ride-3", 300L);
+
+        assertThat(cache.getProcessInstanceId("ride-1"), equalTo(100L));
+        assertThat(registry.getProcessInstanceId("ride-1"), equalTo(100L));
+        verify(processService, never()).getProcessInstance(any(CorrelationKey.class));
+
+        ProcessCompletedEvent event = mock(ProcessCompletedEvent.class);
+        when(event.getProcessInstance()).thenReturn(processInstance);
+        cache.afterProcessCompleted(event);
+
+        assertThat(registry.get("ride-1"), nullValue());
+    }
+
+    @Test
+    public void testCacheIsBounded() {
+        cache.started("ride-1", 100L);
+        cache.started("ride-2", 200L);
+        cache.started("ride-3", 300L);
+
+        assertThat(cache.getProcessInstanceId("ride-3"), equalTo(300L));
+        assertThat(cache.getProcessInstanceId("ride-2"), equalTo(200L));
+        verify(processService, never()).getProcessInstance(any(CorrelationKey.class));
+    }
+
+    private ActiveRideRegistry activeRideRegistry(boolean enabled) {
+        ActiveRideRegistry registry = new ActiveRideRegistry();
+        setField(registry, "meterRegistry", new SimpleMeterRegistry());
+        setField(registry, "enabled", enabled);
+        setField(registry, "capacity", 100);
+        registry.init();
+        return registry;
+    }
+}
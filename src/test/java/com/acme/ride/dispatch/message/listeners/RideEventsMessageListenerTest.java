@@ -13,10 +13,19 @@ import static org.mockito.MockitoAnnotations.initMocks;
 import static org.springframework.test.util.ReflectionTestUtils.setField;
 
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
 import java.util.Map;
 
 import com.acme.ride.dispatch.dao.RideDao;
 import com.acme.ride.dispatch.entity.Ride;
+import com.acme.ride.dispatch.message.model.Message;
+import com.acme.ride.dispatch.message.serialization.MessageDecoder;
+import com.acme.ride.dispatch.message.serialization.MessageDeserializer;
+import com.acme.ride.dispatch.query.RideProjection;
+import com.acme.ride.dispatch.registry.ActiveRideRegistry;
+import com.acme.ride.dispatch.wih.MessageSenderWorkItemHandler;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.jbpm.process.instance.ProcessInstance;
 import org.jbpm.services.api.ProcessService;
 import org.junit.Before;
@@ -25,11 +34,14 @@ import org.kie.internal.process.CorrelationKey;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
 import org.mockito.Mock;
+import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.TransactionStatus;
 
 public class RideEventsMessageListenerTest {
 
+    private MessageDispatcher dispatcher;
+
     private RideEventsMessageListener messageListener;
 
     @Mock
@@ -38,6 +50,9 @@ public class RideEventsMessageListenerTest {
     @Mock
     private TransactionStatus transactionStatus;
 
+    @Mock
+    private KafkaTemplate<String, Message<?>> kafkaTemplate;
+
     @Mock
     private ProcessService processService;
 
@@ -47,6 +62,9 @@ public class RideEventsMessageListenerTest {
     @Mock
     private RideDao rideDao;
 
+    @Mock
+    private MessageDeduplicator messageDeduplicator;
+
     @Captor
     private ArgumentCaptor<Ride> rideCaptor;
 
@@ -64,15 +82,44 @@ public class RideEventsMessageListenerTest {
 
     private String processId = "dispatch";
 
+    @Mock
+    private ActiveRideRegistry activeRideRegistry;
+
+    @Mock
+    private RideProjection rideProjection;
+
+    @Mock
+    private MessageSenderWorkItemHandler messageSender;
+
+    private ProcessInstanceIdCache processInstanceIdCache;
+
+    private MessageDeserializer deserializer = new MessageDeserializer(new MessageDecoder());
+
     @Before
     public void init() {
         initMocks(this);
+        dispatcher = new MessageDispatcher();
+        setField(dispatcher, null, ptm, PlatformTransactionManager.class);
+        setField(dispatcher, null, messageDeduplicator, MessageDeduplicator.class);
+        setField(dispatcher, null, kafkaTemplate, KafkaTemplate.class);
+        setField(dispatcher, null, new SimpleMeterRegistry(), MeterRegistry.class);
+        dispatcher.init();
         messageListener = new RideEventsMessageListener();
-        setField(messageListener, null, ptm, PlatformTransactionManager.class);
+        setField(messageListener, null, dispatcher, MessageDispatcher.class);
         setField(messageListener, null, processService, ProcessService.class);
+        processInstanceIdCache = new ProcessInstanceIdCache();
+        setField(processInstanceIdCache, null, processService, ProcessService.class);
+        setField(processInstanceIdCache, null, activeRideRegistry, ActiveRideRegistry.class);
+        setField(processInstanceIdCache, "cacheSize", 10, int.class);
+        processInstanceIdCache.init();
+        setField(messageListener, null, processInstanceIdCache, ProcessInstanceIdCache.class);
+        setField(messageListener, null, activeRideRegistry, ActiveRideRegistry.class);
+        setField(messageListener, null, rideProjection, RideProjection.class);
+        setField(messageListener, null, messageSender, MessageSenderWorkItemHandler.class);
         setField(messageListener, "processId", processId, String.class);
         setField(messageListener, null, rideDao, RideDao.class);
         setField(messageListener, "assignDriverExpireDuration", "5M", String.class);
+        messageListener.init();
         when(ptm.getTransaction(any())).thenReturn(transactionStatus);
         when(processService.startProcess(any(), any(), any(), any())).thenReturn(100L);
     }
@@ -89,8 +136,9 @@ public class RideEventsMessageListenerTest {
                 "\"pickup\": \"pickup\", \"destination\": \"destination\"," +
                 "\"price\": 25.0, \"passengerId\": \"passenger\"}}";
 
-        messageListener.processMessage(json, "ride-1234", "mytopic", 1);
+        dispatcher.processMessage(deserialize(json), "ride-1234", "mytopic", 1);
 
+        verify(messageDeduplicator).processed("messageId");
         verify(rideDao).create(rideCaptor.capture());
         Ride ride = rideCaptor.getValue();
         assertThat(ride, notNullValue());
@@ -100,6 +148,8 @@ public class RideEventsMessageListenerTest {
         assertThat(ride.getPassengerId(), equalTo("passenger"));
         assertThat(ride.getPrice(), equalTo(new BigDecimal("25.0")));
         assertThat(ride.getStatus(), equalTo(Ride.Status.REQUESTED));
+        verify(activeRideRegistry).updateStatus("ride123", Ride.Status.REQUESTED);
+        verify(rideProjection).created(ride);
 
         verify(processService).startProcess(any(), processIdCaptor.capture(), correlationKeyCaptor.capture(), parametersCaptor.capture());
         assertThat(processIdCaptor.getValue(), equalTo(processId));
@@ -112,6 +162,67 @@ public class RideEventsMessageListenerTest {
         assertThat(parameters.get("assign_driver_expire_duration"), equalTo("5M"));
     }
 
+    @Test
+    public void testProcessDuplicateRideRequestedEventMessage() {
+
+        String json = "{\"messageType\":\"RideRequestedEvent\"," +
+                "\"id\":\"messageId\"," +
+                "\"payload\":{\"rideId\":\"ride123\"," +
+                "\"pickup\": \"pickup\", \"destination\": \"destination\"," +
+                "\"price\": 25.0, \"passengerId\": \"passenger\"}}";
+        when(messageDeduplicator.isDuplicate("messageId")).thenReturn(true);
+
+        dispatcher.processMessage(deserialize(json), "ride-1234", "mytopic", 1);
+
+        verify(rideDao, never()).create(any());
+        verify(processService, never()).startProcess(any(), any(), any(), any());
+        verify(ptm, never()).getTransaction(any());
+    }
+
+    @Test
+    public void testRedeliveredRideRequestedEventSendsAssignDriverCommandAgain() {
+
+        String json = "{\"messageType\":\"RideRequestedEvent\"," +
+                "\"id\":\"messageId\"," +
+                "\"traceId\":\"trace\"," +
+                "\"payload\":{\"rideId\":\"ride123\"," +
+                "\"pickup\": \"pickup\", \"destination\": \"destination\"," +
+                "\"price\": 25.0, \"passengerId\": \"passenger\"}}";
+        when(messageDeduplicator.isDuplicate("messageId")).thenReturn(true);
+        when(kafkaTemplate.inTransaction()).thenReturn(true);
+        Ride ride = new Ride();
+        ride.setRideId("ride123");
+        ride.setStatus(Ride.Status.REQUESTED);
+        when(rideDao.findByRideId("ride123")).thenReturn(ride);
+
+        dispatcher.processMessage(deserialize(json), "ride-1234", "mytopic", 1);
+
+        verify(rideDao, never()).create(any());
+        verify(processService, never()).startProcess(any(), any(), any(), any());
+        verify(messageSender).send("AssignDriverCommand", "send.destination.assign_driver_command", "ride123", "trace");
+        verify(ptm).commit(transactionStatus);
+    }
+
+    @Test
+    public void testRedeliveredRideRequestedEventOfAssignedRide() {
+
+        String json = "{\"messageType\":\"RideRequestedEvent\"," +
+                "\"id\":\"messageId\"," +
+                "\"payload\":{\"rideId\":\"ride123\"," +
+                "\"pickup\": \"pickup\", \"destination\": \"destination\"," +
+                "\"price\": 25.0, \"passengerId\": \"passenger\"}}";
+        when(messageDeduplicator.isDuplicate("messageId")).thenReturn(true);
+        when(kafkaTemplate.inTransaction()).thenReturn(true);
+        Ride ride = new Ride();
+        ride.setRideId("ride123");
+        ride.setStatus(Ride.Status.DRIVER_ASSIGNED);
+        when(rideDao.findByRideId("ride123")).thenReturn(ride);
+
+        dispatcher.processMessage(deserialize(json), "ride-1234", "mytopic", 1);
+
+        verify(messageSender, never()).send(any(), any(), any(), any());
+    }
+
     @Test
     public void testProcessRideStartedMessage() {
 
@@ -133,7 +244,7 @@ public class RideEventsMessageListenerTest {
         when(processService.getProcessInstance(any(CorrelationKey.class))).thenReturn(processInstance);
         when(processInstance.getId()).thenReturn(id);
 
-        messageListener.processMessage(json, "ride-1234", "mytopic", 1);
+        dispatcher.processMessage(deserialize(json), "ride-1234", "mytopic", 1);
 
         verify(processService).getProcessInstance(correlationKeyCaptor.capture());
         CorrelationKey correlationKey = correlationKeyCaptor.getValue();
@@ -143,6 +254,26 @@ public class RideEventsMessageListenerTest {
         assertThat(signal, equalTo("RideStarted"));
     }
 
+    @Test
+    public void testProcessRideStartedMessageAfterRideRequested() {
+
+        String requested = "{\"messageType\":\"RideRequestedEvent\"," +
+                "\"id\":\"messageId1\"," +
+                "\"payload\":{\"rideId\":\"ride-1234\"," +
+                "\"pickup\": \"pickup\", \"destination\": \"destination\"," +
+                "\"price\": 25.0, \"passengerId\": \"passenger\"}}";
+        String started = "{\"messageType\":\"RideStartedEvent\"," +
+                "\"id\":\"messageId2\"," +
+                "\"payload\":{\"rideId\":\"ride-1234\"," +
+                "\"timestamp\": 1534336579807}}";
+
+        dispatcher.processMessage(deserialize(requested), "ride-1234", "mytopic", 1);
+        dispatcher.processMessage(deserialize(started), "ride-1234", "mytopic", 1);
+
+        verify(processService, never()).getProcessInstance(any(CorrelationKey.class));
+        verify(processService).signalProcessInstance(eq(100L), eq("RideStarted"), isNull());
+    }
+
     @Test
     public void testProcessRideSEndedMessage() {
 
@@ -164,7 +295,7 @@ public class RideEventsMessageListenerTest {
         when(processService.getProcessInstance(any(CorrelationKey.class))).thenReturn(processInstance);
         when(processInstance.getId()).thenReturn(id);
 
-        messageListener.processMessage(json, "ride-1234", "mytopic", 1);
+        dispatcher.processMessage(deserialize(json), "ride-1234", "mytopic", 1);
 
         verify(processService).getProcessInstance(correlationKeyCaptor.capture());
         CorrelationKey correlationKey = correlationKeyCaptor.getValue();
@@ -186,21 +317,27 @@ public class RideEventsMessageListenerTest {
                 "\"pickup\": \"pickup\", \"destination\": \"destination\"," +
                 "\"price\": 25.0, \"passengerId\": \"passenger\"}}";
 
-        messageListener.processMessage(json, "ride-1234", "mytopic", 1);
+        dispatcher.processMessage(deserialize(json), "ride-1234", "mytopic", 1);
 
         verify(processService, never()).startProcess(any(), any(), any(), any());
 
         verify(rideDao, never()).create(any());
     }
 
-    @Test
+    @Test(expected = IllegalStateException.class)
     public void testProcessMessageWrongMessage() {
         String json = "{\"field1\":\"value1\"," +
                 "\"field2\":\"value2\"}";
 
-        messageListener.processMessage(json, "ride-1234", "mytopic", 1);
+        try {
+            dispatcher.processMessage(deserialize(json), "ride-1234", "mytopic", 1);
+        } finally {
+            verify(processService, never()).startProcess(any(), any(), any(), any());
+            verify(rideDao, never()).create(any());
+        }
+    }
 
-        verify(processService, never()).startProcess(any(), any(), any(), any());
-        verify(rideDao, never()).create(any());
+    private Message<?> deserialize(String json) {
+        return deserializer.deserialize("mytopic", json.getBytes(StandardCharsets.UTF_8));
     }
 }
@@ -0,0 +1,139 @@
+package com.acme.ride.dispatch.message.producer;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+import static org.springframework.test.util.ReflectionTestUtils.setField;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.acme.ride.dispatch.dao.OutboxMessageDao;
+import com.acme.ride.dispatch.entity.OutboxMessage;
+import com.acme.ride.dispatch.message.model.Message;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.SendResult;
+import org.springframework.kafka.support.converter.AbstractJavaTypeMapper;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.concurrent.SettableListenableFuture;
+
+public class OutboxRelayTest {
+
+    @Mock
+    private OutboxMessageDao outboxMessageDao;
+
+    @Mock
+    private KafkaTemplate<String, byte[]> kafkaTemplate;
+
+    @Mock
+    private PlatformTransactionManager ptm;
+
+    @Mock
+    private TransactionStatus transactionStatus;
+
+    @Captor
+    private ArgumentCaptor<ProducerRecord<String, byte[]>> producerRecordCaptor;
+
+    @Captor
+    private ArgumentCaptor<List<Long>> idsCaptor;
+
+    private MeterRegistry meterRegistry;
+
+    private OutboxRelay relay;
+
+    private List<SettableListenableFuture<SendResult<String, byte[]>>> futures;
+
+    @Before
+    public void init() {
+        initMocks(this);
+        meterRegistry = new SimpleMeterRegistry();
+        futures = new ArrayList<>();
+        when(ptm.getTransaction(any())).thenReturn(transactionStatus);
+        when(kafkaTemplate.send(any(ProducerRecord.class))).thenAnswer(invocation -> {
+            SettableListenableFuture<SendResult<String, byte[]>> future = new SettableListenableFuture<>();
+            future.set(null);
+            futures.add(future);
+            return future;
+        });
+        relay = new OutboxRelay(outboxMessageDao, kafkaTemplate, new TransactionTemplate(ptm), 2, 100, 1000, meterRegistry);
+    }
+
+    @Test
+    public void testRelayInOrderAndDeleteSent() {
+        when(outboxMessageDao.lockUnsent(2)).thenReturn(Arrays.asList(outboxMessage(1, "ride-1"), outboxMessage(2, "ride-2")),
+                Collections.singletonList(outboxMessage(3, "ride-1")));
+
+        relay.relay();
+
+        verify(kafkaTemplate, times(3)).send(producerRecordCaptor.capture());
+        List<ProducerRecord<String, byte[]>> records = producerRecordCaptor.getAllValues();
+        assertThat(records.get(0).key(), equalTo("ride-1"));
+        assertThat(records.get(1).key(), equalTo("ride-2"));
+        assertThat(records.get(2).key(), equalTo("ride-1"));
+        assertThat(records.get(0).topic(), equalTo("topic-driver-command"));
+        assertThat(new String(records.get(0).value(), StandardCharsets.UTF_8), equalTo("{\"id\":1}"));
+        assertThat(new String(records.get(0).headers().lastHeader(AbstractJavaTypeMapper.DEFAULT_CLASSID_FIELD_NAME).value(),
+                StandardCharsets.UTF_8), equalTo(Message.class.getName()));
+        verify(outboxMessageDao, times(2)).deleteSent(idsCaptor.capture());
+        assertThat(idsCaptor.getAllValues().get(0), equalTo(Arrays.asList(1L, 2L)));
+        assertThat(idsCaptor.getAllValues().get(1), equalTo(Collections.singletonList(3L)));
+        verify(kafkaTemplate, times(2)).flush();
+        verify(ptm, times(2)).commit(transactionStatus);
+        assertThat(meterRegistry.get("dispatch.outbox.sent").counter().count(), equalTo(3.0));
+    }
+
+    @Test
+    public void testNothingToRelay() {
+        when(outboxMessageDao.lockUnsent(anyInt())).thenReturn(Collections.emptyList());
+
+        relay.relay();
+
+        verify(kafkaTemplate, never()).send(any(ProducerRecord.class));
+        verify(outboxMessageDao, never()).deleteSent(anyList());
+    }
+
+    @Test
+    public void testFailedSendRollsBack() {
+        when(outboxMessageDao.lockUnsent(2)).thenReturn(Arrays.asList(outboxMessage(1, "ride-1"), outboxMessage(2, "ride-2")));
+        when(kafkaTemplate.send(any(ProducerRecord.class))).thenAnswer(invocation -> {
+            SettableListenableFuture<SendResult<String, byte[]>> future = new SettableListenableFuture<>();
+            future.setException(new IllegalStateException("broker down"));
+            return future;
+        });
+
+        relay.relay();
+
+        verify(outboxMessageDao, never()).deleteSent(anyList());
+        verify(ptm).rollback(transactionStatus);
+        verify(ptm, never()).commit(eq(transactionStatus));
+        assertThat(meterRegistry.get("dispatch.outbox.failures").counter().count(), equalTo(1.0));
+    }
+
+    private OutboxMessage outboxMessage(long id, String rideId) {
+        OutboxMessage outboxMessage = new OutboxMessage("topic-driver-command", rideId, "AssignDriverCommand",
+                ("{\"id\":" + id + "}").getBytes(StandardCharsets.UTF_8));
+        setField(outboxMessage, "id", id);
+        return outboxMessage;
+    }
+}
@@ -0,0 +1,119 @@
+package com.acme.ride.dispatch.message.serialization;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+
+import com.acme.ride.dispatch.message.model.DriverAssignedEvent;
+import com.acme.ride.dispatch.message.model.Message;
+import com.acme.ride.dispatch.message.model.RideRequestedEvent;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MessageDecoderTest {
+
+    private MessageDecoder decoder;
+
+    @Before
+    public void init() {
+        decoder = new MessageDecoder();
+    }
+
+    @Test
+    public void testDecodeMessage() throws Exception {
+        String json = "{\"messageType\":\"RideRequestedEvent\"," +
+                "\"id\":\"messageId\"," +
+                "\"traceId\":\"trace\"," +
+                "\"sender\":\"messageSender\"," +
+                "\"timestamp\":1521148332397," +
+                "\"payload\":{\"rideId\":\"ride123\"," +
+                "\"pickup\": \"pickup\", \"destination\": \"destination\"," +
+                "\"price\": 25.0, \"passengerId\": \"passenger\"}}";
+
+        Message<?> message = decoder.decode(json.getBytes(StandardCharsets.UTF_8));
+
+        assertThat(message, notNullValue());
+        assertThat(message.getMessageType(), equalTo("RideRequestedEvent"));
+        assertThat(message.getId(), equalTo("messageId"));
+        assertThat(message.getTraceId(), equalTo("trace"));
+        assertThat(message.getSender(), equalTo("messageSender"));
+        assertThat(message.getTimestamp(), equalTo(new Date(1521148332397L)));
+        assertThat(message.getPayload(), instanceOf(RideRequestedEvent.class));
+        RideRequestedEvent payload = (RideRequestedEvent) message.getPayload();
+        assertThat(payload.getRideId(), equalTo("ride123"));
+        assertThat(payload.getPickup(), equalTo("pickup"));
+        assertThat(payload.getDestination(), equalTo("destination"));
+        assertThat(payload.getPrice(), equalTo(new BigDecimal("25.0")));
+        assertThat(payload.getPassengerId(), equalTo("passenger"));
+    }
+
+    @Test
+    public void testDecodeMessageWithoutIdAndTimestamp() throws Exception {
+        String json = "{\"messageType\":\"DriverAssignedEvent\"," +
+                "\"payload\":{\"rideId\":\"ride-1234\"," +
+                "\"driverId\": \"driver\"}}";
+
+        Message<?> message = decoder.decode(json.getBytes(StandardCharsets.UTF_8));
+
+        assertThat(message.getMessageType(), equalTo("DriverAssignedEvent"));
+        assertThat(message.getId(), nullValue());
+        assertThat(message.getTimestamp(), nullValue());
+        assertThat(message.getPayload(), instanceOf(DriverAssignedEvent.class));
+    }
+
+    @Test
+    public void testDecodeMessagePayloadBeforeMessageType() throws Exception {
+        String json = "{\"id\":\"messageId\"," +
+                "\"payload\":{\"rideId\":\"ride-1234\"," +
+                "\"driverId\": \"driver\"}," +
+                "\"messageType\":\"DriverAssignedEvent\"," +
+                "\"traceId\":\"trace\"}";
+
+        Message<?> message = decoder.decode(json.getBytes(StandardCharsets.UTF_8));
+
+        assertThat(message.getMessageType(), equalTo("DriverAssignedEvent"));
+        assertThat(message.getId(), equalTo("messageId"));
+        assertThat(message.getTraceId(), equalTo("trace"));
+        assertThat(message.getPayload(), instanceOf(DriverAssignedEvent.class));
+        assertThat(((DriverAssignedEvent) message.getPayload()).getDriverId(), equalTo("driver"));
+    }
+
+    @Test
+    public void testDecodeMessageTypeIgnoresCase() throws Exception {
+        String json = "{\"messageType\":\"driverassignedevent\"," +
+                "\"id\":\"messageId\"," +
+                "\"payload\":{\"rideId\":\"ride-1234\"," +
+                "\"driverId\": \"driver\"}}";
+
+        Message<?> message = decoder.decode(json.getBytes(StandardCharsets.UTF_8));
+
+        assertThat(message.getMessageType(), equalTo("DriverAssignedEvent"));
+        assertThat(message.getPayload(), instanceOf(DriverAssignedEvent.class));
+    }
+
+    @Test
+    public void testDecodeMessageUnknownMessageType() throws Exception {
+        String json = "{\"messageType\":\"WrongType\"," +
+                "\"id\":\"messageId\"," +
+                "\"payload\":{\"rideId\":\"ride-1234\"}}";
+
+        Message<?> message = decoder.decode(json.getBytes(StandardCharsets.UTF_8));
+
+        assertThat(message.getMessageType(), equalTo("WrongType"));
+        assertThat(message.getPayload(), nullValue());
+    }
+
+    @Test
+    public void testDecodeMessageWithoutMessageType() throws Exception {
+        String json = "{\"field1\":\"value1\"," +
+                "\"field2\":\"value2\"}";
+
+        assertThat(decoder.decode(json.getBytes(StandardCharsets.UTF_8)), nullValue());
+    }
+}
@@ -0,0 +1,69 @@
+package com.acme.ride.dispatch.message.serialization;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.nio.charset.StandardCharsets;
+
+import com.acme.ride.dispatch.message.model.Message;
+import com.acme.ride.dispatch.message.model.RideStartedEvent;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MessageDeserializerTest {
+
+    private MessageDeserializer deserializer;
+
+    @Before
+    public void init() {
+        deserializer = new MessageDeserializer(new MessageDecoder());
+    }
+
+    @Test
+    public void testDeserialize() {
+        String json = "{\"messageType\":\"RideStartedEvent\"," +
+                "\"id\":\"messageId\"," +
+                "\"traceId\":\"trace\"," +
+                "\"sender\":\"messageSender\"," +
+                "\"timestamp\":1534336579807," +
+                "\"payload\":{\"rideId\":\"ride-1234\"," +
+                "\"timestamp\": 1534336579807}}";
+
+        Message<?> message = deserializer.deserialize("mytopic", json.getBytes(StandardCharsets.UTF_8));
+
+        assertThat(message.getMessageType(), equalTo("RideStartedEvent"));
+        assertThat(message.getPayload(), instanceOf(RideStartedEvent.class));
+        assertThat(((RideStartedEvent) message.getPayload()).getRideId(), equalTo("ride-1234"));
+    }
+
+    @Test
+    public void testDeserializeNull() {
+        assertThat(deserializer.deserialize("mytopic", null), nullValue());
+    }
+
+    @Test
+    public void testDeserializeMalformedMessage() {
+        byte[] data = "{\"messageType\":\"RideStartedEvent\",\"payload\":{\"rideId\":".getBytes(StandardCharsets.UTF_8);
+
+        Message<?> message = deserializer.deserialize("mytopic", data);
+
+        assertThat(message, notNullValue());
+        assertThat(message.getPayload(), instanceOf(DecodeFailure.class));
+        DecodeFailure failure = (DecodeFailure) message.getPayload();
+        assertThat(failure.getData(), equalTo(data));
+        assertThat(failure.getReason(), notNullValue());
+    }
+
+    @Test
+    public void testDeserializeMessageWithoutMessageType() {
+        String json = "{\"field1\":\"value1\"," +
+                "\"field2\":\"value2\"}";
+
+        Message<?> message = deserializer.deserialize("mytopic", json.getBytes(StandardCharsets.UTF_8));
+
+        assertThat(message.getPayload(), instanceOf(DecodeFailure.class));
+    }
+}
@@ -0,0 +1,69 @@
+package com.acme.ride.dispatch.message.serialization;
+
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+import com.acme.ride.dispatch.entity.Ride;
+import com.acme.ride.dispatch.message.model.AssignDriverCommand;
+import com.acme.ride.dispatch.message.model.HandlePaymentCommand;
+import com.acme.ride.dispatch.message.model.Message;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.kafka.support.serializer.JsonSerializer;
+
+/**
+ * Compares the throughput and the bytes allocated per message of {@link MessageSerializer} and Spring's
+ * <code>JsonSerializer</code>. Run with <code>-Ddispatch.benchmark=true</code>.
+ */
+public class MessageSerializerBenchmarkIT {
+
+    private static final Logger log = LoggerFactory.getLogger(MessageSerializerBenchmarkIT.class);
+
+    private int messages = Integer.getInteger("dispatch.benchmark.messages", 1000000);
+
+    @Test
+    public void benchmarkSerializers() {
+        assumeTrue(Boolean.getBoolean("dispatch.benchmark"));
+
+        Ride ride = new Ride();
+        ride.setRideId("5f5d1b34-3b1e-4d4a-9f5a-1d0f2d6e3c7a");
+        ride.setPickup("1 Main Street, Springfield");
+        ride.setDestination("742 Evergreen Terrace, Springfield");
+        ride.setPassengerId("passenger-1234");
+        ride.setPrice(new BigDecimal("25.50"));
+        List<Message<?>> input = new ArrayList<>();
+        input.add(new Message.Builder<Object>("AssignDriverCommand", "DispatchService", AssignDriverCommand.build(ride)).traceId("trace").build());
+        input.add(new Message.Builder<Object>("HandlePaymentCommand", "DispatchService", HandlePaymentCommand.build(ride)).traceId("trace").build());
+
+        MessageSerializer messageSerializer = new MessageSerializer();
+        JsonSerializer<Message<?>> jsonSerializer = new JsonSerializer<>();
+        List<String> results = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            results.clear();
+            results.add(run("JsonSerializer", input, message -> jsonSerializer.serialize("topic", message)));
+            results.add(run("MessageSerializer", input, message -> messageSerializer.serialize("topic", message)));
+        }
+        results.forEach(log::info);
+    }
+
+    private String run(String name, List<Message<?>> input, Function<Message<?>, byte[]> serializer) {
+        com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long size = 0;
+        long allocated = threadMXBean.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        for (int i = 0; i < messages; i++) {
+            size += serializer.apply(input.get(i % input.size())).length;
+        }
+        long elapsed = System.nanoTime() - start;
+        allocated = threadMXBean.getThreadAllocatedBytes(threadId) - allocated;
+        return String.format("%-20s messages=%d messages/sec=%.0f bytes allocated/message=%d output bytes/message=%d", name, messages,
+                messages / (elapsed / 1e9), allocated / messages, size / messages);
+    }
+}
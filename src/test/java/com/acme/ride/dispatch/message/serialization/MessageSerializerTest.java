@@ -0,0 +1,136 @@
+package com.acme.ride.dispatch.message.serialization;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+
+import com.acme.ride.dispatch.entity.Ride;
+import com.acme.ride.dispatch.message.model.AssignDriverCommand;
+import com.acme.ride.dispatch.message.model.HandlePaymentCommand;
+import com.acme.ride.dispatch.message.model.Message;
+import com.acme.ride.dispatch.message.model.RideStartedEvent;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.kafka.support.converter.AbstractJavaTypeMapper;
+import org.springframework.kafka.support.serializer.JsonSerializer;
+
+public class MessageSerializerTest {
+
+    private MessageSerializer serializer;
+
+    private JsonSerializer<Message<?>> jsonSerializer;
+
+    @Before
+    public void init() {
+        serializer = new MessageSerializer();
+        jsonSerializer = new JsonSerializer<>();
+    }
+
+    @Test
+    public void testAssignDriverCommand() {
+        Message<?> message = message("AssignDriverCommand", AssignDriverCommand.build(ride("ride-1234", new BigDecimal("25.50"))));
+
+        assertSameAsJsonSerializer(message);
+    }
+
+    @Test
+    public void testHandlePaymentCommand() {
+        Message<?> message = message("HandlePaymentCommand", HandlePaymentCommand.build(ride("ride-1234", new BigDecimal("1E+3"))));
+
+        assertSameAsJsonSerializer(message);
+    }
+
+    @Test
+    public void testNullFields() {
+        Message<?> message = new Message.Builder<Object>("AssignDriverCommand", null, AssignDriverCommand.build(new Ride()))
+                .id(null).timestamp(null).build();
+
+        assertSameAsJsonSerializer(message);
+    }
+
+    @Test
+    public void testEscapedAndNonAsciiCharacters() {
+        Ride ride = ride("ride-\"12\\34\"", new BigDecimal("-0.000001"));
+        ride.setPickup("Rue de l'\u00c9glise\n\t\u0001 / \u6771\u4eac \ud83d\ude95");
+        ride.setDestination("\u007f\u0080\u2028");
+        Message<?> message = new Message.Builder<Object>("AssignDriverCommand", "DispatchService", AssignDriverCommand.build(ride))
+                .traceId("</script>").build();
+
+        assertSameAsJsonSerializer(message);
+    }
+
+    @Test
+    public void testDecodeFailureIsWrittenAsReceived() {
+        byte[] data = "{\"messageType\":".getBytes(StandardCharsets.UTF_8);
+        Message<?> message = new Message.Builder<>(null, null, new DecodeFailure(data, "failure")).id(null).timestamp(null).build();
+        Headers headers = new RecordHeaders();
+
+        assertThat(serializer.serialize("mytopic", headers, message), equalTo(data));
+        assertThat(headers.lastHeader(AbstractJavaTypeMapper.DEFAULT_CLASSID_FIELD_NAME), nullValue());
+    }
+
+    @Test
+    public void testMessageLargerThanBuffer() {
+        StringBuilder pickup = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            pickup.append("pickup ").append(i).append(' ');
+        }
+        Ride ride = ride("ride-1234", new BigDecimal("25.50"));
+        ride.setPickup(pickup.toString());
+
+        assertSameAsJsonSerializer(message("AssignDriverCommand", AssignDriverCommand.build(ride)));
+        assertSameAsJsonSerializer(message("HandlePaymentCommand", HandlePaymentCommand.build(ride)));
+    }
+
+    @Test
+    public void testOtherPayload() {
+        RideStartedEvent event = new RideStartedEvent();
+        event.setRideId("ride-1234");
+        event.setTimestamp(new Date());
+
+        assertSameAsJsonSerializer(message("RideStartedEvent", event));
+        assertSameAsJsonSerializer(message("RideStartedEvent", null));
+    }
+
+    @Test
+    public void testTypeHeader() {
+        Message<?> message = message("AssignDriverCommand", AssignDriverCommand.build(ride("ride-1234", new BigDecimal("25.50"))));
+        Headers headers = new RecordHeaders();
+        Headers jsonHeaders = new RecordHeaders();
+
+        assertThat(serializer.serialize("topic", headers, message), equalTo(jsonSerializer.serialize("topic", jsonHeaders, message)));
+        assertThat(headers, equalTo(jsonHeaders));
+    }
+
+    @Test
+    public void testSerializeNull() {
+        assertThat(serializer.serialize("topic", null), nullValue());
+        assertThat(serializer.serialize("topic", new RecordHeaders(), null), nullValue());
+    }
+
+    private void assertSameAsJsonSerializer(Message<?> message) {
+        assertThat(new String(serializer.serialize("topic", message), StandardCharsets.UTF_8),
+                equalTo(new String(jsonSerializer.serialize("topic", message), StandardCharsets.UTF_8)));
+        assertThat(serializer.serialize("topic", message), equalTo(jsonSerializer.serialize("topic", message)));
+    }
+
+    private Message<?> message(String messageType, Object payload) {
+        return new Message.Builder<>(messageType, "DispatchService", payload).traceId("trace").build();
+    }
+
+    private Ride ride(String rideId, BigDecimal price) {
+        Ride ride = new Ride();
+        ride.setRideId(rideId);
+        ride.setPickup("pickup");
+        ride.setDestination("destination");
+        ride.setPassengerId("passenger");
+        ride.setPrice(price);
+        return ride;
+    }
+}
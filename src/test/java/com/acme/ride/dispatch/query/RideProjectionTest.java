@@ -0,0 +1,171 @@
+package com.acme.ride.dispatch.query;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+import static org.springframework.test.util.ReflectionTestUtils.setField;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.acme.ride.dispatch.dao.RideDao;
+import com.acme.ride.dispatch.dao.RideQuery;
+import com.acme.ride.dispatch.entity.Ride;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+public class RideProjectionTest {
+
+    @Mock
+    private RideDao rideDao;
+
+    @Mock
+    private PlatformTransactionManager ptm;
+
+    @Mock
+    private TransactionStatus transactionStatus;
+
+    @Captor
+    private ArgumentCaptor<RideQuery> queryCaptor;
+
+    private SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private RideProjection projection;
+
+    @Before
+    public void init() {
+        initMocks(this);
+        projection = new RideProjection();
+        setField(projection, null, rideDao, RideDao.class);
+        setField(projection, null, ptm, PlatformTransactionManager.class);
+        setField(projection, null, meterRegistry, MeterRegistry.class);
+        setField(projection, "capacity", 3, int.class);
+        setField(projection, "ttl", 60000L, long.class);
+        projection.init();
+        when(ptm.getTransaction(any())).thenReturn(transactionStatus);
+    }
+
+    @After
+    public void cleanup() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    public void testRideChanges() {
+        projection.created(ride("ride-1", Ride.Status.REQUESTED));
+        projection.updateDriver("ride-1", "driver-1");
+        projection.updateStatus("ride-1", Ride.Status.DRIVER_ASSIGNED);
+
+        RideView view = projection.get("ride-1");
+
+        assertThat(view.getRideId(), equalTo("ride-1"));
+        assertThat(view.getStatus(), equalTo("driver_assigned"));
+        assertThat(view.getPassengerId(), equalTo("passenger"));
+        assertThat(view.getDriverId(), equalTo("driver-1"));
+        verify(rideDao, never()).findByRideId(any());
+        assertThat(meterRegistry.counter("dispatch.projection.lookups", "result", "hit").count(), equalTo(1.0));
+    }
+
+    @Test
+    public void testChangesAreAppliedAfterCommit() {
+        TransactionSynchronizationManager.initSynchronization();
+
+        projection.created(ride("ride-1", Ride.Status.REQUESTED));
+
+        assertThat(projection.size(), equalTo(0));
+        TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+        assertThat(projection.size(), equalTo(1));
+    }
+
+    @Test
+    public void testMissIsReadFromDatabase() {
+        Ride ride = ride("ride-1", Ride.Status.STARTED);
+        when(rideDao.findByRideId("ride-1")).thenReturn(ride);
+
+        RideView view = projection.get("ride-1");
+
+        assertThat(view.getStatus(), equalTo("started"));
+        assertThat(view.etag(), equalTo(RideView.of(ride).etag()));
+        assertThat(projection.get("ride-2"), nullValue());
+        verify(ptm, times(2)).commit(transactionStatus);
+        assertThat(projection.size(), equalTo(0));
+        assertThat(meterRegistry.counter("dispatch.projection.lookups", "result", "miss").count(), equalTo(2.0));
+    }
+
+    @Test
+    public void testChangeOfUnknownRideIsIgnored() {
+        projection.updateStatus("ride-1", Ride.Status.STARTED);
+
+        assertThat(projection.size(), equalTo(0));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedRideIsEvicted() {
+        projection.created(ride("ride-1", Ride.Status.REQUESTED));
+        projection.created(ride("ride-2", Ride.Status.REQUESTED));
+        projection.created(ride("ride-3", Ride.Status.REQUESTED));
+        projection.updateStatus("ride-1", Ride.Status.STARTED);
+
+        projection.created(ride("ride-4", Ride.Status.REQUESTED));
+
+        assertThat(projection.size(), equalTo(3));
+        projection.get("ride-2");
+        verify(rideDao).findByRideId("ride-2");
+    }
+
+    @Test
+    public void testFindByStatusIsReadFromDatabase() {
+        projection.created(ride("ride-1", Ride.Status.REQUESTED));
+        when(rideDao.findPage(any(), eq(5L), eq(10))).thenReturn(Arrays.asList(ride("ride-2", Ride.Status.REQUESTED),
+                ride("ride-3", Ride.Status.REQUESTED)));
+
+        List<RideView> views = projection.findByStatus(Ride.Status.REQUESTED, 5, 10);
+
+        assertThat(views.size(), equalTo(2));
+        assertThat(views.get(0).getRideId(), equalTo("ride-2"));
+        assertThat(views.get(1).getRideId(), equalTo("ride-3"));
+        verify(rideDao).findPage(queryCaptor.capture(), eq(5L), eq(10));
+        assertThat(queryCaptor.getValue().getStatusCodes(), equalTo(Collections.singletonList(Ride.Status.REQUESTED.statusCode())));
+        verify(ptm).commit(transactionStatus);
+    }
+
+    @Test
+    public void testExpiredViewIsReadFromDatabase() {
+        setField(projection, "ttl", 0L, long.class);
+        projection.created(ride("ride-1", Ride.Status.REQUESTED));
+        when(rideDao.findByRideId("ride-1")).thenReturn(ride("ride-1", Ride.Status.STARTED));
+
+        RideView view = projection.get("ride-1");
+
+        assertThat(view.getStatus(), equalTo("started"));
+        assertThat(projection.size(), equalTo(0));
+    }
+
+    private Ride ride(String rideId, Ride.Status status) {
+        Ride ride = new Ride();
+        ride.setRideId(rideId);
+        ride.setPassengerId("passenger");
+        ride.setStatus(status);
+        return ride;
+    }
+}
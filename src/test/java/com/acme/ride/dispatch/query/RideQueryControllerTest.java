@@ -0,0 +1,100 @@
+package com.acme.ride.dispatch.query;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+import static org.springframework.test.util.ReflectionTestUtils.setField;
+
+import java.util.Arrays;
+import java.util.List;
+
+import com.acme.ride.dispatch.entity.Ride;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+public class RideQueryControllerTest {
+
+    @Mock
+    private RideProjection rideProjection;
+
+    private RideQueryController controller;
+
+    @Before
+    public void init() {
+        initMocks(this);
+        controller = new RideQueryController();
+        setField(controller, null, rideProjection, RideProjection.class);
+        setField(controller, "maxResults", 100, int.class);
+    }
+
+    @Test
+    public void testGetRide() {
+        RideView view = new RideView(1, "ride-1", Ride.Status.STARTED, "passenger", "driver");
+        when(rideProjection.get("ride-1")).thenReturn(view);
+
+        ResponseEntity<RideView> response = controller.getRide("ride-1");
+
+        assertThat(response.getStatusCode(), equalTo(HttpStatus.OK));
+        assertThat(response.getBody(), sameInstance(view));
+        assertThat(response.getHeaders().getETag(), equalTo("\"" + view.etag() + "\""));
+    }
+
+    @Test
+    public void testETagChangesWithStatus() {
+        RideView view = new RideView(1, "ride-1", Ride.Status.STARTED, "passenger", "driver");
+
+        assertThat(view.withStatus(Ride.Status.ENDED).etag(), not(equalTo(view.etag())));
+        assertThat(view.withStatus(Ride.Status.STARTED).etag(), equalTo(view.etag()));
+    }
+
+    @Test
+    public void testGetRideNotFound() {
+        ResponseEntity<RideView> response = controller.getRide("ride-1");
+
+        assertThat(response.getStatusCode(), equalTo(HttpStatus.NOT_FOUND));
+    }
+
+    @Test
+    public void testFindRides() {
+        List<RideView> views = Arrays.asList(new RideView(1, "ride-1", Ride.Status.STARTED, "passenger", "driver"),
+                new RideView(2, "ride-2", Ride.Status.STARTED, "passenger", "driver"));
+        when(rideProjection.findByStatus(Ride.Status.STARTED, 0, 100)).thenReturn(views);
+
+        ResponseEntity<List<RideView>> response = controller.findRides("started", null, 500);
+
+        assertThat(response.getStatusCode(), equalTo(HttpStatus.OK));
+        assertThat(response.getBody(), sameInstance(views));
+        assertThat(response.getHeaders().getETag() != null, equalTo(true));
+        assertThat(response.getHeaders().containsKey(RideQueryController.NEXT_AFTER), equalTo(false));
+    }
+
+    @Test
+    public void testFindRidesFullPage() {
+        List<RideView> views = Arrays.asList(new RideView(7, "ride-1", Ride.Status.STARTED, "passenger", "driver"),
+                new RideView(9, "ride-2", Ride.Status.STARTED, "passenger", "driver"));
+        when(rideProjection.findByStatus(Ride.Status.STARTED, 5, 2)).thenReturn(views);
+
+        ResponseEntity<List<RideView>> response = controller.findRides("started", 5L, 2);
+
+        assertThat(response.getHeaders().getFirst(RideQueryController.NEXT_AFTER), equalTo("9"));
+    }
+
+    @Test
+    public void testFindRidesUnknownStatus() {
+        ResponseEntity<List<RideView>> response = controller.findRides("unknown", null, null);
+
+        assertThat(response.getStatusCode(), equalTo(HttpStatus.BAD_REQUEST));
+        verify(rideProjection, never()).findByStatus(any(), anyLong(), anyInt());
+    }
+}
@@ -0,0 +1,194 @@
+package com.acme.ride.dispatch.registry;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.springframework.test.util.ReflectionTestUtils.setField;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+import com.acme.ride.dispatch.entity.Ride;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+public class ActiveRideRegistryTest {
+
+    private SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private ActiveRideRegistry registry;
+
+    @After
+    public void cleanup() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    public void testRideIsRegistered() {
+        createRegistry(true, 100);
+        String rideId = UUID.randomUUID().toString();
+
+        registry.updateStatus(rideId, Ride.Status.REQUESTED);
+        registry.putProcessInstanceId(rideId, 100L);
+        registry.updateDriver(rideId, "driver-1");
+
+        ActiveRide ride = registry.get(rideId);
+        assertThat(ride.getRideId(), equalTo(rideId));
+        assertThat(ride.getStatus(), equalTo(Ride.Status.REQUESTED));
+        assertThat(ride.getProcessInstanceId(), equalTo(100L));
+        assertThat(ride.getDriverId(), equalTo("driver-1"));
+        assertThat(ride.getLastUpdate() > 0, equalTo(true));
+        assertThat(registry.size(), equalTo(1));
+        assertThat(meterRegistry.counter("dispatch.registry.lookups", "result", "hit").count(), equalTo(1.0));
+    }
+
+    @Test
+    public void testUnknownFieldsAreNull() {
+        createRegistry(true, 100);
+
+        registry.putProcessInstanceId("ride-1", 100L);
+
+        ActiveRide ride = registry.get("ride-1");
+        assertThat(ride.getStatus(), nullValue());
+        assertThat(ride.getDriverId(), nullValue());
+        assertThat(registry.get("ride-2"), nullValue());
+        assertThat(meterRegistry.counter("dispatch.registry.lookups", "result", "miss").count(), equalTo(1.0));
+    }
+
+    @Test
+    public void testTerminalStatusRemovesRide() {
+        createRegistry(true, 100);
+        registry.updateStatus("ride-1", Ride.Status.DRIVER_ASSIGNED);
+
+        registry.updateStatus("ride-1", Ride.Status.PASSENGER_CANCELED);
+
+        assertThat(registry.get("ride-1"), nullValue());
+        assertThat(registry.size(), equalTo(0));
+    }
+
+    @Test
+    public void testUpdateIsAppliedAfterCommit() {
+        createRegistry(true, 100);
+        TransactionSynchronizationManager.initSynchronization();
+
+        registry.updateStatus("ride-1", Ride.Status.STARTED);
+
+        assertThat(registry.get("ride-1"), nullValue());
+        TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+        assertThat(registry.get("ride-1").getStatus(), equalTo(Ride.Status.STARTED));
+    }
+
+    @Test
+    public void testLongIdsAreRejected() {
+        createRegistry(true, 100);
+        String longId = "ride-" + UUID.randomUUID().toString();
+        registry.updateStatus("ride-1", Ride.Status.DRIVER_ASSIGNED);
+
+        assertThat(registry.putProcessInstanceId(longId, 100L), equalTo(false));
+        registry.updateDriver("ride-1", longId);
+
+        assertThat(registry.get(longId), nullValue());
+        assertThat(registry.get("ride-1"), nullValue());
+        assertThat(meterRegistry.counter("dispatch.registry.rejected").count(), equalTo(2.0));
+    }
+
+    @Test
+    public void testFullRegistryRejectsRides() {
+        createRegistry(true, 16);
+        int registered = 0;
+        for (int i = 0; i < 1000; i++) {
+            if (registry.putProcessInstanceId("ride-" + i, i)) {
+                registered++;
+            }
+        }
+
+        assertThat(registered, equalTo(16));
+        assertThat(registry.size(), equalTo(16));
+        assertThat(meterRegistry.counter("dispatch.registry.rejected").count(), equalTo(984.0));
+    }
+
+    @Test
+    public void testRidesWhichNeverFinishExpire() throws Exception {
+        createRegistry(true, 160, 200);
+        for (int i = 0; i < 1000; i++) {
+            registry.updateStatus("stale-" + i, Ride.Status.REQUESTED);
+        }
+        assertThat(registry.size(), equalTo(160));
+        Thread.sleep(300);
+
+        assertThat(registry.get("stale-0"), nullValue());
+        List<String> registered = new ArrayList<>();
+        for (int i = 1; i <= 1000; i++) {
+            if (registry.putProcessInstanceId("ride-" + i, i)) {
+                registered.add("ride-" + i);
+            }
+        }
+
+        assertThat(registered.size(), equalTo(160));
+        assertThat(registry.size(), equalTo(160));
+        assertThat(meterRegistry.counter("dispatch.registry.expired").count(), equalTo(160.0));
+        for (String rideId : registered) {
+            assertThat(registry.getProcessInstanceId(rideId), notNullValue());
+        }
+    }
+
+    @Test
+    public void testRemovalKeepsCollidingRidesReachable() {
+        createRegistry(true, 2000);
+        Map<String, Long> expected = new HashMap<>();
+        List<String> rideIds = new ArrayList<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 20000; i++) {
+            if (!rideIds.isEmpty() && random.nextInt(3) == 0) {
+                String rideId = rideIds.remove(random.nextInt(rideIds.size()));
+                registry.remove(rideId);
+                expected.remove(rideId);
+            } else if (rideIds.size() < 1500) {
+                String rideId = "ride-" + i;
+                assertThat(registry.putProcessInstanceId(rideId, i), equalTo(true));
+                rideIds.add(rideId);
+                expected.put(rideId, (long) i);
+            }
+        }
+
+        assertThat(registry.size(), equalTo(expected.size()));
+        for (Map.Entry<String, Long> entry : expected.entrySet()) {
+            assertThat(registry.get(entry.getKey()), notNullValue());
+            assertThat(registry.getProcessInstanceId(entry.getKey()), equalTo(entry.getValue()));
+        }
+    }
+
+    @Test
+    public void testDisabledRegistry() {
+        createRegistry(false, 100);
+
+        registry.updateStatus("ride-1", Ride.Status.REQUESTED);
+
+        assertThat(registry.putProcessInstanceId("ride-1", 100L), equalTo(false));
+        assertThat(registry.get("ride-1"), nullValue());
+        assertThat(registry.size(), equalTo(0));
+    }
+
+    private void createRegistry(boolean enabled, int capacity) {
+        createRegistry(enabled, capacity, 3600000L);
+    }
+
+    private void createRegistry(boolean enabled, int capacity, long maxAge) {
+        registry = new ActiveRideRegistry();
+        setField(registry, "meterRegistry", meterRegistry);
+        setField(registry, "enabled", enabled);
+        setField(registry, "capacity", capacity);
+        setField(registry, "maxAge", maxAge);
+        registry.init();
+    }
+}
@@ -0,0 +1,152 @@
+package com.acme.ride.dispatch.retention;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+import static org.springframework.test.util.ReflectionTestUtils.setField;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import com.acme.ride.dispatch.dao.RetentionDao;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+
+public class RetentionJobTest {
+
+    @Mock
+    private RetentionDao retentionDao;
+
+    private SimpleMeterRegistry meterRegistry;
+
+    private RetentionJob job;
+
+    @Before
+    public void init() {
+        initMocks(this);
+        meterRegistry = new SimpleMeterRegistry();
+    }
+
+    @Test
+    public void testCompletedProcessInstancesAreArchivedInChunks() {
+        createJob(RetentionMode.ARCHIVE, 2);
+        when(retentionDao.countCompleted(any())).thenReturn(3L);
+        when(retentionDao.findCompleted(eq(0L), any(), eq(2))).thenReturn(Arrays.asList(4L, 7L));
+        when(retentionDao.findCompleted(eq(7L), any(), eq(2))).thenReturn(Collections.singletonList(9L));
+        when(retentionDao.archive(Arrays.asList(4L, 7L))).thenReturn(20);
+        when(retentionDao.archive(Collections.singletonList(9L))).thenReturn(10);
+
+        job.run();
+
+        verify(retentionDao).archive(Arrays.asList(4L, 7L));
+        verify(retentionDao).archive(Collections.singletonList(9L));
+        verify(retentionDao, never()).delete(anyList());
+        assertThat(meterRegistry.counter("dispatch.retention.moved", "mode", "ARCHIVE").count(), equalTo(30.0));
+        assertThat(job.getBacklog(), equalTo(0L));
+        assertThat(job.getRowsPerSecond() > 0, equalTo(true));
+    }
+
+    @Test
+    public void testMaxAge() {
+        createJob(RetentionMode.DELETE, 2);
+        when(retentionDao.countCompleted(any())).thenReturn(1L);
+        when(retentionDao.findCompleted(anyLong(), any(), eq(2))).thenReturn(Collections.singletonList(4L));
+
+        long now = System.currentTimeMillis();
+        job.run();
+
+        ArgumentCaptor<Date> before = ArgumentCaptor.forClass(Date.class);
+        verify(retentionDao).countCompleted(before.capture());
+        long age = now - before.getValue().getTime();
+        assertThat(age >= TimeUnit.DAYS.toMillis(30) - 1000 && age <= TimeUnit.DAYS.toMillis(30), equalTo(true));
+        verify(retentionDao).delete(Collections.singletonList(4L));
+    }
+
+    @Test
+    public void testNothingToMove() {
+        createJob(RetentionMode.ARCHIVE, 2);
+        when(retentionDao.countCompleted(any())).thenReturn(0L);
+
+        job.run();
+
+        verify(retentionDao, never()).findCompleted(anyLong(), any(), eq(2));
+    }
+
+    @Test
+    public void testFailedChunkStopsTheRun() {
+        createJob(RetentionMode.ARCHIVE, 2);
+        when(retentionDao.countCompleted(any())).thenReturn(4L);
+        when(retentionDao.findCompleted(eq(0L), any(), eq(2))).thenReturn(Arrays.asList(4L, 7L));
+        when(retentionDao.archive(anyList())).thenThrow(new IllegalStateException("db down"));
+
+        job.run();
+
+        verify(retentionDao, never()).findCompleted(eq(7L), any(), eq(2));
+        assertThat(job.getBacklog(), equalTo(4L));
+    }
+
+    @Test
+    public void testRunStopsWhenAnotherInstanceHoldsTheLock() {
+        createJob(RetentionMode.ARCHIVE, 2);
+        when(retentionDao.countCompleted(any())).thenReturn(4L);
+        when(retentionDao.findCompleted(eq(0L), any(), eq(2))).thenReturn(Arrays.asList(4L, 7L));
+        when(retentionDao.archive(anyList())).thenReturn(-1);
+
+        job.run();
+
+        verify(retentionDao, never()).findCompleted(eq(7L), any(), eq(2));
+        assertThat(meterRegistry.counter("dispatch.retention.moved", "mode", "ARCHIVE").count(), equalTo(0.0));
+        assertThat(job.getBacklog(), equalTo(4L));
+    }
+
+    @Test
+    public void testProcessedMessagesArePurgedInChunks() {
+        createJob(RetentionMode.ARCHIVE, 2);
+        when(retentionDao.countCompleted(any())).thenReturn(0L);
+        when(retentionDao.purgeProcessed(any(), eq(2))).thenReturn(2, 2, 1);
+
+        long now = System.currentTimeMillis();
+        job.run();
+
+        ArgumentCaptor<Date> before = ArgumentCaptor.forClass(Date.class);
+        verify(retentionDao, times(3)).purgeProcessed(before.capture(), eq(2));
+        long age = now - before.getValue().getTime();
+        assertThat(age >= TimeUnit.DAYS.toMillis(7) - 1000 && age <= TimeUnit.DAYS.toMillis(7), equalTo(true));
+        assertThat(meterRegistry.counter("dispatch.retention.purged", "table", "ProcessedMessage").count(), equalTo(5.0));
+    }
+
+    @Test
+    public void testPause() {
+        createJob(RetentionMode.ARCHIVE, 2);
+
+        assertThat(job.pause(500, TimeUnit.MILLISECONDS.toNanos(100)), equalTo(150L));
+        assertThat(job.pause(500, TimeUnit.MILLISECONDS.toNanos(300)), equalTo(0L));
+    }
+
+    private void createJob(RetentionMode mode, int chunkSize) {
+        job = new RetentionJob();
+        setField(job, "retentionDao", retentionDao);
+        setField(job, "meterRegistry", meterRegistry);
+        setField(job, "enabled", false);
+        setField(job, "mode", mode);
+        setField(job, "maxAgeDays", 30);
+        setField(job, "interval", 1000L);
+        setField(job, "chunkSize", chunkSize);
+        setField(job, "maxRowsPerSecond", 2000);
+        setField(job, "processedMessageTtlDays", 7);
+        job.init();
+    }
+}
@@ -0,0 +1,154 @@
+package com.acme.ride.dispatch.spring;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.drools.persistence.api.TransactionManager;
+import org.jbpm.runtime.manager.impl.RuntimeEngineImpl;
+import org.jbpm.runtime.manager.impl.SimpleRuntimeEnvironment;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.kie.api.runtime.Environment;
+import org.kie.api.runtime.EnvironmentName;
+import org.kie.api.runtime.KieSession;
+import org.kie.api.runtime.manager.RuntimeEngine;
+import org.kie.internal.runtime.manager.InternalRegisterableItemsFactory;
+import org.kie.internal.runtime.manager.RuntimeManagerRegistry;
+import org.kie.internal.runtime.manager.SessionFactory;
+import org.kie.internal.runtime.manager.TaskServiceFactory;
+import org.kie.internal.runtime.manager.context.EmptyContext;
+import org.drools.core.impl.EnvironmentImpl;
+
+public class PooledPerRequestRuntimeManagerTest {
+
+    private PooledPerRequestRuntimeManager manager;
+
+    private SessionFactory sessionFactory;
+
+    private TransactionManager transactionManager;
+
+    private MeterRegistry meterRegistry;
+
+    private List<KieSession> sessions = new ArrayList<>();
+
+    @Before
+    public void init() {
+        SimpleRuntimeEnvironment environment = mock(SimpleRuntimeEnvironment.class);
+        when(environment.getEnvironmentTemplate()).thenReturn(new EnvironmentImpl());
+        when(environment.getEnvironment()).thenReturn(new EnvironmentImpl());
+        when(environment.getRegisterableItemsFactory()).thenReturn(mock(InternalRegisterableItemsFactory.class));
+        transactionManager = mock(TransactionManager.class);
+        when(transactionManager.getStatus()).thenReturn(TransactionManager.STATUS_NO_TRANSACTION);
+        sessionFactory = mock(SessionFactory.class);
+        when(sessionFactory.newKieSession()).thenAnswer(invocation -> newSession());
+        meterRegistry = new SimpleMeterRegistry();
+        manager = new PooledPerRequestRuntimeManager(environment, sessionFactory, mock(TaskServiceFactory.class), "deployment", 2, meterRegistry);
+        manager.init();
+    }
+
+    @After
+    public void cleanup() {
+        RuntimeManagerRegistry.get().remove("deployment");
+    }
+
+    @Test
+    public void testPoolIsPreWarmed() {
+        verify(sessionFactory, times(2)).newKieSession();
+        assertThat(manager.getIdleCount(), equalTo(2));
+        assertThat(meterRegistry.get("dispatch.jbpm.session.pool.size").gauge().value(), equalTo(2.0));
+    }
+
+    @Test
+    public void testEngineIsReturnedToPool() {
+        RuntimeEngine engine = manager.getRuntimeEngine(EmptyContext.get());
+        assertThat(manager.getIdleCount(), equalTo(1));
+        assertThat(manager.getRuntimeEngine(EmptyContext.get()), sameInstance(engine));
+
+        manager.disposeRuntimeEngine(engine);
+
+        assertThat(manager.getIdleCount(), equalTo(2));
+        verify(engine.getKieSession(), never()).destroy();
+        verify(engine.getKieSession(), never()).dispose();
+        verify(sessionFactory, times(2)).newKieSession();
+        assertThat(hits(), equalTo(1.0));
+        assertThat(misses(), equalTo(0.0));
+    }
+
+    @Test
+    public void testEngineIsReleasedAfterTransaction() {
+        when(transactionManager.getStatus()).thenReturn(TransactionManager.STATUS_ACTIVE);
+        RuntimeEngine engine = manager.getRuntimeEngine(EmptyContext.get());
+
+        manager.disposeRuntimeEngine(engine);
+        assertThat(manager.getIdleCount(), equalTo(1));
+
+        when(transactionManager.getStatus()).thenReturn(TransactionManager.STATUS_COMMITTED);
+        ((RuntimeEngineImpl) engine).setAfterCompletion(true);
+        manager.disposeRuntimeEngine(engine);
+        assertThat(manager.getIdleCount(), equalTo(2));
+    }
+
+    @Test
+    public void testNewSessionWhenPoolIsExhausted() {
+        RuntimeEngine first = lease();
+        RuntimeEngine second = lease();
+        RuntimeEngine third = lease();
+
+        assertThat(third, not(sameInstance(first)));
+        assertThat(third, not(sameInstance(second)));
+        verify(sessionFactory, times(3)).newKieSession();
+        assertThat(hits(), equalTo(2.0));
+        assertThat(misses(), equalTo(1.0));
+
+        KieSession session = third.getKieSession();
+        manager.disposeRuntimeEngine(third);
+
+        verify(session).destroy();
+        assertThat(manager.getIdleCount(), equalTo(0));
+    }
+
+    @Test
+    public void testCloseDestroysPooledSessions() {
+        manager.close();
+
+        sessions.forEach(session -> verify(session).destroy());
+    }
+
+    private RuntimeEngine lease() {
+        RuntimeEngine engine = manager.getRuntimeEngine(EmptyContext.get());
+        // leased engines are bound to the thread until disposed; unbind to lease the next one
+        manager.softDispose(engine);
+        return engine;
+    }
+
+    private double hits() {
+        return meterRegistry.get("dispatch.jbpm.session.pool.requests").tag("result", "hit").counter().count();
+    }
+
+    private double misses() {
+        return meterRegistry.get("dispatch.jbpm.session.pool.requests").tag("result", "miss").counter().count();
+    }
+
+    private KieSession newSession() {
+        KieSession session = mock(KieSession.class);
+        Environment environment = new EnvironmentImpl();
+        environment.set(EnvironmentName.TRANSACTION_MANAGER, transactionManager);
+        when(session.getEnvironment()).thenReturn(environment);
+        when(session.getIdentifier()).thenReturn((long) sessions.size() + 1);
+        sessions.add(session);
+        return session;
+    }
+}
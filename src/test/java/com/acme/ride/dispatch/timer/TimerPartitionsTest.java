@@ -0,0 +1,90 @@
+package com.acme.ride.dispatch.timer;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TimerPartitionsTest {
+
+    private TimerPartitions timerPartitions;
+
+    private TimerPartitions.Listener listener;
+
+    @Before
+    public void init() {
+        timerPartitions = new TimerPartitions();
+        listener = mock(TimerPartitions.Listener.class);
+        timerPartitions.addListener(listener);
+    }
+
+    @Test
+    public void testPartitionNumbersOfAllTopics() {
+        timerPartitions.onPartitionsAssigned(null, Arrays.asList(new TopicPartition("ride-event", 1), new TopicPartition("driver-assigned-event", 1),
+                new TopicPartition("ride-event", 2)));
+
+        verify(listener).partitionsAssigned(new HashSet<>(Arrays.asList(1, 2)));
+        assertThat(timerPartitions.owned(), equalTo(new HashSet<>(Arrays.asList(1, 2))));
+
+        timerPartitions.onPartitionsRevokedBeforeCommit(null, Collections.singletonList(new TopicPartition("ride-event", 1)));
+
+        // partition 1 of driver-assigned-event is still assigned
+        verify(listener, never()).partitionsRevoked(any());
+
+        timerPartitions.onPartitionsRevokedBeforeCommit(null, Collections.singletonList(new TopicPartition("driver-assigned-event", 1)));
+
+        verify(listener).partitionsRevoked(Collections.singleton(1));
+        assertThat(timerPartitions.owned(), equalTo(Collections.singleton(2)));
+    }
+
+    @Test
+    public void testListenerAddedLaterIsToldOwnedPartitions() {
+        timerPartitions.onPartitionsAssigned(null, Collections.singletonList(new TopicPartition("ride-event", 3)));
+        TimerPartitions.Listener other = mock(TimerPartitions.Listener.class);
+
+        timerPartitions.addListener(other);
+
+        verify(other).partitionsAssigned(Collections.singleton(3));
+    }
+
+    @Test
+    public void testCoPartitionedTopics() {
+        Consumer<?, ?> consumer = mock(Consumer.class);
+        when(consumer.partitionsFor("ride-event")).thenReturn(partitions("ride-event", 3));
+        when(consumer.partitionsFor("driver-assigned-event")).thenReturn(partitions("driver-assigned-event", 3));
+
+        TimerPartitions.checkCoPartitioned(consumer, Arrays.asList("ride-event", "driver-assigned-event"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testTopicsWithDifferentPartitionCounts() {
+        Consumer<?, ?> consumer = mock(Consumer.class);
+        when(consumer.partitionsFor("ride-event")).thenReturn(partitions("ride-event", 3));
+        when(consumer.partitionsFor("driver-assigned-event")).thenReturn(partitions("driver-assigned-event", 6));
+
+        TimerPartitions.checkCoPartitioned(consumer, Arrays.asList("ride-event", "driver-assigned-event"));
+    }
+
+    private static List<PartitionInfo> partitions(String topic, int count) {
+        List<PartitionInfo> partitions = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            partitions.add(new PartitionInfo(topic, i, null, null, null));
+        }
+        return partitions;
+    }
+}
@@ -0,0 +1,269 @@
+package com.acme.ride.dispatch.timer;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import com.acme.ride.dispatch.dao.DispatchTimerDao;
+import com.acme.ride.dispatch.entity.DispatchTimer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.drools.core.time.Job;
+import org.drools.core.time.JobContext;
+import org.drools.core.time.JobHandle;
+import org.drools.core.time.Trigger;
+import org.drools.core.time.impl.DefaultTimerJobInstance;
+import org.drools.core.time.impl.PointInTimeTrigger;
+import org.drools.core.time.impl.TimerJobFactoryManager;
+import org.jbpm.process.core.timer.impl.GlobalTimerService;
+import org.jbpm.process.instance.timer.TimerInstance;
+import org.jbpm.process.instance.timer.TimerManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.kie.internal.runtime.manager.InternalRuntimeManager;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.util.SerializationUtils;
+
+public class TimingWheelSchedulerServiceTest {
+
+    private static final AtomicInteger executions = new AtomicInteger();
+
+    @Mock
+    private DispatchTimerDao timerDao;
+
+    @Mock
+    private GlobalTimerService globalTimerService;
+
+    @Mock
+    private TimerJobFactoryManager factoryManager;
+
+    @Mock
+    private InternalRuntimeManager runtimeManager;
+
+    @Captor
+    private ArgumentCaptor<List<DispatchTimer>> timersCaptor;
+
+    @Captor
+    private ArgumentCaptor<Collection<String>> deletedCaptor;
+
+    private TimerPartitions timerPartitions;
+
+    private TimingWheelSchedulerService schedulerService;
+
+    @Before
+    public void init() {
+        initMocks(this);
+        executions.set(0);
+        when(globalTimerService.getTimerJobFactoryManager()).thenReturn(factoryManager);
+        when(globalTimerService.getRuntimeManager()).thenReturn(runtimeManager);
+        when(runtimeManager.getIdentifier()).thenReturn("dispatch-service");
+        when(factoryManager.createTimerJobInstance(any(), any(), any(), any(), any())).thenAnswer(invocation ->
+                new DefaultTimerJobInstance(invocation.getArgument(0), invocation.getArgument(1), invocation.getArgument(2),
+                        invocation.getArgument(3), invocation.getArgument(4)));
+        timerPartitions = new TimerPartitions();
+        schedulerService = new TimingWheelSchedulerService(timerDao, timerPartitions, 10, 64, 1, 60000, 100, new SimpleMeterRegistry());
+        schedulerService.initScheduler(globalTimerService);
+        schedulerService.start();
+    }
+
+    @After
+    public void cleanup() {
+        RidePartition.clear();
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+        schedulerService.shutdown();
+    }
+
+    @Test
+    public void testCancelledTimerIsNeverWritten() {
+        RidePartition.set(2);
+        JobHandle handle = schedule(1, 60000);
+
+        assertThat(handle, instanceOf(TimingWheelJobHandle.class));
+        assertThat(((TimingWheelJobHandle) handle).getJobName(), equalTo("10-1-1"));
+        assertThat(((TimingWheelJobHandle) handle).getPartition(), equalTo(2));
+        assertThat(schedulerService.getActiveCount(), equalTo(1));
+        assertThat(schedulerService.getPendingCount(), equalTo(1));
+
+        assertThat(schedulerService.removeJob(handle), equalTo(true));
+        schedulerService.flush();
+
+        assertThat(schedulerService.getActiveCount(), equalTo(0));
+        verify(timerDao, never()).write(anyList(), anyCollection(), anyInt());
+        verify(factoryManager).removeTimerJobInstance(any());
+    }
+
+    @Test
+    public void testTimersAreWrittenInBatch() {
+        RidePartition.set(2);
+        JobHandle first = schedule(1, 60000);
+        schedule(2, 60000);
+
+        schedulerService.flush();
+
+        verify(timerDao).write(timersCaptor.capture(), deletedCaptor.capture(), eq(100));
+        assertThat(timersCaptor.getValue().size(), equalTo(2));
+        DispatchTimer timer = timersCaptor.getValue().stream().filter(t -> t.getName().equals("10-1-1")).findFirst().get();
+        assertThat(timer.getDeploymentId(), equalTo("dispatch-service"));
+        assertThat(timer.getPartitionNo(), equalTo(2));
+        assertThat(deletedCaptor.getValue().isEmpty(), equalTo(true));
+        assertThat(schedulerService.getPendingCount(), equalTo(0));
+
+        schedulerService.removeJob(first);
+        schedulerService.flush();
+
+        verify(timerDao).write(eq(Collections.emptyList()), eq(Collections.singletonList("10-1-1")), eq(100));
+    }
+
+    @Test
+    public void testSameTimerIsScheduledOnce() {
+        JobHandle handle = schedule(1, 60000);
+
+        assertThat(schedule(1, 60000), sameInstance(handle));
+        assertThat(schedulerService.getActiveCount(), equalTo(1));
+    }
+
+    @Test
+    public void testTimerWithoutNextFireTimeIsNotScheduled() {
+        Trigger trigger = new PointInTimeTrigger(System.currentTimeMillis(), null, null);
+        trigger.nextFireTime();
+
+        assertThat(schedulerService.scheduleJob(new CountingJob(), jobContext(1, trigger), trigger), nullValue());
+    }
+
+    @Test
+    public void testTimerFires() throws InterruptedException {
+        schedule(1, 0);
+
+        // the fired timer leaves the active timers before its pending write is discarded
+        waitFor(() -> schedulerService.getActiveCount() == 0 && schedulerService.getPendingCount() == 0);
+
+        assertThat(executions.get(), equalTo(1));
+    }
+
+    @Test
+    public void testDeleteIsBufferedAfterCommit() {
+        JobHandle handle = schedule(1, 60000);
+        schedulerService.flush();
+        TransactionSynchronizationManager.initSynchronization();
+
+        schedulerService.removeJob(handle);
+
+        assertThat(schedulerService.getActiveCount(), equalTo(0));
+        assertThat(schedulerService.getPendingCount(), equalTo(0));
+        TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+        assertThat(schedulerService.getPendingCount(), equalTo(1));
+    }
+
+    @Test
+    public void testFailedFlushIsRetried() {
+        schedule(1, 60000);
+        doThrow(new IllegalStateException("db down")).when(timerDao).write(anyList(), anyCollection(), anyInt());
+
+        schedulerService.flush();
+
+        assertThat(schedulerService.getPendingCount(), equalTo(1));
+    }
+
+    @Test
+    public void testTimersOfAssignedPartitionsAreLoaded() {
+        Trigger trigger = new PointInTimeTrigger(System.currentTimeMillis() + 60000, null, null);
+        TimingWheelJobHandle handle = new TimingWheelJobHandle(7, "10-1-1", 3, true);
+        DefaultTimerJobInstance stored = new DefaultTimerJobInstance(new CountingJob(), jobContext(1, trigger), trigger, handle, null);
+        handle.setTimerJobInstance(stored);
+        DispatchTimer timer = new DispatchTimer("10-1-1", "dispatch-service", 3, trigger.hasNextFireTime(), SerializationUtils.serialize(stored));
+        when(timerDao.findByPartition("dispatch-service", 3)).thenReturn(Collections.singletonList(timer));
+
+        schedulerService.partitionsAssigned(Collections.singleton(3));
+
+        assertThat(schedulerService.getActiveCount(), equalTo(1));
+        assertThat(schedulerService.getPendingCount(), equalTo(0));
+        verify(factoryManager).addTimerJobInstance(any());
+    }
+
+    @Test
+    public void testPartitionZeroOwnsTimersWithoutPartition() {
+        schedulerService.partitionsAssigned(Collections.singleton(0));
+
+        verify(timerDao).findByPartition("dispatch-service", 0);
+        verify(timerDao).findByPartition("dispatch-service", RidePartition.NONE);
+    }
+
+    @Test
+    public void testTimersOfRevokedPartitionsAreReleased() {
+        RidePartition.set(2);
+        schedule(1, 60000);
+        RidePartition.set(4);
+        schedule(2, 60000);
+
+        schedulerService.partitionsRevoked(Collections.singleton(2));
+
+        assertThat(schedulerService.getActiveCount(), equalTo(1));
+        verify(timerDao).write(timersCaptor.capture(), anyCollection(), anyInt());
+        assertThat(timersCaptor.getValue().size(), equalTo(2));
+    }
+
+    @Test
+    public void testJobName() {
+        Trigger trigger = new PointInTimeTrigger(0, null, null);
+
+        assertThat(TimingWheelSchedulerService.jobName(jobContext(5, trigger)), equalTo("10-1-5"));
+        assertThat(TimingWheelSchedulerService.jobName(new TimerManager.StartProcessJobContext(timer(5), trigger, "proc", null, null)),
+                equalTo("StartProcess-proc-5"));
+    }
+
+    private JobHandle schedule(long timerId, long delay) {
+        Trigger trigger = new PointInTimeTrigger(System.currentTimeMillis() + delay, null, null);
+        return schedulerService.scheduleJob(new CountingJob(), jobContext(timerId, trigger), trigger);
+    }
+
+    private JobContext jobContext(long timerId, Trigger trigger) {
+        return new TimerManager.ProcessJobContext(timer(timerId), trigger, 1L, null);
+    }
+
+    private TimerInstance timer(long timerId) {
+        TimerInstance timer = new TimerInstance();
+        timer.setId(timerId);
+        timer.setSessionId(10);
+        return timer;
+    }
+
+    private void waitFor(BooleanSupplier condition) throws InterruptedException {
+        for (int i = 0; i < 500 && !condition.getAsBoolean(); i++) {
+            Thread.sleep(10);
+        }
+        assertThat(condition.getAsBoolean(), equalTo(true));
+    }
+
+    static class CountingJob implements Job, Serializable {
+
+        @Override
+        public void execute(JobContext ctx) {
+            executions.incrementAndGet();
+        }
+    }
+}
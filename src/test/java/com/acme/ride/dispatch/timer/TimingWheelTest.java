@@ -0,0 +1,112 @@
+package com.acme.ride.dispatch.timer;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class TimingWheelTest {
+
+    private TimingWheel<String> wheel;
+
+    @Before
+    public void init() {
+        wheel = new TimingWheel<>(100, 8, 10000);
+    }
+
+    @Test
+    public void testTimeoutExpiresAtDeadline() {
+        wheel.schedule("a", 10350);
+
+        assertThat(advance(10299), equalTo(Collections.emptyList()));
+        assertThat(advance(10400), equalTo(Arrays.asList("a")));
+        assertThat(wheel.size(), equalTo(0));
+        assertThat(wheel.levels(), equalTo(1));
+    }
+
+    @Test
+    public void testDeadlineInThePastIsDueImmediately() {
+        wheel.schedule("a", 9000);
+
+        assertThat(advance(10000), equalTo(Arrays.asList("a")));
+    }
+
+    @Test
+    public void testTimeoutsOnHigherLevels() {
+        // one level covers 800 ms, two levels 6.4 s, three levels 51.2 s
+        wheel.schedule("a", 11000);
+        wheel.schedule("b", 15000);
+        wheel.schedule("c", 40000);
+
+        assertThat(wheel.levels(), equalTo(3));
+        List<String> expired = new ArrayList<>();
+        for (long now = 10000; now <= 41000; now += 100) {
+            for (String task : wheel.advance(now)) {
+                expired.add(task);
+                assertThat(task + " expired at " + now, now >= deadline(task) && now < deadline(task) + 200, equalTo(true));
+            }
+        }
+        assertThat(expired, equalTo(Arrays.asList("a", "b", "c")));
+        assertThat(wheel.size(), equalTo(0));
+    }
+
+    @Test
+    public void testAdvanceOverManyTicks() {
+        wheel.schedule("a", 11000);
+        wheel.schedule("b", 15000);
+
+        assertThat(advance(14000), equalTo(Arrays.asList("a")));
+        assertThat(advance(20000), equalTo(Arrays.asList("b")));
+    }
+
+    @Test
+    public void testCancel() {
+        TimingWheel.Timeout<String> a = wheel.schedule("a", 10500);
+        TimingWheel.Timeout<String> b = wheel.schedule("b", 10500);
+        TimingWheel.Timeout<String> c = wheel.schedule("c", 10500);
+
+        assertThat(wheel.cancel(b), equalTo(true));
+        assertThat(wheel.cancel(b), equalTo(false));
+        assertThat(wheel.size(), equalTo(2));
+        assertThat(advance(10600), equalTo(Arrays.asList("a", "c")));
+        assertThat(wheel.cancel(a), equalTo(false));
+        assertThat(wheel.cancel(c), equalTo(false));
+        assertThat(wheel.cancel(null), equalTo(false));
+    }
+
+    @Test
+    public void testIdleWheelMovesClock() {
+        assertThat(advance(1000000), equalTo(Collections.emptyList()));
+        wheel.schedule("a", 1000100);
+
+        assertThat(advance(1000200), equalTo(Arrays.asList("a")));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidWheel() {
+        new TimingWheel<String>(0, 8, 0);
+    }
+
+    private List<String> advance(long now) {
+        List<String> expired = new ArrayList<>(wheel.advance(now));
+        Collections.sort(expired);
+        return expired;
+    }
+
+    private long deadline(String task) {
+        switch (task) {
+            case "a":
+                return 11000;
+            case "b":
+                return 15000;
+            default:
+                return 40000;
+        }
+    }
+}
@@ -1,17 +1,23 @@
 package com.acme.ride.dispatch.wih;
 
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyMap;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.mockito.MockitoAnnotations.initMocks;
 import static org.springframework.test.util.ReflectionTestUtils.setField;
 
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
 
+import com.acme.ride.dispatch.dao.OutboxMessageDao;
 import com.acme.ride.dispatch.dao.RideDao;
+import com.acme.ride.dispatch.entity.OutboxMessage;
 import com.acme.ride.dispatch.entity.Ride;
 import com.acme.ride.dispatch.message.model.Message;
 import com.fasterxml.jackson.annotation.JsonAutoDetect;
@@ -19,6 +25,8 @@ import org.junit.Before;
 import org.junit.Test;
 import org.kie.api.runtime.process.WorkItem;
 import org.kie.api.runtime.process.WorkItemManager;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
 import org.mockito.Mock;
 import org.springframework.context.ApplicationContext;
 import org.springframework.core.env.Environment;
@@ -39,12 +47,18 @@ public class MessageSenderWorkItemHandlerTest {
     @Mock
     private RideDao rideDao;
 
+    @Mock
+    private OutboxMessageDao outboxMessageDao;
+
     @Mock
     private WorkItem workItem;
 
     @Mock
     private WorkItemManager workItemManager;
 
+    @Captor
+    private ArgumentCaptor<OutboxMessage> outboxMessageCaptor;
+
     private MessageSenderWorkItemHandler wih;
 
     @Before
@@ -54,6 +68,7 @@ public class MessageSenderWorkItemHandlerTest {
         setField(wih, null, kafkaTemplate, KafkaTemplate.class);
         setField(wih, null, applicationContext, ApplicationContext.class);
         setField(wih, null, rideDao, RideDao.class);
+        setField(wih, null, outboxMessageDao, OutboxMessageDao.class);
         when(applicationContext.getEnvironment()).thenReturn(environment);
     }
 
@@ -81,6 +96,37 @@ public class MessageSenderWorkItemHandlerTest {
         verify(kafkaTemplate).send(eq("topic.destination.test"), eq("testRideId"), any(Message.class));
     }
 
+    @Test
+    public void testExecuteWorkItemWithOutbox() {
+        Map<String, Object> parameters = new HashMap<>();
+        parameters.put("MessageType", "testMessageType");
+        parameters.put("Destination", "test.destination");
+        parameters.put("traceId", "testTraceID");
+        parameters.put("rideId", "testRideId");
+        when(workItem.getParameters()).thenReturn(parameters);
+        when(workItem.getId()).thenReturn(1L);
+
+        when(environment.getProperty("test.destination")).thenReturn("topic.destination.test");
+
+        Ride ride = new Ride();
+        when(rideDao.findByRideId("testRideId")).thenReturn(ride);
+
+        wih.addPayloadBuilder("testMessageType", TestMessageEvent::build);
+        setField(wih, "outboxEnabled", true);
+
+        wih.executeWorkItem(workItem, workItemManager);
+        verify(workItemManager).completeWorkItem(eq(1L), anyMap());
+        verify(kafkaTemplate, never()).send(any(String.class), any(String.class), any(Message.class));
+        verify(outboxMessageDao).create(outboxMessageCaptor.capture());
+        OutboxMessage outboxMessage = outboxMessageCaptor.getValue();
+        assertThat(outboxMessage.getDestination(), equalTo("topic.destination.test"));
+        assertThat(outboxMessage.getMessageKey(), equalTo("testRideId"));
+        assertThat(outboxMessage.getMessageType(), equalTo("testMessageType"));
+        String payload = new String(outboxMessage.getPayload(), StandardCharsets.UTF_8);
+        assertThat(payload.contains("\"messageType\":\"testMessageType\""), equalTo(true));
+        assertThat(payload.contains("\"traceId\":\"testTraceID\""), equalTo(true));
+    }
+
     @JsonAutoDetect(fieldVisibility = JsonAutoDetect.Visibility.ANY)
     public static class TestMessageEvent {
 
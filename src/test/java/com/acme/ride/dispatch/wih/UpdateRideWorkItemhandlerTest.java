@@ -0,0 +1,98 @@
+package com.acme.ride.dispatch.wih;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+import static org.springframework.test.util.ReflectionTestUtils.setField;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.acme.ride.dispatch.dao.RideDao;
+import com.acme.ride.dispatch.dao.RideStatusWriter;
+import com.acme.ride.dispatch.entity.Ride;
+import com.acme.ride.dispatch.query.RideProjection;
+import com.acme.ride.dispatch.registry.ActiveRideRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import org.kie.api.runtime.process.WorkItem;
+import org.kie.api.runtime.process.WorkItemManager;
+import org.mockito.Mock;
+
+public class UpdateRideWorkItemhandlerTest {
+
+    @Mock
+    private RideDao rideDao;
+
+    @Mock
+    private RideStatusWriter rideStatusWriter;
+
+    @Mock
+    private ActiveRideRegistry activeRideRegistry;
+
+    @Mock
+    private RideProjection rideProjection;
+
+    @Mock
+    private WorkItem workItem;
+
+    @Mock
+    private WorkItemManager workItemManager;
+
+    private UpdateRideWorkItemhandler wih;
+
+    @Before
+    public void setup() {
+        initMocks(this);
+        wih = new UpdateRideWorkItemhandler();
+        setField(wih, null, rideDao, RideDao.class);
+        setField(wih, null, rideStatusWriter, RideStatusWriter.class);
+        setField(wih, null, activeRideRegistry, ActiveRideRegistry.class);
+        setField(wih, null, rideProjection, RideProjection.class);
+        Map<String, Object> parameters = new HashMap<>();
+        parameters.put("rideId", "testRideId");
+        parameters.put("status", "started");
+        when(workItem.getParameters()).thenReturn(parameters);
+        when(workItem.getParameter("status")).thenReturn("started");
+        when(workItem.getId()).thenReturn(1L);
+    }
+
+    @Test
+    public void testExecuteWorkItem() {
+        Ride ride = new Ride();
+        when(rideDao.findByRideId("testRideId")).thenReturn(ride);
+
+        wih.executeWorkItem(workItem, workItemManager);
+
+        assertThat(ride.getStatus(), equalTo(Ride.Status.STARTED));
+        verify(rideStatusWriter, never()).updateStatus(anyString(), any());
+        verify(activeRideRegistry).updateStatus("testRideId", Ride.Status.STARTED);
+        verify(rideProjection).updateStatus("testRideId", Ride.Status.STARTED);
+        verify(workItemManager).completeWorkItem(eq(1L), anyMap());
+    }
+
+    @Test
+    public void testExecuteWorkItemWithWriteBehind() {
+        when(rideStatusWriter.isEnabled()).thenReturn(true);
+
+        wih.executeWorkItem(workItem, workItemManager);
+
+        verify(rideStatusWriter).updateStatus("testRideId", Ride.Status.STARTED);
+        verify(rideDao, never()).findByRideId(anyString());
+        verify(activeRideRegistry).updateStatus("testRideId", Ride.Status.STARTED);
+        verify(rideProjection).updateStatus("testRideId", Ride.Status.STARTED);
+        verify(workItemManager).completeWorkItem(eq(1L), anyMap());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testExecuteWorkItemRideNotFound() {
+        wih.executeWorkItem(workItem, workItemManager);
+    }
+}